@@ -5,6 +5,9 @@ import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
 import java.util.Queue;
 import java.util.Random;
 
@@ -17,8 +20,24 @@ import java.util.Random;
  * due to the ability to perform log_m N lookups and
  * linear in-order traversals of the data items.
  * 
+ * Nodes keep their keys, values and children in fixed-capacity
+ * arrays sized from the branching factor, so seeking within a node
+ * is a binary search and splitting a node is a pair of array copies.
+ * This keeps large branching factors (64-256) practical.
+ * 
+ * snapshot() freezes the current contents in constant time. Nodes
+ * are tagged with the epoch they were created in and the tree copies
+ * a node from an earlier epoch, along with the path down to it,
+ * before changing it, so a snapshot never sees later changes.
+ * 
+ * Internal nodes also keep the number of entries under each child,
+ * so the entries in a range can be counted and the entry at a given
+ * position found in a single descent. The same descent starts
+ * rangeIterator, which then walks the doubly linked leaves in either
+ * direction, so topK and limited range searches cost O(log n + k).
+ * 
  * @author sapan (sapan@cs.wisc.edu)
- *
+ * 
  * @param <K> key - expect a string that is the type of id for each item
  * @param <V> value - expect a user-defined type that stores all data for a food item
  */
@@ -31,6 +50,13 @@ public class BPTree<K extends Comparable<K>, V> implements BPTreeADT<K, V> {
 	// for internal nodes of the tree
 	private int branchingFactor;
 
+	// Current epoch, nodes created in an earlier epoch may be
+	// shared with a snapshot and are copied before they are changed
+	private int epoch;
+
+	// True if this tree is a read-only snapshot
+	private final boolean frozen;
+
 	/**
 	 * Public constructor
 	 * 
@@ -43,17 +69,345 @@ public class BPTree<K extends Comparable<K>, V> implements BPTreeADT<K, V> {
 		}
 
 		this.branchingFactor = branchingFactor;
+		this.frozen = false;
 		root = new LeafNode();
 	}
 
 
+	/**
+	 * Snapshot constructor, shares the nodes of the source tree
+	 * 
+	 * @param source - tree to take a snapshot of
+	 */
+	private BPTree(BPTree<K, V> source) {
+		this.branchingFactor = source.branchingFactor;
+		this.epoch = source.epoch;
+		this.frozen = true;
+		root = source.root;
+	}
+
+
+	/**
+	 * Gets a read-only view of the tree as it is now, in constant time.
+	 * 
+	 * The snapshot shares all of its nodes with this tree. Taking it
+	 * starts a new epoch, and this tree then copies any node from an
+	 * earlier epoch before it changes it, so later inserts, removes and
+	 * updates never reach the snapshot. Searches on a snapshot descend
+	 * from its root instead of following the leaf links, because only
+	 * this tree keeps those links current.
+	 * 
+	 * Call this from the thread that changes the tree. The snapshot
+	 * can then be handed to another thread and searched there while
+	 * this tree keeps changing.
+	 * 
+	 * @return read-only tree, its insert, remove, update and bulkLoad
+	 *         throw UnsupportedOperationException
+	 */
+	public BPTree<K, V> snapshot() {
+		if (frozen) return this;
+
+		BPTree<K, V> snapshot = new BPTree<K, V>(this);
+		epoch++;
+		return snapshot;
+	}
+
+
+	/**
+	 * Throws if this tree is a snapshot
+	 */
+	private void checkWritable() {
+		if (frozen) {
+			throw new UnsupportedOperationException("Snapshots are read-only");
+		}
+	}
+
+
 	/*
 	 * (non-Javadoc)
 	 * @see BPTreeADT#insert(java.lang.Object, java.lang.Object)
 	 */
 	@Override
 	public void insert(K key, V value) {
+		checkWritable();
+
+		// a root shared with a snapshot is copied first, see snapshot()
+		if (root.version != epoch) {
+			root = root.copy();
+		}
 		root.insert(key, value);
+
+		// a full root is split here so that nodes never need a reference to their parent
+		if (root.isOverflow()) {
+			Node sibling = root.split();
+			InternalNode newRoot = new InternalNode();
+			newRoot.keys[0] = sibling.getFirstLeafKey();
+			newRoot.children[0] = root;
+			newRoot.children[1] = sibling;
+			newRoot.size = 1;
+			newRoot.refreshCount(0);
+			newRoot.refreshCount(1);
+			root = newRoot;
+		}
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * @see BPTreeADT#remove(java.lang.Object, java.lang.Object)
+	 */
+	@Override
+	public boolean remove(K key, V value) {
+		checkWritable();
+		if (key == null) return false;
+
+		if (root.version != epoch) {
+			if (!root.contains(key, value)) return false;
+			root = root.copy();
+		}
+		if (!root.remove(key, value)) return false;
+
+		// a root left with a single child is replaced by that child
+		if (root instanceof BPTree.InternalNode && root.size == 0) {
+			root = ((InternalNode) root).children[0];
+		}
+		return true;
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * @see BPTreeADT#update(java.lang.Object, java.lang.Object, java.lang.Object)
+	 */
+	@Override
+	public boolean update(K oldKey, K newKey, V value) {
+		checkWritable();
+		if (newKey == null) return false;
+
+		if (!remove(oldKey, value)) return false;
+		insert(newKey, value);
+		return true;
+	}
+
+
+	/**
+	 * Replaces the contents of the tree with the given entries.
+	 * 
+	 * Instead of inserting the entries one at a time, the leaves are
+	 * packed left to right in a single pass and each internal level is
+	 * then built on top of the level below it, so loading is linear in
+	 * the number of entries once they are sorted.
+	 * 
+	 * @param sortedEntries entries in ascending key order, keys may repeat
+	 * @param fillFactor fraction of each node to fill, in (0, 1]; leaving
+	 *        room in the nodes makes later inserts split less often
+	 * @throws IllegalArgumentException if the entries are not sorted,
+	 *         contain a null key, or the fill factor is out of range
+	 */
+	public void bulkLoad(List<? extends Map.Entry<K, V>> sortedEntries, double fillFactor) {
+		checkWritable();
+		if (sortedEntries == null) {
+			throw new IllegalArgumentException("Entries may not be null");
+		}
+		if (!(fillFactor > 0 && fillFactor <= 1)) {
+			throw new IllegalArgumentException("Illegal fill factor: " + fillFactor);
+		}
+
+		int count = sortedEntries.size();
+		if (count == 0) {
+			root = new LeafNode();
+			return;
+		}
+
+		// spread the entries evenly over the fewest leaves that respect the fill factor
+		int leafFill = Math.max(1, (int) ((branchingFactor - 1) * fillFactor));
+		int numLeaves = (count + leafFill - 1) / leafFill;
+
+		List<Node> level = new ArrayList<Node>(numLeaves);
+		List<K> firstKeys = new ArrayList<K>(numLeaves);
+		Iterator<? extends Map.Entry<K, V>> entryIt = sortedEntries.iterator();
+		K previousKey = null;
+		LeafNode previousLeaf = null;
+		for (int leafIx = 0; leafIx < numLeaves; leafIx++) {
+			LeafNode leaf = new LeafNode();
+			leaf.size = count / numLeaves + (leafIx < count % numLeaves ? 1 : 0);
+			for (int i = 0; i < leaf.size; i++) {
+				Map.Entry<K, V> entry = entryIt.next();
+				K key = entry.getKey();
+				if (key == null) {
+					throw new IllegalArgumentException("Entries may not have a null key");
+				}
+				if (previousKey != null && previousKey.compareTo(key) > 0) {
+					throw new IllegalArgumentException("Entries are not sorted at key: " + key);
+				}
+				leaf.keys[i] = key;
+				leaf.values[i] = entry.getValue();
+				previousKey = key;
+			}
+			if (previousLeaf != null) {
+				previousLeaf.next = leaf;
+			}
+			leaf.previous = previousLeaf;
+			previousLeaf = leaf;
+			level.add(leaf);
+			firstKeys.add(leaf.keyAt(0));
+		}
+
+		// build internal levels until a single node is left, at least 3 children
+		// per node keeps every node but the root at 2 or more children
+		int fanout = Math.min(branchingFactor, Math.max(3, (int) (branchingFactor * fillFactor)));
+		while (level.size() > 1) {
+			int numChildren = level.size();
+			int numParents = (numChildren + fanout - 1) / fanout;
+			List<Node> parents = new ArrayList<Node>(numParents);
+			List<K> parentFirstKeys = new ArrayList<K>(numParents);
+			int childIx = 0;
+			for (int parentIx = 0; parentIx < numParents; parentIx++) {
+				InternalNode parent = new InternalNode();
+				int childCount = numChildren / numParents + (parentIx < numChildren % numParents ? 1 : 0);
+				for (int i = 0; i < childCount; i++) {
+					parent.children[i] = level.get(childIx + i);
+					parent.refreshCount(i);
+					if (i > 0) {
+						parent.keys[i - 1] = firstKeys.get(childIx + i);
+					}
+				}
+				parent.size = childCount - 1;
+				parents.add(parent);
+				parentFirstKeys.add(firstKeys.get(childIx));
+				childIx += childCount;
+			}
+			level = parents;
+			firstKeys = parentFirstKeys;
+		}
+		root = level.get(0);
+	}
+
+
+	/**
+	 * Gets the number of entries in the tree
+	 * 
+	 * @return int
+	 */
+	public int size() {
+		return root.count();
+	}
+
+
+	/**
+	 * Counts the entries whose keys fall between the two bounds
+	 * without visiting them. The counts kept in the internal nodes are
+	 * added up on the way down to each bound, so this is a pair of
+	 * descents no matter how many entries are in the range.
+	 * 
+	 * @param lo - lower bound, or null for no lower bound
+	 * @param loInclusive - true if keys equal to lo are counted
+	 * @param hi - upper bound, or null for no upper bound
+	 * @param hiInclusive - true if keys equal to hi are counted
+	 * @return number of entries in the range
+	 */
+	public int rangeCount(K lo, boolean loInclusive, K hi, boolean hiInclusive) {
+		if (lo != null && hi != null) {
+			int cmp = lo.compareTo(hi);
+			if (cmp > 0 || (cmp == 0 && !(loInclusive && hiInclusive))) {
+				return 0;
+			}
+		}
+
+		int upToHi = hi == null ? root.count() : countBelow(hi, hiInclusive);
+		int belowLo = lo == null ? 0 : countBelow(lo, !loInclusive);
+		return upToHi - belowLo;
+	}
+
+
+	/**
+	 * Gets the rank of a key, which is the number of entries with a smaller
+	 * key and so the position of the first entry with this key, if any
+	 * 
+	 * @param key - key to rank
+	 * @return rank of the key, 0 if key is null
+	 */
+	public int rank(K key) {
+		if (key == null) return 0;
+		return countBelow(key, false);
+	}
+
+
+	/**
+	 * Gets the value of the entry at the given position in key order
+	 * 
+	 * @param index - position of the entry, 0 is the entry with the smallest key
+	 * @return value
+	 * @throws IndexOutOfBoundsException if index is not in [0, size())
+	 */
+	public V select(int index) {
+		int[] slot = {index};
+		LeafNode leaf = selectLeaf(slot);
+		return leaf.valueAt(slot[0]);
+	}
+
+
+	/**
+	 * Gets the key of the entry at the given position in key order,
+	 * which makes percentiles a single descent
+	 * 
+	 * @param index - position of the entry, 0 is the entry with the smallest key
+	 * @return key
+	 * @throws IndexOutOfBoundsException if index is not in [0, size())
+	 */
+	public K selectKey(int index) {
+		int[] slot = {index};
+		LeafNode leaf = selectLeaf(slot);
+		return leaf.keyAt(slot[0]);
+	}
+
+
+	/**
+	 * Counts the entries with keys below the given key
+	 * 
+	 * @param key - key to compare against
+	 * @param inclusive - true to also count the entries equal to key
+	 * @return number of entries
+	 */
+	private int countBelow(K key, boolean inclusive) {
+		int count = 0;
+		Node node = root;
+		while (node instanceof BPTree.InternalNode) {
+			InternalNode internal = (InternalNode) node;
+			int index = inclusive ? internal.upperBound(key) : internal.lowerBound(key);
+			for (int i = 0; i < index; i++) {
+				count += internal.counts[i];
+			}
+			node = internal.children[index];
+		}
+		return count + (inclusive ? node.upperBound(key) : node.lowerBound(key));
+	}
+
+
+	/**
+	 * Finds the leaf holding the entry at the given position in key order
+	 * 
+	 * @param slot - one element array holding the position of the entry,
+	 *        on return it holds the slot of the entry in the leaf
+	 * @return leaf holding the entry
+	 */
+	private LeafNode selectLeaf(int[] slot) {
+		int count = root.count();
+		if (slot[0] < 0 || slot[0] >= count) {
+			throw new IndexOutOfBoundsException("Index: " + slot[0] + ", Size: " + count);
+		}
+
+		Node node = root;
+		while (node instanceof BPTree.InternalNode) {
+			InternalNode internal = (InternalNode) node;
+			int child = 0;
+			while (slot[0] >= internal.counts[child]) {
+				slot[0] -= internal.counts[child];
+				child++;
+			}
+			node = internal.children[child];
+		}
+		return (LeafNode) node;
 	}
 
 
@@ -63,14 +417,147 @@ public class BPTree<K extends Comparable<K>, V> implements BPTreeADT<K, V> {
 	 */
 	@Override
 	public List<V> rangeSearch(K key, String comparator) {
-		if (!comparator.contentEquals(">=") && 
-				!comparator.contentEquals("==") && 
-				!comparator.contentEquals("<=") )
+		if (key == null || comparator == null) return new ArrayList<V>();
+
+		switch (comparator) {
+		case "<":
+			return rangeSearch(null, false, key, false);
+		case "<=":
+			return rangeSearch(null, false, key, true);
+		case "==":
+			return rangeSearch(key, true, key, true);
+		case ">=":
+			return rangeSearch(key, true, null, false);
+		case ">":
+			return rangeSearch(key, false, null, false);
+		default:
 			return new ArrayList<V>();
+		}
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * @see BPTreeADT#rangeSearch(java.lang.Object, boolean, java.lang.Object, boolean)
+	 */
+	@Override
+	public List<V> rangeSearch(K lo, boolean loInclusive, K hi, boolean hiInclusive) {
+		List<V> result = new ArrayList<V>();
+
+		// an empty range never needs to touch the tree
+		if (lo != null && hi != null) {
+			int cmp = lo.compareTo(hi);
+			if (cmp > 0 || (cmp == 0 && !(loInclusive && hiInclusive))) {
+				return result;
+			}
+		}
+
+		// a snapshot can't follow the leaf links, see snapshot()
+		if (frozen) {
+			root.collect(lo, loInclusive, hi, hiInclusive, result);
+			return result;
+		}
+
+		// seek straight to the leaf holding the first key in range
+		LeafNode leaf = root.seek(lo, loInclusive);
+		int index = leaf.firstIndex(lo, loInclusive);
 
-		if (root == null) return new ArrayList<V>();
-		
-		return root.rangeSearch(key, comparator);
+		while (leaf != null) {
+			//take the rest of the leaf without comparing when its last key is still in range
+			if (leaf.size > 0 && isBelow(leaf.keyAt(leaf.size - 1), hi, hiInclusive)) {
+				for (int i = index; i < leaf.size; i++) {
+					result.add(leaf.valueAt(i));
+				}
+			}
+			else {
+				for (int i = index; i < leaf.size && isBelow(leaf.keyAt(i), hi, hiInclusive); i++) {
+					result.add(leaf.valueAt(i));
+				}
+				//the upper bound lies in this leaf so the scan is done
+				break;
+			}
+			leaf = leaf.next;
+			index = 0;
+		}
+		return result;
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * @see BPTreeADT#rangeSearch(java.lang.Object, boolean, java.lang.Object, boolean, int)
+	 */
+	@Override
+	public List<V> rangeSearch(K lo, boolean loInclusive, K hi, boolean hiInclusive, int limit) {
+		return take(rangeIterator(lo, loInclusive, hi, hiInclusive, true), limit);
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * @see BPTreeADT#topK(int, boolean)
+	 */
+	@Override
+	public List<V> topK(int k, boolean ascending) {
+		return take(rangeIterator(null, false, null, false, ascending), k);
+	}
+
+
+	/**
+	 * Gets an iterator over the values whose keys fall between the two
+	 * bounds, in ascending key order or in descending order when
+	 * ascending is false. The first entry is found by position with a
+	 * single descent, and the iterator then follows the leaf links, so
+	 * reading k values costs O(log n + k).
+	 * 
+	 * A snapshot can't follow the leaf links, see snapshot(), so its
+	 * iterator descends again each time it moves to another leaf.
+	 * The tree must not be changed while a live tree's iterator is used.
+	 * 
+	 * @param lo - lower bound, or null for no lower bound
+	 * @param loInclusive - true if keys equal to lo are included
+	 * @param hi - upper bound, or null for no upper bound
+	 * @param hiInclusive - true if keys equal to hi are included
+	 * @param ascending - false to start at the largest key in range
+	 * @return iterator over the values in range
+	 */
+	public Iterator<V> rangeIterator(K lo, boolean loInclusive, K hi, boolean hiInclusive, boolean ascending) {
+		// an empty range comes out as first >= end
+		int first = lo == null ? 0 : countBelow(lo, !loInclusive);
+		int end = hi == null ? root.count() : countBelow(hi, hiInclusive);
+		int count = Math.max(0, end - first);
+		return new Cursor(ascending ? first : end - 1, count, ascending);
+	}
+
+
+	/**
+	 * Reads at most limit values from an iterator
+	 * 
+	 * @param it - iterator to read
+	 * @param limit - most values to read
+	 * @return the values read
+	 */
+	private List<V> take(Iterator<V> it, int limit) {
+		List<V> result = new ArrayList<V>();
+		while (result.size() < limit && it.hasNext()) {
+			result.add(it.next());
+		}
+		return result;
+	}
+
+
+	/**
+	 * Checks a key against the upper bound of a range search
+	 * 
+	 * @param key - key to evaluate
+	 * @param hi - upper bound, or null for no upper bound
+	 * @param hiInclusive - true if key may equal hi
+	 * @return true if key is within the upper bound
+	 */
+	private boolean isBelow(K key, K hi, boolean hiInclusive) {
+		if (hi == null) return true;
+		int cmp = key.compareTo(hi);
+		return cmp < 0 || (cmp == 0 && hiInclusive);
 	}
 
 
@@ -94,8 +581,10 @@ public class BPTree<K extends Comparable<K>, V> implements BPTreeADT<K, V> {
 					sb.append(node.toString());
 					if (it.hasNext())
 						sb.append(", ");
-					if (node instanceof BPTree.InternalNode)
-						nextQueue.add(((InternalNode) node).children);
+					if (node instanceof BPTree.InternalNode) {
+						InternalNode internal = (InternalNode) node;
+						nextQueue.add(Arrays.asList(internal.children).subList(0, internal.size + 1));
+					}
 				}
 				sb.append('}');
 				if (!queue.isEmpty())
@@ -110,6 +599,95 @@ public class BPTree<K extends Comparable<K>, V> implements BPTreeADT<K, V> {
 	}
 
 
+	/**
+	 * This class iterates over a run of entries given by the position
+	 * of the first one, see rangeIterator.
+	 */
+	private class Cursor implements Iterator<V> {
+
+		// Leaf holding the current entry
+		LeafNode leaf;
+
+		// Slot of the current entry in leaf
+		int index;
+
+		// Position of the current entry in key order
+		int position;
+
+		// Number of entries left, including the current one
+		int remaining;
+
+		// True to move towards larger keys
+		final boolean ascending;
+
+		/**
+		 * Package constructor
+		 *  
+		 * @param position - position of the first entry
+		 * @param count - number of entries to iterate over
+		 * @param ascending - true to move towards larger keys
+		 */
+		Cursor(int position, int count, boolean ascending) {
+			this.position = position;
+			this.remaining = count;
+			this.ascending = ascending;
+			if (count > 0) {
+				int[] slot = {position};
+				leaf = selectLeaf(slot);
+				index = slot[0];
+			}
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see java.util.Iterator#hasNext()
+		 */
+		@Override
+		public boolean hasNext() {
+			return remaining > 0;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see java.util.Iterator#next()
+		 */
+		@Override
+		public V next() {
+			if (remaining == 0) {
+				throw new NoSuchElementException();
+			}
+			V value = leaf.valueAt(index);
+			remaining--;
+			if (remaining > 0) {
+				advance();
+			}
+			return value;
+		}
+
+		/**
+		 * Moves to the next entry, which is known to exist
+		 */
+		private void advance() {
+			int step = ascending ? 1 : -1;
+			position += step;
+			index += step;
+			if (index >= 0 && index < leaf.size) return;
+
+			if (frozen) {
+				int[] slot = {position};
+				leaf = selectLeaf(slot);
+				index = slot[0];
+			}
+			else {
+				//only an empty root can be an empty leaf, so the neighbour has entries
+				leaf = ascending ? leaf.next : leaf.previous;
+				index = ascending ? 0 : leaf.size - 1;
+			}
+		}
+
+	} // End of class Cursor
+
+
 	/**
 	 * This abstract class represents any type of node in the tree
 	 * This class is a super class of the LeafNode and InternalNode types.
@@ -118,14 +696,77 @@ public class BPTree<K extends Comparable<K>, V> implements BPTreeADT<K, V> {
 	 */
 	private abstract class Node {
 
-		// List of keys
-		List<K> keys;
+		// Array of keys, only the first size entries are in use
+		Object[] keys;
+
+		// Number of keys currently stored in the node
+		int size;
+
+		// Epoch the node was created in, see BPTree#snapshot()
+		final int version;
 
 		/**
 		 * Package constructor
+		 *  
+		 * @param capacity - number of key slots to allocate
 		 */
-		Node() {
-			keys = new ArrayList<K>();
+		Node(int capacity) {
+			keys = new Object[capacity];
+			size = 0;
+			version = epoch;
+		}
+
+		/**
+		 * Gets the key stored at the given slot
+		 *  
+		 * @param index - slot of the key
+		 * @return key
+		 */
+		@SuppressWarnings("unchecked")
+		K keyAt(int index) {
+			return (K) keys[index];
+		}
+
+		/**
+		 * Binary searches the keys of this node for the first
+		 * slot holding a key greater than or equal to the given key
+		 *  
+		 * @param key - key to evaluate
+		 * @return index of the first key >= key, or size if there is none
+		 */
+		int lowerBound(K key) {
+			int low = 0;
+			int high = size;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (keyAt(mid).compareTo(key) < 0) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+			return low;
+		}
+
+		/**
+		 * Binary searches the keys of this node for the first
+		 * slot holding a key strictly greater than the given key
+		 *  
+		 * @param key - key to evaluate
+		 * @return index of the first key > key, or size if there is none
+		 */
+		int upperBound(K key) {
+			int low = 0;
+			int high = size;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (keyAt(mid).compareTo(key) <= 0) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+			return low;
 		}
 
 		/**
@@ -139,32 +780,98 @@ public class BPTree<K extends Comparable<K>, V> implements BPTreeADT<K, V> {
 
 		/**
 		 * Gets the first leaf key of the tree
-		 * 
+		 *  
 		 * @return key
 		 */
 		abstract K getFirstLeafKey();
 
 		/**
 		 * Gets the new sibling created after splitting the node
-		 * 
+		 *  
 		 * @return Node
 		 */
 		abstract Node split();
 
-		/*
-		 * (non-Javadoc)
-		 * @see BPTree#rangeSearch(java.lang.Object, java.lang.String)
+		/**
+		 * Gets the leaf where a range search starting at the given key begins
+		 *  
+		 * @param key - lower bound of the search, or null to get the leftmost leaf
+		 * @param inclusive - true to seek the first key >= key, false for the first key > key
+		 * @return leaf holding that key, or the leaf before it when it starts the next leaf
 		 */
-		abstract List<V> rangeSearch(K key, String comparator);
+		abstract LeafNode seek(K key, boolean inclusive);
 
 		/**
-		 * 
+		 *  
 		 * @return boolean
 		 */
 		abstract boolean isOverflow();
 
+		/**
+		 * Checks if the node has fallen below its minimum occupancy
+		 *  
+		 * @return boolean
+		 */
+		abstract boolean isUnderflow();
+
+		/**
+		 * Checks if the node can give an entry to a sibling
+		 * without falling below its minimum occupancy
+		 *  
+		 * @return boolean
+		 */
+		abstract boolean canLend();
+
+		/**
+		 * Removes one entry with the given key and value from the subtree.
+		 * Children left underflowing are rebalanced, this node is
+		 * rebalanced by its parent.
+		 *  
+		 * @param key
+		 * @param value
+		 * @return true if an entry was removed
+		 */
+		abstract boolean remove(K key, V value);
+
+		/**
+		 * Checks if the subtree holds an entry with the given key and value
+		 *  
+		 * @param key
+		 * @param value
+		 * @return boolean
+		 */
+		abstract boolean contains(K key, V value);
+
+		/**
+		 * Gets a copy of the node in the current epoch that can be changed
+		 * without affecting a snapshot, the children are shared
+		 *  
+		 * @return Node
+		 */
+		abstract Node copy();
+
+		/**
+		 * Adds the values of the subtree that fall in the range to result,
+		 * in key order, without following leaf links
+		 *  
+		 * @param lo - lower bound, or null for no lower bound
+		 * @param loInclusive - true if keys equal to lo are included
+		 * @param hi - upper bound, or null for no upper bound
+		 * @param hiInclusive - true if keys equal to hi are included
+		 * @param result - list the values are added to
+		 * @return false once a key past the upper bound is found
+		 */
+		abstract boolean collect(K lo, boolean loInclusive, K hi, boolean hiInclusive, List<V> result);
+
+		/**
+		 * Gets the number of entries in the subtree
+		 *  
+		 * @return int
+		 */
+		abstract int count();
+
 		public String toString() {
-			return keys.toString();
+			return Arrays.asList(keys).subList(0, size).toString();
 		}
 
 	} // End of abstract class Node
@@ -179,15 +886,44 @@ public class BPTree<K extends Comparable<K>, V> implements BPTreeADT<K, V> {
 	 */
 	private class InternalNode extends Node {
 
-		// List of children nodes
-		List<Node> children;
+		// Array of children nodes, the first size + 1 entries are in use
+		Node[] children;
+
+		// Number of entries under each child, parallel to children
+		int[] counts;
 
 		/**
 		 * Package constructor
+		 *  
+		 * Room is left for one key and child past the branching factor
+		 * so an overflowing node can be split after the insert.
 		 */
+		@SuppressWarnings("unchecked")
 		InternalNode() {
-			super();
-			children = new ArrayList<Node>();
+			super(branchingFactor);
+			children = (Node[]) new BPTree<?, ?>.Node[branchingFactor + 1];
+			counts = new int[branchingFactor + 1];
+		}
+
+		/**
+		 * (non-Javadoc)
+		 * @see BPTree.Node#count()
+		 */
+		int count() {
+			int count = 0;
+			for (int i = 0; i <= size; i++) {
+				count += counts[i];
+			}
+			return count;
+		}
+
+		/**
+		 * Recomputes the number of entries under a child
+		 *  
+		 * @param index - index of the child
+		 */
+		void refreshCount(int index) {
+			counts[index] = children[index].count();
 		}
 
 		/**
@@ -195,7 +931,7 @@ public class BPTree<K extends Comparable<K>, V> implements BPTreeADT<K, V> {
 		 * @see BPTree.Node#getFirstLeafKey()
 		 */
 		K getFirstLeafKey() {
-			return children.get(0).getFirstLeafKey();
+			return children[0].getFirstLeafKey();
 		}
 
 		/**
@@ -203,7 +939,7 @@ public class BPTree<K extends Comparable<K>, V> implements BPTreeADT<K, V> {
 		 * @see BPTree.Node#isOverflow()
 		 */
 		boolean isOverflow() {
-			return children.size() > branchingFactor;
+			return size + 1 > branchingFactor;
 		}
 
 		/**
@@ -213,25 +949,25 @@ public class BPTree<K extends Comparable<K>, V> implements BPTreeADT<K, V> {
 		void insert(K key, V value) {
 			//find which child it should be inserted into
 			int childIndex = this.getChildIndex(key);
-			Node child = children.get(childIndex);
+			Node child = writableChild(childIndex);
 			//insert it (could be internal or leaf)
 			child.insert(key, value);
+			counts[childIndex]++;
 			//clean up any overflow problems from inserting
 			if (child.isOverflow()) {
 				Node sibling = child.split();
-				keys.add(childIndex, sibling.getFirstLeafKey()); //new key bubbles up at same index as the child index
-				children.add(childIndex + 1, sibling); //sibling gets added to right of old child
-			}
-			//parent insert call will clean up overflow for this node unless it's the root
-			if (root.isOverflow()) {
-				Node sibling = this.split();
-				InternalNode newRoot = new InternalNode();
-				newRoot.keys.add(sibling.getFirstLeafKey());
-				newRoot.children.add(this);
-				newRoot.children.add(sibling);
-				root = newRoot;
+				//new key bubbles up at same index as the child index,
+				//sibling gets added to right of old child
+				System.arraycopy(keys, childIndex, keys, childIndex + 1, size - childIndex);
+				System.arraycopy(children, childIndex + 1, children, childIndex + 2, size - childIndex);
+				System.arraycopy(counts, childIndex + 1, counts, childIndex + 2, size - childIndex);
+				keys[childIndex] = sibling.getFirstLeafKey();
+				children[childIndex + 1] = sibling;
+				size++;
+				refreshCount(childIndex);
+				refreshCount(childIndex + 1);
 			}
-
+			//overflow of this node is cleaned up by the parent, or by BPTree#insert for the root
 		}
 
 		/**
@@ -240,14 +976,7 @@ public class BPTree<K extends Comparable<K>, V> implements BPTreeADT<K, V> {
 		 * @return - index for child
 		 */
 		int getChildIndex(K key) {
-			int keyCount = keys.size();
-			for (int i = 0; i<keyCount; i++) {
-				K tmpKey = keys.get(i);
-				if (tmpKey.compareTo(key) >= 0) {
-					return i;
-				}
-			}
-			return keyCount;
+			return lowerBound(key);
 		}
 
 		/**
@@ -258,36 +987,282 @@ public class BPTree<K extends Comparable<K>, V> implements BPTreeADT<K, V> {
 			//create new node
 			InternalNode sibling = new InternalNode();
 
-			int numKeys = keys.size();
-			int numChildren = children.size();
+			int numKeys = size;
+			int numChildren = size + 1;
+
+			//the middle key is dropped, the parent takes the first leaf key of the sibling instead
+			int firstSiblingChild = numChildren / 2;
+			int firstSiblingKey = firstSiblingChild;
+
+			sibling.size = numKeys - firstSiblingKey;
+			System.arraycopy(keys, firstSiblingKey, sibling.keys, 0, sibling.size);
+			System.arraycopy(children, firstSiblingChild, sibling.children, 0, numChildren - firstSiblingChild);
+			System.arraycopy(counts, firstSiblingChild, sibling.counts, 0, numChildren - firstSiblingChild);
+
+			//clear the moved slots so they can be garbage collected
+			size = firstSiblingChild - 1;
+			Arrays.fill(keys, size, numKeys, null);
+			Arrays.fill(children, firstSiblingChild, numChildren, null);
 
-			sibling.keys.addAll(keys.subList((numKeys+1)/2,numKeys));
-			sibling.children.addAll(children.subList(numChildren/2, numChildren));
-			
-			for (int i = numKeys-1; i >= numKeys/2; i--) { //loop backward so the list doesn't reorder as we remove
-				keys.remove(i);
-			}
-			
-			for (int i = numChildren-1; i >= numChildren/2; i--) { //loop backward so the list doesn't reorder as we remove
-				children.remove(i);
-			}
 			//return newly created node
 			return sibling;
 		}
 
 		/**
 		 * (non-Javadoc)
-		 * @see BPTree.Node#rangeSearch(java.lang.Comparable, java.lang.String)
+		 * @see BPTree.Node#seek(java.lang.Comparable, boolean)
 		 */
-		List<V> rangeSearch(K key, String comparator) {
+		LeafNode seek(K key, boolean inclusive) {
 			//find child which contains this key, or where it would go
-			if (comparator.contentEquals("<=")) {
-				return children.get(0).rangeSearch(key, comparator);
+			if (key == null) {
+				return children[0].seek(key, inclusive);
 			}
-			int index = this.getChildIndex(key);
-			Node child = children.get(index);
-			//call rangeSearch on that child... ultimately have to get to leaf node
-			return child.rangeSearch(key, comparator);
+			int index = inclusive ? this.getChildIndex(key) : upperBound(key);
+			//ultimately have to get to leaf node
+			return children[index].seek(key, inclusive);
+		}
+
+		/**
+		 * (non-Javadoc)
+		 * @see BPTree.Node#isUnderflow()
+		 */
+		boolean isUnderflow() {
+			return size + 1 < (branchingFactor + 1) / 2;
+		}
+
+		/**
+		 * (non-Javadoc)
+		 * @see BPTree.Node#canLend()
+		 */
+		boolean canLend() {
+			return size + 1 > (branchingFactor + 1) / 2;
+		}
+
+		/**
+		 * (non-Javadoc)
+		 * @see BPTree.Node#remove(java.lang.Comparable, java.lang.Object)
+		 */
+		boolean remove(K key, V value) {
+			//duplicates of key can run across several children, try each child that may hold key
+			for (int i = this.getChildIndex(key); i <= size; i++) {
+				if (i > 0 && keyAt(i - 1).compareTo(key) > 0) {
+					break;
+				}
+				//a shared child is only copied once it is known to hold the entry
+				if (children[i].version != epoch && !children[i].contains(key, value)) {
+					continue;
+				}
+				if (writableChild(i).remove(key, value)) {
+					counts[i]--;
+					if (children[i].isUnderflow()) {
+						rebalance(i);
+					}
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * (non-Javadoc)
+		 * @see BPTree.Node#contains(java.lang.Comparable, java.lang.Object)
+		 */
+		boolean contains(K key, V value) {
+			for (int i = this.getChildIndex(key); i <= size; i++) {
+				if (i > 0 && keyAt(i - 1).compareTo(key) > 0) {
+					break;
+				}
+				if (children[i].contains(key, value)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Gets the child at the given index, replacing it with a copy
+		 * first when it is shared with a snapshot
+		 *  
+		 * @param index - index of the child
+		 * @return child that can be changed
+		 */
+		Node writableChild(int index) {
+			if (children[index].version != epoch) {
+				children[index] = children[index].copy();
+			}
+			return children[index];
+		}
+
+		/**
+		 * (non-Javadoc)
+		 * @see BPTree.Node#copy()
+		 */
+		Node copy() {
+			InternalNode copy = new InternalNode();
+			System.arraycopy(keys, 0, copy.keys, 0, size);
+			System.arraycopy(children, 0, copy.children, 0, size + 1);
+			System.arraycopy(counts, 0, copy.counts, 0, size + 1);
+			copy.size = size;
+			return copy;
+		}
+
+		/**
+		 * (non-Javadoc)
+		 * @see BPTree.Node#collect(java.lang.Comparable, boolean, java.lang.Comparable, boolean, java.util.List)
+		 */
+		boolean collect(K lo, boolean loInclusive, K hi, boolean hiInclusive, List<V> result) {
+			int index = lo == null ? 0 : (loInclusive ? this.getChildIndex(lo) : upperBound(lo));
+			for (int i = index; i <= size; i++) {
+				if (!children[i].collect(lo, loInclusive, hi, hiInclusive, result)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Fixes an underflowing child by borrowing an entry from a sibling
+		 * when the sibling can spare one, otherwise by merging the two
+		 *  
+		 * @param childIndex - index of the underflowing child
+		 */
+		void rebalance(int childIndex) {
+			//the left sibling is preferred, the leftmost child only has a right sibling
+			if (childIndex > 0) {
+				if (children[childIndex - 1].canLend()) {
+					rotateRight(childIndex - 1);
+				} else {
+					merge(childIndex - 1);
+				}
+			}
+			else if (size > 0) {
+				if (children[childIndex + 1].canLend()) {
+					rotateLeft(childIndex);
+				} else {
+					merge(childIndex);
+				}
+			}
+		}
+
+		/**
+		 * Moves the last entry of children[sep] to the front of children[sep + 1]
+		 *  
+		 * @param sep - index of the key separating the two children
+		 */
+		void rotateRight(int sep) {
+			writableChild(sep);
+			writableChild(sep + 1);
+			if (children[sep] instanceof BPTree.LeafNode) {
+				LeafNode left = (LeafNode) children[sep];
+				LeafNode right = (LeafNode) children[sep + 1];
+				System.arraycopy(right.keys, 0, right.keys, 1, right.size);
+				System.arraycopy(right.values, 0, right.values, 1, right.size);
+				right.keys[0] = left.keys[left.size - 1];
+				right.values[0] = left.values[left.size - 1];
+				right.size++;
+				left.size--;
+				left.keys[left.size] = null;
+				left.values[left.size] = null;
+				keys[sep] = right.keys[0];
+			}
+			else {
+				//the separator moves down into the right node and the last key of the left node moves up
+				InternalNode left = (InternalNode) children[sep];
+				InternalNode right = (InternalNode) children[sep + 1];
+				System.arraycopy(right.keys, 0, right.keys, 1, right.size);
+				System.arraycopy(right.children, 0, right.children, 1, right.size + 1);
+				System.arraycopy(right.counts, 0, right.counts, 1, right.size + 1);
+				right.keys[0] = keys[sep];
+				right.children[0] = left.children[left.size];
+				right.counts[0] = left.counts[left.size];
+				right.size++;
+				keys[sep] = left.keys[left.size - 1];
+				left.keys[left.size - 1] = null;
+				left.children[left.size] = null;
+				left.size--;
+			}
+			refreshCount(sep);
+			refreshCount(sep + 1);
+		}
+
+		/**
+		 * Moves the first entry of children[sep + 1] to the end of children[sep]
+		 *  
+		 * @param sep - index of the key separating the two children
+		 */
+		void rotateLeft(int sep) {
+			writableChild(sep);
+			writableChild(sep + 1);
+			if (children[sep] instanceof BPTree.LeafNode) {
+				LeafNode left = (LeafNode) children[sep];
+				LeafNode right = (LeafNode) children[sep + 1];
+				left.keys[left.size] = right.keys[0];
+				left.values[left.size] = right.values[0];
+				left.size++;
+				right.size--;
+				System.arraycopy(right.keys, 1, right.keys, 0, right.size);
+				System.arraycopy(right.values, 1, right.values, 0, right.size);
+				right.keys[right.size] = null;
+				right.values[right.size] = null;
+				keys[sep] = right.keys[0];
+			}
+			else {
+				//the separator moves down into the left node and the first key of the right node moves up
+				InternalNode left = (InternalNode) children[sep];
+				InternalNode right = (InternalNode) children[sep + 1];
+				left.keys[left.size] = keys[sep];
+				left.children[left.size + 1] = right.children[0];
+				left.counts[left.size + 1] = right.counts[0];
+				left.size++;
+				keys[sep] = right.keys[0];
+				System.arraycopy(right.keys, 1, right.keys, 0, right.size - 1);
+				System.arraycopy(right.children, 1, right.children, 0, right.size);
+				System.arraycopy(right.counts, 1, right.counts, 0, right.size);
+				right.keys[right.size - 1] = null;
+				right.children[right.size] = null;
+				right.size--;
+			}
+			refreshCount(sep);
+			refreshCount(sep + 1);
+		}
+
+		/**
+		 * Merges children[sep + 1] into children[sep] and drops
+		 * the separating key and the emptied child from this node
+		 *  
+		 * @param sep - index of the key separating the two children
+		 */
+		void merge(int sep) {
+			//the right child is dropped, so only the left one has to be writable
+			writableChild(sep);
+			if (children[sep] instanceof BPTree.LeafNode) {
+				LeafNode left = (LeafNode) children[sep];
+				LeafNode right = (LeafNode) children[sep + 1];
+				System.arraycopy(right.keys, 0, left.keys, left.size, right.size);
+				System.arraycopy(right.values, 0, left.values, left.size, right.size);
+				left.size += right.size;
+				left.next = right.next;
+				if (right.next != null) {
+					right.next.previous = left;
+				}
+			}
+			else {
+				InternalNode left = (InternalNode) children[sep];
+				InternalNode right = (InternalNode) children[sep + 1];
+				left.keys[left.size] = keys[sep];
+				System.arraycopy(right.keys, 0, left.keys, left.size + 1, right.size);
+				System.arraycopy(right.children, 0, left.children, left.size + 1, right.size + 1);
+				System.arraycopy(right.counts, 0, left.counts, left.size + 1, right.size + 1);
+				left.size += right.size + 1;
+			}
+
+			System.arraycopy(keys, sep + 1, keys, sep, size - sep - 1);
+			System.arraycopy(children, sep + 2, children, sep + 1, size - sep - 1);
+			System.arraycopy(counts, sep + 2, counts, sep + 1, size - sep - 1);
+			keys[size - 1] = null;
+			children[size] = null;
+			size--;
+			refreshCount(sep);
 		}
 
 	} // End of class InternalNode
@@ -304,22 +1279,36 @@ public class BPTree<K extends Comparable<K>, V> implements BPTreeADT<K, V> {
 	 */
 	private class LeafNode extends Node {
 
-		// List of values
-		List<V> values;
+		// Array of values, parallel to keys
+		Object[] values;
 
 		// Reference to the next leaf node
 		LeafNode next;
 
-		// Reference to the previous leaf node
-		//LeafNode previous;
-		// could build logic to utilize previous, but isn't necessary
+		// Reference to the previous leaf node, lets a copied leaf
+		// be linked in place of the original
+		LeafNode previous;
 
 		/**
 		 * Package constructor
+		 *  
+		 * A leaf holds at most branchingFactor - 1 entries,
+		 * the extra slot holds the entry that makes it overflow.
 		 */
 		LeafNode() {
-			super();
-			values = new ArrayList<V>();
+			super(branchingFactor);
+			values = new Object[branchingFactor];
+		}
+
+		/**
+		 * Gets the value stored at the given slot
+		 *  
+		 * @param index - slot of the value
+		 * @return value
+		 */
+		@SuppressWarnings("unchecked")
+		V valueAt(int index) {
+			return (V) values[index];
 		}
 
 		/**
@@ -327,7 +1316,7 @@ public class BPTree<K extends Comparable<K>, V> implements BPTreeADT<K, V> {
 		 * @see BPTree.Node#getFirstLeafKey()
 		 */
 		K getFirstLeafKey() {
-			return keys.get(0);
+			return keyAt(0);
 		}
 
 		/**
@@ -335,7 +1324,15 @@ public class BPTree<K extends Comparable<K>, V> implements BPTreeADT<K, V> {
 		 * @see BPTree.Node#isOverflow()
 		 */
 		boolean isOverflow() {
-			return values.size() > branchingFactor - 1;
+			return size > branchingFactor - 1;
+		}
+
+		/**
+		 * (non-Javadoc)
+		 * @see BPTree.Node#count()
+		 */
+		int count() {
+			return size;
 		}
 
 		/**
@@ -343,25 +1340,13 @@ public class BPTree<K extends Comparable<K>, V> implements BPTreeADT<K, V> {
 		 * @see BPTree.Node#insert(Comparable, Object)
 		 */
 		void insert(K key, V value) {
+			int index = lowerBound(key);
 
-			int index = 0;
-			if(keys.size() > 0) {
-				while ((index < keys.size()) && (keys.get(index).compareTo(key) < 0)) {
-					index++;
-				}
-			}
-			
-			keys.add(index, key);
-			values.add(index, value);
-			
-			if (root.isOverflow()) {
-				Node sibling = split();
-				InternalNode newRoot = new InternalNode();
-				newRoot.keys.add(sibling.getFirstLeafKey());
-				newRoot.children.add(this);
-				newRoot.children.add(sibling);
-				root = newRoot;
-			}
+			System.arraycopy(keys, index, keys, index + 1, size - index);
+			System.arraycopy(values, index, values, index + 1, size - index);
+			keys[index] = key;
+			values[index] = value;
+			size++;
 		}
 
 		/**
@@ -371,17 +1356,22 @@ public class BPTree<K extends Comparable<K>, V> implements BPTreeADT<K, V> {
 		Node split() {
 			LeafNode sibling = new LeafNode();
 
-			int middle = (keys.size()) / 2;
+			int middle = size / 2;
+
+			sibling.size = size - middle;
+			System.arraycopy(keys, middle, sibling.keys, 0, sibling.size);
+			System.arraycopy(values, middle, sibling.values, 0, sibling.size);
+
+			//clear the moved slots so they can be garbage collected
+			Arrays.fill(keys, middle, size, null);
+			Arrays.fill(values, middle, size, null);
+			size = middle;
 
-			sibling.keys.addAll(keys.subList(middle, keys.size()));
-			sibling.values.addAll(values.subList(middle, values.size()));
-			
-			for (int i=keys.size()-1; i >= middle; i--) {
-				keys.remove(i);
-				values.remove(i);
-			}
-			
 			sibling.next = next;
+			sibling.previous = this;
+			if (next != null) {
+				next.previous = sibling;
+			}
 			next = sibling;
 
 			return sibling;
@@ -389,84 +1379,106 @@ public class BPTree<K extends Comparable<K>, V> implements BPTreeADT<K, V> {
 
 		/**
 		 * (non-Javadoc)
-		 * @see BPTree.Node#rangeSearch(Comparable, String)
+		 * @see BPTree.Node#copy()
 		 */
-		List<V> rangeSearch(K key, String comparator) {
-			List<V> result = new ArrayList<V>();
-
-			if (key == null || comparator == null) {
-				return result;
+		Node copy() {
+			LeafNode copy = new LeafNode();
+			System.arraycopy(keys, 0, copy.keys, 0, size);
+			System.arraycopy(values, 0, copy.values, 0, size);
+			copy.size = size;
+
+			//the copy takes the place of this leaf in the chain,
+			//snapshots don't follow the links so the neighbours can be changed in place
+			copy.next = next;
+			copy.previous = previous;
+			if (next != null) {
+				next.previous = copy;
 			}
-
-			if (!comparator.contentEquals(">=") && 
-					!comparator.contentEquals("==") && 
-					!comparator.contentEquals("<=") ) {
-				return result;
+			if (previous != null) {
+				previous.next = copy;
 			}
+			return copy;
+		}
 
-			if (comparator.contentEquals("==")) {
-				LeafNode tmpNode = this;
-				int index = 0;
-				while (tmpNode.keys.get(index).compareTo(key) <= 0) {
-					if (tmpNode.keys.get(index).compareTo(key) < 0) {
-						index++;
-						if (index >= tmpNode.keys.size()) {
-							tmpNode = tmpNode.next;
-							index = 0;
-						}
-					}
-					else {
-						result.add(tmpNode.values.get(index));
-						index++;
-						if (index >= tmpNode.keys.size()) {
-							tmpNode = tmpNode.next;
-							index = 0;
-						}
-					}
+		/**
+		 * (non-Javadoc)
+		 * @see BPTree.Node#collect(Comparable, boolean, Comparable, boolean, List)
+		 */
+		boolean collect(K lo, boolean loInclusive, K hi, boolean hiInclusive, List<V> result) {
+			for (int i = firstIndex(lo, loInclusive); i < size; i++) {
+				if (!isBelow(keyAt(i), hi, hiInclusive)) {
+					return false;
 				}
+				result.add(valueAt(i));
 			}
+			return true;
+		}
 
-			else if (comparator.contentEquals("<=")) {
-
-				if (keys.get(0).compareTo(key) > 0) {
-					return result;
-				}
-
-				LeafNode tmpNode = this;
-				int index = 0;
-				while (tmpNode.keys.get(index).compareTo(key) <= 0) {
-					result.add(tmpNode.values.get(index));
-					//potentially could have a small performance improvement here by checking last key in node first
-					//and adding all if it still passes the comparator
-					index++;
-					if (index >= tmpNode.keys.size()) {
-						tmpNode = tmpNode.next;
-						if (tmpNode == null) break;
-						index = 0;
-					}
-				}
+		/**
+		 * (non-Javadoc)
+		 * @see BPTree.Node#seek(Comparable, boolean)
+		 */
+		LeafNode seek(K key, boolean inclusive) {
+			return this;
+		}
 
-			}
+		/**
+		 * Gets the slot where a range search starting at the given key begins
+		 *  
+		 * @param key - lower bound of the search, or null to start at the first slot
+		 * @param inclusive - true to find the first key >= key, false for the first key > key
+		 * @return slot of that key, or size if it is in a later leaf
+		 */
+		int firstIndex(K key, boolean inclusive) {
+			if (key == null) return 0;
+			return inclusive ? lowerBound(key) : upperBound(key);
+		}
 
-			else { // >= case
+		/**
+		 * (non-Javadoc)
+		 * @see BPTree.Node#isUnderflow()
+		 */
+		boolean isUnderflow() {
+			return size < (branchingFactor - 1) / 2;
+		}
 
-				int index = 0;
+		/**
+		 * (non-Javadoc)
+		 * @see BPTree.Node#canLend()
+		 */
+		boolean canLend() {
+			return size > (branchingFactor - 1) / 2;
+		}
 
-				while (index < keys.size() && keys.get(index).compareTo(key) < 0) {
-					index++;
+		/**
+		 * (non-Javadoc)
+		 * @see BPTree.Node#remove(Comparable, Object)
+		 */
+		boolean remove(K key, V value) {
+			for (int i = lowerBound(key); i < size && keyAt(i).compareTo(key) == 0; i++) {
+				if (Objects.equals(values[i], value)) {
+					System.arraycopy(keys, i + 1, keys, i, size - i - 1);
+					System.arraycopy(values, i + 1, values, i, size - i - 1);
+					size--;
+					keys[size] = null;
+					values[size] = null;
+					return true;
 				}
+			}
+			return false;
+		}
 
-				LeafNode tmpNode = this;
-				for (int i = index; i < tmpNode.keys.size(); i++) {
-					result.add(tmpNode.values.get(i));
-				}
-				while (tmpNode.next != null) {
-					tmpNode = tmpNode.next;
-					result.addAll(tmpNode.values);
+		/**
+		 * (non-Javadoc)
+		 * @see BPTree.Node#contains(Comparable, Object)
+		 */
+		boolean contains(K key, V value) {
+			for (int i = lowerBound(key); i < size && keyAt(i).compareTo(key) == 0; i++) {
+				if (Objects.equals(values[i], value)) {
+					return true;
 				}
-				
 			}
-			return result;
+			return false;
 		}
 
 	} // End of class LeafNode
@@ -506,4 +1518,4 @@ public class BPTree<K extends Comparable<K>, V> implements BPTreeADT<K, V> {
 		System.out.println("Filtered values: " + filteredValues.toString());
 	}
 
-} // End of class BPTree
\ No newline at end of file
+} // End of class BPTree
@@ -20,12 +20,38 @@ public interface BPTreeADT<K, V> {
     public void insert(K key, V value);
     
     
+    /**
+     * Removes one entry with the given key and value from the tree,
+     * rebalancing the nodes it leaves underfull.
+     * 
+     * When several entries have the same key, the one whose value 
+     * equals the given value is removed.
+     * 
+     * @param key
+     * @param value
+     * @return true if an entry was removed, false if there was none
+     */
+    public boolean remove(K key, V value);
+    
+    
+    /**
+     * Moves the entry with the given value from oldKey to newKey.
+     * 
+     * @param oldKey key the value is currently stored under
+     * @param newKey key to store the value under
+     * @param value
+     * @return true if the entry was moved, false if there was no 
+     * entry with oldKey and value
+     */
+    public boolean update(K oldKey, K newKey, V value);
+    
+    
     /**
      * Gets the values that satisfy the given range 
      * search arguments.
      * 
      * Value of comparator can be one of these: 
-     * "<=", "==", ">="
+     * "<", "<=", "==", ">=", ">"
      * 
      * Example:
      *     If given key = 2.5 and comparator = ">=":
@@ -44,6 +70,64 @@ public interface BPTreeADT<K, V> {
     public List<V> rangeSearch(K key, String comparator);
     
     
+    /**
+     * Gets the values whose keys fall between the two bounds, 
+     * in ascending key order.
+     * 
+     * Example:
+     *     If given lo = 100, loInclusive = true, hi = 200 and
+     *     hiInclusive = false:
+     *         return all the values with the corresponding 
+     *      keys >= 100 and < 200
+     * 
+     * A null bound leaves that side of the range open, 
+     * so rangeSearch(null, true, key, true) behaves like 
+     * rangeSearch(key, "<=").
+     * 
+     * @param lo lower bound of the keys, or null for no lower bound
+     * @param loInclusive true if keys equal to lo are included
+     * @param hi upper bound of the keys, or null for no upper bound
+     * @param hiInclusive true if keys equal to hi are included
+     * @return list of values that are the result of the 
+     * range search; if nothing found, return empty list
+     */
+    public List<V> rangeSearch(K lo, boolean loInclusive, K hi, boolean hiInclusive);
+    
+    
+    /**
+     * Gets at most limit values whose keys fall between the two 
+     * bounds, in ascending key order. The search stops once it has 
+     * limit values, so it never visits the rest of the range.
+     * 
+     * Bounds work as in rangeSearch(K, boolean, K, boolean).
+     * 
+     * @param lo lower bound of the keys, or null for no lower bound
+     * @param loInclusive true if keys equal to lo are included
+     * @param hi upper bound of the keys, or null for no upper bound
+     * @param hiInclusive true if keys equal to hi are included
+     * @param limit most values to return, 0 or less returns an empty list
+     * @return list of values that are the result of the 
+     * range search; if nothing found, return empty list
+     */
+    public List<V> rangeSearch(K lo, boolean loInclusive, K hi, boolean hiInclusive, int limit);
+    
+    
+    /**
+     * Gets the values of the k entries with the smallest keys, 
+     * or with the largest keys when ascending is false.
+     * 
+     * Example:
+     *     topK(20, false) on an index of protein amounts returns 
+     *     the 20 foods with the most protein, most first.
+     * 
+     * @param k most values to return, 0 or less returns an empty list
+     * @param ascending true for the smallest keys in ascending order, 
+     * false for the largest keys in descending order
+     * @return list of at most k values; if the tree is empty, return empty list
+     */
+    public List<V> topK(int k, boolean ascending);
+    
+    
     /**
      * Returns a string representation for the tree
      * This method is provided to students in the implementation.
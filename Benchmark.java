@@ -0,0 +1,489 @@
+package application;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.function.IntSupplier;
+import java.util.function.ToIntFunction;
+
+/**
+ * Micro-benchmarks for the B+ trees and FoodData.
+ *
+ * The index benchmarks time BPTree.insert and a rangeSearch for each
+ * comparator over synthetic nutrient columns, for several branching
+ * factors, next to a java.util.TreeMap doing the same work. The
+ * FoodData benchmarks time loadFoodItems, filterByName,
+ * filterByNameFuzzy, filterByNutrients and saveFoodItems over a
+ * synthetic catalog.
+ *
+ * Every benchmark runs its warmup iterations, so the JIT has compiled
+ * the code being measured, and then its measured iterations. It prints
+ * the mean and best time of one operation. Results are folded into a
+ * sink so the JIT can't drop the work as dead code.
+ *
+ * Usage: java application.Benchmark [catalog size ...]
+ * The default sizes are 10000, 100000 and 1000000. A run up to
+ * 10000000 items needs a heap of several GB, e.g. -Xmx8g.
+ */
+public class Benchmark {
+
+	// Branching factors the index benchmarks are run with
+	private static final int[] BRANCHING_FACTORS = {3, 16, 64, 256};
+
+	// Iterations run before measuring, and measured
+	private static final int WARMUP_ITERATIONS = 3;
+	private static final int MEASURED_ITERATIONS = 5;
+
+	// Searches timed per iteration of a range search benchmark
+	private static final int SEARCHES_PER_ITERATION = 200;
+
+	// Comparators accepted by BPTreeADT#rangeSearch
+	private static final String[] COMPARATORS = {"<", "<=", "==", ">=", ">"};
+
+	// Words synthetic food names are made of
+	private static final String[] NAME_WORDS = {"Chocolate", "Greek", "Yogurt", "Lemon", "Soy",
+			"Formula", "Mint", "Cookie", "Crunch", "Organic", "Peanut", "Butter", "Almond", "Milk",
+			"Oat", "Bar", "Protein", "Vanilla", "Berry", "Whole", "Wheat", "Bread", "Cheese", "Chips"};
+
+	// Mistyped name words filterByNameFuzzy is timed with
+	private static final String[] NAME_TYPOS = {"chocolote", "yogrut", "penaut", "vanila", "protien", "chese"};
+
+	// Food items a fuzzy name search returns, as many as the name filter shows
+	private static final int FUZZY_LIMIT = 50;
+
+	// Largest synthetic amount of each nutrient, in NutrientsEnum order
+	private static final int[] NUTRIENT_MAX = {800, 60, 120, 20, 50};
+
+	// Collects benchmark results so the JIT can't remove the work
+	private static long sink;
+
+	public static void main(String[] args) throws IOException {
+		int[] sizes = {10000, 100000, 1000000};
+		if (args.length > 0) {
+			sizes = new int[args.length];
+			for (int i = 0; i < args.length; i++) {
+				sizes[i] = Integer.parseInt(args[i]);
+			}
+		}
+
+		System.out.printf("%-40s %10s %5s %14s %14s%n", "benchmark", "items", "bf", "mean ms/op", "best ms/op");
+		for (int size : sizes) {
+			double[] keys = nutrientColumn(size, 400, new Random(size));
+			benchmarkIndexes(keys);
+			benchmarkFoodData(size);
+		}
+		System.out.println("(sink " + sink + ")");
+	}
+
+
+	/**
+	 * Times insert and every range search comparator on BPTree and
+	 * DoubleBPTree for each branching factor, and on a TreeMap
+	 *
+	 * @param keys - nutrient column to index, the ordinal of a key is its position
+	 */
+	private static void benchmarkIndexes(double[] keys) {
+		int size = keys.length;
+		double[] searchKeys = nutrientColumn(SEARCHES_PER_ITERATION, 400, new Random(-size));
+
+		for (int bf : BRANCHING_FACTORS) {
+			run("BPTree.insert", size, bf, () -> {
+				BPTree<Double, Integer> tree = new BPTree<Double, Integer>(bf);
+				for (int i = 0; i < size; i++) {
+					tree.insert(keys[i], i);
+				}
+				return tree.size();
+			});
+
+			BPTree<Double, Integer> tree = new BPTree<Double, Integer>(bf);
+			DoubleBPTree doubleTree = new DoubleBPTree(bf);
+			for (int i = 0; i < size; i++) {
+				tree.insert(keys[i], i);
+				doubleTree.insert(keys[i], i);
+			}
+			for (String comparator : COMPARATORS) {
+				runSearches("BPTree.rangeSearch " + comparator, size, bf, searchKeys,
+						key -> tree.rangeSearch(key, comparator).size());
+				runSearches("DoubleBPTree.rangeSearchOrdinals " + comparator, size, bf, searchKeys,
+						key -> doubleTree.rangeSearchOrdinals(key, comparator).length);
+			}
+		}
+
+		// the TreeMap baseline keeps the ordinals of equal keys in a list, as the trees keep duplicates
+		run("TreeMap.put", size, 0, () -> buildTreeMap(keys).size());
+		TreeMap<Double, List<Integer>> map = buildTreeMap(keys);
+		for (String comparator : COMPARATORS) {
+			runSearches("TreeMap " + comparator, size, 0, searchKeys,
+					key -> treeMapSearch(map, key, comparator).size());
+		}
+	}
+
+
+	/**
+	 * Times loading, filtering and saving a synthetic catalog
+	 *
+	 * @param size - number of food items in the catalog
+	 */
+	private static void benchmarkFoodData(int size) throws IOException {
+		File catalog = File.createTempFile("benchmark-catalog", ".csv");
+		File saved = File.createTempFile("benchmark-saved", ".csv");
+		catalog.deleteOnExit();
+		saved.deleteOnExit();
+		writeCatalog(catalog, size, new Random(size));
+
+		run("FoodData.loadFoodItems", size, 0, () -> {
+			FoodData foodData = new FoodData();
+			foodData.loadFoodItems(catalog.getPath());
+			return foodData.getFoodItemCount();
+		});
+
+		FoodData foodData = new FoodData();
+		foodData.loadFoodItems(catalog.getPath());
+
+		run("FoodData.filterByName", size, 0, () -> foodData.filterByName("choc").size());
+
+		// the words of a synthetic name start at its upper case letters, and
+		// a typo in any of them must be found, not only in the first one
+		List<FoodItem> items = foodData.getAllFoodItems();
+		List<String[]> nameWords = new ArrayList<String[]>(items.size());
+		for (FoodItem item : items) {
+			nameWords.add(wordStarts(item.getName()));
+		}
+		for (String typo : NAME_TYPOS) {
+			int found = foodData.filterByNameFuzzy(typo, 2, Integer.MAX_VALUE).size();
+			int expected = countWithin(nameWords, typo, 2);
+			if (found != expected) {
+				throw new IllegalStateException("filterByNameFuzzy found " + found + " items for "
+						+ typo + ", a scan finds " + expected);
+			}
+		}
+
+		for (int maxEdits = 1; maxEdits <= 2; maxEdits++) {
+			int edits = maxEdits;
+			runQueries("FoodData.filterByNameFuzzy " + edits + " edits", size,
+					typo -> foodData.filterByNameFuzzy(typo, edits, FUZZY_LIMIT).size());
+			runQueries("FoodData.filterByNameFuzzy " + edits + " edits all", size,
+					typo -> foodData.filterByNameFuzzy(typo, edits, Integer.MAX_VALUE).size());
+		}
+
+		List<String> wideRules = Arrays.asList("calories >= 100", "protein > 10");
+		List<String> narrowRules = Arrays.asList("calories <= 200", "fat == 3", "fiber >= 5");
+		run("FoodData.filterByNutrients wide", size, 0, () -> foodData.filterByNutrients(wideRules).size());
+		run("FoodData.filterByNutrients narrow", size, 0, () -> foodData.filterByNutrients(narrowRules).size());
+
+		// scanning every item is the baseline the nutrient indexes have to beat
+		run("scan baseline for filterByNutrients wide", size, 0, () -> {
+			int count = 0;
+			for (FoodItem item : items) {
+				if (item.getNutrientValue(NutrientsEnum.CALORIES) >= 100 && item.getNutrientValue(NutrientsEnum.PROTEIN) > 10) {
+					count++;
+				}
+			}
+			return count;
+		});
+
+		// and the name trie has to beat computing the edit distance to every word of every name
+		runQueries("scan baseline for filterByNameFuzzy 2", size, typo -> countWithin(nameWords, typo, 2));
+
+		run("FoodData.saveFoodItems", size, 0, () -> {
+			foodData.saveFoodItems(saved.getPath());
+			return (int) saved.length();
+		});
+
+		catalog.delete();
+		saved.delete();
+	}
+
+
+	/**
+	 * Runs a benchmark and prints the mean and best time of one operation
+	 *
+	 * @param name - name of the benchmark
+	 * @param size - number of items the benchmark works on
+	 * @param bf - branching factor, 0 if there is none
+	 * @param op - operation to time, its result goes to the sink
+	 */
+	private static void run(String name, int size, int bf, IntSupplier op) {
+		measure(name, size, bf, op, 1);
+	}
+
+
+	/**
+	 * Runs a search benchmark, timing one search for each of the search keys
+	 *
+	 * @param name - name of the benchmark
+	 * @param size - number of items searched
+	 * @param bf - branching factor, 0 if there is none
+	 * @param searchKeys - keys to search for in each iteration
+	 * @param search - search to time, returns the number of results
+	 */
+	private static void runSearches(String name, int size, int bf, double[] searchKeys, Search search) {
+		measure(name, size, bf, () -> {
+			int found = 0;
+			for (double key : searchKeys) {
+				found += search.run(key);
+			}
+			return found;
+		}, searchKeys.length);
+	}
+
+
+	/**
+	 * Runs a name search benchmark, timing one search for each of NAME_TYPOS
+	 *
+	 * @param name - name of the benchmark
+	 * @param size - number of items searched
+	 * @param search - search to time, returns the number of results
+	 */
+	private static void runQueries(String name, int size, ToIntFunction<String> search) {
+		measure(name, size, 0, () -> {
+			int found = 0;
+			for (String typo : NAME_TYPOS) {
+				found += search.applyAsInt(typo);
+			}
+			return found;
+		}, NAME_TYPOS.length);
+	}
+
+
+	/**
+	 * Runs the warmup and measured iterations of a benchmark and reports them
+	 *
+	 * @param name - name of the benchmark
+	 * @param size - number of items the benchmark works on
+	 * @param bf - branching factor, 0 if there is none
+	 * @param iteration - one iteration, its result goes to the sink
+	 * @param opsPerIteration - number of operations in an iteration
+	 */
+	private static void measure(String name, int size, int bf, IntSupplier iteration, int opsPerIteration) {
+		for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+			sink += iteration.getAsInt();
+		}
+
+		long total = 0;
+		long best = Long.MAX_VALUE;
+		for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+			long start = System.nanoTime();
+			sink += iteration.getAsInt();
+			long elapsed = System.nanoTime() - start;
+			total += elapsed;
+			best = Math.min(best, elapsed);
+		}
+		report(name, size, bf, total / (double) MEASURED_ITERATIONS / opsPerIteration,
+				(double) best / opsPerIteration);
+	}
+
+
+	/**
+	 * Prints a line of results
+	 *
+	 * @param name - name of the benchmark
+	 * @param size - number of items
+	 * @param bf - branching factor, 0 if there is none
+	 * @param meanNanos - mean time of one operation
+	 * @param bestNanos - best time of one operation
+	 */
+	private static void report(String name, int size, int bf, double meanNanos, double bestNanos) {
+		System.out.printf("%-40s %10d %5s %14.4f %14.4f%n", name, size, bf == 0 ? "-" : Integer.toString(bf),
+				meanNanos / 1e6, bestNanos / 1e6);
+	}
+
+
+	/**
+	 * A range search timed by runSearches
+	 */
+	private interface Search {
+
+		/**
+		 * @param key - key to search for
+		 * @return number of results
+		 */
+		int run(double key);
+	}
+
+
+	/**
+	 * Builds the TreeMap baseline for a nutrient column
+	 *
+	 * @param keys - nutrient column, the ordinal of a key is its position
+	 * @return map of each amount to the ordinals with that amount
+	 */
+	private static TreeMap<Double, List<Integer>> buildTreeMap(double[] keys) {
+		TreeMap<Double, List<Integer>> map = new TreeMap<Double, List<Integer>>();
+		for (int i = 0; i < keys.length; i++) {
+			map.computeIfAbsent(keys[i], key -> new ArrayList<Integer>(2)).add(i);
+		}
+		return map;
+	}
+
+
+	/**
+	 * Does the work of BPTreeADT#rangeSearch on the TreeMap baseline
+	 *
+	 * @param map - baseline built by buildTreeMap
+	 * @param key - key to compare against
+	 * @param comparator - one of the rangeSearch comparators
+	 * @return ordinals in key order
+	 */
+	private static List<Integer> treeMapSearch(TreeMap<Double, List<Integer>> map, double key, String comparator) {
+		Map<Double, List<Integer>> range;
+		switch (comparator) {
+		case "<":
+			range = map.headMap(key, false);
+			break;
+		case "<=":
+			range = map.headMap(key, true);
+			break;
+		case "==":
+			range = map.subMap(key, true, key, true);
+			break;
+		case ">=":
+			range = map.tailMap(key, true);
+			break;
+		default:
+			range = map.tailMap(key, false);
+			break;
+		}
+		List<Integer> result = new ArrayList<Integer>();
+		for (List<Integer> ordinals : range.values()) {
+			result.addAll(ordinals);
+		}
+		return result;
+	}
+
+
+	/**
+	 * Gets the rest of a synthetic name from each of its words, in lower
+	 * case. Synthetic names have no _-separated parts or digits, so their
+	 * words start at their upper case letters.
+	 *
+	 * @param name - synthetic name
+	 * @return the keys filterByNameFuzzy matches the name by
+	 */
+	private static String[] wordStarts(String name) {
+		List<String> starts = new ArrayList<String>();
+		for (int i = 0; i < name.length(); i++) {
+			if (Character.isUpperCase(name.charAt(i))) {
+				starts.add(name.substring(i).toLowerCase());
+			}
+		}
+		return starts.toArray(new String[starts.size()]);
+	}
+
+
+	/**
+	 * Counts the names with a word starting within maxEdits edits of a
+	 * query by scanning all of them, capping maxEdits by the length of the
+	 * query as filterByNameFuzzy does
+	 *
+	 * @param nameWords - wordStarts of each name
+	 * @param query - lower case query
+	 * @param maxEdits - most edits allowed
+	 * @return number of matching names
+	 */
+	private static int countWithin(List<String[]> nameWords, String query, int maxEdits) {
+		int edits = Math.min(maxEdits, query.length() / 3);
+		int count = 0;
+		for (String[] words : nameWords) {
+			for (String word : words) {
+				if (startsWithin(word, query, edits)) {
+					count++;
+					break;
+				}
+			}
+		}
+		return count;
+	}
+
+
+	/**
+	 * Tells if a name starts with a string within maxEdits edits of a
+	 * query, the test filterByNameFuzzy does with the name trie
+	 *
+	 * @param name - lower case name
+	 * @param query - lower case query
+	 * @param maxEdits - most edits allowed
+	 * @return true if the name matches
+	 */
+	private static boolean startsWithin(String name, String query, int maxEdits) {
+		int n = query.length();
+		int[] row = new int[n + 1];
+		for (int j = 0; j <= n; j++) {
+			row[j] = j;
+		}
+		if (row[n] <= maxEdits) return true;
+
+		int[] next = new int[n + 1];
+		for (int i = 0; i < name.length(); i++) {
+			next[0] = row[0] + 1;
+			int min = next[0];
+			for (int j = 1; j <= n; j++) {
+				int substitute = row[j - 1] + (query.charAt(j - 1) == name.charAt(i) ? 0 : 1);
+				next[j] = Math.min(substitute, Math.min(row[j], next[j - 1]) + 1);
+				min = Math.min(min, next[j]);
+			}
+			if (next[n] <= maxEdits) return true;
+			if (min > maxEdits) return false;
+			int[] swap = row;
+			row = next;
+			next = swap;
+		}
+		return false;
+	}
+
+
+	/**
+	 * Generates nutrient amounts. Amounts are whole numbers and small
+	 * amounts are the most common, so keys repeat as they do in real data.
+	 *
+	 * @param count - number of amounts
+	 * @param max - largest amount
+	 * @param rnd - source of randomness
+	 * @return the amounts
+	 */
+	private static double[] nutrientColumn(int count, int max, Random rnd) {
+		double[] column = new double[count];
+		for (int i = 0; i < count; i++) {
+			double fraction = rnd.nextDouble();
+			column[i] = Math.floor(fraction * fraction * max);
+		}
+		return column;
+	}
+
+
+	/**
+	 * Writes a synthetic catalog in the format loadFoodItems reads
+	 *
+	 * @param file - file to write
+	 * @param size - number of food items
+	 * @param rnd - source of randomness
+	 */
+	private static void writeCatalog(File file, int size, Random rnd) throws IOException {
+		try (PrintStream out = new PrintStream(file)) {
+			StringBuilder line = new StringBuilder();
+			for (int i = 0; i < size; i++) {
+				line.setLength(0);
+				line.append(String.format("%08x%016x", rnd.nextInt(), rnd.nextLong()));
+				line.append(',');
+				int words = 2 + rnd.nextInt(3);
+				for (int w = 0; w < words; w++) {
+					line.append(NAME_WORDS[rnd.nextInt(NAME_WORDS.length)]);
+				}
+				NutrientsEnum[] nutrients = NutrientsEnum.values();
+				for (int n = 0; n < nutrients.length; n++) {
+					double fraction = rnd.nextDouble();
+					line.append(',').append(nutrients[n]).append(',')
+							.append((int) (fraction * fraction * NUTRIENT_MAX[n]));
+				}
+				out.println(line);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,1125 @@
+package application;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Thread-safe B+ tree that lets many readers run range searches
+ * while other threads insert and remove entries.
+ *
+ * Every node has its own read/write latch and operations use latch
+ * coupling (crabbing): a thread latches a child before releasing its
+ * parent, so it never sees a node in the middle of a change.
+ *
+ * Readers take read latches down the tree and then walk the leaf
+ * chain left to right through LeafNode.next, latching the next leaf
+ * before releasing the current one.
+ *
+ * Inserts take write latches down the tree and release every latch
+ * above a child that has room for one more entry, since a split can
+ * never travel past such a child. Only inserts that may split the
+ * root hold the root latch to the end.
+ *
+ * Removes only latch leaves. Underfull leaves are not merged with
+ * their siblings, which keeps removal from ever latching a leaf to
+ * its left; bulkLoad repacks the tree.
+ *
+ * All waits are either down the tree or to the right along the leaf
+ * chain, so the latching order cannot deadlock.
+ *
+ * topK(k, false) walks the tree from the right with read latches held
+ * on the path from the root, visiting the children of a node right to
+ * left. Its waits are all down the tree as well.
+ *
+ * A single insert, remove or point search is atomic. A range search
+ * is not a snapshot: it sees every entry whose insert completed
+ * before the search started and may see entries inserted while it
+ * runs. update is a remove followed by an insert.
+ *
+ * @param <K> key type
+ * @param <V> value type
+ */
+public class ConcurrentBPTree<K extends Comparable<K>, V> implements BPTreeADT<K, V> {
+
+	// Root of the tree, guarded by rootLatch
+	private Node root;
+
+	// Guards the root reference itself
+	private final ReentrantReadWriteLock rootLatch = new ReentrantReadWriteLock();
+
+	// Branching factor is the number of children nodes
+	// for internal nodes of the tree
+	private final int branchingFactor;
+
+	/**
+	 * Public constructor
+	 *
+	 * @param branchingFactor
+	 */
+	public ConcurrentBPTree(int branchingFactor) {
+		if (branchingFactor <= 2) {
+			throw new IllegalArgumentException(
+					"Illegal branching factor: " + branchingFactor);
+		}
+
+		this.branchingFactor = branchingFactor;
+		root = new LeafNode();
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * @see BPTreeADT#insert(java.lang.Object, java.lang.Object)
+	 */
+	@Override
+	public void insert(K key, V value) {
+		if (key == null) {
+			throw new IllegalArgumentException("Key may not be null");
+		}
+
+		// write latched internal nodes that may still take a new child,
+		// with the index of the child taken from each
+		List<InternalNode> path = new ArrayList<InternalNode>();
+		List<Integer> pathIndexes = new ArrayList<Integer>();
+
+		rootLatch.writeLock().lock();
+		boolean holdsRoot = true;
+		Node node = root;
+		node.latch.writeLock().lock();
+		if (node.isSafeForInsert()) {
+			rootLatch.writeLock().unlock();
+			holdsRoot = false;
+		}
+
+		try {
+			while (node instanceof ConcurrentBPTree.InternalNode) {
+				InternalNode internal = (InternalNode) node;
+				int childIndex = internal.lowerBound(key);
+				Node child = internal.children[childIndex];
+				child.latch.writeLock().lock();
+				path.add(internal);
+				pathIndexes.add(childIndex);
+
+				// no split can reach above a child with room, so its ancestors are released
+				if (child.isSafeForInsert()) {
+					for (InternalNode ancestor : path) {
+						ancestor.latch.writeLock().unlock();
+					}
+					path.clear();
+					pathIndexes.clear();
+					if (holdsRoot) {
+						rootLatch.writeLock().unlock();
+						holdsRoot = false;
+					}
+				}
+				node = child;
+			}
+
+			((LeafNode) node).insert(key, value);
+
+			// push splits up through the latched ancestors
+			Node child = node;
+			int level = path.size() - 1;
+			while (child.isOverflow()) {
+				K separator = child.splitKey();
+				Node sibling = child.split();
+				if (level < 0) {
+					// only a thread holding the root latch can get here
+					InternalNode newRoot = new InternalNode();
+					newRoot.keys[0] = separator;
+					newRoot.children[0] = child;
+					newRoot.children[1] = sibling;
+					newRoot.size = 1;
+					root = newRoot;
+					break;
+				}
+				InternalNode parent = path.get(level);
+				parent.insertChild(pathIndexes.get(level), separator, sibling);
+				child = parent;
+				level--;
+			}
+		}
+		finally {
+			node.latch.writeLock().unlock();
+			for (InternalNode ancestor : path) {
+				ancestor.latch.writeLock().unlock();
+			}
+			if (holdsRoot) {
+				rootLatch.writeLock().unlock();
+			}
+		}
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * @see BPTreeADT#remove(java.lang.Object, java.lang.Object)
+	 */
+	@Override
+	public boolean remove(K key, V value) {
+		if (key == null) return false;
+
+		LeafNode leaf = seekLeaf(key, true, true);
+		try {
+			// duplicates of key can run into the following leaves
+			while (true) {
+				int index = leaf.lowerBound(key);
+				for (int i = index; i < leaf.size && leaf.keyAt(i).compareTo(key) == 0; i++) {
+					if (java.util.Objects.equals(leaf.values[i], value)) {
+						leaf.removeAt(i);
+						return true;
+					}
+				}
+				if (leaf.size > 0 && leaf.keyAt(leaf.size - 1).compareTo(key) > 0) {
+					return false;
+				}
+				LeafNode next = leaf.next;
+				if (next == null) {
+					return false;
+				}
+				next.latch.writeLock().lock();
+				leaf.latch.writeLock().unlock();
+				leaf = next;
+			}
+		}
+		finally {
+			leaf.latch.writeLock().unlock();
+		}
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * @see BPTreeADT#update(java.lang.Object, java.lang.Object, java.lang.Object)
+	 */
+	@Override
+	public boolean update(K oldKey, K newKey, V value) {
+		if (newKey == null) return false;
+
+		if (!remove(oldKey, value)) return false;
+		insert(newKey, value);
+		return true;
+	}
+
+
+	/**
+	 * Replaces the contents of the tree with the given entries,
+	 * see BPTree#bulkLoad. The tree is rebuilt aside and swapped in
+	 * under the root latch, so searches running at the time finish
+	 * on the old contents. Writers must not run at the same time,
+	 * their changes to the old tree would be lost.
+	 *
+	 * @param sortedEntries entries in ascending key order, keys may repeat
+	 * @param fillFactor fraction of each node to fill, in (0, 1]
+	 */
+	public void bulkLoad(List<? extends java.util.Map.Entry<K, V>> sortedEntries, double fillFactor) {
+		if (sortedEntries == null) {
+			throw new IllegalArgumentException("Entries may not be null");
+		}
+		if (!(fillFactor > 0 && fillFactor <= 1)) {
+			throw new IllegalArgumentException("Illegal fill factor: " + fillFactor);
+		}
+
+		int count = sortedEntries.size();
+		Node newRoot;
+		if (count == 0) {
+			newRoot = new LeafNode();
+		}
+		else {
+			int leafFill = Math.max(1, (int) ((branchingFactor - 1) * fillFactor));
+			int numLeaves = (count + leafFill - 1) / leafFill;
+			List<Node> level = new ArrayList<Node>(numLeaves);
+			List<K> firstKeys = new ArrayList<K>(numLeaves);
+			Iterator<? extends java.util.Map.Entry<K, V>> entryIt = sortedEntries.iterator();
+			K previousKey = null;
+			LeafNode previousLeaf = null;
+			for (int leafIx = 0; leafIx < numLeaves; leafIx++) {
+				LeafNode leaf = new LeafNode();
+				leaf.size = count / numLeaves + (leafIx < count % numLeaves ? 1 : 0);
+				for (int i = 0; i < leaf.size; i++) {
+					java.util.Map.Entry<K, V> entry = entryIt.next();
+					K key = entry.getKey();
+					if (key == null) {
+						throw new IllegalArgumentException("Entries may not have a null key");
+					}
+					if (previousKey != null && previousKey.compareTo(key) > 0) {
+						throw new IllegalArgumentException("Entries are not sorted at key: " + key);
+					}
+					leaf.keys[i] = key;
+					leaf.values[i] = entry.getValue();
+					previousKey = key;
+				}
+				if (previousLeaf != null) {
+					previousLeaf.next = leaf;
+				}
+				previousLeaf = leaf;
+				level.add(leaf);
+				firstKeys.add(leaf.keyAt(0));
+			}
+
+			int fanout = Math.min(branchingFactor, Math.max(3, (int) (branchingFactor * fillFactor)));
+			while (level.size() > 1) {
+				int numChildren = level.size();
+				int numParents = (numChildren + fanout - 1) / fanout;
+				List<Node> parents = new ArrayList<Node>(numParents);
+				List<K> parentFirstKeys = new ArrayList<K>(numParents);
+				int childIx = 0;
+				for (int parentIx = 0; parentIx < numParents; parentIx++) {
+					InternalNode parent = new InternalNode();
+					int childCount = numChildren / numParents + (parentIx < numChildren % numParents ? 1 : 0);
+					for (int i = 0; i < childCount; i++) {
+						parent.children[i] = level.get(childIx + i);
+						if (i > 0) {
+							parent.keys[i - 1] = firstKeys.get(childIx + i);
+						}
+					}
+					parent.size = childCount - 1;
+					parents.add(parent);
+					parentFirstKeys.add(firstKeys.get(childIx));
+					childIx += childCount;
+				}
+				level = parents;
+				firstKeys = parentFirstKeys;
+			}
+			newRoot = level.get(0);
+		}
+
+		rootLatch.writeLock().lock();
+		try {
+			root = newRoot;
+		}
+		finally {
+			rootLatch.writeLock().unlock();
+		}
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * @see BPTreeADT#rangeSearch(java.lang.Object, java.lang.String)
+	 */
+	@Override
+	public List<V> rangeSearch(K key, String comparator) {
+		if (key == null || comparator == null) return new ArrayList<V>();
+
+		switch (comparator) {
+		case "<":
+			return rangeSearch(null, false, key, false);
+		case "<=":
+			return rangeSearch(null, false, key, true);
+		case "==":
+			return rangeSearch(key, true, key, true);
+		case ">=":
+			return rangeSearch(key, true, null, false);
+		case ">":
+			return rangeSearch(key, false, null, false);
+		default:
+			return new ArrayList<V>();
+		}
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * @see BPTreeADT#rangeSearch(java.lang.Object, boolean, java.lang.Object, boolean)
+	 */
+	@Override
+	public List<V> rangeSearch(K lo, boolean loInclusive, K hi, boolean hiInclusive) {
+		return rangeSearch(lo, loInclusive, hi, hiInclusive, Integer.MAX_VALUE);
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * @see BPTreeADT#rangeSearch(java.lang.Object, boolean, java.lang.Object, boolean, int)
+	 */
+	@Override
+	public List<V> rangeSearch(K lo, boolean loInclusive, K hi, boolean hiInclusive, int limit) {
+		List<V> result = new ArrayList<V>();
+		if (limit <= 0) return result;
+
+		if (lo != null && hi != null) {
+			int cmp = lo.compareTo(hi);
+			if (cmp > 0 || (cmp == 0 && !(loInclusive && hiInclusive))) {
+				return result;
+			}
+		}
+
+		LeafNode leaf = seekLeaf(lo, loInclusive, false);
+		try {
+			int index = lo == null ? 0 : (loInclusive ? leaf.lowerBound(lo) : leaf.upperBound(lo));
+			while (true) {
+				for (int i = index; i < leaf.size; i++) {
+					if (!isBelow(leaf.keyAt(i), hi, hiInclusive)) {
+						return result;
+					}
+					result.add(leaf.valueAt(i));
+					if (result.size() == limit) {
+						return result;
+					}
+				}
+				LeafNode next = leaf.next;
+				if (next == null) {
+					return result;
+				}
+				// couple to the next leaf before letting go of this one
+				next.latch.readLock().lock();
+				leaf.latch.readLock().unlock();
+				leaf = next;
+				index = 0;
+			}
+		}
+		finally {
+			leaf.latch.readLock().unlock();
+		}
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * @see BPTreeADT#topK(int, boolean)
+	 */
+	@Override
+	public List<V> topK(int k, boolean ascending) {
+		if (ascending) {
+			return rangeSearch(null, false, null, false, k);
+		}
+
+		List<V> result = new ArrayList<V>();
+		if (k <= 0) return result;
+
+		// the leaves only link to the right, so the largest keys are reached from the root
+		rootLatch.readLock().lock();
+		Node top = root;
+		top.latch.readLock().lock();
+		rootLatch.readLock().unlock();
+		try {
+			collectDescending(top, k, result);
+		}
+		finally {
+			top.latch.readLock().unlock();
+		}
+		return result;
+	}
+
+
+	/**
+	 * Adds the values of a subtree to result from the largest key down,
+	 * until result holds k values
+	 *
+	 * @param node - root of the subtree, read latched by the caller
+	 * @param k - size result stops at
+	 * @param result - list to add to
+	 */
+	private void collectDescending(Node node, int k, List<V> result) {
+		if (node instanceof ConcurrentBPTree.LeafNode) {
+			LeafNode leaf = (LeafNode) node;
+			for (int i = leaf.size - 1; i >= 0 && result.size() < k; i--) {
+				result.add(leaf.valueAt(i));
+			}
+			return;
+		}
+
+		InternalNode internal = (InternalNode) node;
+		for (int i = internal.size; i >= 0 && result.size() < k; i--) {
+			Node child = internal.children[i];
+			child.latch.readLock().lock();
+			try {
+				collectDescending(child, k, result);
+			}
+			finally {
+				child.latch.readLock().unlock();
+			}
+		}
+	}
+
+
+	/**
+	 * Checks a key against the upper bound of a range search
+	 *
+	 * @param key - key to evaluate
+	 * @param hi - upper bound, or null for no upper bound
+	 * @param hiInclusive - true if key may equal hi
+	 * @return true if key is within the upper bound
+	 */
+	private boolean isBelow(K key, K hi, boolean hiInclusive) {
+		if (hi == null) return true;
+		int cmp = key.compareTo(hi);
+		return cmp < 0 || (cmp == 0 && hiInclusive);
+	}
+
+
+	/**
+	 * Descends to the leaf where a search starting at the given key begins,
+	 * coupling read latches on the way down.
+	 *
+	 * @param key - lower bound of the search, or null for the leftmost leaf
+	 * @param inclusive - true to seek the first key >= key, false for the first key > key
+	 * @param writeLeaf - true to return the leaf write latched instead of read latched
+	 * @return the latched leaf, the caller must release it
+	 */
+	private LeafNode seekLeaf(K key, boolean inclusive, boolean writeLeaf) {
+		rootLatch.readLock().lock();
+		Node node = root;
+		latch(node, writeLeaf);
+		rootLatch.readLock().unlock();
+
+		while (node instanceof ConcurrentBPTree.InternalNode) {
+			InternalNode internal = (InternalNode) node;
+			int index = key == null ? 0 : (inclusive ? internal.lowerBound(key) : internal.upperBound(key));
+			Node child = internal.children[index];
+			latch(child, writeLeaf);
+			internal.latch.readLock().unlock();
+			node = child;
+		}
+		return (LeafNode) node;
+	}
+
+
+	/**
+	 * Latches a node met while descending, leaves are write latched
+	 * when asked for, internal nodes are always read latched
+	 *
+	 * @param node - node to latch
+	 * @param writeLeaf - true to write latch a leaf
+	 */
+	private void latch(Node node, boolean writeLeaf) {
+		if (writeLeaf && node instanceof ConcurrentBPTree.LeafNode) {
+			node.latch.writeLock().lock();
+		} else {
+			node.latch.readLock().lock();
+		}
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		rootLatch.readLock().lock();
+		Node top = root;
+		rootLatch.readLock().unlock();
+
+		Queue<List<Node>> queue = new LinkedList<List<Node>>();
+		queue.add(Arrays.asList(top));
+		StringBuilder sb = new StringBuilder();
+		while (!queue.isEmpty()) {
+			Queue<List<Node>> nextQueue = new LinkedList<List<Node>>();
+			while (!queue.isEmpty()) {
+				List<Node> nodes = queue.remove();
+				sb.append('{');
+				Iterator<Node> it = nodes.iterator();
+				while (it.hasNext()) {
+					Node node = it.next();
+					node.latch.readLock().lock();
+					try {
+						sb.append(node.toString());
+						if (node instanceof ConcurrentBPTree.InternalNode) {
+							InternalNode internal = (InternalNode) node;
+							nextQueue.add(new ArrayList<Node>(
+									Arrays.asList(internal.children).subList(0, internal.size + 1)));
+						}
+					}
+					finally {
+						node.latch.readLock().unlock();
+					}
+					if (it.hasNext())
+						sb.append(", ");
+				}
+				sb.append('}');
+				if (!queue.isEmpty())
+					sb.append(", ");
+				else {
+					sb.append('\n');
+				}
+			}
+			queue = nextQueue;
+		}
+		return sb.toString();
+	}
+
+
+	/**
+	 * This abstract class represents any type of node in the tree
+	 * This class is a super class of the LeafNode and InternalNode types.
+	 */
+	private abstract class Node {
+
+		// Latch guarding the contents of the node
+		final ReentrantReadWriteLock latch = new ReentrantReadWriteLock();
+
+		// Array of keys, only the first size entries are in use
+		Object[] keys;
+
+		// Number of keys currently stored in the node
+		int size;
+
+		/**
+		 * Package constructor
+		 *
+		 * @param capacity - number of key slots to allocate
+		 */
+		Node(int capacity) {
+			keys = new Object[capacity];
+		}
+
+		/**
+		 * Gets the key stored at the given slot
+		 *
+		 * @param index - slot of the key
+		 * @return key
+		 */
+		@SuppressWarnings("unchecked")
+		K keyAt(int index) {
+			return (K) keys[index];
+		}
+
+		/**
+		 * @param key - key to evaluate
+		 * @return index of the first key >= key, or size if there is none
+		 */
+		int lowerBound(K key) {
+			int low = 0;
+			int high = size;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (keyAt(mid).compareTo(key) < 0) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+			return low;
+		}
+
+		/**
+		 * @param key - key to evaluate
+		 * @return index of the first key > key, or size if there is none
+		 */
+		int upperBound(K key) {
+			int low = 0;
+			int high = size;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (keyAt(mid).compareTo(key) <= 0) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+			return low;
+		}
+
+		/**
+		 * Checks if one more entry (or child) cannot make the node overflow
+		 *
+		 * @return boolean
+		 */
+		abstract boolean isSafeForInsert();
+
+		/**
+		 *
+		 * @return boolean
+		 */
+		abstract boolean isOverflow();
+
+		/**
+		 * Gets the key that separates this node from the sibling
+		 * that the next call to split creates
+		 *
+		 * @return key
+		 */
+		abstract K splitKey();
+
+		/**
+		 * Gets the new sibling created after splitting the node
+		 *
+		 * @return Node
+		 */
+		abstract Node split();
+
+		public String toString() {
+			return Arrays.asList(keys).subList(0, size).toString();
+		}
+
+	} // End of abstract class Node
+
+	/**
+	 * This class represents an internal node of the tree.
+	 */
+	private class InternalNode extends Node {
+
+		// Array of children nodes, the first size + 1 entries are in use
+		Node[] children;
+
+		/**
+		 * Package constructor
+		 */
+		@SuppressWarnings("unchecked")
+		InternalNode() {
+			super(branchingFactor);
+			children = (Node[]) new ConcurrentBPTree<?, ?>.Node[branchingFactor + 1];
+		}
+
+		/**
+		 * (non-Javadoc)
+		 * @see ConcurrentBPTree.Node#isSafeForInsert()
+		 */
+		boolean isSafeForInsert() {
+			return size + 2 <= branchingFactor;
+		}
+
+		/**
+		 * (non-Javadoc)
+		 * @see ConcurrentBPTree.Node#isOverflow()
+		 */
+		boolean isOverflow() {
+			return size + 1 > branchingFactor;
+		}
+
+		/**
+		 * Adds a child created by splitting children[childIndex]
+		 *
+		 * @param childIndex - index of the child that was split
+		 * @param separator - first key of the new child
+		 * @param sibling - new child to the right of children[childIndex]
+		 */
+		void insertChild(int childIndex, K separator, Node sibling) {
+			System.arraycopy(keys, childIndex, keys, childIndex + 1, size - childIndex);
+			System.arraycopy(children, childIndex + 1, children, childIndex + 2, size - childIndex);
+			keys[childIndex] = separator;
+			children[childIndex + 1] = sibling;
+			size++;
+		}
+
+		/**
+		 * (non-Javadoc)
+		 * @see ConcurrentBPTree.Node#splitKey()
+		 */
+		K splitKey() {
+			return keyAt((size + 1) / 2 - 1);
+		}
+
+		/**
+		 * (non-Javadoc)
+		 * @see ConcurrentBPTree.Node#split()
+		 */
+		Node split() {
+			InternalNode sibling = new InternalNode();
+
+			int numKeys = size;
+			int numChildren = size + 1;
+
+			//the middle key moves up to the parent, see splitKey
+			int firstSiblingChild = numChildren / 2;
+
+			sibling.size = numKeys - firstSiblingChild;
+			System.arraycopy(keys, firstSiblingChild, sibling.keys, 0, sibling.size);
+			System.arraycopy(children, firstSiblingChild, sibling.children, 0, numChildren - firstSiblingChild);
+
+			size = firstSiblingChild - 1;
+			Arrays.fill(keys, size, numKeys, null);
+			Arrays.fill(children, firstSiblingChild, numChildren, null);
+
+			return sibling;
+		}
+
+	} // End of class InternalNode
+
+
+
+	/**
+	 * This class represents a leaf node of the tree.
+	 */
+	private class LeafNode extends Node {
+
+		// Array of values, parallel to keys
+		Object[] values;
+
+		// Reference to the next leaf node, guarded by this leaf's latch
+		LeafNode next;
+
+		/**
+		 * Package constructor
+		 */
+		LeafNode() {
+			super(branchingFactor);
+			values = new Object[branchingFactor];
+		}
+
+		/**
+		 * @param index - slot of the value
+		 * @return value
+		 */
+		@SuppressWarnings("unchecked")
+		V valueAt(int index) {
+			return (V) values[index];
+		}
+
+		/**
+		 * (non-Javadoc)
+		 * @see ConcurrentBPTree.Node#isSafeForInsert()
+		 */
+		boolean isSafeForInsert() {
+			return size + 1 <= branchingFactor - 1;
+		}
+
+		/**
+		 * (non-Javadoc)
+		 * @see ConcurrentBPTree.Node#isOverflow()
+		 */
+		boolean isOverflow() {
+			return size > branchingFactor - 1;
+		}
+
+		/**
+		 * Inserts the entry after any entries with an equal key
+		 *
+		 * @param key
+		 * @param value
+		 */
+		void insert(K key, V value) {
+			int index = upperBound(key);
+
+			System.arraycopy(keys, index, keys, index + 1, size - index);
+			System.arraycopy(values, index, values, index + 1, size - index);
+			keys[index] = key;
+			values[index] = value;
+			size++;
+		}
+
+		/**
+		 * Removes the entry in the given slot
+		 *
+		 * @param index - slot of the entry
+		 */
+		void removeAt(int index) {
+			System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+			System.arraycopy(values, index + 1, values, index, size - index - 1);
+			size--;
+			keys[size] = null;
+			values[size] = null;
+		}
+
+		/**
+		 * (non-Javadoc)
+		 * @see ConcurrentBPTree.Node#splitKey()
+		 */
+		K splitKey() {
+			return keyAt(size / 2);
+		}
+
+		/**
+		 * (non-Javadoc)
+		 * @see ConcurrentBPTree.Node#split()
+		 */
+		Node split() {
+			LeafNode sibling = new LeafNode();
+
+			int middle = size / 2;
+
+			sibling.size = size - middle;
+			System.arraycopy(keys, middle, sibling.keys, 0, sibling.size);
+			System.arraycopy(values, middle, sibling.values, 0, sibling.size);
+
+			Arrays.fill(keys, middle, size, null);
+			Arrays.fill(values, middle, size, null);
+			size = middle;
+
+			// the sibling is not reachable until the parent and this leaf point at it
+			sibling.next = next;
+			next = sibling;
+
+			return sibling;
+		}
+
+	} // End of class LeafNode
+
+
+	/**
+	 * Checks the structure of the tree: the keys of each node are sorted
+	 * and lie between the separators around the node, every leaf is at
+	 * the same depth, and the leaf chain links the leaves left to right.
+	 * Must only be called while no other thread uses the tree.
+	 *
+	 * @return number of entries in the leaves
+	 * @throws IllegalStateException if the structure is broken
+	 */
+	int checkInvariants() {
+		List<LeafNode> leaves = new ArrayList<LeafNode>();
+		collectLeaves(root, null, null, 0, new int[] {-1}, leaves);
+
+		int entries = 0;
+		for (int i = 0; i < leaves.size(); i++) {
+			LeafNode next = i + 1 < leaves.size() ? leaves.get(i + 1) : null;
+			if (leaves.get(i).next != next) {
+				throw new IllegalStateException("leaf chain breaks after leaf " + i + " of " + leaves.size());
+			}
+			entries += leaves.get(i).size;
+		}
+		return entries;
+	}
+
+
+	/**
+	 * helper function to check a subtree for checkInvariants and gather its leaves
+	 *
+	 * @param node - root of the subtree
+	 * @param lo - separator to the left of the subtree, or null at the left edge
+	 * @param hi - separator to the right of the subtree, or null at the right edge
+	 * @param depth - depth of node
+	 * @param leafDepth - depth of the leaves, -1 until the first leaf is reached
+	 * @param leaves - gets the leaves in key order
+	 */
+	private void collectLeaves(Node node, K lo, K hi, int depth, int[] leafDepth, List<LeafNode> leaves) {
+		for (int i = 0; i < node.size; i++) {
+			K key = node.keyAt(i);
+			if ((i > 0 && node.keyAt(i - 1).compareTo(key) > 0)
+					|| (lo != null && key.compareTo(lo) < 0) || (hi != null && key.compareTo(hi) > 0)) {
+				throw new IllegalStateException("key " + key + " out of order in " + node
+						+ " between " + lo + " and " + hi);
+			}
+		}
+
+		if (node instanceof ConcurrentBPTree.LeafNode) {
+			if (leafDepth[0] < 0) {
+				leafDepth[0] = depth;
+			} else if (leafDepth[0] != depth) {
+				throw new IllegalStateException("leaf " + node + " at depth " + depth
+						+ ", expected " + leafDepth[0]);
+			}
+			leaves.add((LeafNode) node);
+			return;
+		}
+
+		InternalNode internal = (InternalNode) node;
+		for (int i = 0; i <= internal.size; i++) {
+			collectLeaves(internal.children[i], i == 0 ? lo : internal.keyAt(i - 1),
+					i == internal.size ? hi : internal.keyAt(i), depth + 1, leafDepth, leaves);
+		}
+	}
+
+
+	/**
+	 * Stress test for a ConcurrentBPTree instance.
+	 *
+	 * Each round writers insert and remove distinct keys while readers
+	 * scan the whole tree. The operations of every writer are drawn
+	 * from the seed of the round before any thread starts, so a failing
+	 * round can be run again. A key is either kept or removed by its
+	 * writer later on, and a scan must be in order and see every kept
+	 * key whose insert finished before the scan began.
+	 *
+	 * Once the threads of a round are joined the tree must pass
+	 * checkInvariants, hold as many entries as kept keys, return them
+	 * in order from a full scan, and find each kept key and no removed one.
+	 * A violation throws an IllegalStateException naming the seed.
+	 *
+	 * Then the read throughput is measured for 1, 2, 4, ... reader
+	 * threads while one writer keeps inserting.
+	 *
+	 * @param args
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		int rounds = 40;
+		int writers = 4;
+		int readers = 2;
+		int keysPerWriter = 5000;
+		int[] branchingFactors = {3, 4, 5, 8, 16};
+
+		long totalScans = 0;
+		for (int seed = 0; seed < rounds; seed++) {
+			Random rnd = new Random(seed);
+			int keys = writers * keysPerWriter;
+
+			// ops[w] lists the keys writer w inserts, and ~key for the keys it removes
+			int[][] ops = new int[writers][];
+			BitSet removed = new BitSet(keys);
+			for (int w = 0; w < writers; w++) {
+				List<Integer> order = new ArrayList<Integer>();
+				for (int j = 0; j < keysPerWriter; j++) {
+					order.add(j * writers + w);
+				}
+				Collections.shuffle(order, rnd);
+
+				List<Integer> writerOps = new ArrayList<Integer>();
+				List<Integer> pending = new ArrayList<Integer>();
+				for (int key : order) {
+					writerOps.add(key);
+					if (rnd.nextInt(4) == 0) {
+						pending.add(key);
+						removed.set(key);
+					}
+					if (!pending.isEmpty() && rnd.nextBoolean()) {
+						writerOps.add(~pending.remove(rnd.nextInt(pending.size())));
+					}
+				}
+				for (int key : pending) {
+					writerOps.add(~key);
+				}
+				ops[w] = writerOps.stream().mapToInt(Integer::intValue).toArray();
+			}
+
+			ConcurrentBPTree<Integer, Integer> tree =
+					new ConcurrentBPTree<>(branchingFactors[seed % branchingFactors.length]);
+			AtomicInteger[] completed = new AtomicInteger[writers];
+			for (int w = 0; w < writers; w++) {
+				completed[w] = new AtomicInteger();
+			}
+			AtomicBoolean writing = new AtomicBoolean(true);
+			AtomicInteger scans = new AtomicInteger();
+			List<String> failures = Collections.synchronizedList(new ArrayList<String>());
+
+			List<Thread> threads = new ArrayList<Thread>();
+			for (int w = 0; w < writers; w++) {
+				final int[] writerOps = ops[w];
+				final AtomicInteger writerCompleted = completed[w];
+				threads.add(new Thread(() -> {
+					for (int op : writerOps) {
+						if (op >= 0) {
+							tree.insert(op, op);
+						} else if (!tree.remove(~op, ~op)) {
+							failures.add("remove of " + ~op + " found nothing");
+						}
+						writerCompleted.incrementAndGet();
+					}
+				}));
+			}
+			for (int r = 0; r < readers; r++) {
+				threads.add(new Thread(() -> {
+					// every reader scans at least once, even if the writers are already done
+					do {
+						int[] before = new int[writers];
+						for (int w = 0; w < writers; w++) {
+							before[w] = completed[w].get();
+						}
+						BitSet seen = new BitSet(keys);
+						Integer previous = null;
+						for (Integer value : tree.rangeSearch(null, true, null, true)) {
+							if (previous != null && previous >= value) {
+								failures.add("scan out of order at " + value + " after " + previous);
+								return;
+							}
+							previous = value;
+							seen.set(value);
+						}
+						for (int w = 0; w < writers; w++) {
+							for (int i = 0; i < before[w]; i++) {
+								int op = ops[w][i];
+								if (op >= 0 && !removed.get(op) && !seen.get(op)) {
+									failures.add("scan missed key " + op + ", inserted before the scan began");
+									return;
+								}
+							}
+						}
+						scans.incrementAndGet();
+					} while (writing.get());
+				}));
+			}
+			for (Thread thread : threads) {
+				thread.setUncaughtExceptionHandler((t, e) -> failures.add(t.getName() + " threw " + e));
+				thread.start();
+			}
+			for (int w = 0; w < writers; w++) {
+				threads.get(w).join();
+			}
+			writing.set(false);
+			for (Thread thread : threads) {
+				thread.join();
+			}
+
+			// the tree must hold exactly the kept keys
+			int kept = keys - removed.cardinality();
+			try {
+				int entries = tree.checkInvariants();
+				if (entries != kept) {
+					failures.add(entries + " entries in the leaves, expected " + kept);
+				}
+			}
+			catch (IllegalStateException e) {
+				failures.add(e.getMessage());
+			}
+			List<Integer> all = tree.rangeSearch(null, true, null, true);
+			List<Integer> expected = new ArrayList<Integer>();
+			for (int key = removed.nextClearBit(0); key < keys; key = removed.nextClearBit(key + 1)) {
+				expected.add(key);
+			}
+			if (!all.equals(expected)) {
+				failures.add("full scan returned " + all.size() + " keys, expected the " + kept + " kept keys in order");
+			}
+			for (int key = 0; key < keys; key++) {
+				List<Integer> found = tree.rangeSearch(key, "==");
+				if (found.size() != (removed.get(key) ? 0 : 1)) {
+					failures.add("search for " + key + " found " + found);
+					break;
+				}
+			}
+
+			if (!failures.isEmpty()) {
+				throw new IllegalStateException("seed " + seed + ": " + failures);
+			}
+			totalScans += scans.get();
+		}
+		System.out.println("Stress test: " + rounds + " rounds, " + totalScans
+				+ " concurrent scans, no violations");
+
+		// read throughput while one writer inserts
+		ConcurrentBPTree<Integer, Integer> loaded = new ConcurrentBPTree<>(64);
+		int preload = 1000000;
+		for (int i = 0; i < preload; i++) {
+			loaded.insert(i * 2, i);
+		}
+		int cores = Runtime.getRuntime().availableProcessors();
+		for (int threadCount = 1; threadCount <= cores; threadCount *= 2) {
+			AtomicBoolean running = new AtomicBoolean(true);
+			AtomicLong reads = new AtomicLong();
+			CountDownLatch started = new CountDownLatch(threadCount + 1);
+			List<Thread> workers = new ArrayList<Thread>();
+			workers.add(new Thread(() -> {
+				Random rnd = new Random();
+				started.countDown();
+				while (running.get()) {
+					loaded.insert(rnd.nextInt(preload) * 2 + 1, -1);
+				}
+			}));
+			for (int t = 0; t < threadCount; t++) {
+				workers.add(new Thread(() -> {
+					Random rnd = new Random();
+					long count = 0;
+					started.countDown();
+					while (running.get()) {
+						int lo = rnd.nextInt(preload * 2);
+						loaded.rangeSearch(lo, true, lo + 200, false);
+						count++;
+					}
+					reads.addAndGet(count);
+				}));
+			}
+			for (Thread worker : workers) {
+				worker.start();
+			}
+			started.await();
+			Thread.sleep(1000);
+			running.set(false);
+			for (Thread worker : workers) {
+				worker.join();
+			}
+			System.out.println(threadCount + " reader(s): " + reads.get() + " range searches/s");
+		}
+	}
+
+} // End of class ConcurrentBPTree
@@ -0,0 +1,1922 @@
+package application;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * B+ tree specialized for primitive double keys and int values.
+ *
+ * FoodData builds one of these for every nutrient. The keys are the
+ * nutrient amounts and the values are the ordinals FoodData assigns
+ * to its food items, so a comparison is a single primitive compare
+ * instead of a call to Double.compareTo on two boxed objects.
+ *
+ * Nutrient amounts repeat a lot (many foods have 0 of something), so a
+ * leaf stores each distinct key once with a sorted posting list of its
+ * ordinals. Searches cost one step per distinct key plus an array copy
+ * per block of a posting list, and a key lives in exactly one leaf.
+ * Posting lists are kept in blocks of POSTING_BLOCK_SIZE ordinals, so
+ * after a snapshot the first change to a key shared by many items
+ * copies one block of its list rather than all of it.
+ *
+ * The layout and the range search rules match BPTree. The boxed
+ * BPTreeADT methods are kept so the tree can stand in for a
+ * BPTree<Double, Integer>, but callers in this package should use the
+ * primitive insert and rangeSearchOrdinals methods.
+ *
+ * Snapshots work as in BPTree#snapshot(). Internal nodes keep the
+ * number of entries and the sum of the keys under each child, so
+ * rangeCount and rangeSum answer without visiting the entries, and
+ * topK and limited range searches start at their first entry by
+ * position, see BPTree#rangeIterator.
+ */
+public class DoubleBPTree implements BPTreeADT<Double, Integer> {
+
+	// Most ordinals in a block of a posting list, a full block is split
+	// in two when an ordinal is inserted into it
+	private static final int POSTING_BLOCK_SIZE = 128;
+
+	// Capacity of the block of a new posting list, it grows as the list fills
+	private static final int INITIAL_POSTING_CAPACITY = 4;
+
+	// Root of the tree
+	private Node root;
+
+	// Branching factor is the number of children nodes
+	// for internal nodes of the tree
+	private int branchingFactor;
+
+	// Current epoch, nodes created in an earlier epoch may be
+	// shared with a snapshot and are copied before they are changed
+	private int epoch;
+
+	// True if this tree is a read-only snapshot
+	private final boolean frozen;
+
+	/**
+	 * Public constructor
+	 *
+	 * @param branchingFactor
+	 */
+	public DoubleBPTree(int branchingFactor) {
+		if (branchingFactor <= 2) {
+			throw new IllegalArgumentException(
+					"Illegal branching factor: " + branchingFactor);
+		}
+
+		this.branchingFactor = branchingFactor;
+		this.frozen = false;
+		root = new LeafNode();
+	}
+
+
+	/**
+	 * Snapshot constructor, shares the nodes of the source tree
+	 *
+	 * @param source - tree to take a snapshot of
+	 */
+	private DoubleBPTree(DoubleBPTree source) {
+		this.branchingFactor = source.branchingFactor;
+		this.epoch = source.epoch;
+		this.frozen = true;
+		root = source.root;
+	}
+
+
+	/**
+	 * Gets a read-only view of the tree as it is now, in constant time,
+	 * see BPTree#snapshot()
+	 *
+	 * @return read-only tree, its insert, remove, update and bulkLoad
+	 *         throw UnsupportedOperationException
+	 */
+	public DoubleBPTree snapshot() {
+		if (frozen) return this;
+
+		DoubleBPTree snapshot = new DoubleBPTree(this);
+		epoch++;
+		return snapshot;
+	}
+
+
+	/**
+	 * Throws if this tree is a snapshot
+	 */
+	private void checkWritable() {
+		if (frozen) {
+			throw new UnsupportedOperationException("Snapshots are read-only");
+		}
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * @see BPTreeADT#insert(java.lang.Object, java.lang.Object)
+	 */
+	@Override
+	public void insert(Double key, Integer value) {
+		if (key == null || value == null) return;
+		insert(key.doubleValue(), value.intValue());
+	}
+
+
+	/**
+	 * Inserts the key and ordinal in the appropriate nodes in the tree
+	 *
+	 * @param key - nutrient amount, may not be NaN
+	 * @param ordinal - ordinal of the item the key belongs to
+	 */
+	public void insert(double key, int ordinal) {
+		checkWritable();
+		if (Double.isNaN(key)) {
+			throw new IllegalArgumentException("Illegal key: " + key);
+		}
+
+		if (root.version != epoch) {
+			root = root.copy();
+		}
+		root.insert(key, ordinal);
+
+		// a full root is split here so that nodes never need a reference to their parent
+		if (root.isOverflow()) {
+			Node sibling = root.split();
+			InternalNode newRoot = new InternalNode();
+			newRoot.keys[0] = sibling.getFirstLeafKey();
+			newRoot.children[0] = root;
+			newRoot.children[1] = sibling;
+			newRoot.size = 1;
+			newRoot.refreshAggregates(0);
+			newRoot.refreshAggregates(1);
+			root = newRoot;
+		}
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * @see BPTreeADT#remove(java.lang.Object, java.lang.Object)
+	 */
+	@Override
+	public boolean remove(Double key, Integer value) {
+		if (key == null || value == null) return false;
+		return remove(key.doubleValue(), value.intValue());
+	}
+
+
+	/**
+	 * Removes the entry with the given key and ordinal,
+	 * rebalancing the nodes it leaves underfull
+	 *
+	 * @param key - key the ordinal is stored under
+	 * @param ordinal - ordinal to remove
+	 * @return true if an entry was removed
+	 */
+	public boolean remove(double key, int ordinal) {
+		checkWritable();
+		if (Double.isNaN(key)) return false;
+
+		if (root.version != epoch) {
+			if (!root.contains(key, ordinal)) return false;
+			root = root.copy();
+		}
+		if (!root.remove(key, ordinal)) return false;
+
+		// a root left with a single child is replaced by that child
+		if (root instanceof InternalNode && root.size == 0) {
+			root = ((InternalNode) root).children[0];
+		}
+		return true;
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * @see BPTreeADT#update(java.lang.Object, java.lang.Object, java.lang.Object)
+	 */
+	@Override
+	public boolean update(Double oldKey, Double newKey, Integer value) {
+		if (oldKey == null || newKey == null || value == null) return false;
+		return update(oldKey.doubleValue(), newKey.doubleValue(), value.intValue());
+	}
+
+
+	/**
+	 * Moves the entry with the given ordinal from oldKey to newKey
+	 *
+	 * @param oldKey - key the ordinal is currently stored under
+	 * @param newKey - key to store the ordinal under, may not be NaN
+	 * @param ordinal - ordinal to move
+	 * @return true if the entry was moved
+	 */
+	public boolean update(double oldKey, double newKey, int ordinal) {
+		checkWritable();
+		if (Double.isNaN(newKey)) return false;
+
+		if (!remove(oldKey, ordinal)) return false;
+		insert(newKey, ordinal);
+		return true;
+	}
+
+
+	/**
+	 * Replaces the contents of the tree with the given keys and ordinals,
+	 * packing leaves and then internal levels bottom-up in one pass.
+	 * See BPTree#bulkLoad.
+	 *
+	 * @param sortedKeys keys in ascending order, keys may repeat
+	 * @param ordinals ordinal of each key, parallel to sortedKeys
+	 * @param fillFactor fraction of each node to fill, in (0, 1]
+	 * @throws IllegalArgumentException if the keys are not sorted, the
+	 *         arrays differ in length, or the fill factor is out of range
+	 */
+	public void bulkLoad(double[] sortedKeys, int[] ordinals, double fillFactor) {
+		checkWritable();
+		if (sortedKeys == null || ordinals == null || sortedKeys.length != ordinals.length) {
+			throw new IllegalArgumentException("Keys and ordinals must be parallel arrays");
+		}
+		if (!(fillFactor > 0 && fillFactor <= 1)) {
+			throw new IllegalArgumentException("Illegal fill factor: " + fillFactor);
+		}
+		for (int i = 0; i < sortedKeys.length; i++) {
+			if (Double.isNaN(sortedKeys[i]) || (i > 0 && sortedKeys[i - 1] > sortedKeys[i])) {
+				throw new IllegalArgumentException("Keys are not sorted at index: " + i);
+			}
+		}
+
+		int count = sortedKeys.length;
+		if (count == 0) {
+			root = new LeafNode();
+			return;
+		}
+
+		//leaves are filled by distinct keys, each run of equal keys becomes one posting list
+		int distinct = 1;
+		for (int i = 1; i < count; i++) {
+			if (sortedKeys[i] != sortedKeys[i - 1]) distinct++;
+		}
+
+		int leafFill = Math.max(1, (int) ((branchingFactor - 1) * fillFactor));
+		int numLeaves = (distinct + leafFill - 1) / leafFill;
+
+		Node[] level = new Node[numLeaves];
+		double[] firstKeys = new double[numLeaves];
+		int entryIx = 0;
+		LeafNode previousLeaf = null;
+		for (int leafIx = 0; leafIx < numLeaves; leafIx++) {
+			LeafNode leaf = new LeafNode();
+			int leafKeys = distinct / numLeaves + (leafIx < distinct % numLeaves ? 1 : 0);
+			for (int keyIx = 0; keyIx < leafKeys; keyIx++) {
+				int runEnd = entryIx + 1;
+				while (runEnd < count && sortedKeys[runEnd] == sortedKeys[entryIx]) {
+					runEnd++;
+				}
+				int[] posting = Arrays.copyOfRange(ordinals, entryIx, runEnd);
+				Arrays.sort(posting);
+				leaf.insertEntry(keyIx, sortedKeys[entryIx], new Posting(posting, epoch));
+				entryIx = runEnd;
+			}
+			if (previousLeaf != null) {
+				previousLeaf.next = leaf;
+			}
+			leaf.previous = previousLeaf;
+			previousLeaf = leaf;
+			level[leafIx] = leaf;
+			firstKeys[leafIx] = leaf.keys[0];
+		}
+
+		int fanout = Math.min(branchingFactor, Math.max(3, (int) (branchingFactor * fillFactor)));
+		while (level.length > 1) {
+			int numChildren = level.length;
+			int numParents = (numChildren + fanout - 1) / fanout;
+			Node[] parents = new Node[numParents];
+			double[] parentFirstKeys = new double[numParents];
+			int childIx = 0;
+			for (int parentIx = 0; parentIx < numParents; parentIx++) {
+				InternalNode parent = new InternalNode();
+				int childCount = numChildren / numParents + (parentIx < numChildren % numParents ? 1 : 0);
+				System.arraycopy(level, childIx, parent.children, 0, childCount);
+				System.arraycopy(firstKeys, childIx + 1, parent.keys, 0, childCount - 1);
+				parent.size = childCount - 1;
+				for (int i = 0; i < childCount; i++) {
+					parent.refreshAggregates(i);
+				}
+				parents[parentIx] = parent;
+				parentFirstKeys[parentIx] = firstKeys[childIx];
+				childIx += childCount;
+			}
+			level = parents;
+			firstKeys = parentFirstKeys;
+		}
+		root = level[0];
+	}
+
+
+	/**
+	 * Gets the number of entries in the tree
+	 *
+	 * @return int
+	 */
+	public int size() {
+		return root.count();
+	}
+
+
+	/**
+	 * Counts the entries whose keys fall between the two bounds without
+	 * visiting them, see BPTree#rangeCount. Use the infinities for an open side.
+	 *
+	 * @param lo lower bound of the keys
+	 * @param loInclusive true if keys equal to lo are counted
+	 * @param hi upper bound of the keys
+	 * @param hiInclusive true if keys equal to hi are counted
+	 * @return number of entries in the range
+	 */
+	public int rangeCount(double lo, boolean loInclusive, double hi, boolean hiInclusive) {
+		if (!(lo < hi || (lo == hi && loInclusive && hiInclusive))) return 0;
+		return countBelow(hi, hiInclusive) - countBelow(lo, !loInclusive);
+	}
+
+
+	/**
+	 * Adds up the keys that fall between the two bounds. Children that lie
+	 * wholly inside the range contribute the sum kept in their parent, so
+	 * only the nodes on the paths to the two bounds are visited.
+	 *
+	 * @param lo lower bound of the keys
+	 * @param loInclusive true if keys equal to lo are added
+	 * @param hi upper bound of the keys
+	 * @param hiInclusive true if keys equal to hi are added
+	 * @return sum of the keys in the range, 0 if there are none
+	 */
+	public double rangeSum(double lo, boolean loInclusive, double hi, boolean hiInclusive) {
+		if (!(lo < hi || (lo == hi && loInclusive && hiInclusive))) return 0;
+		return root.sum(lo, loInclusive, hi, hiInclusive);
+	}
+
+
+	/**
+	 * Gets the rank of a key, which is the number of entries with a smaller key
+	 *
+	 * @param key - key to rank
+	 * @return rank of the key
+	 */
+	public int rank(double key) {
+		return countBelow(key, false);
+	}
+
+
+	/**
+	 * Gets the ordinal of the entry at the given position in key order
+	 *
+	 * @param index - position of the entry, 0 is the entry with the smallest key
+	 * @return ordinal
+	 * @throws IndexOutOfBoundsException if index is not in [0, size())
+	 */
+	public int select(int index) {
+		int[] slot = {index};
+		LeafNode leaf = selectLeaf(slot);
+		int keySlot = leaf.keySlot(slot);
+		return leaf.postings[keySlot].get(slot[0]);
+	}
+
+
+	/**
+	 * Gets the key of the entry at the given position in key order,
+	 * which makes percentiles a single descent
+	 *
+	 * @param index - position of the entry, 0 is the entry with the smallest key
+	 * @return key
+	 * @throws IndexOutOfBoundsException if index is not in [0, size())
+	 */
+	public double selectKey(int index) {
+		int[] slot = {index};
+		LeafNode leaf = selectLeaf(slot);
+		return leaf.keys[leaf.keySlot(slot)];
+	}
+
+
+	/**
+	 * Counts the entries with keys below the given key
+	 *
+	 * @param key - key to compare against
+	 * @param inclusive - true to also count the entries equal to key
+	 * @return number of entries
+	 */
+	private int countBelow(double key, boolean inclusive) {
+		int count = 0;
+		Node node = root;
+		while (node instanceof InternalNode) {
+			InternalNode internal = (InternalNode) node;
+			int index = inclusive ? internal.upperBound(key) : internal.lowerBound(key);
+			for (int i = 0; i < index; i++) {
+				count += internal.counts[i];
+			}
+			node = internal.children[index];
+		}
+		LeafNode leaf = (LeafNode) node;
+		return count + leaf.countBefore(inclusive ? leaf.upperBound(key) : leaf.lowerBound(key));
+	}
+
+
+	/**
+	 * Finds the leaf holding the entry at the given position in key order
+	 *
+	 * @param slot - one element array holding the position of the entry,
+	 *        on return it holds the position of the entry in the leaf
+	 * @return leaf holding the entry
+	 */
+	private LeafNode selectLeaf(int[] slot) {
+		int count = root.count();
+		if (slot[0] < 0 || slot[0] >= count) {
+			throw new IndexOutOfBoundsException("Index: " + slot[0] + ", Size: " + count);
+		}
+
+		Node node = root;
+		while (node instanceof InternalNode) {
+			InternalNode internal = (InternalNode) node;
+			int child = 0;
+			while (slot[0] >= internal.counts[child]) {
+				slot[0] -= internal.counts[child];
+				child++;
+			}
+			node = internal.children[child];
+		}
+		return (LeafNode) node;
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * @see BPTreeADT#rangeSearch(java.lang.Object, java.lang.String)
+	 */
+	@Override
+	public List<Integer> rangeSearch(Double key, String comparator) {
+		List<Integer> result = new ArrayList<Integer>();
+		if (key == null) return result;
+
+		for (int ordinal : rangeSearchOrdinals(key.doubleValue(), comparator)) {
+			result.add(ordinal);
+		}
+		return result;
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * @see BPTreeADT#rangeSearch(java.lang.Object, boolean, java.lang.Object, boolean)
+	 */
+	@Override
+	public List<Integer> rangeSearch(Double lo, boolean loInclusive, Double hi, boolean hiInclusive) {
+		List<Integer> result = new ArrayList<Integer>();
+		int[] ordinals = rangeSearchOrdinals(
+				lo == null ? Double.NEGATIVE_INFINITY : lo.doubleValue(), loInclusive || lo == null,
+				hi == null ? Double.POSITIVE_INFINITY : hi.doubleValue(), hiInclusive || hi == null);
+		for (int ordinal : ordinals) {
+			result.add(ordinal);
+		}
+		return result;
+	}
+
+
+	/**
+	 * Gets the ordinals that satisfy the given range search arguments,
+	 * see BPTreeADT#rangeSearch for the accepted comparators
+	 *
+	 * @param key to be searched
+	 * @param comparator is a string
+	 * @return ordinals in key order; if nothing found, an empty array
+	 */
+	public int[] rangeSearchOrdinals(double key, String comparator) {
+		if (comparator == null) return new int[0];
+
+		switch (comparator) {
+		case "<":
+			return rangeSearchOrdinals(Double.NEGATIVE_INFINITY, true, key, false);
+		case "<=":
+			return rangeSearchOrdinals(Double.NEGATIVE_INFINITY, true, key, true);
+		case "==":
+			return rangeSearchOrdinals(key, true, key, true);
+		case ">=":
+			return rangeSearchOrdinals(key, true, Double.POSITIVE_INFINITY, true);
+		case ">":
+			return rangeSearchOrdinals(key, false, Double.POSITIVE_INFINITY, true);
+		default:
+			return new int[0];
+		}
+	}
+
+
+	/**
+	 * Gets the ordinals whose keys fall between the two bounds in a
+	 * single scan that starts at the first qualifying leaf and stops
+	 * at the upper bound. Use the infinities for an open side.
+	 *
+	 * @param lo lower bound of the keys
+	 * @param loInclusive true if keys equal to lo are included
+	 * @param hi upper bound of the keys
+	 * @param hiInclusive true if keys equal to hi are included
+	 * @return ordinals in key order; if nothing found, an empty array
+	 */
+	public int[] rangeSearchOrdinals(double lo, boolean loInclusive, double hi, boolean hiInclusive) {
+		// an empty range, or a NaN bound, never needs to touch the tree
+		if (!(lo < hi || (lo == hi && loInclusive && hiInclusive))) return new int[0];
+
+		OrdinalList result = new OrdinalList();
+
+		// a snapshot can't follow the leaf links, see BPTree#snapshot()
+		if (frozen) {
+			root.collect(lo, loInclusive, hi, hiInclusive, result);
+			return result.toArray();
+		}
+
+		LeafNode leaf = root.seek(lo, loInclusive);
+		int index = loInclusive ? leaf.lowerBound(lo) : leaf.upperBound(lo);
+
+		while (leaf != null) {
+			//take the rest of the leaf at once when its last key is still in range
+			if (leaf.size > 0 && isBelow(leaf.keys[leaf.size - 1], hi, hiInclusive)) {
+				leaf.addPostings(index, leaf.size, result);
+			}
+			else {
+				int end = index;
+				while (end < leaf.size && isBelow(leaf.keys[end], hi, hiInclusive)) {
+					end++;
+				}
+				leaf.addPostings(index, end, result);
+				//the upper bound lies in this leaf so the scan is done
+				break;
+			}
+			leaf = leaf.next;
+			index = 0;
+		}
+		return result.toArray();
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * @see BPTreeADT#rangeSearch(java.lang.Object, boolean, java.lang.Object, boolean, int)
+	 */
+	@Override
+	public List<Integer> rangeSearch(Double lo, boolean loInclusive, Double hi, boolean hiInclusive, int limit) {
+		List<Integer> result = new ArrayList<Integer>();
+		int[] ordinals = rangeSearchOrdinals(
+				lo == null ? Double.NEGATIVE_INFINITY : lo.doubleValue(), loInclusive || lo == null,
+				hi == null ? Double.POSITIVE_INFINITY : hi.doubleValue(), hiInclusive || hi == null, limit);
+		for (int ordinal : ordinals) {
+			result.add(ordinal);
+		}
+		return result;
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * @see BPTreeADT#topK(int, boolean)
+	 */
+	@Override
+	public List<Integer> topK(int k, boolean ascending) {
+		List<Integer> result = new ArrayList<Integer>();
+		for (int ordinal : topKOrdinals(k, ascending)) {
+			result.add(ordinal);
+		}
+		return result;
+	}
+
+
+	/**
+	 * Gets at most limit ordinals whose keys fall between the two bounds,
+	 * in key order. The first one is found by position and the scan
+	 * stops after limit ordinals, so this costs O(log n + limit).
+	 *
+	 * @param lo lower bound of the keys
+	 * @param loInclusive true if keys equal to lo are included
+	 * @param hi upper bound of the keys
+	 * @param hiInclusive true if keys equal to hi are included
+	 * @param limit most ordinals to return
+	 * @return ordinals in key order; if nothing found, an empty array
+	 */
+	public int[] rangeSearchOrdinals(double lo, boolean loInclusive, double hi, boolean hiInclusive, int limit) {
+		if (!(lo < hi || (lo == hi && loInclusive && hiInclusive)) || limit <= 0) return new int[0];
+
+		int first = countBelow(lo, !loInclusive);
+		int count = countBelow(hi, hiInclusive) - first;
+		OrdinalList result = new OrdinalList();
+		collectRun(first, Math.min(count, limit), true, result);
+		return result.toArray();
+	}
+
+
+	/**
+	 * Gets the ordinals of the k entries with the smallest keys,
+	 * or with the largest keys when ascending is false
+	 *
+	 * @param k most ordinals to return
+	 * @param ascending true for the smallest keys in ascending order,
+	 *        false for the largest keys in descending order
+	 * @return ordinals; if the tree is empty, an empty array
+	 */
+	public int[] topKOrdinals(int k, boolean ascending) {
+		int count = Math.min(Math.max(k, 0), root.count());
+		OrdinalList result = new OrdinalList();
+		collectRun(ascending ? 0 : root.count() - 1, count, ascending, result);
+		return result.toArray();
+	}
+
+
+	/**
+	 * Appends a run of entries given by the position of the first one.
+	 * It moves through the leaf links in either direction, a snapshot
+	 * descends again for each leaf instead, see BPTree#rangeIterator.
+	 *
+	 * @param position - position of the first entry in key order
+	 * @param count - number of entries to append
+	 * @param ascending - true to move towards larger keys
+	 * @param result - list to append to
+	 */
+	private void collectRun(int position, int count, boolean ascending, OrdinalList result) {
+		if (count <= 0) return;
+
+		int[] slot = {position};
+		LeafNode leaf = selectLeaf(slot);
+		int keySlot = leaf.keySlot(slot);
+		int offset = slot[0];
+		while (true) {
+			Posting posting = leaf.postings[keySlot];
+			//take as much of the posting list as is left in the run
+			int taken;
+			if (ascending) {
+				taken = Math.min(count, posting.size - offset);
+				posting.addTo(result, offset, offset + taken);
+			}
+			else {
+				taken = Math.min(count, offset + 1);
+				posting.addReversedTo(result, offset, taken);
+			}
+			count -= taken;
+			if (count == 0) return;
+			position += ascending ? taken : -taken;
+
+			keySlot += ascending ? 1 : -1;
+			if (keySlot < 0 || keySlot >= leaf.size) {
+				if (frozen) {
+					slot[0] = position;
+					leaf = selectLeaf(slot);
+					keySlot = leaf.keySlot(slot);
+					offset = slot[0];
+					continue;
+				}
+				//only an empty root can be an empty leaf, so the neighbour has entries
+				leaf = ascending ? leaf.next : leaf.previous;
+				keySlot = ascending ? 0 : leaf.size - 1;
+			}
+			offset = ascending ? 0 : leaf.postings[keySlot].size - 1;
+		}
+	}
+
+
+	/**
+	 * Checks a key against the upper bound of a range search
+	 *
+	 * @param key - key to evaluate
+	 * @param hi - upper bound
+	 * @param hiInclusive - true if key may equal hi
+	 * @return true if key is within the upper bound
+	 */
+	private static boolean isBelow(double key, double hi, boolean hiInclusive) {
+		return hiInclusive ? key <= hi : key < hi;
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		Queue<List<Node>> queue = new LinkedList<List<Node>>();
+		queue.add(Arrays.asList(root));
+		StringBuilder sb = new StringBuilder();
+		while (!queue.isEmpty()) {
+			Queue<List<Node>> nextQueue = new LinkedList<List<Node>>();
+			while (!queue.isEmpty()) {
+				List<Node> nodes = queue.remove();
+				sb.append('{');
+				Iterator<Node> it = nodes.iterator();
+				while (it.hasNext()) {
+					Node node = it.next();
+					sb.append(node.toString());
+					if (it.hasNext())
+						sb.append(", ");
+					if (node instanceof InternalNode) {
+						InternalNode internal = (InternalNode) node;
+						nextQueue.add(Arrays.asList(internal.children).subList(0, internal.size + 1));
+					}
+				}
+				sb.append('}');
+				if (!queue.isEmpty())
+					sb.append(", ");
+				else {
+					sb.append('\n');
+				}
+			}
+			queue = nextQueue;
+		}
+		return sb.toString();
+	}
+
+
+	/**
+	 * Growable int array used to collect search results without boxing
+	 */
+	private static class OrdinalList {
+
+		// Backing array, only the first size entries are in use
+		int[] ordinals = new int[16];
+
+		// Number of ordinals collected
+		int size;
+
+		/**
+		 * Appends an ordinal, growing the backing array when full
+		 *
+		 * @param ordinal
+		 */
+		void add(int ordinal) {
+			if (size == ordinals.length) {
+				ordinals = Arrays.copyOf(ordinals, size * 2);
+			}
+			ordinals[size++] = ordinal;
+		}
+
+		/**
+		 * Appends a run of ordinals from a posting list
+		 *
+		 * @param src - posting list of a key
+		 * @param from - first slot to copy
+		 * @param to - slot after the last one to copy
+		 */
+		void addAll(int[] src, int from, int to) {
+			int count = to - from;
+			if (count <= 0) return;
+			if (size + count > ordinals.length) {
+				ordinals = Arrays.copyOf(ordinals, Math.max(ordinals.length * 2, size + count));
+			}
+			System.arraycopy(src, from, ordinals, size, count);
+			size += count;
+		}
+
+		/**
+		 * @return the collected ordinals trimmed to size
+		 */
+		int[] toArray() {
+			return Arrays.copyOf(ordinals, size);
+		}
+	}
+
+
+	/**
+	 * Posting list of a key, its ordinals in ascending order kept in
+	 * blocks of at most POSTING_BLOCK_SIZE ordinals. A copy shares the
+	 * blocks, and a shared block is copied before it is changed, as in
+	 * TrigramIndex.
+	 */
+	private static class Posting {
+
+		// Blocks of ordinals, only the first blockSizes[i] entries of block i are in use
+		int[][] blocks;
+		int[] blockSizes;
+
+		// Epoch each block was created or copied in
+		int[] blockEpochs;
+		int blockCount;
+
+		// Number of ordinals
+		int size;
+
+		// Epoch the block table was created or copied in
+		final int epoch;
+
+		/**
+		 * Makes a posting list of ordinals
+		 *
+		 * @param ordinals - ordinals in ascending order, at least one
+		 * @param epoch - current epoch of the tree
+		 */
+		Posting(int[] ordinals, int epoch) {
+			this.epoch = epoch;
+			int count = (ordinals.length + POSTING_BLOCK_SIZE - 1) / POSTING_BLOCK_SIZE;
+			blocks = new int[count][];
+			blockSizes = new int[count];
+			blockEpochs = new int[count];
+			for (int from = 0; from < ordinals.length; from += POSTING_BLOCK_SIZE) {
+				int to = Math.min(ordinals.length, from + POSTING_BLOCK_SIZE);
+				blocks[blockCount] = ordinals.length <= POSTING_BLOCK_SIZE ? ordinals : Arrays.copyOfRange(ordinals, from, to);
+				blockSizes[blockCount] = to - from;
+				blockEpochs[blockCount] = epoch;
+				blockCount++;
+			}
+			size = ordinals.length;
+		}
+
+		/**
+		 * Copy constructor, the copy shares the blocks
+		 *
+		 * @param source - posting list to copy
+		 * @param epoch - current epoch of the tree
+		 */
+		private Posting(Posting source, int epoch) {
+			this.epoch = epoch;
+			blocks = source.blocks.clone();
+			blockSizes = source.blockSizes.clone();
+			blockEpochs = source.blockEpochs.clone();
+			blockCount = source.blockCount;
+			size = source.size;
+		}
+
+		Posting copy(int epoch) {
+			return new Posting(this, epoch);
+		}
+
+		/**
+		 * Gets the ordinal at the given position
+		 *
+		 * @param index - position in the posting list
+		 * @return ordinal
+		 */
+		int get(int index) {
+			int block = 0;
+			while (index >= blockSizes[block]) {
+				index -= blockSizes[block];
+				block++;
+			}
+			return blocks[block][index];
+		}
+
+		/**
+		 * Appends the ordinals at a run of positions to a search result
+		 *
+		 * @param result - list to append to
+		 * @param from - first position to copy
+		 * @param to - position after the last one to copy
+		 */
+		void addTo(OrdinalList result, int from, int to) {
+			int block = 0;
+			while (block < blockCount && from >= blockSizes[block]) {
+				from -= blockSizes[block];
+				to -= blockSizes[block];
+				block++;
+			}
+			while (to > 0 && block < blockCount) {
+				result.addAll(blocks[block], from, Math.min(to, blockSizes[block]));
+				to -= blockSizes[block];
+				from = 0;
+				block++;
+			}
+		}
+
+		/**
+		 * Appends ordinals to a search result from the given position
+		 * towards the start of the posting list
+		 *
+		 * @param result - list to append to
+		 * @param last - position of the first ordinal appended
+		 * @param count - number of ordinals to append
+		 */
+		void addReversedTo(OrdinalList result, int last, int count) {
+			int block = 0;
+			while (last >= blockSizes[block]) {
+				last -= blockSizes[block];
+				block++;
+			}
+			while (count > 0) {
+				for (int i = last; i >= 0 && count > 0; i--, count--) {
+					result.add(blocks[block][i]);
+				}
+				if (--block >= 0) last = blockSizes[block] - 1;
+			}
+		}
+
+		/**
+		 * Tells if an ordinal is in the posting list
+		 */
+		boolean contains(int ordinal) {
+			int block = findBlock(ordinal);
+			return Arrays.binarySearch(blocks[block], 0, blockSizes[block], ordinal) >= 0;
+		}
+
+		/**
+		 * Adds an ordinal after any equal ones, the block table must be
+		 * from the current epoch
+		 *
+		 * @param ordinal - ordinal to add
+		 * @param epoch - current epoch of the tree
+		 */
+		void insert(int ordinal, int epoch) {
+			int block = findBlock(ordinal);
+			int position = blockSizes[block];
+			while (position > 0 && blocks[block][position - 1] > ordinal) {
+				position--;
+			}
+
+			if (blockSizes[block] == POSTING_BLOCK_SIZE) {
+				if (block == blockCount - 1 && position == POSTING_BLOCK_SIZE) {
+					//appending, the common case, starts a new block
+					addBlock(blockCount, new int[INITIAL_POSTING_CAPACITY], 0, epoch);
+					block++;
+					position = 0;
+				}
+				else {
+					//split the block, the ordinal goes into the half that covers it
+					int half = POSTING_BLOCK_SIZE / 2;
+					int[] upper = new int[POSTING_BLOCK_SIZE];
+					System.arraycopy(blocks[block], half, upper, 0, POSTING_BLOCK_SIZE - half);
+					blocks[block] = Arrays.copyOf(blocks[block], POSTING_BLOCK_SIZE);
+					blockSizes[block] = half;
+					blockEpochs[block] = epoch;
+					addBlock(block + 1, upper, POSTING_BLOCK_SIZE - half, epoch);
+					if (position > half) {
+						block++;
+						position -= half;
+					}
+				}
+			}
+
+			int[] values = writableBlock(block, epoch, blockSizes[block] + 1);
+			System.arraycopy(values, position, values, position + 1, blockSizes[block] - position);
+			values[position] = ordinal;
+			blockSizes[block]++;
+			size++;
+		}
+
+		/**
+		 * Removes an ordinal the posting list holds, the block table must be
+		 * from the current epoch. An emptied block is dropped.
+		 *
+		 * @param ordinal - ordinal to remove
+		 * @param epoch - current epoch of the tree
+		 */
+		void remove(int ordinal, int epoch) {
+			int block = findBlock(ordinal);
+			int position = Arrays.binarySearch(blocks[block], 0, blockSizes[block], ordinal);
+			if (blockSizes[block] == 1 && blockCount > 1) {
+				blockCount--;
+				System.arraycopy(blocks, block + 1, blocks, block, blockCount - block);
+				System.arraycopy(blockSizes, block + 1, blockSizes, block, blockCount - block);
+				System.arraycopy(blockEpochs, block + 1, blockEpochs, block, blockCount - block);
+				blocks[blockCount] = null;
+			}
+			else {
+				int[] values = writableBlock(block, epoch, 0);
+				System.arraycopy(values, position + 1, values, position, blockSizes[block] - position - 1);
+				blockSizes[block]--;
+			}
+			size--;
+		}
+
+		/**
+		 * Finds the block an ordinal belongs in
+		 *
+		 * @return index of the last block whose first ordinal is not larger
+		 *         than the ordinal, or 0 if there is none
+		 */
+		private int findBlock(int ordinal) {
+			int lo = 0;
+			int hi = blockCount - 1;
+			while (lo < hi) {
+				int mid = (lo + hi + 1) >>> 1;
+				if (blocks[mid][0] <= ordinal) {
+					lo = mid;
+				}
+				else {
+					hi = mid - 1;
+				}
+			}
+			return lo;
+		}
+
+		private void addBlock(int at, int[] values, int size, int epoch) {
+			if (blockCount == blocks.length) {
+				blocks = Arrays.copyOf(blocks, blockCount * 2);
+				blockSizes = Arrays.copyOf(blockSizes, blockCount * 2);
+				blockEpochs = Arrays.copyOf(blockEpochs, blockCount * 2);
+			}
+			System.arraycopy(blocks, at, blocks, at + 1, blockCount - at);
+			System.arraycopy(blockSizes, at, blockSizes, at + 1, blockCount - at);
+			System.arraycopy(blockEpochs, at, blockEpochs, at + 1, blockCount - at);
+			blocks[at] = values;
+			blockSizes[at] = size;
+			blockEpochs[at] = epoch;
+			blockCount++;
+		}
+
+		private int[] writableBlock(int block, int epoch, int capacity) {
+			if (blockEpochs[block] != epoch || blocks[block].length < capacity) {
+				int length = blocks[block].length < capacity ? Math.min(POSTING_BLOCK_SIZE, blocks[block].length * 2) : blocks[block].length;
+				blocks[block] = Arrays.copyOf(blocks[block], length);
+				blockEpochs[block] = epoch;
+			}
+			return blocks[block];
+		}
+	} // End of class Posting
+
+
+	/**
+	 * This abstract class represents any type of node in the tree
+	 * This class is a super class of the LeafNode and InternalNode types.
+	 */
+	private abstract class Node {
+
+		// Array of keys, only the first size entries are in use
+		double[] keys;
+
+		// Number of keys currently stored in the node
+		int size;
+
+		// Epoch the node was created in, see DoubleBPTree#snapshot()
+		final int version;
+
+		/**
+		 * Package constructor
+		 *
+		 * @param capacity - number of key slots to allocate
+		 */
+		Node(int capacity) {
+			keys = new double[capacity];
+			size = 0;
+			version = epoch;
+		}
+
+		/**
+		 * Binary searches the keys of this node for the first
+		 * slot holding a key greater than or equal to the given key
+		 *
+		 * @param key - key to evaluate
+		 * @return index of the first key >= key, or size if there is none
+		 */
+		int lowerBound(double key) {
+			int low = 0;
+			int high = size;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (keys[mid] < key) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+			return low;
+		}
+
+		/**
+		 * Binary searches the keys of this node for the first
+		 * slot holding a key strictly greater than the given key
+		 *
+		 * @param key - key to evaluate
+		 * @return index of the first key > key, or size if there is none
+		 */
+		int upperBound(double key) {
+			int low = 0;
+			int high = size;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (keys[mid] <= key) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+			return low;
+		}
+
+		/**
+		 * Inserts key and ordinal in the appropriate leaf node
+		 * and balances the tree if required by splitting
+		 *
+		 * @param key
+		 * @param ordinal
+		 */
+		abstract void insert(double key, int ordinal);
+
+		/**
+		 * Gets the first leaf key of the tree
+		 *
+		 * @return key
+		 */
+		abstract double getFirstLeafKey();
+
+		/**
+		 * Gets the new sibling created after splitting the node
+		 *
+		 * @return Node
+		 */
+		abstract Node split();
+
+		/**
+		 * Gets the leaf where a range search starting at the given key begins
+		 *
+		 * @param key - lower bound of the search
+		 * @param inclusive - true to seek the first key >= key, false for the first key > key
+		 * @return leaf holding that key, or the leaf before it when it starts the next leaf
+		 */
+		abstract LeafNode seek(double key, boolean inclusive);
+
+		/**
+		 *
+		 * @return boolean
+		 */
+		abstract boolean isOverflow();
+
+		/**
+		 * Checks if the node has fallen below its minimum occupancy
+		 *
+		 * @return boolean
+		 */
+		abstract boolean isUnderflow();
+
+		/**
+		 * Checks if the node can give an entry to a sibling
+		 * without falling below its minimum occupancy
+		 *
+		 * @return boolean
+		 */
+		abstract boolean canLend();
+
+		/**
+		 * Removes the entry with the given key and ordinal from the subtree.
+		 * Children left underflowing are rebalanced, this node is
+		 * rebalanced by its parent.
+		 *
+		 * @param key
+		 * @param ordinal
+		 * @return true if an entry was removed
+		 */
+		abstract boolean remove(double key, int ordinal);
+
+		/**
+		 * Checks if the subtree holds an entry with the given key and ordinal
+		 *
+		 * @param key
+		 * @param ordinal
+		 * @return boolean
+		 */
+		abstract boolean contains(double key, int ordinal);
+
+		/**
+		 * Gets a copy of the node in the current epoch that can be changed
+		 * without affecting a snapshot, the children are shared
+		 *
+		 * @return Node
+		 */
+		abstract Node copy();
+
+		/**
+		 * Adds the ordinals of the subtree that fall in the range to result,
+		 * in key order, without following leaf links
+		 *
+		 * @param lo - lower bound
+		 * @param loInclusive - true if keys equal to lo are included
+		 * @param hi - upper bound
+		 * @param hiInclusive - true if keys equal to hi are included
+		 * @param result - list the ordinals are added to
+		 * @return false once a key past the upper bound is found
+		 */
+		abstract boolean collect(double lo, boolean loInclusive, double hi, boolean hiInclusive, OrdinalList result);
+
+		/**
+		 * Gets the number of entries in the subtree
+		 *
+		 * @return int
+		 */
+		abstract int count();
+
+		/**
+		 * Gets the sum of all keys in the subtree
+		 *
+		 * @return double
+		 */
+		abstract double sum();
+
+		/**
+		 * Gets the sum of the keys of the subtree that fall in the range
+		 *
+		 * @param lo - lower bound
+		 * @param loInclusive - true if keys equal to lo are added
+		 * @param hi - upper bound
+		 * @param hiInclusive - true if keys equal to hi are added
+		 * @return double
+		 */
+		abstract double sum(double lo, boolean loInclusive, double hi, boolean hiInclusive);
+
+		public String toString() {
+			return Arrays.toString(Arrays.copyOf(keys, size));
+		}
+
+	} // End of abstract class Node
+
+	/**
+	 * This class represents an internal node of the tree.
+	 */
+	private class InternalNode extends Node {
+
+		// Array of children nodes, the first size + 1 entries are in use
+		Node[] children;
+
+		// Number of entries under each child, parallel to children
+		int[] counts;
+
+		// Sum of the keys under each child, parallel to children
+		double[] sums;
+
+		/**
+		 * Package constructor
+		 *
+		 * Room is left for one key and child past the branching factor
+		 * so an overflowing node can be split after the insert.
+		 */
+		InternalNode() {
+			super(branchingFactor);
+			children = new Node[branchingFactor + 1];
+			counts = new int[branchingFactor + 1];
+			sums = new double[branchingFactor + 1];
+		}
+
+		/**
+		 * (non-Javadoc)
+		 * @see DoubleBPTree.Node#count()
+		 */
+		int count() {
+			int count = 0;
+			for (int i = 0; i <= size; i++) {
+				count += counts[i];
+			}
+			return count;
+		}
+
+		/**
+		 * (non-Javadoc)
+		 * @see DoubleBPTree.Node#sum()
+		 */
+		double sum() {
+			double sum = 0;
+			for (int i = 0; i <= size; i++) {
+				sum += sums[i];
+			}
+			return sum;
+		}
+
+		/**
+		 * (non-Javadoc)
+		 * @see DoubleBPTree.Node#sum(double, boolean, double, boolean)
+		 */
+		double sum(double lo, boolean loInclusive, double hi, boolean hiInclusive) {
+			int first = loInclusive ? lowerBound(lo) : upperBound(lo);
+			int last = hiInclusive ? upperBound(hi) : lowerBound(hi);
+			if (first == last) {
+				return children[first].sum(lo, loInclusive, hi, hiInclusive);
+			}
+
+			//children strictly between the two bounds are wholly inside the range
+			double sum = children[first].sum(lo, loInclusive, hi, hiInclusive);
+			for (int i = first + 1; i < last; i++) {
+				sum += sums[i];
+			}
+			return sum + children[last].sum(lo, loInclusive, hi, hiInclusive);
+		}
+
+		/**
+		 * Recomputes the number of entries and the sum of the keys under a child.
+		 * Sums are recomputed rather than adjusted so they don't drift.
+		 *
+		 * @param index - index of the child
+		 */
+		void refreshAggregates(int index) {
+			counts[index] = children[index].count();
+			sums[index] = children[index].sum();
+		}
+
+		/**
+		 * (non-Javadoc)
+		 * @see DoubleBPTree.Node#getFirstLeafKey()
+		 */
+		double getFirstLeafKey() {
+			return children[0].getFirstLeafKey();
+		}
+
+		/**
+		 * (non-Javadoc)
+		 * @see DoubleBPTree.Node#isOverflow()
+		 */
+		boolean isOverflow() {
+			return size + 1 > branchingFactor;
+		}
+
+		/**
+		 * (non-Javadoc)
+		 * @see DoubleBPTree.Node#insert(double, int)
+		 */
+		void insert(double key, int ordinal) {
+			//keys are unique across the leaves, a key equal to a separator belongs to the right child
+			int childIndex = upperBound(key);
+			Node child = writableChild(childIndex);
+			child.insert(key, ordinal);
+			if (child.isOverflow()) {
+				Node sibling = child.split();
+				System.arraycopy(keys, childIndex, keys, childIndex + 1, size - childIndex);
+				System.arraycopy(children, childIndex + 1, children, childIndex + 2, size - childIndex);
+				System.arraycopy(counts, childIndex + 1, counts, childIndex + 2, size - childIndex);
+				System.arraycopy(sums, childIndex + 1, sums, childIndex + 2, size - childIndex);
+				keys[childIndex] = sibling.getFirstLeafKey();
+				children[childIndex + 1] = sibling;
+				size++;
+				refreshAggregates(childIndex + 1);
+			}
+			refreshAggregates(childIndex);
+		}
+
+		/**
+		 * (non-Javadoc)
+		 * @see DoubleBPTree.Node#split()
+		 */
+		Node split() {
+			InternalNode sibling = new InternalNode();
+
+			int numKeys = size;
+			int numChildren = size + 1;
+
+			//the middle key is dropped, the parent takes the first leaf key of the sibling instead
+			int firstSiblingChild = numChildren / 2;
+			int firstSiblingKey = firstSiblingChild;
+
+			sibling.size = numKeys - firstSiblingKey;
+			System.arraycopy(keys, firstSiblingKey, sibling.keys, 0, sibling.size);
+			System.arraycopy(children, firstSiblingChild, sibling.children, 0, numChildren - firstSiblingChild);
+			System.arraycopy(counts, firstSiblingChild, sibling.counts, 0, numChildren - firstSiblingChild);
+			System.arraycopy(sums, firstSiblingChild, sibling.sums, 0, numChildren - firstSiblingChild);
+
+			size = firstSiblingChild - 1;
+			Arrays.fill(children, firstSiblingChild, numChildren, null);
+
+			return sibling;
+		}
+
+		/**
+		 * (non-Javadoc)
+		 * @see DoubleBPTree.Node#seek(double, boolean)
+		 */
+		LeafNode seek(double key, boolean inclusive) {
+			return children[upperBound(key)].seek(key, inclusive);
+		}
+
+		/**
+		 * (non-Javadoc)
+		 * @see DoubleBPTree.Node#isUnderflow()
+		 */
+		boolean isUnderflow() {
+			return size + 1 < (branchingFactor + 1) / 2;
+		}
+
+		/**
+		 * (non-Javadoc)
+		 * @see DoubleBPTree.Node#canLend()
+		 */
+		boolean canLend() {
+			return size + 1 > (branchingFactor + 1) / 2;
+		}
+
+		/**
+		 * (non-Javadoc)
+		 * @see DoubleBPTree.Node#remove(double, int)
+		 */
+		boolean remove(double key, int ordinal) {
+			//each key is stored in a single leaf, so only one child can hold it
+			int i = upperBound(key);
+
+			//a shared child is only copied once it is known to hold the entry
+			if (children[i].version != epoch && !children[i].contains(key, ordinal)) {
+				return false;
+			}
+			if (!writableChild(i).remove(key, ordinal)) {
+				return false;
+			}
+			refreshAggregates(i);
+			if (children[i].isUnderflow()) {
+				rebalance(i);
+			}
+			return true;
+		}
+
+		/**
+		 * (non-Javadoc)
+		 * @see DoubleBPTree.Node#contains(double, int)
+		 */
+		boolean contains(double key, int ordinal) {
+			return children[upperBound(key)].contains(key, ordinal);
+		}
+
+		/**
+		 * Gets the child at the given index, replacing it with a copy
+		 * first when it is shared with a snapshot
+		 *
+		 * @param index - index of the child
+		 * @return child that can be changed
+		 */
+		Node writableChild(int index) {
+			if (children[index].version != epoch) {
+				children[index] = children[index].copy();
+			}
+			return children[index];
+		}
+
+		/**
+		 * (non-Javadoc)
+		 * @see DoubleBPTree.Node#copy()
+		 */
+		Node copy() {
+			InternalNode copy = new InternalNode();
+			System.arraycopy(keys, 0, copy.keys, 0, size);
+			System.arraycopy(children, 0, copy.children, 0, size + 1);
+			System.arraycopy(counts, 0, copy.counts, 0, size + 1);
+			System.arraycopy(sums, 0, copy.sums, 0, size + 1);
+			copy.size = size;
+			return copy;
+		}
+
+		/**
+		 * (non-Javadoc)
+		 * @see DoubleBPTree.Node#collect(double, boolean, double, boolean, OrdinalList)
+		 */
+		boolean collect(double lo, boolean loInclusive, double hi, boolean hiInclusive, OrdinalList result) {
+			int index = loInclusive ? lowerBound(lo) : upperBound(lo);
+			for (int i = index; i <= size; i++) {
+				if (!children[i].collect(lo, loInclusive, hi, hiInclusive, result)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Fixes an underflowing child by borrowing an entry from a sibling
+		 * when the sibling can spare one, otherwise by merging the two
+		 *
+		 * @param childIndex - index of the underflowing child
+		 */
+		void rebalance(int childIndex) {
+			//the left sibling is preferred, the leftmost child only has a right sibling
+			if (childIndex > 0) {
+				if (children[childIndex - 1].canLend()) {
+					rotateRight(childIndex - 1);
+				} else {
+					merge(childIndex - 1);
+				}
+			}
+			else if (size > 0) {
+				if (children[childIndex + 1].canLend()) {
+					rotateLeft(childIndex);
+				} else {
+					merge(childIndex);
+				}
+			}
+		}
+
+		/**
+		 * Moves the last entry of children[sep] to the front of children[sep + 1]
+		 *
+		 * @param sep - index of the key separating the two children
+		 */
+		void rotateRight(int sep) {
+			writableChild(sep);
+			writableChild(sep + 1);
+			if (children[sep] instanceof LeafNode) {
+				LeafNode left = (LeafNode) children[sep];
+				LeafNode right = (LeafNode) children[sep + 1];
+				right.insertEntry(0, left, left.size - 1);
+				left.removeEntry(left.size - 1);
+				keys[sep] = right.keys[0];
+			}
+			else {
+				//the separator moves down into the right node and the last key of the left node moves up
+				InternalNode left = (InternalNode) children[sep];
+				InternalNode right = (InternalNode) children[sep + 1];
+				System.arraycopy(right.keys, 0, right.keys, 1, right.size);
+				System.arraycopy(right.children, 0, right.children, 1, right.size + 1);
+				System.arraycopy(right.counts, 0, right.counts, 1, right.size + 1);
+				System.arraycopy(right.sums, 0, right.sums, 1, right.size + 1);
+				right.keys[0] = keys[sep];
+				right.children[0] = left.children[left.size];
+				right.counts[0] = left.counts[left.size];
+				right.sums[0] = left.sums[left.size];
+				right.size++;
+				keys[sep] = left.keys[left.size - 1];
+				left.children[left.size] = null;
+				left.size--;
+			}
+			refreshAggregates(sep);
+			refreshAggregates(sep + 1);
+		}
+
+		/**
+		 * Moves the first entry of children[sep + 1] to the end of children[sep]
+		 *
+		 * @param sep - index of the key separating the two children
+		 */
+		void rotateLeft(int sep) {
+			writableChild(sep);
+			writableChild(sep + 1);
+			if (children[sep] instanceof LeafNode) {
+				LeafNode left = (LeafNode) children[sep];
+				LeafNode right = (LeafNode) children[sep + 1];
+				left.insertEntry(left.size, right, 0);
+				right.removeEntry(0);
+				keys[sep] = right.keys[0];
+			}
+			else {
+				//the separator moves down into the left node and the first key of the right node moves up
+				InternalNode left = (InternalNode) children[sep];
+				InternalNode right = (InternalNode) children[sep + 1];
+				left.keys[left.size] = keys[sep];
+				left.children[left.size + 1] = right.children[0];
+				left.counts[left.size + 1] = right.counts[0];
+				left.sums[left.size + 1] = right.sums[0];
+				left.size++;
+				keys[sep] = right.keys[0];
+				System.arraycopy(right.keys, 1, right.keys, 0, right.size - 1);
+				System.arraycopy(right.children, 1, right.children, 0, right.size);
+				System.arraycopy(right.counts, 1, right.counts, 0, right.size);
+				System.arraycopy(right.sums, 1, right.sums, 0, right.size);
+				right.children[right.size] = null;
+				right.size--;
+			}
+			refreshAggregates(sep);
+			refreshAggregates(sep + 1);
+		}
+
+		/**
+		 * Merges children[sep + 1] into children[sep] and drops
+		 * the separating key and the emptied child from this node
+		 *
+		 * @param sep - index of the key separating the two children
+		 */
+		void merge(int sep) {
+			//the right child is dropped, so only the left one has to be writable
+			writableChild(sep);
+			if (children[sep] instanceof LeafNode) {
+				LeafNode left = (LeafNode) children[sep];
+				LeafNode right = (LeafNode) children[sep + 1];
+				for (int i = 0; i < right.size; i++) {
+					left.insertEntry(left.size, right, i);
+				}
+				left.next = right.next;
+				if (right.next != null) {
+					right.next.previous = left;
+				}
+			}
+			else {
+				InternalNode left = (InternalNode) children[sep];
+				InternalNode right = (InternalNode) children[sep + 1];
+				left.keys[left.size] = keys[sep];
+				System.arraycopy(right.keys, 0, left.keys, left.size + 1, right.size);
+				System.arraycopy(right.children, 0, left.children, left.size + 1, right.size + 1);
+				System.arraycopy(right.counts, 0, left.counts, left.size + 1, right.size + 1);
+				System.arraycopy(right.sums, 0, left.sums, left.size + 1, right.size + 1);
+				left.size += right.size + 1;
+			}
+
+			System.arraycopy(keys, sep + 1, keys, sep, size - sep - 1);
+			System.arraycopy(children, sep + 2, children, sep + 1, size - sep - 1);
+			System.arraycopy(counts, sep + 2, counts, sep + 1, size - sep - 1);
+			System.arraycopy(sums, sep + 2, sums, sep + 1, size - sep - 1);
+			children[size] = null;
+			size--;
+			refreshAggregates(sep);
+		}
+
+	} // End of class InternalNode
+
+
+
+	/**
+	 * This class represents a leaf node of the tree.
+	 *
+	 * Each distinct key is stored once with a posting list of the
+	 * ordinals that share it, kept in ascending order.
+	 */
+	private class LeafNode extends Node {
+
+		// Posting list of each key, parallel to keys. A posting list from an
+		// earlier epoch may be shared with a snapshot and is copied before it is changed
+		Posting[] postings;
+
+		// Number of entries in the leaf, the sum of the posting sizes
+		int entryCount;
+
+		// Reference to the next leaf node
+		LeafNode next;
+
+		// Reference to the previous leaf node, lets a copied leaf
+		// be linked in place of the original
+		LeafNode previous;
+
+		/**
+		 * Package constructor
+		 *
+		 * A leaf holds at most branchingFactor - 1 distinct keys,
+		 * the extra slot holds the key that makes it overflow.
+		 */
+		LeafNode() {
+			super(branchingFactor);
+			postings = new Posting[branchingFactor];
+		}
+
+		/**
+		 * (non-Javadoc)
+		 * @see DoubleBPTree.Node#getFirstLeafKey()
+		 */
+		double getFirstLeafKey() {
+			return keys[0];
+		}
+
+		/**
+		 * (non-Javadoc)
+		 * @see DoubleBPTree.Node#isOverflow()
+		 */
+		boolean isOverflow() {
+			return size > branchingFactor - 1;
+		}
+
+		/**
+		 * (non-Javadoc)
+		 * @see DoubleBPTree.Node#count()
+		 */
+		int count() {
+			return entryCount;
+		}
+
+		/**
+		 * (non-Javadoc)
+		 * @see DoubleBPTree.Node#sum()
+		 */
+		double sum() {
+			double sum = 0;
+			for (int i = 0; i < size; i++) {
+				sum += keys[i] * postings[i].size;
+			}
+			return sum;
+		}
+
+		/**
+		 * (non-Javadoc)
+		 * @see DoubleBPTree.Node#sum(double, boolean, double, boolean)
+		 */
+		double sum(double lo, boolean loInclusive, double hi, boolean hiInclusive) {
+			int first = loInclusive ? lowerBound(lo) : upperBound(lo);
+			int last = hiInclusive ? upperBound(hi) : lowerBound(hi);
+			double sum = 0;
+			for (int i = first; i < last; i++) {
+				sum += keys[i] * postings[i].size;
+			}
+			return sum;
+		}
+
+		/**
+		 * Counts the entries held by the keys before the given slot
+		 *
+		 * @param slot - index of a key
+		 * @return number of entries
+		 */
+		int countBefore(int slot) {
+			int count = 0;
+			for (int i = 0; i < slot; i++) {
+				count += postings[i].size;
+			}
+			return count;
+		}
+
+		/**
+		 * Finds the key holding the entry at the given position in this leaf
+		 *
+		 * @param slot - one element array holding the position of the entry,
+		 *        on return it holds the position of the entry in the posting list
+		 * @return index of the key
+		 */
+		int keySlot(int[] slot) {
+			int i = 0;
+			while (slot[0] >= postings[i].size) {
+				slot[0] -= postings[i].size;
+				i++;
+			}
+			return i;
+		}
+
+		/**
+		 * Appends the posting lists of a run of keys to a search result
+		 *
+		 * @param from - first key slot to copy
+		 * @param to - slot after the last key to copy
+		 * @param result - list to append to
+		 */
+		void addPostings(int from, int to, OrdinalList result) {
+			for (int i = from; i < to; i++) {
+				postings[i].addTo(result, 0, postings[i].size);
+			}
+		}
+
+		/**
+		 * Opens a gap at the given slot and stores a key with its posting list there
+		 *
+		 * @param slot - index the key goes to
+		 * @param key
+		 * @param posting - posting list of the key
+		 */
+		void insertEntry(int slot, double key, Posting posting) {
+			System.arraycopy(keys, slot, keys, slot + 1, size - slot);
+			System.arraycopy(postings, slot, postings, slot + 1, size - slot);
+			keys[slot] = key;
+			postings[slot] = posting;
+			entryCount += posting.size;
+			size++;
+		}
+
+		/**
+		 * Moves a key with its posting list from another leaf into the given slot
+		 *
+		 * @param slot - index the key goes to
+		 * @param src - leaf holding the key
+		 * @param srcSlot - index of the key in src
+		 */
+		void insertEntry(int slot, LeafNode src, int srcSlot) {
+			insertEntry(slot, src.keys[srcSlot], src.postings[srcSlot]);
+		}
+
+		/**
+		 * Removes the key at the given slot together with its posting list
+		 *
+		 * @param slot - index of the key
+		 */
+		void removeEntry(int slot) {
+			entryCount -= postings[slot].size;
+			size--;
+			System.arraycopy(keys, slot + 1, keys, slot, size - slot);
+			System.arraycopy(postings, slot + 1, postings, slot, size - slot);
+			postings[size] = null;
+		}
+
+		/**
+		 * Gets the posting list at the given slot, copying its block table
+		 * first if it may be shared with a snapshot. Its blocks are copied
+		 * one at a time as they are changed.
+		 *
+		 * @param slot - index of the key
+		 * @return posting list that can be changed in place
+		 */
+		Posting writablePosting(int slot) {
+			if (postings[slot].epoch != epoch) {
+				postings[slot] = postings[slot].copy(epoch);
+			}
+			return postings[slot];
+		}
+
+		/**
+		 * (non-Javadoc)
+		 * @see DoubleBPTree.Node#insert(double, int)
+		 */
+		void insert(double key, int ordinal) {
+			int index = lowerBound(key);
+
+			if (index == size || keys[index] != key) {
+				insertEntry(index, key, new Posting(new int[] {ordinal}, epoch));
+				return;
+			}
+
+			writablePosting(index).insert(ordinal, epoch);
+			entryCount++;
+		}
+
+		/**
+		 * (non-Javadoc)
+		 * @see DoubleBPTree.Node#split()
+		 */
+		Node split() {
+			LeafNode sibling = new LeafNode();
+
+			int middle = size / 2;
+
+			sibling.size = size - middle;
+			System.arraycopy(keys, middle, sibling.keys, 0, sibling.size);
+			System.arraycopy(postings, middle, sibling.postings, 0, sibling.size);
+			Arrays.fill(postings, middle, size, null);
+			size = middle;
+			sibling.entryCount = sibling.countBefore(sibling.size);
+			entryCount -= sibling.entryCount;
+
+			sibling.next = next;
+			sibling.previous = this;
+			if (next != null) {
+				next.previous = sibling;
+			}
+			next = sibling;
+
+			return sibling;
+		}
+
+		/**
+		 * (non-Javadoc)
+		 * @see DoubleBPTree.Node#copy()
+		 */
+		Node copy() {
+			//the posting lists are shared, their epochs make the copy clone them before a change
+			LeafNode copy = new LeafNode();
+			System.arraycopy(keys, 0, copy.keys, 0, size);
+			System.arraycopy(postings, 0, copy.postings, 0, size);
+			copy.size = size;
+			copy.entryCount = entryCount;
+
+			//the copy takes the place of this leaf in the chain,
+			//snapshots don't follow the links so the neighbours can be changed in place
+			copy.next = next;
+			copy.previous = previous;
+			if (next != null) {
+				next.previous = copy;
+			}
+			if (previous != null) {
+				previous.next = copy;
+			}
+			return copy;
+		}
+
+		/**
+		 * (non-Javadoc)
+		 * @see DoubleBPTree.Node#collect(double, boolean, double, boolean, OrdinalList)
+		 */
+		boolean collect(double lo, boolean loInclusive, double hi, boolean hiInclusive, OrdinalList result) {
+			int index = loInclusive ? lowerBound(lo) : upperBound(lo);
+			int end = index;
+			while (end < size && isBelow(keys[end], hi, hiInclusive)) {
+				end++;
+			}
+			addPostings(index, end, result);
+			return end == size;
+		}
+
+		/**
+		 * (non-Javadoc)
+		 * @see DoubleBPTree.Node#seek(double, boolean)
+		 */
+		LeafNode seek(double key, boolean inclusive) {
+			return this;
+		}
+
+		/**
+		 * (non-Javadoc)
+		 * @see DoubleBPTree.Node#isUnderflow()
+		 */
+		boolean isUnderflow() {
+			return size < (branchingFactor - 1) / 2;
+		}
+
+		/**
+		 * (non-Javadoc)
+		 * @see DoubleBPTree.Node#canLend()
+		 */
+		boolean canLend() {
+			return size > (branchingFactor - 1) / 2;
+		}
+
+		/**
+		 * (non-Javadoc)
+		 * @see DoubleBPTree.Node#remove(double, int)
+		 */
+		boolean remove(double key, int ordinal) {
+			int index = lowerBound(key);
+			if (index == size || keys[index] != key) return false;
+
+			if (!postings[index].contains(ordinal)) return false;
+
+			//the last ordinal of a key takes the key with it
+			if (postings[index].size == 1) {
+				removeEntry(index);
+				return true;
+			}
+			writablePosting(index).remove(ordinal, epoch);
+			entryCount--;
+			return true;
+		}
+
+		/**
+		 * (non-Javadoc)
+		 * @see DoubleBPTree.Node#contains(double, int)
+		 */
+		boolean contains(double key, int ordinal) {
+			int index = lowerBound(key);
+			if (index == size || keys[index] != key) return false;
+			return postings[index].contains(ordinal);
+		}
+
+	} // End of class LeafNode
+
+} // End of class DoubleBPTree
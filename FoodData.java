@@ -1,16 +1,44 @@
 package application;
 
-import java.io.File;
 import java.io.IOException;
-import java.io.PrintStream;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 /**
  * This class represents the backend for managing all 
@@ -20,30 +48,151 @@ import java.util.stream.Stream;
  */
 public class FoodData implements FoodDataADT<FoodItem> {
     
-    // List of all the food items.
-    private List<FoodItem> foodItemList;
+    // Fraction of each index node filled when the indexes are bulk loaded,
+    // the remaining room absorbs foods added later without splitting right away
+    private static final double BULK_LOAD_FILL_FACTOR = 0.9;
+    
+    // Bounds on the size of the chunks loadFoodItems parses in parallel
+    private static final long MIN_LOAD_CHUNK_BYTES = 1 << 20;
+    private static final long MAX_LOAD_CHUNK_BYTES = 8 << 20;
+    
+    // Chunks loadFoodItems parses at a time, the parsed food items of at most
+    // two such windows are held before they are appended to the item store
+    private static final int LOAD_WINDOW_CHUNKS = ForkJoinPool.getCommonPoolParallelism();
+    
+    // Size of the buffer a stream is loaded through, it grows only for longer lines
+    private static final int STREAM_BUFFER_BYTES = 1 << 20;
+    
+    // Time between progress reports while a file is parsed in parallel
+    private static final long PROGRESS_INTERVAL_MILLIS = 100;
+    
+    // Query characters filterByNameFuzzy needs for each edit it allows, as a
+    // short query is within a few edits of the start of too many words
+    private static final int FUZZY_CHARS_PER_EDIT = 3;
+    
+    // Rows saveFoodItems formats at a time, and blocks it formats ahead of the one being written
+    private static final int SAVE_BLOCK_ROWS = 4096;
+    private static final int SAVE_BLOCKS_AHEAD = 2 * ForkJoinPool.getCommonPoolParallelism();
+    
+    // Row formatter of each thread saving food items
+    private static final ThreadLocal<RowFormatter> ROW_FORMATTERS = ThreadLocal.withInitial(RowFormatter::new);
+    
+    // Columns of the food items in the order they were added, position in the store is the item's ordinal
+    private FoodStore foodItemsByOrdinal;
+    
+    // True if this is a read-only snapshot, see snapshot()
+    private final boolean isSnapshot;
 
-    // Map of nutrients and their corresponding index
-    private HashMap<String, BPTree<Double, FoodItem>> indexes;
+    // Map of nutrients and their corresponding index, values in the index are item ordinals
+    private EnumMap<NutrientsEnum, DoubleBPTree> indexes;
+    
+    // BPTree for food ID index, values in the index are item ordinals
+    private IdBPTree foodIDIx;
+    
+    // Trigram index of the food names for filterByName
+    private TrigramIndex nameIndex;
     
-    // BPTree for food ID index
-    private BPTree<String, FoodItem> foodIDIx;
+    // Prefix index of the food names and their parts and words for suggestNames and filterByNameFuzzy
+    private NameTrie namePrefixes;
+    
+    // Branching factors of the indexes, tuned ones once a catalog is bulk loaded with auto tune on
+    private IndexConfig indexConfig;
+    
+    // Journal every added food item is appended to, or null, see openJournal()
+    private FoodJournal journal;
     
     /**
-     * Public constructor
+     * Public constructor, every index uses IndexConfig.DEFAULT_BRANCHING_FACTOR
      */
     public FoodData() {
-    	foodItemList = new ArrayList<FoodItem>();
-    	    	
-    	int BPTreeBranchFactor = 11;
-    	foodIDIx = new BPTree<String, FoodItem>(BPTreeBranchFactor);
+    	this(new IndexConfig());
+    }
+    
+    /**
+     * Public constructor
+     * @param indexConfig - branching factors of the indexes, or IndexConfig.autoTuned()
+     *                      to have them picked when the catalog is loaded
+     */
+    public FoodData(IndexConfig indexConfig) {
+    	foodItemsByOrdinal = new FoodStore();
+    	isSnapshot = false;
+    	this.indexConfig = new IndexConfig(indexConfig);
     	
-    	indexes = new HashMap<String,BPTree<Double, FoodItem>>();
+    	foodIDIx = new IdBPTree(this.indexConfig.getIdBranchingFactor());
+    	nameIndex = new TrigramIndex();
+    	namePrefixes = new NameTrie(foodItemsByOrdinal);
+    	
+    	indexes = new EnumMap<NutrientsEnum,DoubleBPTree>(NutrientsEnum.class);
     	for (NutrientsEnum nutrient : NutrientsEnum.values()) { 
-    		indexes.put(nutrient.toString(), new BPTree<Double, FoodItem>(BPTreeBranchFactor));
+    		indexes.put(nutrient, new DoubleBPTree(this.indexConfig.getBranchingFactor(nutrient)));
         }
     }
     
+    /**
+     * Snapshot constructor, shares the indexes and items of the source
+     * @param source - FoodData to take a snapshot of
+     */
+    private FoodData(FoodData source) {
+    	foodItemsByOrdinal = source.foodItemsByOrdinal.snapshot();
+    	isSnapshot = true;
+    	indexConfig = new IndexConfig(source.indexConfig);
+    	
+    	foodIDIx = source.foodIDIx.snapshot();
+    	nameIndex = source.nameIndex.snapshot();
+    	namePrefixes = source.namePrefixes.snapshot(foodItemsByOrdinal);
+    	indexes = new EnumMap<NutrientsEnum,DoubleBPTree>(NutrientsEnum.class);
+    	for(Map.Entry<NutrientsEnum, DoubleBPTree> index : source.indexes.entrySet()) {
+    		indexes.put(index.getKey(), index.getValue().snapshot());
+    	}
+    }
+    
+    /**
+     * Gets a read-only copy of the food data as it is now. The indexes
+     * are frozen in constant time and the items are shared chunk by chunk,
+     * see BPTree#snapshot(), so taking a snapshot doesn't copy the catalog.
+     * 
+     * Foods added, removed or updated afterwards never show up in the
+     * snapshot, and a long query on it never holds up those changes.
+     * Take the snapshot on the thread that changes this FoodData, then
+     * hand it to the thread that runs the queries.
+     * 
+     * @return FoodData whose load, add, remove and update methods
+     *         throw UnsupportedOperationException
+     */
+    public FoodData snapshot() {
+    	if(isSnapshot) {return this;}
+    	return new FoodData(this);
+    }
+    
+    /**
+     * Gets the branching factors the indexes are using. With auto tune on
+     * these are the values picked when the catalog was last bulk loaded.
+     * @return copy of the index configuration
+     */
+    public IndexConfig getIndexConfig() {
+    	return new IndexConfig(indexConfig);
+    }
+    
+    /**
+     * helper function to reject changes to a snapshot
+     */
+    private void checkWritable() {
+    	if(isSnapshot) {throw new UnsupportedOperationException("Snapshots are read-only");}
+    }
+    
+    /**
+     * helper function to get the list of all food items, as views of
+     * the item store in ordinal order
+     * @return List<FoodItem> - the food items
+     */
+    private List<FoodItem> getFoodItemList() {
+    	List<FoodItem> items = new ArrayList<FoodItem>(foodIDIx.size());
+    	for(int ordinal = 0; ordinal < foodItemsByOrdinal.size(); ordinal++) {
+    		if(foodItemsByOrdinal.isLive(ordinal)) {items.add(foodItemsByOrdinal.view(ordinal));}
+    	}
+    	return items;
+    }
+    
     
     /*
      * (non-Javadoc)
@@ -51,83 +200,239 @@ public class FoodData implements FoodDataADT<FoodItem> {
      */
     @Override
     public void loadFoodItems(String filePath) {
+    	checkWritable();
     	if(filePath.equals(null) || filePath.equals("")) {return;}
     	
-    	Stream<String> fileStream = null;
-    	
 		try {
-			List<String> fileLineList = new ArrayList<String>();
-			fileStream = Files.lines(Paths.get(filePath));
-			fileLineList = fileStream.collect(Collectors.toList());
+			loadFoodItems(Paths.get(filePath), null);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+    }
+    
+    /**
+     * Loads the food items of a file as loadFoodItems(String) does, and
+     * reports progress to a listener that can cancel the load. The file is
+     * split into chunks that are mapped and parsed on the fork-join pool,
+     * each into its own batch, while this thread reports progress. Chunks
+     * are parsed a window at a time, and the batches of a window are
+     * appended to the item store while the next window is parsed, so only
+     * two windows of parsed food items are held at once. The indexes are
+     * built from the store once the whole file is in.
+     * @param path - file to load
+     * @param listener - listener to report to, or null
+     * @return boolean - true if the file was loaded, false if the listener cancelled the load
+     * @throws IOException if the file can't be read
+     */
+    public boolean loadFoodItems(Path path, LoadListener listener) throws IOException {
+    	checkWritable();
+    	
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long[] chunkStarts = chunkBoundaries(channel);
+			int chunkCount = chunkStarts.length - 1;
+			List<List<FoodItem>> batches = new ArrayList<List<FoodItem>>(Collections.nCopies(chunkCount, null));
+			LoadProgress progress = new LoadProgress(listener, channel.size());
+			int firstOrdinal = foodItemsByOrdinal.size();
+			boolean appended = false;
 			
-			for(String dataLine : fileLineList) {
-				try {
-					// parse data line
-					/*
-					 * <id>,<food_name>,<calories>,<calorie_count>,<fat>,<fat_grams>,<carbohydrate>,<carbohydrate_grams>,<fiber>,<fiber_grams>,<protein>,<protein_grams>,
-					 * 0 - id
-					 * 1 - name
-					 * 2 - "calories"
-					 * 3 - calories
-					 * 4 - "fat"
-					 * 5 - fat
-					 * 6 - "carbohydrate"
-					 * 7 - carbohydrate
-					 * 8 - "fiber"
-					 * 9 - fiber
-					 * 10 - "protein"
-					 * 11 - protein
-					 */
-					String del = ",";
-					String[] dataLinePcs = dataLine.split(del);
-					
-					String id = new String (dataLinePcs[0]);
-					String name = new String(dataLinePcs[1]);
+			ForkJoinTask<Void> parse = ForkJoinPool.commonPool().submit(
+					new ParseChunks(channel, chunkStarts, batches, progress, 0, Math.min(chunkCount, LOAD_WINDOW_CHUNKS)));
+			try {
+				for(int from = 0; from < chunkCount; from += LOAD_WINDOW_CHUNKS) {
+					int to = Math.min(chunkCount, from + LOAD_WINDOW_CHUNKS);
+					boolean parsed;
+					do {
+						parsed = awaitParse(parse, progress);
+						progress.report();
+					} while(!parsed);
+					if(progress.cancelled) {return false;}
 					
-					// create food item
-					FoodItem foodItemObj = new FoodItem(id, name);
-										
-					// add info about each nutrient
-					for(int strIx = 2; strIx < dataLinePcs.length; strIx++) {
-						// only add valid nutrients
-						boolean isValidNutrient = false;
-				        for (NutrientsEnum nutrient : NutrientsEnum.values()) { 
-				    		if(nutrient.toString().equals(dataLinePcs[strIx])) {
-				    			isValidNutrient = true;
-				    			break;
-				    		}
-				        }
-				        if(!isValidNutrient) {continue;}
-				        
-				        // validate nutrient value
-				        Double nutrientVal = null;
-				        try {
-				        	nutrientVal = Double.parseDouble(dataLinePcs[strIx + 1]);
-				        	if(nutrientVal < 0) {continue;}
-				        } catch(Exception e) {continue;}
-				        
-				        if(nutrientVal == null) {continue;}
-				        
-				        // at this point we have a valid nutrient and value
-				        foodItemObj.addNutrient(dataLinePcs[strIx], nutrientVal);
+					// batches are appended in file order, so ordinals follow the lines of the file
+					if(to < chunkCount) {
+						parse = ForkJoinPool.commonPool().submit(new ParseChunks(channel, chunkStarts, batches, progress,
+								to, Math.min(chunkCount, to + LOAD_WINDOW_CHUNKS)));
+					}
+					for(int chunk = from; chunk < to; chunk++) {
+						appendFoodItems(batches.get(chunk));
+						batches.set(chunk, null);
 					}
-					
-					// add food item
-					addFoodItem(foodItemObj);
-					
-				} catch(Exception e) {
-					//e.printStackTrace();
+				}
+				appended = true;
+			} finally {
+				if(!appended) {
+					// a cancelled or failed load adds nothing, and its tasks must not outlive the file channel
+					progress.cancelled = true;
+					parse.quietlyJoin();
+					foodItemsByOrdinal.truncate(firstOrdinal);
 				}
 			}
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-		finally {
-			if(fileStream != null) {
-				fileStream.close();
-			}
+			
+			indexAppendedItems(firstOrdinal);
+			return true;
 		}
     }
+    
+    /**
+     * Loads the food items read from a stream, reporting progress to a
+     * listener that can cancel the load. The stream is parsed as it is
+     * read and each read's food items are appended to the item store, only
+     * the last, incomplete line is kept between reads, so the memory used
+     * beyond the store doesn't grow with the input. The indexes are built
+     * from the store once the stream ends.
+     * @param in - food item lines, the stream is read to its end but not closed
+     * @param listener - listener to report to, or null
+     * @return boolean - true if the stream was loaded, false if the listener cancelled the load
+     * @throws IOException if the stream can't be read
+     */
+    public boolean loadFoodItems(InputStream in, LoadListener listener) throws IOException {
+    	checkWritable();
+    	
+    	LoadProgress progress = new LoadProgress(listener, -1);
+    	FoodItemParser parser = new FoodItemParser();
+    	List<FoodItem> batch = new ArrayList<FoodItem>();
+    	int firstOrdinal = foodItemsByOrdinal.size();
+    	boolean appended = false;
+    	byte[] buffer = new byte[STREAM_BUFFER_BYTES];
+    	int filled = 0;
+    	int read;
+    	try {
+    		while((read = in.read(buffer, filled, buffer.length - filled)) >= 0) {
+    			filled += read;
+    			
+    			// parse the complete lines, the rest of the last line stays in the buffer
+    			int linesEnd = filled;
+    			while(linesEnd > 0 && buffer[linesEnd - 1] != '\n') {linesEnd--;}
+    			if(linesEnd == 0 && filled == buffer.length) {
+    				buffer = Arrays.copyOf(buffer, buffer.length * 2);
+    			}
+    			parseStreamed(parser, buffer, linesEnd, batch, progress, read);
+    			System.arraycopy(buffer, linesEnd, buffer, 0, filled - linesEnd);
+    			filled -= linesEnd;
+    			
+    			if(progress.report()) {return false;}
+    		}
+    		parseStreamed(parser, buffer, filled, batch, progress, 0);
+    		if(progress.report()) {return false;}
+    		appended = true;
+    	} finally {
+    		// a cancelled or failed load adds nothing
+    		if(!appended) {foodItemsByOrdinal.truncate(firstOrdinal);}
+    	}
+    	
+    	indexAppendedItems(firstOrdinal);
+    	return true;
+    }
+    
+    /**
+     * helper function to parse the lines at the start of a buffer for
+     * loadFoodItems(InputStream, LoadListener), count them in the progress
+     * and append them to the item store
+     * @param parser - parser of the stream
+     * @param buffer - bytes read from the stream
+     * @param length - number of bytes to parse
+     * @param batch - empty list the food items are parsed into, it is left empty
+     * @param progress - progress of the load
+     * @param bytesRead - bytes read from the stream since the last call
+     */
+    private void parseStreamed(FoodItemParser parser, byte[] buffer, int length,
+    		List<FoodItem> batch, LoadProgress progress, int bytesRead) {
+    	int rejected = parser.getRejectedRows();
+    	parser.parse(ByteBuffer.wrap(buffer, 0, length), batch);
+    	progress.add(bytesRead, batch.size(), parser.getRejectedRows() - rejected);
+    	appendFoodItems(batch);
+    	batch.clear();
+    }
+    
+    /**
+     * Waits a while for the parse tasks of a load to finish
+     * @param parse - task parsing every chunk
+     * @param progress - progress of the load, cancelled if this thread is interrupted
+     * @return boolean - true if the tasks are done, false if they are still running
+     * @throws IOException if a chunk couldn't be read
+     */
+    private static boolean awaitParse(ForkJoinTask<Void> parse, LoadProgress progress) throws IOException {
+    	try {
+    		parse.get(PROGRESS_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    		return true;
+    	} catch (TimeoutException e) {
+    		return false;
+    	} catch (InterruptedException e) {
+    		// the tasks stop at their next chunk, they must not outlive the file channel
+    		progress.cancelled = true;
+    		parse.quietlyJoin();
+    		Thread.currentThread().interrupt();
+    		throw new InterruptedIOException("Load interrupted");
+    	} catch (ExecutionException e) {
+    		if(e.getCause() instanceof UncheckedIOException) {throw ((UncheckedIOException) e.getCause()).getCause();}
+    		throw new IOException(e.getCause());
+    	}
+    }
+    
+    /**
+     * Splits a file into chunks for loadFoodItems. Every chunk starts at
+     * the beginning of a line, and there are enough chunks to keep every
+     * thread of the fork-join pool busy.
+     * @param channel - the file
+     * @return long[] - start of each chunk, followed by the size of the file
+     * @throws IOException if the file can't be read
+     */
+    private static long[] chunkBoundaries(FileChannel channel) throws IOException {
+    	long fileSize = channel.size();
+    	long chunkSize = fileSize / (ForkJoinPool.getCommonPoolParallelism() * 4L) + 1;
+    	chunkSize = Math.max(MIN_LOAD_CHUNK_BYTES, Math.min(MAX_LOAD_CHUNK_BYTES, chunkSize));
+    	
+    	List<Long> chunkStarts = new ArrayList<Long>();
+    	chunkStarts.add(0L);
+    	ByteBuffer buffer = ByteBuffer.allocate(4096);
+    	long position = chunkSize;
+    	while(position < fileSize) {
+    		// move the boundary past the end of the line it falls in
+    		buffer.clear();
+    		int read = channel.read(buffer, position);
+    		if(read < 0) {break;}
+    		int newline = -1;
+    		for(int i = 0; i < read && newline < 0; i++) {
+    			if(buffer.get(i) == '\n') {newline = i;}
+    		}
+    		if(newline < 0) {
+    			position += read;
+    			continue;
+    		}
+    		position += newline + 1;
+    		if(position < fileSize) {chunkStarts.add(position);}
+    		position += chunkSize;
+    	}
+    	chunkStarts.add(fileSize);
+    	
+    	long[] result = new long[chunkStarts.size()];
+    	for(int i = 0; i < result.length; i++) {result[i] = chunkStarts.get(i);}
+    	return result;
+    }
+    
+    /**
+     * Parses the lines of one chunk of a file, see FoodItemParser
+     * @param channel - the file
+     * @param start - position of the first byte of the chunk
+     * @param end - position after the last byte of the chunk
+     * @param progress - progress of the load, the chunk is skipped if the load is cancelled
+     * @return List<FoodItem> - food items of the lines that could be parsed, in file order
+     * @throws UncheckedIOException if the file can't be read
+     */
+    private static List<FoodItem> parseChunk(FileChannel channel, long start, long end, LoadProgress progress) {
+    	List<FoodItem> foodItems = new ArrayList<FoodItem>();
+    	if(end == start || progress.cancelled) {return foodItems;}
+    	
+    	MappedByteBuffer chunk;
+    	try {
+    		chunk = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+    	} catch (IOException e) {
+    		throw new UncheckedIOException(e);
+    	}
+    	FoodItemParser parser = new FoodItemParser();
+    	parser.parse(chunk, foodItems);
+    	progress.add(end - start, foodItems.size(), parser.getRejectedRows());
+    	return foodItems;
+    }
 
     /*
      * (non-Javadoc)
@@ -135,108 +440,608 @@ public class FoodData implements FoodDataADT<FoodItem> {
      */
     @Override
     public void addFoodItem(FoodItem foodItem) {
-    	if(foodItem == null) {return;}
+    	checkWritable();
+    	if(!isValidFoodItem(foodItem)) {return;}
     	
-    	if(foodItem.getID() == null) {return;}
-    	if(foodItem.getID().length() <= 0) {return;}
-    	if(foodItem.getName() == null) {return;}
-    	if(foodItem.getName().length() <= 0) {return;}
+    	// IDs are unique, and a duplicate must not reach the journal, whose replay would skip it
+    	if(findOrdinal(foodItem.getID()) >= 0) {return;}
     	
-    	// need to add foodItem to all of the relevant BPTrees (name, ID, nutrient indexes)
-    	foodIDIx.insert(foodItem.getID(), foodItem);
+    	// the item is on the disk before it is added
+    	if(journal != null) {
+    		try {
+    			journal.append(foodItem);
+    		} catch (IOException e) {
+    			throw new UncheckedIOException(e);
+    		}
+    		addJournaledFoodItem(foodItem);
+    		return;
+    	}
+    	
+    	// the store keeps a copy of the item's columns
+    	indexFoodItem(foodItemsByOrdinal.add(foodItem));
+    }
+    
+    /**
+     * helper function to add a food item that came through a journal,
+     * marked as such in the store, see FoodStore#markJournaled
+     * @param foodItem - item to add
+     */
+    private void addJournaledFoodItem(FoodItem foodItem) {
+    	int ordinal = foodItemsByOrdinal.add(foodItem);
+    	foodItemsByOrdinal.markJournaled(ordinal);
+    	indexFoodItem(ordinal);
+    }
+    
+    /**
+     * helper function to add an item of the store to every index
+     * @param ordinal - ordinal of the item
+     */
+    private void indexFoodItem(int ordinal) {
+    	// need to add foodItem to all of the relevant indexes (name, ID, nutrient indexes)
+    	String name = foodItemsByOrdinal.name(ordinal);
+    	foodIDIx.insert(foodItemsByOrdinal.id(ordinal), ordinal);
+    	nameIndex.add(ordinal, name);
+    	namePrefixes.add(ordinal, name);
     	
-    	HashMap<String, Double> foodNutrients = foodItem.getNutrients();
+    	// only add nutrients the item has
+        for (NutrientsEnum nutrient : NutrientsEnum.values()) { 
+        	double value = foodItemsByOrdinal.value(ordinal, nutrient.ordinal());
+    		if(!Double.isNaN(value)) {
+    			indexes.get(nutrient).insert(value, ordinal);
+    		}
+        }
+    }
+    
+    /*
+     * (non-Javadoc)
+     * @see skeleton.FoodDataADT#removeFoodItem(java.lang.String)
+     */
+    @Override
+    public boolean removeFoodItem(String id) {
+    	checkWritable();
+    	int ordinal = findOrdinal(id);
+    	if(ordinal < 0) {return false;}
     	
-    	// only add valid nutrients
+    	// remove foodItem from all of the relevant BPTrees and the name indexes
+    	foodIDIx.remove(id, ordinal);
+    	nameIndex.remove(ordinal, foodItemsByOrdinal.name(ordinal));
+    	namePrefixes.remove(ordinal, foodItemsByOrdinal.name(ordinal));
         for (NutrientsEnum nutrient : NutrientsEnum.values()) { 
-    		if(foodNutrients.containsKey(nutrient.toString())) {
-    			indexes.get(nutrient.toString()).insert(foodNutrients.get(nutrient.toString()), foodItem);
+        	double value = foodItemsByOrdinal.value(ordinal, nutrient.ordinal());
+    		if(!Double.isNaN(value)) {
+    			indexes.get(nutrient).remove(value, ordinal);
     		}
         }
         
-        foodItemList.add(foodItem);
+        // the ordinal is only marked removed so the ordinals of other items don't change
+        foodItemsByOrdinal.remove(ordinal);
+        return true;
+    }
+    
+    /*
+     * (non-Javadoc)
+     * @see skeleton.FoodDataADT#updateFoodItem(skeleton.FoodItem)
+     */
+    @Override
+    public boolean updateFoodItem(FoodItem foodItem) {
+    	checkWritable();
+    	if(!isValidFoodItem(foodItem)) {return false;}
+    	
+    	int ordinal = findOrdinal(foodItem.getID());
+    	if(ordinal < 0) {return false;}
+    	
+    	// only nutrient indexes whose value changed are touched, the ID and ordinal stay the same,
+    	// NaN marks a nutrient the item lacks
+        for (NutrientsEnum nutrient : NutrientsEnum.values()) { 
+        	DoubleBPTree index = indexes.get(nutrient);
+        	double oldVal = foodItemsByOrdinal.value(ordinal, nutrient.ordinal());
+        	double newVal = foodItem.nutrientValue(nutrient.ordinal());
+        	if(!Double.isNaN(oldVal) && !Double.isNaN(newVal)) {
+        		if(oldVal != newVal) {
+        			index.update(oldVal, newVal, ordinal);
+        		}
+        	} else if(!Double.isNaN(oldVal)) {
+        		index.remove(oldVal, ordinal);
+        	} else if(!Double.isNaN(newVal)) {
+        		index.insert(newVal, ordinal);
+        	}
+        }
+        
+        // the name indexes drop the old name before the store takes the new one,
+        // since the name trie orders the items of a key by their names in the store
+        String oldName = foodItemsByOrdinal.name(ordinal);
+        String newName = foodItem.getName();
+        if(!newName.equals(oldName)) {
+        	nameIndex.remove(ordinal, oldName);
+        	namePrefixes.remove(ordinal, oldName);
+        }
+        foodItemsByOrdinal.set(ordinal, foodItem);
+        if(!newName.equals(oldName)) {
+        	nameIndex.add(ordinal, newName);
+        	namePrefixes.add(ordinal, newName);
+        }
+        return true;
+    }
+    
+    /**
+     * Opens a journal that every food item added from now on is appended to,
+     * so added foods survive a crash without saving the whole catalog.
+     * The foods already in the journal are added first, except those whose
+     * ID is already here, so replaying it over a snapshot file that holds
+     * some of them doesn't add them twice. Only adds are journaled.
+     * @param path - journal file, created if it doesn't exist
+     * @throws IOException if the journal can't be read or written
+     * @throws IllegalStateException if a journal is already open
+     */
+    public void openJournal(Path path) throws IOException {
+    	checkWritable();
+    	if(journal != null) {throw new IllegalStateException("A journal is already open");}
+    	
+    	journal = FoodJournal.open(path, foodItem -> {
+    		if(isValidFoodItem(foodItem) && findOrdinal(foodItem.getID()) < 0) {addJournaledFoodItem(foodItem);}
+    	});
+    }
+    
+    /**
+     * Adds the foods of another food data that came through a journal and
+     * whose IDs aren't here yet, still marked as journaled. After
+     * compactJournal has dropped their records, the snapshot file may be
+     * the only place these foods are kept, so a food data reloaded from
+     * the csv file takes them over from the snapshot before it replaces it.
+     * @param source - food data opened from a snapshot file
+     * @return int - number of foods added
+     */
+    public int addJournaledFoods(FoodData source) {
+    	checkWritable();
+    	FoodStore sourceItems = source.foodItemsByOrdinal;
+    	int added = 0;
+    	for(int ordinal = 0; ordinal < sourceItems.size(); ordinal++) {
+    		if(sourceItems.isLive(ordinal) && sourceItems.isJournaled(ordinal)
+    				&& findOrdinal(sourceItems.id(ordinal)) < 0) {
+    			addJournaledFoodItem(sourceItems.view(ordinal));
+    			added++;
+    		}
+    	}
+    	return added;
+    }
+    
+    /**
+     * Saves a snapshot file of the food data and then drops the journal
+     * records it holds, both on a background thread. Foods can be added
+     * while it runs, those are kept in the journal. The snapshot marks the
+     * foods that came through the journal, as it is the only file left
+     * holding them, see addJournaledFoods.
+     * @param snapshotPath - snapshot file to write, see saveSnapshot
+     * @return CompletableFuture<Void> - completes when the journal is compacted,
+     *         or exceptionally with an UncheckedIOException
+     * @throws IllegalStateException if no journal is open
+     */
+    public CompletableFuture<Void> compactJournal(Path snapshotPath) {
+    	checkWritable();
+    	if(journal == null) {throw new IllegalStateException("No journal is open");}
+    	
+    	// every journaled item is in the read-only copy
+    	FoodData saved = snapshot();
+    	FoodJournal compacted = journal;
+    	long mark = compacted.mark();
+    	return CompletableFuture.runAsync(() -> {
+    		try {
+    			saved.saveSnapshot(snapshotPath);
+    			compacted.discardBefore(mark);
+    		} catch (IOException e) {
+    			throw new UncheckedIOException(e);
+    		}
+    	}, task -> {
+    		Thread thread = new Thread(task, "food-journal-compaction");
+    		thread.setDaemon(true);
+    		thread.start();
+    	});
+    }
+    
+    /**
+     * Closes the journal, if one is open. Foods added afterwards are not journaled.
+     * @throws IOException if records still pending couldn't be written
+     */
+    public void closeJournal() throws IOException {
+    	if(journal == null) {return;}
+    	
+    	FoodJournal closing = journal;
+    	journal = null;
+    	closing.close();
+    }
+    
+    /**
+     * helper function to look up the ordinal of a food item by its ID
+     * @param id - ID of the food item
+     * @return int - ordinal of the food item, or -1 if there is none
+     */
+    private int findOrdinal(String id) {
+    	if(id == null) {return -1;}
+    	
+    	return foodIDIx.find(id);
+    }
+    
+    /**
+     * Appends a batch of loaded food items to the item store without
+     * indexing them, see indexAppendedItems
+     * @param foodItems food items to append, invalid items are skipped
+     */
+    private void appendFoodItems(List<FoodItem> foodItems) {
+    	for(FoodItem foodItem : foodItems) {
+    		if(isValidFoodItem(foodItem)) {foodItemsByOrdinal.add(foodItem);}
+    	}
+    }
+    
+    /**
+     * Indexes the items a load appended to the store. When nothing was
+     * loaded before every index is bulk loaded from its sorted column,
+     * otherwise the items are journaled and indexed one at a time as
+     * addFoodItem does, which drops those whose ID is already here.
+     * @param firstOrdinal ordinal of the first appended item
+     */
+    private void indexAppendedItems(int firstOrdinal) {
+    	if(firstOrdinal > 0) {
+    		for(int ordinal = firstOrdinal; ordinal < foodItemsByOrdinal.size(); ordinal++) {
+    			if(findOrdinal(foodItemsByOrdinal.id(ordinal)) >= 0) {
+    				foodItemsByOrdinal.remove(ordinal);
+    				continue;
+    			}
+    			if(journal != null) {
+    				try {
+    					journal.append(foodItemsByOrdinal.view(ordinal));
+    				} catch (IOException e) {
+    					// the items that are not on the disk are not added
+    					foodItemsByOrdinal.truncate(ordinal);
+    					throw new UncheckedIOException(e);
+    				}
+    				foodItemsByOrdinal.markJournaled(ordinal);
+    			}
+    			indexFoodItem(ordinal);
+    		}
+    		return;
+    	}
+    	
+    	for(int ordinal = 0; ordinal < foodItemsByOrdinal.size(); ordinal++) {
+    		String name = foodItemsByOrdinal.name(ordinal);
+    		nameIndex.add(ordinal, name);
+    		namePrefixes.add(ordinal, name);
+    	}
+    	
+    	// ID index, the tree sorts the encoded IDs itself
+    	String[] ids = new String[foodItemsByOrdinal.size()];
+    	int[] idOrdinals = new int[ids.length];
+    	for(int ordinal = 0; ordinal < ids.length; ordinal++) {
+    		ids[ordinal] = foodItemsByOrdinal.id(ordinal);
+    		idOrdinals[ordinal] = ordinal;
+    	}
+    	if(indexConfig.isAutoTune()) {
+    		indexConfig.tuneIdIndex(ids, BULK_LOAD_FILL_FACTOR);
+    		foodIDIx = new IdBPTree(indexConfig.getIdBranchingFactor());
+    	}
+    	foodIDIx.bulkLoad(ids, idOrdinals, BULK_LOAD_FILL_FACTOR);
+    	
+    	// nutrient indexes
+    	for (NutrientsEnum nutrient : NutrientsEnum.values()) {
+    		bulkLoadNutrientIndex(nutrient);
+    	}
+    }
+    
+    /**
+     * Sorts the column of one nutrient and bulk loads its index with it.
+     * Items are placed by the rank of their value among the distinct values,
+     * so only primitive arrays are sorted and equal values stay in ordinal order.
+     * With auto tune on the index is rebuilt with the branching factor tuned
+     * for the sorted column.
+     * @param nutrient nutrient whose index is built
+     */
+    private void bulkLoadNutrientIndex(NutrientsEnum nutrient) {
+    	double[] column = foodItemsByOrdinal.column(nutrient.ordinal());
+    	double[] values = new double[column.length];
+    	int[] ordinals = new int[column.length];
+    	int count = 0;
+    	for(int ordinal = 0; ordinal < column.length; ordinal++) {
+    		if(Double.isNaN(column[ordinal])) {continue;}
+    		values[count] = column[ordinal];
+    		ordinals[count] = ordinal;
+    		count++;
+    	}
+    	
+    	// distinct values in ascending order
+    	double[] distinct = Arrays.copyOf(values, count);
+    	Arrays.sort(distinct);
+    	int distinctCount = 0;
+    	for(int i = 0; i < count; i++) {
+    		if(i == 0 || distinct[i] != distinct[distinctCount - 1]) {
+    			distinct[distinctCount++] = distinct[i];
+    		}
+    	}
+    	
+    	// counting sort by rank
+    	int[] ranks = new int[count];
+    	int[] slots = new int[distinctCount + 1];
+    	for(int i = 0; i < count; i++) {
+    		ranks[i] = Arrays.binarySearch(distinct, 0, distinctCount, values[i]);
+    		slots[ranks[i] + 1]++;
+    	}
+    	for(int rank = 0; rank < distinctCount; rank++) {
+    		slots[rank + 1] += slots[rank];
+    	}
+    	double[] sortedKeys = new double[count];
+    	int[] sortedOrdinals = new int[count];
+    	for(int i = 0; i < count; i++) {
+    		int slot = slots[ranks[i]]++;
+    		sortedKeys[slot] = values[i];
+    		sortedOrdinals[slot] = ordinals[i];
+    	}
+    	
+    	if(indexConfig.isAutoTune()) {
+    		indexConfig.tuneNutrientIndex(nutrient, sortedKeys, BULK_LOAD_FILL_FACTOR);
+    		indexes.put(nutrient, new DoubleBPTree(indexConfig.getBranchingFactor(nutrient)));
+    	}
+    	indexes.get(nutrient).bulkLoad(sortedKeys, sortedOrdinals, BULK_LOAD_FILL_FACTOR);
+    }
+    
+    /**
+     * helper function to determine if a food item can be added
+     * @param foodItem - food item to examine
+     * @return boolean - true if the item has a non-empty ID and name
+     */
+    private boolean isValidFoodItem(FoodItem foodItem) {
+    	if(foodItem == null) {return false;}
+    	
+    	if(foodItem.getID() == null) {return false;}
+    	if(foodItem.getID().length() <= 0) {return false;}
+    	if(foodItem.getName() == null) {return false;}
+    	if(foodItem.getName().length() <= 0) {return false;}
+    	
+    	return true;
     }
 
 	@Override
 	public void saveFoodItems(String filename) {
-		// attempts to save the current layout to file
-		File outputFile = null;
-		PrintStream writer = null;
-		
-		// attempt to create file
 		try {
-			outputFile = new File(filename);
-			writer = new PrintStream(outputFile);
-			
-			// loop through list of foodItems and add each to output file
-			for(FoodItem foodItemObj : foodItemList) {
-				if(foodItemObj == null) {continue;}
-				
-				String[] dataLinePcs = new String[(NutrientsEnum.values().length * 2) + 2];
-				// data line
-				/*
-				 * <id>,<food_name>,<calories>,<calorie_count>,<fat>,<fat_grams>,<carbohydrate>,<carbohydrate_grams>,<fiber>,<fiber_grams>,<protein>,<protein_grams>,
-				 * 0 - id
-				 * 1 - name
-				 * 2 - "calories"
-				 * 3 - calories
-				 * 4 - "fat"
-				 * 5 - fat
-				 * 6 - "carbohydrate"
-				 * 7 - carbohydrate
-				 * 8 - "fiber"
-				 * 9 - fiber
-				 * 10 - "protein"
-				 * 11 - protein
-				 */
-				
-				// create array of string pieces
-				dataLinePcs[0] = foodItemObj.getID();
-				dataLinePcs[1] = foodItemObj.getName();
-				int strIx = 2;
-				for (NutrientsEnum nutrient : NutrientsEnum.values()) { 
-		    		dataLinePcs[strIx] = nutrient.toString();
-		    		dataLinePcs[strIx + 1] = new Double(foodItemObj.getNutrientValue(nutrient.toString())).toString();
-		    		strIx = strIx + 2;
-		        }
-				
-				// concatenate array into single string
-				String del = ",";
-				String dataLine = new String();
-				for(int i = 0; i < dataLinePcs.length; i++) {
-					if(i == 0) {
-						dataLine = dataLinePcs[i];
-					} else {
-						dataLine = dataLine + del + dataLinePcs[i];
-					}
-				}
-				writer.println(dataLine); // push line of data to printwriter
-			}
+			saveFoodItems(Paths.get(filename), true);
 		} catch(IOException e) {
-			// use catch block to catch IO exceptions from try block
 			System.out.println("WARNING: Could not save to file " + filename);
 			e.printStackTrace();
-		} finally {
-			// use finally to close file even if we ran into an exception
-			// if statement checks for null pointer
-			if (writer != null) {
-				// close the file
-				writer.close();
+		}
+	}
+	
+	/**
+	 * Saves the food items to a file in the format loadFoodItems reads, one
+	 * line per item with every nutrient, 0 for the nutrients it lacks, in
+	 * ascending order by name as getAllFoodItems lists them.
+	 * 
+	 * Rows are formatted a block at a time into reused buffers and streamed
+	 * to a temporary file next to the target, which then replaces the target,
+	 * so a failed save never leaves a truncated file.
+	 * 
+	 * @param path - file to write, replaced if it exists
+	 * @param parallel - true to format blocks on the fork-join pool while
+	 *                   the blocks before them are written
+	 * @throws IOException if the file can't be written
+	 */
+	public void saveFoodItems(Path path, boolean parallel) throws IOException {
+		FoodStore foodItems = foodItemsByOrdinal;
+		int[] ordinals = ordinalsByName();
+		int blockCount = (ordinals.length + SAVE_BLOCK_ROWS - 1) / SAVE_BLOCK_ROWS;
+		
+		writeAtomically(path, temp -> {
+			try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+					StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+				// blocks are formatted in order, at most SAVE_BLOCKS_AHEAD ahead of the one being written
+				Deque<ForkJoinTask<ByteBuffer>> formatted = new ArrayDeque<ForkJoinTask<ByteBuffer>>();
+				int nextBlock = 0;
+				for(int block = 0; block < blockCount; block++) {
+					if(!parallel) {
+						writeFully(channel, formatRows(foodItems, ordinals, block));
+						continue;
+					}
+					while(nextBlock < blockCount && formatted.size() < SAVE_BLOCKS_AHEAD) {
+						int rowBlock = nextBlock++;
+						formatted.add(ForkJoinPool.commonPool().submit(() -> formatRows(foodItems, ordinals, rowBlock)));
+					}
+					writeFully(channel, formatted.poll().join());
+				}
+				channel.force(true);
 			}
+		});
+	}
+	
+	/**
+	 * helper function to get the ordinals of the live items for saveFoodItems,
+	 * sorted by name with the comparison getAllFoodItems uses. The sort is
+	 * stable, so items with the same name stay in ordinal order.
+	 * @return int[] - the ordinals in the order their rows are written
+	 */
+	private int[] ordinalsByName() {
+		String[] lowerNames = new String[foodItemsByOrdinal.size()];
+		Integer[] order = new Integer[foodIDIx.size()];
+		int count = 0;
+		for(int ordinal = 0; ordinal < lowerNames.length; ordinal++) {
+			if(!foodItemsByOrdinal.isLive(ordinal)) {continue;}
+			lowerNames[ordinal] = foodItemsByOrdinal.name(ordinal).toLowerCase();
+			order[count++] = ordinal;
+		}
+		Arrays.sort(order, 0, count, (ordinal1, ordinal2) -> lowerNames[ordinal1].compareTo(lowerNames[ordinal2]));
+		
+		int[] ordinals = new int[count];
+		for(int i = 0; i < count; i++) {ordinals[i] = order[i];}
+		return ordinals;
+	}
+	
+	/**
+	 * helper function to format one block of rows for saveFoodItems with the
+	 * row formatter of the current thread
+	 * @param foodItems - store being saved
+	 * @param ordinals - ordinals of the items to save, in the order they are written
+	 * @param block - index of the block, SAVE_BLOCK_ROWS ordinals each
+	 * @return ByteBuffer - the rows as UTF-8 bytes, ready to be written
+	 */
+	private static ByteBuffer formatRows(FoodStore foodItems, int[] ordinals, int block) {
+		int from = block * SAVE_BLOCK_ROWS;
+		return ROW_FORMATTERS.get().format(foodItems, ordinals, from, Math.min(ordinals.length, from + SAVE_BLOCK_ROWS));
+	}
+	
+	/**
+	 * helper function to write all of a buffer to a channel
+	 */
+	private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while(buffer.hasRemaining()) {
+			channel.write(buffer);
 		}
 	}
 	
+	/**
+	 * Writes a file by writing a temporary file next to it and moving the
+	 * temporary file over it, atomically where the file system allows it.
+	 * The temporary file is deleted if writing fails.
+	 * @param path - file to write
+	 * @param writer - writes the contents to the path it is given
+	 * @throws IOException if the file can't be written
+	 */
+	private static void writeAtomically(Path path, FileContents writer) throws IOException {
+		Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+		try {
+			writer.writeTo(temp);
+			try {
+				Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch(AtomicMoveNotSupportedException e) {
+				Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+	
+    /**
+     * Saves the food items and the order of every index to a binary snapshot
+     * file, see SnapshotFile for the layout. openSnapshot reads it back with
+     * sequential reads and bulk loads, without parsing or sorting. As in
+     * saveFoodItems(Path, boolean), a failed save leaves the old file in place.
+     * @param path - file to write, replaced if it exists
+     * @throws IOException if the file can't be written
+     */
+    public void saveSnapshot(Path path) throws IOException {
+    	// removed items leave gaps in the ordinals, the snapshot numbers the items without them
+    	int[] compacted = new int[foodItemsByOrdinal.size()];
+    	int itemCount = 0;
+    	for(int ordinal = 0; ordinal < compacted.length; ordinal++) {
+    		compacted[ordinal] = foodItemsByOrdinal.isLive(ordinal) ? itemCount++ : -1;
+    	}
+    	
+    	NutrientsEnum[] nutrients = NutrientsEnum.values();
+    	SnapshotFile snapshot = new SnapshotFile();
+    	snapshot.ids = new String[itemCount];
+    	snapshot.names = new String[itemCount];
+    	snapshot.nutrientPresent = new long[nutrients.length][SnapshotFile.bitmapWords(itemCount)];
+    	snapshot.nutrientValues = new double[nutrients.length][itemCount];
+    	snapshot.journaled = new long[SnapshotFile.bitmapWords(itemCount)];
+    	for(int ordinal = 0; ordinal < compacted.length; ordinal++) {
+    		int item = compacted[ordinal];
+    		if(item < 0) {continue;}
+    		snapshot.ids[item] = foodItemsByOrdinal.id(ordinal);
+    		snapshot.names[item] = foodItemsByOrdinal.name(ordinal);
+    		if(foodItemsByOrdinal.isJournaled(ordinal)) {snapshot.journaled[item >>> 6] |= 1L << item;}
+    	}
+    	for(NutrientsEnum nutrient : nutrients) {
+    		// one sequential pass over each column
+    		double[] column = foodItemsByOrdinal.column(nutrient.ordinal());
+    		long[] present = snapshot.nutrientPresent[nutrient.ordinal()];
+    		double[] values = snapshot.nutrientValues[nutrient.ordinal()];
+    		for(int ordinal = 0; ordinal < column.length; ordinal++) {
+    			int item = compacted[ordinal];
+    			if(item < 0 || Double.isNaN(column[ordinal])) {continue;}
+    			present[item >>> 6] |= 1L << item;
+    			values[item] = column[ordinal];
+    		}
+    	}
+    	
+    	// each index is saved as the ordinals of its entries in key order
+    	List<Integer> idOrder = foodIDIx.topK(foodIDIx.size(), true);
+    	snapshot.idOrder = new int[idOrder.size()];
+    	for(int i = 0; i < snapshot.idOrder.length; i++) {
+    		snapshot.idOrder[i] = compacted[idOrder.get(i)];
+    	}
+    	snapshot.nutrientOrders = new int[nutrients.length][];
+    	snapshot.nutrientBranchingFactors = new int[nutrients.length];
+    	for(NutrientsEnum nutrient : nutrients) {
+    		DoubleBPTree index = indexes.get(nutrient);
+    		int[] order = index.topKOrdinals(index.size(), true);
+    		for(int i = 0; i < order.length; i++) {order[i] = compacted[order[i]];}
+    		snapshot.nutrientOrders[nutrient.ordinal()] = order;
+    		snapshot.nutrientBranchingFactors[nutrient.ordinal()] = indexConfig.getBranchingFactor(nutrient);
+    	}
+    	snapshot.idBranchingFactor = indexConfig.getIdBranchingFactor();
+    	
+    	writeAtomically(path, snapshot::write);
+    }
+    
+    /**
+     * Opens a snapshot file written by saveSnapshot. The indexes are bulk
+     * loaded in their saved order, with the branching factors they had.
+     * @param path - snapshot file
+     * @return FoodData - food data holding the items of the snapshot
+     * @throws IOException if the file can't be read, is not a snapshot of
+     *         this format version, or fails its checksum
+     */
+    public static FoodData openSnapshot(Path path) throws IOException {
+    	SnapshotFile snapshot = SnapshotFile.read(path);
+    	NutrientsEnum[] nutrients = NutrientsEnum.values();
+    	
+    	IndexConfig config = new IndexConfig(snapshot.idBranchingFactor);
+    	for(NutrientsEnum nutrient : nutrients) {
+    		config.setBranchingFactor(nutrient, snapshot.nutrientBranchingFactors[nutrient.ordinal()]);
+    	}
+    	FoodData foodData = new FoodData(config);
+    	
+    	int itemCount = snapshot.ids.length;
+    	for(int item = 0; item < itemCount; item++) {
+    		foodData.foodItemsByOrdinal.add(snapshot.ids[item], snapshot.names[item]);
+    		foodData.nameIndex.add(item, snapshot.names[item]);
+    		foodData.namePrefixes.add(item, snapshot.names[item]);
+    		if(snapshot.isJournaled(item)) {foodData.foodItemsByOrdinal.markJournaled(item);}
+    		for(NutrientsEnum nutrient : nutrients) {
+    			if(snapshot.isPresent(nutrient.ordinal(), item)) {
+    				foodData.foodItemsByOrdinal.setValue(item, nutrient.ordinal(), snapshot.nutrientValues[nutrient.ordinal()][item]);
+    			}
+    		}
+    	}
+    	
+    	String[] ids = new String[itemCount];
+    	for(int i = 0; i < itemCount; i++) {ids[i] = snapshot.ids[snapshot.idOrder[i]];}
+    	foodData.foodIDIx.bulkLoad(ids, snapshot.idOrder, BULK_LOAD_FILL_FACTOR);
+    	
+    	for(NutrientsEnum nutrient : nutrients) {
+    		int[] order = snapshot.nutrientOrders[nutrient.ordinal()];
+    		double[] values = snapshot.nutrientValues[nutrient.ordinal()];
+    		double[] sortedKeys = new double[order.length];
+    		for(int i = 0; i < order.length; i++) {sortedKeys[i] = values[order[i]];}
+    		foodData.indexes.get(nutrient).bulkLoad(sortedKeys, order, BULK_LOAD_FILL_FACTOR);
+    	}
+    	return foodData;
+    }
+    
 	/*
      * (non-Javadoc)
      * @see skeleton.FoodDataADT#getAllFoodItems()
      */
     @Override
     public List<FoodItem> getAllFoodItems() {
-    	List<FoodItem> retFoods = foodItemList.stream()
+    	List<FoodItem> retFoods = getFoodItemList().stream()
     			.sorted((food1, food2) -> food1.getName().toLowerCase().compareTo(food2.getName().toLowerCase()))
 				.collect(Collectors.toList());
-    	foodItemList = retFoods;
-        return foodItemList;
+        return retFoods;
+    }
+	
+	/*
+     * (non-Javadoc)
+     * @see skeleton.FoodDataADT#getFoodItemCount()
+     */
+    @Override
+    public int getFoodItemCount() {
+    	// every food item has exactly one entry in the ID index
+    	return foodIDIx.size();
     }
 	
 	/*
@@ -247,18 +1052,74 @@ public class FoodData implements FoodDataADT<FoodItem> {
     public List<FoodItem> filterByName(String substring) {
         List<FoodItem> ret = new ArrayList<FoodItem>();
         if(substring == null) {return ret;}
+        String query = substring.toLowerCase();
         
-        // iterate through all foods in foodItemList
-        for(FoodItem food : foodItemList) {
-        	if(food == null) {continue;}
+        // only the names holding every trigram of the query are checked,
+        // queries shorter than a trigram check the whole name column
+        int[] candidates = nameIndex.candidates(query, foodItemsByOrdinal.size());
+        int count = candidates == null ? foodItemsByOrdinal.size() : candidates.length;
+        for(int i = 0; i < count; i++) {
+        	int ordinal = candidates == null ? i : candidates[i];
+        	if(!foodItemsByOrdinal.isLive(ordinal)) {continue;}
         	
-        	if(food.getName().toLowerCase().contains(substring.toLowerCase())) {
-        		ret.add(food);
+        	if(foodItemsByOrdinal.name(ordinal).toLowerCase().contains(query)) {
+        		ret.add(foodItemsByOrdinal.view(ordinal));
         	}
         }
         
         return ret;
     }
+    
+    /**
+     * Suggests names for a name filter as it is typed: the names of the
+     * food items whose name, or one of its parts or words, starts with
+     * the prefix, ignoring case. Names come in the order of the name or
+     * part they matched, each name once. The time taken grows with the
+     * length of the prefix and the number of names returned, not with
+     * the number of food items.
+     * @param prefix - start of a name or of a part of one
+     * @param limit - most names to return
+     * @return List<String> - up to limit names
+     */
+    public List<String> suggestNames(String prefix, int limit) {
+    	List<String> ret = new ArrayList<String>();
+    	if(prefix == null || limit <= 0) {return ret;}
+    	
+    	// the trie lists a name once per key, the set drops a name met again at another of its keys
+    	Set<String> names = new LinkedHashSet<String>();
+    	namePrefixes.complete(prefix.toLowerCase(), ordinal -> {
+    		names.add(foodItemsByOrdinal.name(ordinal));
+    		return names.size() < limit;
+    	});
+    	ret.addAll(names);
+    	return ret;
+    }
+    
+    /*
+     * (non-Javadoc)
+     * @see skeleton.FoodDataADT#filterByNameFuzzy(java.lang.String, int, int)
+     */
+    @Override
+    public List<FoodItem> filterByNameFuzzy(String query, int maxEdits, int limit) {
+    	List<FoodItem> ret = new ArrayList<FoodItem>();
+    	if(query == null || maxEdits < 0 || limit <= 0) {return ret;}
+    	String lowerQuery = query.toLowerCase();
+    	maxEdits = Math.min(maxEdits, lowerQuery.length() / FUZZY_CHARS_PER_EDIT);
+    	
+    	// one walk of the name trie per edit count, so closer matches come first,
+    	// and an item matching several names or parts is listed once
+    	BitSet found = new BitSet();
+    	for(int edits = 0; edits <= maxEdits && ret.size() < limit; edits++) {
+    		namePrefixes.completeFuzzy(lowerQuery, edits, ordinal -> {
+    			if(!found.get(ordinal)) {
+    				found.set(ordinal);
+    				ret.add(foodItemsByOrdinal.view(ordinal));
+    			}
+    			return ret.size() < limit;
+    		});
+    	}
+    	return ret;
+    }
  
     /*
      * (non-Javadoc)
@@ -269,12 +1130,20 @@ public class FoodData implements FoodDataADT<FoodItem> {
     	List<FoodItem> retList = new ArrayList<FoodItem>();
     	if(rules == null) {return retList;}
     	
-    	HashSet<FoodItem> rulePassFoodItemsSet = new HashSet<FoodItem>(getAllFoodItems());
+    	// ordinals of the food items that passed every rule so far
+    	BitSet rulePassOrdinals = new BitSet(foodItemsByOrdinal.size());
+    	rulePassOrdinals.set(0, foodItemsByOrdinal.size());
+    	for(int ordinal = 0; ordinal < foodItemsByOrdinal.size(); ordinal++) {
+    		if(!foodItemsByOrdinal.isLive(ordinal)) {rulePassOrdinals.clear(ordinal);}
+    	}
+    	
+    	// rules on the same nutrient are combined into one range so each index is scanned once
+    	Map<NutrientsEnum, NutrientRange> ranges = new EnumMap<NutrientsEnum, NutrientRange>(NutrientsEnum.class);
     	
     	for(String currentRule : rules) {
     		if(currentRule == null) {continue;}
     		
-    		String nutrientName = null;
+    		NutrientsEnum nutrient = null;
     		String comparator = null;
     		Double nutrientVal = null;
     		
@@ -283,25 +1152,18 @@ public class FoodData implements FoodDataADT<FoodItem> {
 			
 			// rule format: <nutrient> <comparator> <value>
 	    	// 0 - <nutrient> - name of one of the 5 nutrients (calories,carbs,fat,protein,fiber) [CASE-INSENSITIVE]
-	    	// 1 - <comparator> - One of the following comparison operators: <=, >=, ==
+	    	// 1 - <comparator> - One of the following comparison operators: <, <=, ==, >=, >
 	    	// 2 - <value> - a double value
 			
 			// rule must follow above format
 			if (currentRulePcs.length != 3) {continue;}
     		
 			// rule must be for valid nutrient
-    		boolean isValidNutrient = false;
-	        for (NutrientsEnum nutrient : NutrientsEnum.values()) { 
-	    		if(nutrient.toString().equals(currentRulePcs[0].toLowerCase())) {
-	    			isValidNutrient = true;
-	    			nutrientName = currentRulePcs[0].toLowerCase();
-	    			break;
-	    		}
-	        }
-	        if(!isValidNutrient) {continue;}
+	        nutrient = NutrientsEnum.fromString(currentRulePcs[0].toLowerCase());
+	        if(nutrient == null) {continue;}
 	        
 	        // comparator must be valid
-	        String [] comparators = {"==","<=",">="};
+	        String [] comparators = {"==","<=",">=","<",">"};
 	        boolean isValidComparator = false;
 	        for(String currentComp : comparators) {
 	        	if(currentComp.equals(currentRulePcs[1])) {
@@ -316,25 +1178,55 @@ public class FoodData implements FoodDataADT<FoodItem> {
 	        try {
 	        	nutrientVal = Double.parseDouble(currentRulePcs[2]);
 	        	if(nutrientVal < 0) {continue;}
+	        	// nothing compares equal to NaN, so no food passes the rule, which would otherwise leave the range unbounded
+	        	if(Double.isNaN(nutrientVal)) {return retList;}
 	        } catch(Exception e) {continue;}
 	        
 	        // all values must exist
-	        if((nutrientName == null) || (comparator == null) || (nutrientVal == null)) {
+	        if((nutrient == null) || (comparator == null) || (nutrientVal == null)) {
 	        	continue;
 	        }
 	        
 	        
 	        // at this point, all pieces of the rule are valid
-	        // get list of foodItems that qualify for the filter
-	        rulePassFoodItemsSet.retainAll(indexes.get(nutrientName).rangeSearch(nutrientVal, comparator));
+	        NutrientRange range = ranges.get(nutrient);
+	        if(range == null) {
+	        	range = new NutrientRange();
+	        	ranges.put(nutrient, range);
+	        }
+	        range.restrict(comparator, nutrientVal);
+    	}
+    	
+    	// count the matches of each range from the index counts and scan the most selective first,
+    	// a range with no matches ends the search without scanning anything
+    	List<Map.Entry<NutrientsEnum, NutrientRange>> orderedRanges = new ArrayList<Map.Entry<NutrientsEnum, NutrientRange>>(ranges.entrySet());
+    	for(Map.Entry<NutrientsEnum, NutrientRange> nutrientRange : orderedRanges) {
+    		NutrientRange range = nutrientRange.getValue();
+    		range.count = indexes.get(nutrientRange.getKey()).rangeCount(
+    				range.lo, range.loInclusive, range.hi, range.hiInclusive);
+    		if(range.count == 0) {return retList;}
+    	}
+    	orderedRanges.sort((range1, range2) -> Integer.compare(range1.getValue().count, range2.getValue().count));
+    	
+    	// get foodItems that qualify for each nutrient with one bounded scan
+    	for(Map.Entry<NutrientsEnum, NutrientRange> nutrientRange : orderedRanges) {
+    		NutrientRange range = nutrientRange.getValue();
+	        BitSet ruleOrdinals = new BitSet(foodItemsByOrdinal.size());
+	        for(int ordinal : indexes.get(nutrientRange.getKey()).rangeSearchOrdinals(
+	        		range.lo, range.loInclusive, range.hi, range.hiInclusive)) {
+	        	ruleOrdinals.set(ordinal);
+	        }
+	        rulePassOrdinals.and(ruleOrdinals);
 	        
 	        // short circuit
-	        if(rulePassFoodItemsSet.isEmpty()) {return retList;}
+	        if(rulePassOrdinals.isEmpty()) {return retList;}
     	}
     	
-    	if(rulePassFoodItemsSet.isEmpty()) {return retList;}
+    	if(rulePassOrdinals.isEmpty()) {return retList;}
     	
-    	retList.addAll(rulePassFoodItemsSet);
+    	for(int ordinal = rulePassOrdinals.nextSetBit(0); ordinal >= 0; ordinal = rulePassOrdinals.nextSetBit(ordinal + 1)) {
+    		retList.add(foodItemsByOrdinal.view(ordinal));
+    	}
     	List<FoodItem> retListSorted = retList.stream()
     			.sorted((food1, food2) -> food1.getName().toLowerCase().compareTo(food2.getName().toLowerCase()))
 				.collect(Collectors.toList());
@@ -345,11 +1237,213 @@ public class FoodData implements FoodDataADT<FoodItem> {
 	
 	
 	
+	/**
+	 * Range of values allowed for one nutrient by all the rules on it
+	 */
+	private static class NutrientRange {
+		// lower bound of the range
+		double lo = Double.NEGATIVE_INFINITY;
+		boolean loInclusive = true;
+		
+		// upper bound of the range
+		double hi = Double.POSITIVE_INFINITY;
+		boolean hiInclusive = true;
+		
+		// number of items in the range, from DoubleBPTree#rangeCount
+		int count;
+		
+		/**
+		 * Narrows the range so it also satisfies the given rule
+		 * @param comparator - one of <, <=, ==, >=, >
+		 * @param value - value the rule compares against
+		 */
+		void restrict(String comparator, double value) {
+			if(comparator.equals("<") || comparator.equals("<=") || comparator.equals("==")) {
+				boolean inclusive = !comparator.equals("<");
+				if(value < hi || (value == hi && !inclusive)) {
+					hi = value;
+					hiInclusive = inclusive;
+				}
+			}
+			if(comparator.equals(">") || comparator.equals(">=") || comparator.equals("==")) {
+				boolean inclusive = !comparator.equals(">");
+				if(value > lo || (value == lo && !inclusive)) {
+					lo = value;
+					loInclusive = inclusive;
+				}
+			}
+		}
+	}
+	
+	
+	/**
+	 * Writes the contents of a file, see writeAtomically
+	 */
+	private interface FileContents {
+		void writeTo(Path path) throws IOException;
+	}
+	
+	
+	/**
+	 * Formats blocks of food items as lines of a food item file. The text
+	 * buffer and the encoder are reused from block to block.
+	 */
+	private static class RowFormatter {
+		// nutrient names in NutrientsEnum order
+		static final String[] NUTRIENT_NAMES = new String[NutrientsEnum.values().length];
+		static {
+			for(NutrientsEnum nutrient : NutrientsEnum.values()) {
+				NUTRIENT_NAMES[nutrient.ordinal()] = nutrient.toString();
+			}
+		}
+		
+		final StringBuilder rows = new StringBuilder();
+		final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		
+		/**
+		 * Formats a block of the food items
+		 * @param foodItems - store being saved
+		 * @param ordinals - ordinals of the items to save, in the order they are written
+		 * @param from - position in ordinals of the first item of the block
+		 * @param to - position after the last item of the block
+		 * @return ByteBuffer - the lines as UTF-8 bytes
+		 */
+		ByteBuffer format(FoodStore foodItems, int[] ordinals, int from, int to) {
+			rows.setLength(0);
+			for(int i = from; i < to; i++) {
+				int ordinal = ordinals[i];
+				rows.append(foodItems.id(ordinal)).append(',').append(foodItems.name(ordinal));
+				for(int nutrient = 0; nutrient < NUTRIENT_NAMES.length; nutrient++) {
+					double value = foodItems.value(ordinal, nutrient);
+					rows.append(',').append(NUTRIENT_NAMES[nutrient]).append(',').append(Double.isNaN(value) ? 0.0 : value);
+				}
+				rows.append(System.lineSeparator());
+			}
+			
+			try {
+				return encoder.encode(CharBuffer.wrap(rows));
+			} catch(CharacterCodingException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+	
+	
+	/**
+	 * Parses a range of the chunks of a file, splitting the range in
+	 * half until a task has a single chunk
+	 */
+	private static class ParseChunks extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		
+		final FileChannel channel;
+		final long[] chunkStarts;
+		
+		// batch of food items parsed from each chunk
+		final List<List<FoodItem>> batches;
+		
+		final LoadProgress progress;
+		
+		// range of chunks parsed by this task
+		final int from;
+		final int to;
+		
+		ParseChunks(FileChannel channel, long[] chunkStarts, List<List<FoodItem>> batches, LoadProgress progress, int from, int to) {
+			this.channel = channel;
+			this.chunkStarts = chunkStarts;
+			this.batches = batches;
+			this.progress = progress;
+			this.from = from;
+			this.to = to;
+		}
+		
+		@Override
+		protected void compute() {
+			if(to - from > 1) {
+				int mid = (from + to) >>> 1;
+				invokeAll(new ParseChunks(channel, chunkStarts, batches, progress, from, mid),
+						new ParseChunks(channel, chunkStarts, batches, progress, mid, to));
+				return;
+			}
+			for(int chunk = from; chunk < to; chunk++) {
+				batches.set(chunk, parseChunk(channel, chunkStarts[chunk], chunkStarts[chunk + 1], progress));
+			}
+		}
+	}
+	
+	
+	/**
+	 * Progress of a load. The parse tasks add to it, and the thread that
+	 * started the load reports it to the listener.
+	 */
+	private static class LoadProgress {
+		final LoadListener listener;
+		
+		// size of the input, or -1 if it isn't known
+		final long totalBytes;
+		
+		final AtomicLong bytesRead = new AtomicLong();
+		final AtomicInteger itemsLoaded = new AtomicInteger();
+		final AtomicInteger rowsRejected = new AtomicInteger();
+		
+		// set once the listener cancels the load
+		volatile boolean cancelled;
+		
+		LoadProgress(LoadListener listener, long totalBytes) {
+			this.listener = listener;
+			this.totalBytes = totalBytes;
+		}
+		
+		/**
+		 * Counts a parsed piece of the input
+		 * @param bytes - bytes parsed
+		 * @param items - food items read from them
+		 * @param rejected - lines rejected
+		 */
+		void add(long bytes, int items, int rejected) {
+			bytesRead.addAndGet(bytes);
+			itemsLoaded.addAndGet(items);
+			rowsRejected.addAndGet(rejected);
+		}
+		
+		/**
+		 * Reports the progress to the listener, unless the load is already cancelled
+		 * @return boolean - true if the load is cancelled
+		 */
+		boolean report() {
+			if(listener == null || cancelled) {return cancelled;}
+			
+			listener.progress(bytesRead.get(), totalBytes, itemsLoaded.get(), rowsRejected.get());
+			if(listener.isCancelled()) {cancelled = true;}
+			return cancelled;
+		}
+	}
+	
+	
 	// for testing only
 	public static void main(String[] args) {
 		FoodData testFoodDataObj = new FoodData();
 		
 		String filePath = new String("foodItemsShort.csv");
 		testFoodDataObj.loadFoodItems(filePath);
+		
+		// no food passes a rule on NaN, it must not leave the range unbounded
+		FoodData nutrientFoodData = new FoodData();
+		for(int i = 0; i < 3; i++) {
+			FoodItem foodItem = new FoodItem("id" + i, "food" + i);
+			for(NutrientsEnum nutrient : NutrientsEnum.values()) {
+				foodItem.addNutrient(nutrient, i * 100);
+			}
+			nutrientFoodData.addFoodItem(foodItem);
+		}
+		for(String comparator : new String[] {"<", "<=", "==", ">=", ">"}) {
+			List<String> rules = Arrays.asList("calories >= 0", "calories " + comparator + " NaN");
+			int matched = nutrientFoodData.filterByNutrients(rules).size();
+			if(matched != 0) {
+				throw new IllegalStateException(rules + " matched " + matched + " foods, expected none");
+			}
+		}
 	}
 }
@@ -56,6 +56,36 @@ public interface FoodDataADT<F extends FoodItem> {
     public List<F> filterByName(String substring);
     
     
+    /**
+     * Gets the food items whose name, or one of its _-separated parts or
+     * a word inside a part, starts with a string at most maxEdits edits
+     * away from the query. An edit inserts, deletes or replaces one
+     * character. A word starts at an upper case letter following a lower
+     * case one, or where letters and digits meet.
+     * 
+     * Example:
+     *     Query: premuim, maxEdits: 2
+     *     Filtered FoodItem
+     *         556540ff5d613c9d5f5935a9,Stewarts_PremiumDarkChocolatewithMintCookieCrunch,calories,280,fat,18,carbohydrate,34,fiber,3,protein,3
+     *     Query: choclate, maxEdits: 2
+     *     Filtered FoodItem
+     *         556540ff5d613c9d5f5935a9,Stewarts_PremiumDarkChocolatewithMintCookieCrunch,calories,280,fat,18,carbohydrate,34,fiber,3,protein,3
+     * 
+     * Note:
+     *     1. Matching should be CASE-INSENSITIVE.
+     *     2. Food items needing fewer edits come first.
+     *     3. Each food item is listed once.
+     *     4. At most one edit is allowed for every 3 characters of the
+     *        query, so short queries don't match unrelated words.
+     * 
+     * @param query the mistyped start of a name or of a part or word of one
+     * @param maxEdits most edits allowed, 1 or 2 catch most typos
+     * @param limit most food items to return
+     * @return list of filtered food items; if no food item matched, return empty list
+     */
+    public List<F> filterByNameFuzzy(String query, int maxEdits, int limit);
+    
+    
     /**
      * Gets all the food items that fulfill ALL the provided rules
      *
@@ -65,7 +95,7 @@ public interface FoodDataADT<F extends FoodItem> {
      * Definition of a rule:
      *     A rule is a string which has three parts separated by a space:
      *         1. <nutrient>: Name of one of the 5 nutrients [CASE-INSENSITIVE]
-     *         2. <comparator>: One of the following comparison operators: <=, >=, ==
+     *         2. <comparator>: One of the following comparison operators: <, <=, >=, >, ==
      *         3. <value>: a double value
      * 
      * Note:
@@ -87,6 +117,27 @@ public interface FoodDataADT<F extends FoodItem> {
     public void addFoodItem(FoodItem foodItem);
 
     
+    /**
+     * Removes a food item from the loaded data.
+     * @param id the unique id of the food item to be removed
+     * @return true if a food item was removed, false if no food item has the id
+     */
+    public boolean removeFoodItem(String id);
+    
+    
+    /**
+     * Replaces the loaded food item that has the same id as the given
+     * food item, updating its name and nutrients.
+     * 
+     * Note: pass a new FoodItem instance; changes made directly to a
+     *       food item that was already added are not seen by the data.
+     * 
+     * @param foodItem the food item with the new values
+     * @return true if a food item was updated, false if no food item has the id
+     */
+    public boolean updateFoodItem(FoodItem foodItem);
+    
+    
     /**
      * Gets the list of all food items.
      * @return list of FoodItem
@@ -94,6 +145,13 @@ public interface FoodDataADT<F extends FoodItem> {
     public List<FoodItem> getAllFoodItems();
     
     
+    /**
+     * Gets the number of food items without listing them.
+     * @return number of food items
+     */
+    public int getFoodItemCount();
+    
+    
     /**
      * Save the list of food items in ascending order by name
      * 
@@ -1,96 +1,180 @@
 package application;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Map;
 
 /**
  * This class represents a food item with all its properties.
- * 
+ *
+ * A food item made with the public constructor holds its own ID, name
+ * and nutrient values. The food items a FoodData hands out are views of
+ * its columnar store instead: they hold only the store and the item's
+ * ordinal, read their values from the store, and can't be changed with
+ * addNutrient. A view shows an update made to its item through
+ * FoodData#updateFoodItem, except a view taken from a snapshot, which
+ * keeps showing the item as it was when the snapshot was taken.
+ *
  * @author aka
  */
 public class FoodItem {
-    // The name of the food item.
+    // The name of the food item, null for a view.
     private String name;
 
-    // The id of the food item.
+    // The id of the food item, null for a view.
     private String id;
 
-    // Map of nutrients and value.
-    private HashMap<String, Double> nutrients;
-    
+    // Value of each nutrient by NutrientsEnum ordinal, NaN if absent, null for a view.
+    private double[] nutrients;
+
+    // Store a view reads its item from, null unless this is a view.
+    private final FoodStore store;
+
+    // Ordinal of the item in the store.
+    private final int ordinal;
+
     /**
      * Constructor
      * @param name name of the food item
-     * @param id unique id of the food item 
+     * @param id unique id of the food item
      */
     public FoodItem(String id, String name) {
         this.id = id;
         this.name = name;
-        nutrients = new HashMap<String, Double>();
+        nutrients = new double[FoodStore.NUTRIENT_COUNT];
+        Arrays.fill(nutrients, Double.NaN);
+        store = null;
+        ordinal = -1;
+    }
+
+    /**
+     * View constructor, see FoodStore#view(int)
+     * @param store store holding the item
+     * @param ordinal ordinal of the item in the store
+     */
+    FoodItem(FoodStore store, int ordinal) {
+        this.store = store;
+        this.ordinal = ordinal;
     }
-    
+
     /**
      * Gets the name of the food item
      * @return name of the food item
      */
-    public String getName() {return name;}
+    public String getName() {return store == null ? name : store.name(ordinal);}
 
     /**
      * Gets the unique id of the food item
      * @return id of the food item
      */
-    public String getID() {return id;}
-    
+    public String getID() {return store == null ? id : store.id(ordinal);}
+
     /**
-     * Gets the nutrients of the food item
-     * @return nutrients of the food item
+     * Gets the nutrients of the food item. The values are kept by nutrient
+     * ordinal rather than in a map, so the map is built for the call and
+     * is read-only, change the food item with addNutrient instead.
+     * @return read-only map of the nutrients the food item has and their values
      */
-    public HashMap<String, Double> getNutrients() {return nutrients;}
+    public Map<String, Double> getNutrients() {
+        HashMap<String, Double> ret = new HashMap<String, Double>();
+        for (NutrientsEnum nutrient : NutrientsEnum.values()) {
+            double value = nutrientValue(nutrient.ordinal());
+            if(!Double.isNaN(value)) {ret.put(nutrient.toString(), value);}
+        }
+        return Collections.unmodifiableMap(ret);
+    }
 
     /**
-     * Adds a nutrient and its value to this food. 
+     * Adds a nutrient and its value to this food.
      * If nutrient already exists, updates its value.
+     * @throws UnsupportedOperationException if this is a view of a FoodData's item
+     */
+    public void addNutrient(NutrientsEnum nutrient, double value) {
+    	if(nutrient == null) {return;} // don't allow null nutrients
+
+        setNutrient(nutrient.ordinal(), value);
+    }
+
+    /**
+     * Adds a nutrient by its name, see addNutrient(NutrientsEnum, double).
+     * Names that are not a NutrientsEnum name are ignored.
+     * @throws UnsupportedOperationException if this is a view of a FoodData's item
      */
     public void addNutrient(String name, double value) {
-    	if(name == null) {return;} // don't allow null nutrients
-    	if(value < 0) {return;} // also don't allow adding negative nutrient values
-    	
-    	// check if nutrient is valid
-    	if(!isValidNutrient(name)) {return;}
-        
-        // at this point, we have a valid nutrient since it exists in the NutrientsEnum
-        nutrients.put(name, value);
+    	addNutrient(NutrientsEnum.fromString(name), value);
     }
 
     /**
-     * Returns the value of the given nutrient for this food item. 
+     * Returns the value of the given nutrient for this food item.
      * If not present, then returns 0.
      */
+    public double getNutrientValue(NutrientsEnum nutrient) {
+        if(nutrient == null) {return 0;}
+
+        double value = nutrientValue(nutrient.ordinal());
+        return Double.isNaN(value) ? 0 : value;
+    }
+
+    /**
+     * Returns the value of a nutrient by its name, see getNutrientValue(NutrientsEnum).
+     * Returns 0 for names that are not a NutrientsEnum name.
+     */
     public double getNutrientValue(String name) {
-        double ret = 0;
-        if(name == null) {return ret;}
-        
-        // check if nutrient is valid
-        if(!isValidNutrient(name)) {return ret;}
-        
-        // at this point, we have a valid nutrient since it exists in the NutrientsEnum
-        ret = nutrients.get(name);
-        
-        return ret;
+        return getNutrientValue(NutrientsEnum.fromString(name));
     }
-    
+
     /**
-     * helper function to determine if passed in string is a nutrient in the
-     * NutrientsEnum
-     * @param nutrientName - String to examine
-     * @return boolean - true if nutrientName is an entry in NutrientsEnum,
-     * false otherwise
+     * Adds a nutrient by its ordinal, as addNutrient does
+     * @param nutrient - ordinal of the nutrient in NutrientsEnum
+     * @param value - value of the nutrient, negative values and NaN are ignored
+     * @throws UnsupportedOperationException if this is a view of a FoodData's item
      */
-    private boolean isValidNutrient(String nutrientName) {
-        for (NutrientsEnum nutrient : NutrientsEnum.values()) { 
-    		if(nutrient.toString().equals(nutrientName)) {
-    			return true;
-    		}
-        }
-        return false;
+    void setNutrient(int nutrient, double value) {
+    	if(store != null) {throw new UnsupportedOperationException("Food items of a FoodData are read-only");}
+    	if(value < 0) {return;} // also don't allow adding negative nutrient values
+    	if(Double.isNaN(value)) {return;} // NaN can't be ordered in the nutrient indexes
+
+    	nutrients[nutrient] = value;
+    }
+
+    /**
+     * Gets a nutrient by its ordinal
+     * @param nutrient - ordinal of the nutrient in NutrientsEnum
+     * @return double - value of the nutrient, NaN if the food item lacks it
+     */
+    double nutrientValue(int nutrient) {
+    	return store == null ? nutrients[nutrient] : store.value(ordinal, nutrient);
+    }
+
+    /**
+     * Gets the ordinal of the item a view reads
+     * @param foodStore - store the ordinal is wanted for
+     * @return int - ordinal of the item, or -1 if this isn't a view of that store
+     */
+    int ordinalIn(FoodStore foodStore) {
+    	if(store == null || !store.sameLineage(foodStore)) {return -1;}
+    	return ordinal;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.lang.Object#equals(java.lang.Object)
+     */
+    @Override
+    public boolean equals(Object obj) {
+    	// views of the same item are equal, a FoodData makes a new view on every query
+    	if(this == obj) {return true;}
+    	if(store == null || !(obj instanceof FoodItem)) {return false;}
+    	return ((FoodItem) obj).ordinalIn(store) == ordinal;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.lang.Object#hashCode()
+     */
+    @Override
+    public int hashCode() {
+    	return store == null ? super.hashCode() : ordinal;
     }
 }
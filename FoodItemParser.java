@@ -0,0 +1,254 @@
+package application;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Parses the lines of a food item file straight from a ByteBuffer,
+ * usually a memory-mapped chunk of the file.
+ *
+ * A line is
+ * <id>,<food_name>,<calories>,<calorie_count>,<fat>,<fat_grams>,<carbohydrate>,<carbohydrate_grams>,<fiber>,<fiber_grams>,<protein>,<protein_grams>,
+ *
+ * Fields are found by scanning for commas, nutrient names are matched
+ * byte by byte and plain decimal numbers are parsed without making a
+ * String. Only the ID and the name of each food become Strings. A line
+ * is read the same way String.split(",") and Double.parseDouble read it,
+ * numbers in any other form fall back to Double.parseDouble.
+ *
+ * A parser keeps scratch arrays between lines, so each thread needs its own.
+ */
+class FoodItemParser {
+
+	// Nutrient names as UTF-8 bytes, in NutrientsEnum order
+	private static final byte[][] NUTRIENT_BYTES = new byte[NutrientsEnum.values().length][];
+	static {
+		for (NutrientsEnum nutrient : NutrientsEnum.values()) {
+			NUTRIENT_BYTES[nutrient.ordinal()] = nutrient.toString().getBytes(StandardCharsets.UTF_8);
+		}
+	}
+
+	// Exact powers of ten, a decimal with at most 15 digits divided or
+	// multiplied by one of them is rounded correctly
+	private static final double[] POWERS_OF_TEN = {
+			1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+			1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+	// Largest mantissa the fast path parses, 15 digits are exact in a double
+	private static final long MAX_EXACT_MANTISSA = 999999999999999L;
+
+	// Start and end of each field of the current line
+	private int[] fieldStarts = new int[16];
+	private int[] fieldEnds = new int[16];
+
+	// Bytes of a field being turned into a String
+	private byte[] scratch = new byte[64];
+
+	// Lines parse skipped because they weren't food items
+	private int rejectedRows;
+
+	/**
+	 * Parses every line between the position and the limit of a buffer.
+	 * The position of the buffer is not changed.
+	 *
+	 * @param buffer - lines of a food item file, the last line may lack a line break
+	 * @param foodItems - list the food items are added to, in buffer order
+	 */
+	void parse(ByteBuffer buffer, List<FoodItem> foodItems) {
+		int limit = buffer.limit();
+		int lineStart = buffer.position();
+		while (lineStart < limit) {
+			int lineEnd = lineStart;
+			while (lineEnd < limit && buffer.get(lineEnd) != '\n') {
+				lineEnd++;
+			}
+			int next = lineEnd + 1;
+			if (lineEnd > lineStart && buffer.get(lineEnd - 1) == '\r') lineEnd--;
+
+			if (lineEnd > lineStart) {
+				FoodItem foodItem = parseLine(buffer, lineStart, lineEnd);
+				if (foodItem != null) {
+					foodItems.add(foodItem);
+				} else {
+					rejectedRows++;
+				}
+			}
+			lineStart = next;
+		}
+	}
+
+
+	/**
+	 * Gets the number of lines parse skipped because they weren't food
+	 * items, blank lines are not counted
+	 *
+	 * @return number of rejected lines
+	 */
+	int getRejectedRows() {
+		return rejectedRows;
+	}
+
+
+	/**
+	 * Parses one line
+	 *
+	 * @param buffer - buffer holding the line
+	 * @param start - position of the first byte of the line
+	 * @param end - position after the last byte of the line, without the line break
+	 * @return the food item, or null if the line isn't one or has an empty ID or name
+	 */
+	FoodItem parseLine(ByteBuffer buffer, int start, int end) {
+		int fieldCount = splitFields(buffer, start, end);
+		if (fieldCount < 2) return null;
+		if (fieldStarts[0] == fieldEnds[0] || fieldStarts[1] == fieldEnds[1]) return null;
+
+		FoodItem foodItem = new FoodItem(decode(buffer, 0), decode(buffer, 1));
+		for (int field = 2; field < fieldCount; field++) {
+			int nutrient = nutrientIndex(buffer, field);
+			if (nutrient < 0 || field + 1 >= fieldCount) continue;
+
+			double value = parseDouble(buffer, field + 1);
+			if (value < 0 || Double.isNaN(value)) continue;
+			foodItem.setNutrient(nutrient, value);
+		}
+		return foodItem;
+	}
+
+
+	/**
+	 * Finds the fields of a line. As in String.split, empty fields at
+	 * the end of the line are dropped.
+	 *
+	 * @return number of fields
+	 */
+	private int splitFields(ByteBuffer buffer, int start, int end) {
+		int fieldCount = 0;
+		int fieldStart = start;
+		for (int i = start; i <= end; i++) {
+			if (i < end && buffer.get(i) != ',') continue;
+			if (fieldCount == fieldStarts.length) {
+				fieldStarts = Arrays.copyOf(fieldStarts, fieldCount * 2);
+				fieldEnds = Arrays.copyOf(fieldEnds, fieldCount * 2);
+			}
+			fieldStarts[fieldCount] = fieldStart;
+			fieldEnds[fieldCount] = i;
+			fieldCount++;
+			fieldStart = i + 1;
+		}
+		while (fieldCount > 0 && fieldStarts[fieldCount - 1] == fieldEnds[fieldCount - 1]) {
+			fieldCount--;
+		}
+		return fieldCount;
+	}
+
+
+	/**
+	 * Gets the nutrient a field names
+	 *
+	 * @return ordinal of the nutrient in NutrientsEnum, or -1 if the field isn't a nutrient name
+	 */
+	private int nutrientIndex(ByteBuffer buffer, int field) {
+		int start = fieldStarts[field];
+		int length = fieldEnds[field] - start;
+		for (int nutrient = 0; nutrient < NUTRIENT_BYTES.length; nutrient++) {
+			byte[] name = NUTRIENT_BYTES[nutrient];
+			if (name.length != length) continue;
+			int i = 0;
+			while (i < length && buffer.get(start + i) == name[i]) {
+				i++;
+			}
+			if (i == length) return nutrient;
+		}
+		return -1;
+	}
+
+
+	/**
+	 * Parses a field as a number. Digits with an optional sign, decimal
+	 * point and exponent are parsed in place, anything else is handed
+	 * to Double.parseDouble.
+	 *
+	 * @return the number, or NaN if the field isn't one
+	 */
+	private double parseDouble(ByteBuffer buffer, int field) {
+		int i = fieldStarts[field];
+		int end = fieldEnds[field];
+
+		boolean negative = false;
+		if (i < end && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+			negative = buffer.get(i) == '-';
+			i++;
+		}
+
+		long mantissa = 0;
+		int digits = 0;
+		int scale = 0;
+		boolean point = false;
+		for (; i < end; i++) {
+			byte b = buffer.get(i);
+			if (b >= '0' && b <= '9') {
+				if (mantissa > MAX_EXACT_MANTISSA / 10) return parseSlow(buffer, field);
+				mantissa = mantissa * 10 + (b - '0');
+				digits++;
+				if (point) scale--;
+			} else if (b == '.' && !point) {
+				point = true;
+			} else {
+				break;
+			}
+		}
+		if (digits == 0) return parseSlow(buffer, field);
+
+		if (i < end && (buffer.get(i) == 'e' || buffer.get(i) == 'E')) {
+			i++;
+			boolean negativeExponent = false;
+			if (i < end && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+				negativeExponent = buffer.get(i) == '-';
+				i++;
+			}
+			int exponent = 0;
+			int exponentDigits = 0;
+			for (; i < end && buffer.get(i) >= '0' && buffer.get(i) <= '9'; i++) {
+				if (exponent > POWERS_OF_TEN.length) return parseSlow(buffer, field);
+				exponent = exponent * 10 + (buffer.get(i) - '0');
+				exponentDigits++;
+			}
+			if (exponentDigits == 0) return parseSlow(buffer, field);
+			scale += negativeExponent ? -exponent : exponent;
+		}
+		if (i != end || scale <= -POWERS_OF_TEN.length || scale >= POWERS_OF_TEN.length) {
+			return parseSlow(buffer, field);
+		}
+
+		double value = scale < 0 ? mantissa / POWERS_OF_TEN[-scale] : mantissa * POWERS_OF_TEN[scale];
+		return negative ? -value : value;
+	}
+
+
+	/**
+	 * helper function to parse a number the fast path doesn't handle
+	 */
+	private double parseSlow(ByteBuffer buffer, int field) {
+		try {
+			return Double.parseDouble(decode(buffer, field));
+		} catch (NumberFormatException e) {
+			return Double.NaN;
+		}
+	}
+
+
+	/**
+	 * Makes a String of a field
+	 */
+	private String decode(ByteBuffer buffer, int field) {
+		int start = fieldStarts[field];
+		int length = fieldEnds[field] - start;
+		if (length > scratch.length) scratch = new byte[Math.max(length, scratch.length * 2)];
+		for (int i = 0; i < length; i++) {
+			scratch[i] = buffer.get(start + i);
+		}
+		return new String(scratch, 0, length, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,438 @@
+package application;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of the food items added to a FoodData, see
+ * FoodData#openJournal(Path).
+ *
+ * The file starts with the magic "FDJN" and the format version, then
+ * holds one record per food item:
+ *
+ * length   bytes in the payload
+ * crc      CRC32 of the payload
+ * payload  ID and name as a length and UTF-8 bytes, a byte with a bit
+ *          for each nutrient the item has, in NutrientsEnum order, and
+ *          the value of each of those nutrients
+ *
+ * append returns once its record is forced to the disk. Records are
+ * written by a background thread, and every record appended while a
+ * write is being forced goes out with the next write, so concurrent
+ * appends share one force (group commit).
+ *
+ * A crash can leave the last record incomplete. Opening the journal
+ * replays the records up to the first one that is incomplete or fails
+ * its checksum, and cuts the file there.
+ *
+ * discardBefore drops the records that are already in a snapshot file,
+ * rewriting the journal without them while appends go on.
+ */
+public class FoodJournal implements Closeable {
+
+	// First bytes of every journal file, "FDJN"
+	static final int MAGIC = 0x4E4A4446;
+
+	// Version of the record layout, a journal with any other version is rejected
+	static final int FORMAT_VERSION = 1;
+
+	// Size of the magic and version
+	private static final int HEADER_BYTES = 8;
+
+	// Size of the length and checksum in front of each payload
+	private static final int RECORD_HEADER_BYTES = 8;
+
+	// Nutrient names in NutrientsEnum order
+	private static final NutrientsEnum[] NUTRIENTS = NutrientsEnum.values();
+
+	// Journal file
+	private final Path path;
+
+	// Open journal file, replaced when records are discarded
+	private FileChannel channel;
+
+	// Guards the fields below, appenders wait on it for their records to be forced
+	private final Object lock = new Object();
+
+	// Records appended but not yet handed to the writer thread
+	private ByteBuffer pending = ByteBuffer.allocate(4096);
+
+	// Offsets count every record byte ever appended, so they never move back.
+	// appendedEnd is the end of the last appended record, durableEnd the end
+	// of the last forced one, fileStart the offset of the first record in the file
+	private long appendedEnd;
+	private long durableEnd;
+	private long fileStart;
+
+	// Failure of the writer thread, every later append fails with it
+	private IOException failure;
+
+	private boolean closed;
+
+	// Held while the channel is written or replaced
+	private final Object channelLock = new Object();
+
+	// Background thread writing and forcing the pending records
+	private final Thread writer;
+
+	/**
+	 * Private constructor, see open
+	 */
+	private FoodJournal(Path path, FileChannel channel, long recordBytes) {
+		this.path = path;
+		this.channel = channel;
+		appendedEnd = recordBytes;
+		durableEnd = recordBytes;
+		writer = new Thread(this::writeRecords, "food-journal-writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+
+	/**
+	 * Opens a journal, creating it if it doesn't exist, and replays its records
+	 *
+	 * @param path - journal file
+	 * @param replay - called with the food item of each record, in the order they were appended
+	 * @return the journal, ready for appends
+	 * @throws IOException if the file can't be read or written, or is not a journal
+	 */
+	public static FoodJournal open(Path path, Consumer<FoodItem> replay) throws IOException {
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			long recordBytes = replay(channel, path, replay);
+			channel.position(HEADER_BYTES + recordBytes);
+			return new FoodJournal(path, channel, recordBytes);
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+
+	/**
+	 * Appends a food item and waits until its record is on the disk
+	 *
+	 * @param foodItem - item to append
+	 * @throws IOException if the journal is closed or its file can't be written
+	 */
+	public void append(FoodItem foodItem) throws IOException {
+		byte[] record = encode(foodItem);
+		synchronized (lock) {
+			if (failure != null) throw new IOException("Journal write failed", failure);
+			if (closed) throw new IOException("Journal is closed");
+
+			if (pending.remaining() < record.length) {
+				ByteBuffer grown = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + record.length));
+				pending.flip();
+				grown.put(pending);
+				pending = grown;
+			}
+			pending.put(record);
+			appendedEnd += record.length;
+			long recordEnd = appendedEnd;
+			lock.notifyAll();
+
+			boolean interrupted = false;
+			while (durableEnd < recordEnd && failure == null) {
+				try {
+					lock.wait();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) Thread.currentThread().interrupt();
+			if (durableEnd < recordEnd) throw new IOException("Journal write failed", failure);
+		}
+	}
+
+
+	/**
+	 * Gets a mark for discardBefore. Every record appended before the
+	 * call is before the mark.
+	 *
+	 * @return offset of the end of the last appended record
+	 */
+	public long mark() {
+		synchronized (lock) {
+			return appendedEnd;
+		}
+	}
+
+
+	/**
+	 * Drops the records before a mark, once the items in them are safe in
+	 * a snapshot file. The journal is rewritten to a temporary file with
+	 * the remaining records and moved over the old one. Appends wait only
+	 * while the remaining records are copied.
+	 *
+	 * @param mark - mark from mark()
+	 * @throws IOException if the journal can't be rewritten
+	 */
+	public void discardBefore(long mark) throws IOException {
+		synchronized (channelLock) {
+			synchronized (lock) {
+				if (closed) throw new IOException("Journal is closed");
+			}
+			// the writer thread can't write while channelLock is held, records
+			// still pending are written to the new file once it is in place
+			long fileEnd = fileStart + channel.size() - HEADER_BYTES;
+			long cut = Math.min(mark, fileEnd);
+			if (cut <= fileStart) return;
+
+			Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+			try {
+				try (FileChannel compacted = FileChannel.open(temp, StandardOpenOption.CREATE,
+						StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+					writeHeader(compacted);
+					compacted.position(HEADER_BYTES);
+					long from = HEADER_BYTES + (cut - fileStart);
+					long count = fileEnd - cut;
+					long copied = 0;
+					while (copied < count) {
+						copied += channel.transferTo(from + copied, count - copied, compacted);
+					}
+					compacted.force(true);
+				}
+				try {
+					Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+				} catch (AtomicMoveNotSupportedException e) {
+					Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+				}
+			} finally {
+				Files.deleteIfExists(temp);
+			}
+
+			channel.close();
+			channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			channel.position(channel.size());
+			fileStart = cut;
+		}
+	}
+
+
+	/**
+	 * Writes the pending records and closes the journal
+	 *
+	 * @throws IOException if the pending records couldn't be written
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (lock) {
+			closed = true;
+			lock.notifyAll();
+		}
+		boolean interrupted = false;
+		while (writer.isAlive()) {
+			try {
+				writer.join();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) Thread.currentThread().interrupt();
+
+		synchronized (channelLock) {
+			channel.close();
+		}
+		if (failure != null) throw new IOException("Journal write failed", failure);
+	}
+
+
+	/**
+	 * Body of the writer thread. Takes all pending records at once, writes
+	 * and forces them, and wakes the appenders waiting for them.
+	 */
+	private void writeRecords() {
+		ByteBuffer batch = ByteBuffer.allocate(4096);
+		while (true) {
+			long batchEnd;
+			synchronized (lock) {
+				while (pending.position() == 0 && !closed) {
+					try {
+						lock.wait();
+					} catch (InterruptedException e) {
+						// only close stops the writer
+					}
+				}
+				if (pending.position() == 0) return;
+
+				ByteBuffer full = pending;
+				pending = batch;
+				pending.clear();
+				batch = full;
+				batchEnd = appendedEnd;
+			}
+
+			try {
+				synchronized (channelLock) {
+					batch.flip();
+					while (batch.hasRemaining()) {
+						channel.write(batch);
+					}
+					channel.force(false);
+				}
+			} catch (IOException e) {
+				synchronized (lock) {
+					failure = e;
+					lock.notifyAll();
+				}
+				return;
+			}
+
+			synchronized (lock) {
+				durableEnd = batchEnd;
+				lock.notifyAll();
+			}
+		}
+	}
+
+
+	/**
+	 * Reads the records of a journal file, cutting it after the last good record
+	 *
+	 * @return bytes of the good records
+	 */
+	private static long replay(FileChannel channel, Path path, Consumer<FoodItem> replay) throws IOException {
+		long size = channel.size();
+		if (size < HEADER_BYTES) {
+			// new, or a crash before the header was written
+			channel.truncate(0);
+			writeHeader(channel);
+			channel.force(true);
+			return 0;
+		}
+
+		ByteBuffer header = readFully(channel, 0, HEADER_BYTES);
+		if (header.getInt() != MAGIC) throw new IOException("Not a food journal: " + path);
+		int version = header.getInt();
+		if (version != FORMAT_VERSION) throw new IOException("Unsupported journal version: " + version);
+
+		long position = HEADER_BYTES;
+		CRC32 crc = new CRC32();
+		while (position + RECORD_HEADER_BYTES <= size) {
+			ByteBuffer recordHeader = readFully(channel, position, RECORD_HEADER_BYTES);
+			int length = recordHeader.getInt();
+			int checksum = recordHeader.getInt();
+			if (length < 0 || position + RECORD_HEADER_BYTES + length > size) break;
+
+			ByteBuffer payload = readFully(channel, position + RECORD_HEADER_BYTES, length);
+			crc.reset();
+			crc.update(payload.array(), 0, length);
+			if ((int) crc.getValue() != checksum) break;
+
+			FoodItem foodItem = decode(payload);
+			if (foodItem == null) break;
+			replay.accept(foodItem);
+			position += RECORD_HEADER_BYTES + length;
+		}
+
+		if (position < size) {
+			channel.truncate(position);
+			channel.force(true);
+		}
+		return position - HEADER_BYTES;
+	}
+
+
+	/**
+	 * helper function to write the magic and version at the start of a file
+	 */
+	private static void writeHeader(FileChannel channel) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+		header.putInt(MAGIC).putInt(FORMAT_VERSION).flip();
+		while (header.hasRemaining()) {
+			channel.write(header, HEADER_BYTES - header.remaining());
+		}
+	}
+
+
+	/**
+	 * helper function to read part of a file into a new buffer
+	 */
+	private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) throw new IOException("Journal too short");
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+
+	/**
+	 * Encodes a food item as a record
+	 */
+	private static byte[] encode(FoodItem foodItem) {
+		byte[] id = foodItem.getID().getBytes(StandardCharsets.UTF_8);
+		byte[] name = foodItem.getName().getBytes(StandardCharsets.UTF_8);
+		int mask = 0;
+		int nutrientCount = 0;
+		for (NutrientsEnum nutrient : NUTRIENTS) {
+			if (!Double.isNaN(foodItem.nutrientValue(nutrient.ordinal()))) {
+				mask |= 1 << nutrient.ordinal();
+				nutrientCount++;
+			}
+		}
+
+		int length = 4 + id.length + 4 + name.length + 1 + nutrientCount * 8;
+		ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_BYTES + length);
+		record.putInt(length).putInt(0);
+		record.putInt(id.length).put(id).putInt(name.length).put(name).put((byte) mask);
+		for (NutrientsEnum nutrient : NUTRIENTS) {
+			if ((mask & (1 << nutrient.ordinal())) != 0) {
+				record.putDouble(foodItem.nutrientValue(nutrient.ordinal()));
+			}
+		}
+
+		CRC32 crc = new CRC32();
+		crc.update(record.array(), RECORD_HEADER_BYTES, length);
+		record.putInt(4, (int) crc.getValue());
+		return record.array();
+	}
+
+
+	/**
+	 * Decodes the payload of a record
+	 *
+	 * @return the food item, or null if the payload is malformed
+	 */
+	private static FoodItem decode(ByteBuffer payload) {
+		try {
+			String id = readString(payload);
+			String name = readString(payload);
+			int mask = payload.get();
+			FoodItem foodItem = new FoodItem(id, name);
+			for (NutrientsEnum nutrient : NUTRIENTS) {
+				if ((mask & (1 << nutrient.ordinal())) != 0) {
+					foodItem.setNutrient(nutrient.ordinal(), payload.getDouble());
+				}
+			}
+			return payload.hasRemaining() ? null : foodItem;
+		} catch (RuntimeException e) {
+			return null;
+		}
+	}
+
+
+	/**
+	 * helper function to read a length and UTF-8 bytes as a String
+	 */
+	private static String readString(ByteBuffer payload) {
+		int length = payload.getInt();
+		String value = new String(payload.array(), payload.position(), length, StandardCharsets.UTF_8);
+		payload.position(payload.position() + length);
+		return value;
+	}
+}
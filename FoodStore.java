@@ -0,0 +1,379 @@
+package application;
+
+import java.util.Arrays;
+
+/**
+ * Food items of a FoodData stored by column. Each item is addressed by
+ * its ordinal, the position it was added at, and its ID, name and
+ * nutrient values are kept in one array per column, so the store holds
+ * no object per item and a scan over a nutrient reads consecutive doubles.
+ * An absent nutrient is stored as NaN, which addNutrient never accepts.
+ *
+ * Columns are kept in chunks of CHUNK_SIZE items so that a snapshot only
+ * copies the table of chunks. Chunks created before the latest snapshot
+ * are shared with it and are copied before they are changed.
+ *
+ * Ordinals are never reused. A removed item keeps its values and is only
+ * marked as removed, so views of it still read what it held.
+ */
+class FoodStore {
+
+	// Number of items in each chunk, a power of two
+	static final int CHUNK_SIZE = 1024;
+	private static final int CHUNK_SHIFT = 10;
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+	// Number of nutrient columns
+	static final int NUTRIENT_COUNT = NutrientsEnum.values().length;
+
+	// Chunks of items, item i is in chunks[i / CHUNK_SIZE]
+	private Chunk[] chunks = new Chunk[16];
+
+	// Current epoch, advanced by every snapshot
+	private int epoch;
+
+	// Number of items, including removed ones
+	private int size;
+
+	// Shared by a store and its snapshots, views of the same item in any of them are equal
+	private final Object lineage;
+
+	/**
+	 * Package-private constructor, makes an empty store
+	 */
+	FoodStore() {
+		lineage = new Object();
+	}
+
+
+	/**
+	 * Snapshot constructor
+	 *
+	 * @param source - store whose current chunks are shared
+	 */
+	private FoodStore(FoodStore source) {
+		chunks = source.chunks.clone();
+		size = source.size;
+		lineage = source.lineage;
+	}
+
+
+	/**
+	 * Gets the number of ordinals handed out
+	 *
+	 * @return number of items, including removed ones
+	 */
+	int size() {
+		return size;
+	}
+
+
+	/**
+	 * Tells if no item was ever added
+	 *
+	 * @return true if the store is empty
+	 */
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+
+	/**
+	 * Tells if an ordinal holds an item that wasn't removed
+	 *
+	 * @param ordinal - ordinal of the item
+	 * @return true if the item is live
+	 */
+	boolean isLive(int ordinal) {
+		if (ordinal < 0 || ordinal >= size) return false;
+		long[] removed = chunks[ordinal >>> CHUNK_SHIFT].removed;
+		int slot = ordinal & CHUNK_MASK;
+		return (removed[slot >>> 6] & (1L << slot)) == 0;
+	}
+
+
+	/**
+	 * Tells if an item was added through a journal, see markJournaled
+	 *
+	 * @param ordinal - ordinal of the item
+	 * @return true if the item came from a journal
+	 */
+	boolean isJournaled(int ordinal) {
+		long[] journaled = chunks[ordinal >>> CHUNK_SHIFT].journaled;
+		int slot = ordinal & CHUNK_MASK;
+		return (journaled[slot >>> 6] & (1L << slot)) != 0;
+	}
+
+
+	/**
+	 * Gets the ID of an item
+	 *
+	 * @param ordinal - ordinal of the item
+	 * @return ID of the item
+	 */
+	String id(int ordinal) {
+		return chunks[ordinal >>> CHUNK_SHIFT].ids[ordinal & CHUNK_MASK];
+	}
+
+
+	/**
+	 * Gets the name of an item
+	 *
+	 * @param ordinal - ordinal of the item
+	 * @return name of the item
+	 */
+	String name(int ordinal) {
+		return chunks[ordinal >>> CHUNK_SHIFT].names[ordinal & CHUNK_MASK];
+	}
+
+
+	/**
+	 * Gets a nutrient value of an item
+	 *
+	 * @param ordinal - ordinal of the item
+	 * @param nutrient - ordinal of the nutrient in NutrientsEnum
+	 * @return the value, or NaN if the item lacks the nutrient
+	 */
+	double value(int ordinal, int nutrient) {
+		return chunks[ordinal >>> CHUNK_SHIFT].values[nutrient][ordinal & CHUNK_MASK];
+	}
+
+
+	/**
+	 * Copies a nutrient column, chunk by chunk
+	 *
+	 * @param nutrient - ordinal of the nutrient in NutrientsEnum
+	 * @return value of every ordinal, NaN where the item lacks the nutrient
+	 */
+	double[] column(int nutrient) {
+		double[] column = new double[size];
+		for (int from = 0; from < size; from += CHUNK_SIZE) {
+			System.arraycopy(chunks[from >>> CHUNK_SHIFT].values[nutrient], 0, column, from,
+					Math.min(CHUNK_SIZE, size - from));
+		}
+		return column;
+	}
+
+
+	/**
+	 * Appends an item without nutrients, its ordinal is the size before the call
+	 *
+	 * @param id - ID of the item
+	 * @param name - name of the item
+	 * @return ordinal of the item
+	 */
+	int add(String id, String name) {
+		int chunkIx = size >>> CHUNK_SHIFT;
+		if (chunkIx == chunks.length) chunks = Arrays.copyOf(chunks, chunks.length * 2);
+		if (chunks[chunkIx] == null) chunks[chunkIx] = new Chunk(epoch);
+
+		int ordinal = size++;
+		Chunk chunk = writableChunk(chunkIx);
+		chunk.ids[ordinal & CHUNK_MASK] = id;
+		chunk.names[ordinal & CHUNK_MASK] = name;
+		return ordinal;
+	}
+
+
+	/**
+	 * Appends a copy of an item
+	 *
+	 * @param foodItem - item to copy
+	 * @return ordinal of the item
+	 */
+	int add(FoodItem foodItem) {
+		int ordinal = add(foodItem.getID(), foodItem.getName());
+		Chunk chunk = chunks[ordinal >>> CHUNK_SHIFT];
+		for (int nutrient = 0; nutrient < NUTRIENT_COUNT; nutrient++) {
+			chunk.values[nutrient][ordinal & CHUNK_MASK] = foodItem.nutrientValue(nutrient);
+		}
+		return ordinal;
+	}
+
+
+	/**
+	 * Sets a nutrient value of an item
+	 *
+	 * @param ordinal - ordinal of the item
+	 * @param nutrient - ordinal of the nutrient in NutrientsEnum
+	 * @param value - the value, or NaN to remove the nutrient
+	 */
+	void setValue(int ordinal, int nutrient, double value) {
+		writableChunk(ordinal >>> CHUNK_SHIFT).values[nutrient][ordinal & CHUNK_MASK] = value;
+	}
+
+
+	/**
+	 * Replaces the name and nutrients of an item with those of another
+	 *
+	 * @param ordinal - ordinal of the item
+	 * @param foodItem - item to copy, its ID is not copied
+	 */
+	void set(int ordinal, FoodItem foodItem) {
+		// read everything first, the item may be a view of this store
+		String name = foodItem.getName();
+		double[] values = new double[NUTRIENT_COUNT];
+		for (int nutrient = 0; nutrient < NUTRIENT_COUNT; nutrient++) {
+			values[nutrient] = foodItem.nutrientValue(nutrient);
+		}
+
+		Chunk chunk = writableChunk(ordinal >>> CHUNK_SHIFT);
+		chunk.names[ordinal & CHUNK_MASK] = name;
+		for (int nutrient = 0; nutrient < NUTRIENT_COUNT; nutrient++) {
+			chunk.values[nutrient][ordinal & CHUNK_MASK] = values[nutrient];
+		}
+	}
+
+
+	/**
+	 * Marks an item as removed, its values are kept for views of it
+	 *
+	 * @param ordinal - ordinal of the item
+	 */
+	void remove(int ordinal) {
+		int slot = ordinal & CHUNK_MASK;
+		writableChunk(ordinal >>> CHUNK_SHIFT).removed[slot >>> 6] |= 1L << slot;
+	}
+
+
+	/**
+	 * Marks an item as added through a journal rather than loaded from a
+	 * catalog, so a snapshot file keeps track of the foods only it holds
+	 *
+	 * @param ordinal - ordinal of the item
+	 */
+	void markJournaled(int ordinal) {
+		int slot = ordinal & CHUNK_MASK;
+		writableChunk(ordinal >>> CHUNK_SHIFT).journaled[slot >>> 6] |= 1L << slot;
+	}
+
+
+	/**
+	 * Drops the items from an ordinal on, as if they were never added.
+	 * A snapshot taken while they were in the store still holds them.
+	 *
+	 * @param newSize - number of items to keep
+	 */
+	void truncate(int newSize) {
+		if (newSize >= size) return;
+
+		// chunks past the last kept item are dropped, the rest of its chunk is cleared
+		int lastChunk = (size - 1) >>> CHUNK_SHIFT;
+		for (int chunkIx = (newSize + CHUNK_MASK) >>> CHUNK_SHIFT; chunkIx <= lastChunk; chunkIx++) {
+			chunks[chunkIx] = null;
+		}
+		int from = newSize & CHUNK_MASK;
+		if (from != 0) {
+			int to = newSize >>> CHUNK_SHIFT == lastChunk ? ((size - 1) & CHUNK_MASK) + 1 : CHUNK_SIZE;
+			Chunk chunk = writableChunk(newSize >>> CHUNK_SHIFT);
+			Arrays.fill(chunk.ids, from, to, null);
+			Arrays.fill(chunk.names, from, to, null);
+			for (double[] column : chunk.values) {
+				Arrays.fill(column, from, to, Double.NaN);
+			}
+			for (int slot = from; slot < to; slot++) {
+				chunk.removed[slot >>> 6] &= ~(1L << slot);
+				chunk.journaled[slot >>> 6] &= ~(1L << slot);
+			}
+		}
+		size = newSize;
+	}
+
+
+	/**
+	 * Gets a view of an item, see FoodItem
+	 *
+	 * @param ordinal - ordinal of the item
+	 * @return FoodItem reading the item from this store
+	 */
+	FoodItem view(int ordinal) {
+		return new FoodItem(this, ordinal);
+	}
+
+
+	/**
+	 * Tells if two stores are the same store or snapshots of the same store
+	 *
+	 * @param other - store to compare with
+	 * @return true if an ordinal means the same item in both
+	 */
+	boolean sameLineage(FoodStore other) {
+		return lineage == other.lineage;
+	}
+
+
+	/**
+	 * Gets a store sharing the current chunks. It must not be changed,
+	 * and changes made to this store afterwards don't show up in it.
+	 *
+	 * @return the snapshot
+	 */
+	FoodStore snapshot() {
+		FoodStore snapshot = new FoodStore(this);
+		epoch++;
+		return snapshot;
+	}
+
+
+	/**
+	 * Gets a chunk that can be changed, copying it first if it is shared with a snapshot
+	 *
+	 * @param chunkIx - index of the chunk
+	 * @return the chunk
+	 */
+	private Chunk writableChunk(int chunkIx) {
+		if (chunks[chunkIx].epoch != epoch) {
+			chunks[chunkIx] = chunks[chunkIx].copy(epoch);
+		}
+		return chunks[chunkIx];
+	}
+
+
+	/**
+	 * CHUNK_SIZE consecutive items, one array per column
+	 */
+	private static class Chunk {
+		final String[] ids;
+		final String[] names;
+
+		// values[nutrient][slot], NaN where the item lacks the nutrient
+		final double[][] values;
+
+		// bit per slot, set once the item is removed
+		final long[] removed;
+
+		// bit per slot, set if the item came from a journal
+		final long[] journaled;
+
+		// epoch the chunk was created or copied in
+		final int epoch;
+
+		Chunk(int epoch) {
+			ids = new String[CHUNK_SIZE];
+			names = new String[CHUNK_SIZE];
+			values = new double[NUTRIENT_COUNT][CHUNK_SIZE];
+			for (double[] column : values) {
+				Arrays.fill(column, Double.NaN);
+			}
+			removed = new long[CHUNK_SIZE / 64];
+			journaled = new long[CHUNK_SIZE / 64];
+			this.epoch = epoch;
+		}
+
+		private Chunk(Chunk source, int epoch) {
+			ids = source.ids.clone();
+			names = source.names.clone();
+			values = new double[NUTRIENT_COUNT][];
+			for (int nutrient = 0; nutrient < NUTRIENT_COUNT; nutrient++) {
+				values[nutrient] = source.values[nutrient].clone();
+			}
+			removed = source.removed.clone();
+			journaled = source.journaled.clone();
+			this.epoch = epoch;
+		}
+
+		Chunk copy(int epoch) {
+			return new Chunk(this, epoch);
+		}
+	} // End of class Chunk
+}
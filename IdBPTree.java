@@ -0,0 +1,1378 @@
+package application;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * B+ tree specialized for food IDs as keys and int values.
+ *
+ * FoodData keys its ID index on 24 character hex IDs such as
+ * 51c38f5d97c3e6d3d972f08a. Such an ID is stored as its 96 bits split
+ * over two longs, 48 bits each, so a node keeps its keys in a pair of
+ * long[] arrays and most comparisons are two primitive compares instead
+ * of String.compareTo.
+ *
+ * Any other ID is stored as its UTF-8 bytes. A leaf keeps the bytes its
+ * IDs have in common once, as a prefix, and only the rest of each ID.
+ *
+ * IDs are ordered by their UTF-8 bytes, which is the String.compareTo
+ * order except for characters outside the Basic Multilingual Plane.
+ * Lowercase hex IDs compare the same whether they are stored as longs
+ * or bytes, so both kinds can share a node.
+ *
+ * Removes are lazy as in ConcurrentBPTree: leaves are not merged when
+ * they become underfull, bulkLoad repacks the tree. Snapshots work as
+ * in BPTree#snapshot().
+ */
+public class IdBPTree implements BPTreeADT<String, Integer> {
+
+	// Length of an ID stored as two longs
+	private static final int HEX_LENGTH = 24;
+
+	// Hex digits packed in each long
+	private static final int DIGITS_PER_LONG = HEX_LENGTH / 2;
+
+	// Lowercase hex digits as UTF-8 bytes
+	private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+	private static final byte[] EMPTY = new byte[0];
+
+	// Bits of a hex key sorted per pass of the bulk load radix sort, and the passes over each long
+	private static final int RADIX_BITS = 12;
+	private static final int RADIX_PASSES_PER_LONG = 4 * DIGITS_PER_LONG / RADIX_BITS;
+
+	// Root of the tree
+	private Node root;
+
+	// Branching factor is the number of children nodes
+	// for internal nodes of the tree
+	private int branchingFactor;
+
+	// Number of entries in the tree
+	private int size;
+
+	// Current epoch, nodes created in an earlier epoch may be
+	// shared with a snapshot and are copied before they are changed
+	private int epoch;
+
+	// True if this tree is a read-only snapshot
+	private final boolean frozen;
+
+	/**
+	 * Public constructor
+	 *
+	 * @param branchingFactor
+	 */
+	public IdBPTree(int branchingFactor) {
+		if (branchingFactor <= 2) {
+			throw new IllegalArgumentException(
+					"Illegal branching factor: " + branchingFactor);
+		}
+
+		this.branchingFactor = branchingFactor;
+		this.frozen = false;
+		root = new LeafNode();
+	}
+
+
+	/**
+	 * Snapshot constructor, shares the nodes of the source tree
+	 *
+	 * @param source - tree to take a snapshot of
+	 */
+	private IdBPTree(IdBPTree source) {
+		this.branchingFactor = source.branchingFactor;
+		this.size = source.size;
+		this.epoch = source.epoch;
+		this.frozen = true;
+		root = source.root;
+	}
+
+
+	/**
+	 * Gets a read-only view of the tree as it is now, in constant time,
+	 * see BPTree#snapshot()
+	 *
+	 * @return read-only tree, its insert, remove, update and bulkLoad
+	 *         throw UnsupportedOperationException
+	 */
+	public IdBPTree snapshot() {
+		if (frozen) return this;
+
+		IdBPTree snapshot = new IdBPTree(this);
+		epoch++;
+		return snapshot;
+	}
+
+
+	/**
+	 * Throws if this tree is a snapshot
+	 */
+	private void checkWritable() {
+		if (frozen) {
+			throw new UnsupportedOperationException("Snapshots are read-only");
+		}
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * @see BPTreeADT#insert(java.lang.Object, java.lang.Object)
+	 */
+	@Override
+	public void insert(String id, Integer value) {
+		if (id == null || value == null) return;
+		insert(id, value.intValue());
+	}
+
+
+	/**
+	 * Inserts the ID and ordinal in the appropriate nodes in the tree
+	 *
+	 * @param id - food ID, may not be null
+	 * @param ordinal - ordinal of the item with that ID
+	 */
+	public void insert(String id, int ordinal) {
+		checkWritable();
+		if (id == null) {
+			throw new IllegalArgumentException("Illegal key: null");
+		}
+
+		if (root.version != epoch) {
+			root = root.copy();
+		}
+		root.insert(Key.of(id), ordinal);
+		size++;
+
+		// a full root is split here so that nodes never need a reference to their parent
+		if (root.isOverflow()) {
+			Key separator = root.splitKey();
+			Node sibling = root.split();
+			InternalNode newRoot = new InternalNode();
+			newRoot.setKey(0, separator);
+			newRoot.children[0] = root;
+			newRoot.children[1] = sibling;
+			newRoot.size = 1;
+			root = newRoot;
+		}
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * @see BPTreeADT#remove(java.lang.Object, java.lang.Object)
+	 */
+	@Override
+	public boolean remove(String id, Integer value) {
+		if (id == null || value == null) return false;
+		return remove(id, value.intValue());
+	}
+
+
+	/**
+	 * Removes the entry with the given ID and ordinal. The leaf is
+	 * left as it is when it becomes underfull, see the class comment.
+	 *
+	 * @param id - ID the ordinal is stored under
+	 * @param ordinal - ordinal to remove
+	 * @return true if an entry was removed
+	 */
+	public boolean remove(String id, int ordinal) {
+		checkWritable();
+		if (id == null) return false;
+
+		Key key = Key.of(id);
+		if (root.version != epoch) {
+			if (!root.contains(key, ordinal)) return false;
+			root = root.copy();
+		}
+		if (!root.remove(key, ordinal)) return false;
+		size--;
+		return true;
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * @see BPTreeADT#update(java.lang.Object, java.lang.Object, java.lang.Object)
+	 */
+	@Override
+	public boolean update(String oldId, String newId, Integer value) {
+		checkWritable();
+		if (newId == null) return false;
+
+		if (!remove(oldId, value)) return false;
+		insert(newId, value);
+		return true;
+	}
+
+
+	/**
+	 * Replaces the contents of the tree with the given IDs and ordinals,
+	 * packing leaves and then internal levels bottom-up in one pass.
+	 * See BPTree#bulkLoad.
+	 *
+	 * The IDs are sorted here, on their stored form, so they may be in any order.
+	 *
+	 * @param ids food IDs, IDs may repeat
+	 * @param ordinals ordinal of each ID, parallel to ids
+	 * @param fillFactor fraction of each node to fill, in (0, 1]
+	 * @throws IllegalArgumentException if an ID is null, the
+	 *         arrays differ in length, or the fill factor is out of range
+	 */
+	public void bulkLoad(String[] ids, int[] ordinals, double fillFactor) {
+		checkWritable();
+		if (ids == null || ordinals == null || ids.length != ordinals.length) {
+			throw new IllegalArgumentException("IDs and ordinals must be parallel arrays");
+		}
+		if (!(fillFactor > 0 && fillFactor <= 1)) {
+			throw new IllegalArgumentException("Illegal fill factor: " + fillFactor);
+		}
+
+		int count = ids.length;
+		Key[] keys = new Key[count];
+		int hexCount = 0;
+		for (int i = 0; i < count; i++) {
+			if (ids[i] == null) {
+				throw new IllegalArgumentException("Null ID at index: " + i);
+			}
+			keys[i] = Key.of(ids[i]);
+			if (keys[i].bytes == null) hexCount++;
+		}
+		int[] order = sortedOrder(keys, hexCount);
+
+		size = count;
+		if (count == 0) {
+			root = new LeafNode();
+			return;
+		}
+
+		int leafFill = Math.max(1, (int) ((branchingFactor - 1) * fillFactor));
+		int numLeaves = (count + leafFill - 1) / leafFill;
+
+		Node[] level = new Node[numLeaves];
+		Key[] firstKeys = new Key[numLeaves];
+		int entryIx = 0;
+		for (int leafIx = 0; leafIx < numLeaves; leafIx++) {
+			LeafNode leaf = new LeafNode();
+			int leafSize = count / numLeaves + (leafIx < count % numLeaves ? 1 : 0);
+			for (int i = 0; i < leafSize; i++) {
+				int entry = order[entryIx + i];
+				leaf.insertAt(i, keys[entry], ordinals[entry]);
+			}
+			leaf.compact();
+			firstKeys[leafIx] = keys[order[entryIx]];
+			entryIx += leafSize;
+			level[leafIx] = leaf;
+		}
+
+		int fanout = Math.min(branchingFactor, Math.max(3, (int) (branchingFactor * fillFactor)));
+		while (level.length > 1) {
+			int numChildren = level.length;
+			int numParents = (numChildren + fanout - 1) / fanout;
+			Node[] parents = new Node[numParents];
+			Key[] parentFirstKeys = new Key[numParents];
+			int childIx = 0;
+			for (int parentIx = 0; parentIx < numParents; parentIx++) {
+				InternalNode parent = new InternalNode();
+				int childCount = numChildren / numParents + (parentIx < numChildren % numParents ? 1 : 0);
+				System.arraycopy(level, childIx, parent.children, 0, childCount);
+				for (int i = 1; i < childCount; i++) {
+					parent.setKey(i - 1, firstKeys[childIx + i]);
+				}
+				parent.size = childCount - 1;
+				parents[parentIx] = parent;
+				parentFirstKeys[parentIx] = firstKeys[childIx];
+				childIx += childCount;
+			}
+			level = parents;
+			firstKeys = parentFirstKeys;
+		}
+		root = level[0];
+	}
+
+
+	/**
+	 * Sorts the entries of a bulk load by key. The hex keys are radix
+	 * sorted as primitive (high, low, index) triples, only the other keys
+	 * are sorted with a comparator, and the two runs are merged.
+	 * Entries with equal keys stay in the order they were given in.
+	 *
+	 * @param keys - key of each entry
+	 * @param hexCount - number of keys stored as two longs
+	 * @return indexes of the entries in key order
+	 */
+	private static int[] sortedOrder(Key[] keys, int hexCount) {
+		long[] highs = new long[hexCount];
+		long[] lows = new long[hexCount];
+		int[] hexOrder = new int[hexCount];
+		Integer[] otherOrder = new Integer[keys.length - hexCount];
+		int hex = 0;
+		int other = 0;
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i].bytes == null) {
+				highs[hex] = keys[i].high;
+				lows[hex] = keys[i].low;
+				hexOrder[hex++] = i;
+			}
+			else {
+				otherOrder[other++] = i;
+			}
+		}
+		hexOrder = radixSort(highs, lows, hexOrder);
+		Arrays.sort(otherOrder, (i, j) -> compareKeys(keys[i], keys[j]));
+
+		int[] order = new int[keys.length];
+		hex = 0;
+		other = 0;
+		for (int i = 0; i < order.length; i++) {
+			if (other == otherOrder.length
+					|| (hex < hexCount && compareKeys(keys[hexOrder[hex]], keys[otherOrder[other]]) < 0)) {
+				order[i] = hexOrder[hex++];
+			}
+			else {
+				order[i] = otherOrder[other++];
+			}
+		}
+		return order;
+	}
+
+
+	/**
+	 * Stable LSD radix sort of hex keys, RADIX_BITS at a time from the
+	 * low end of low to the high end of high. A pass is skipped when every
+	 * key has the same digit, as the leading digits of IDs often are.
+	 *
+	 * @param highs - first 12 digits of each key, reordered by the sort
+	 * @param lows - last 12 digits of each key, reordered by the sort
+	 * @param order - index of each key
+	 * @return the indexes in key order, order itself or a new array
+	 */
+	private static int[] radixSort(long[] highs, long[] lows, int[] order) {
+		int n = order.length;
+		long[] highsOut = new long[n];
+		long[] lowsOut = new long[n];
+		int[] orderOut = new int[n];
+		int mask = (1 << RADIX_BITS) - 1;
+		int[] starts = new int[mask + 1];
+		for (int pass = 0; pass < 2 * RADIX_PASSES_PER_LONG && n > 0; pass++) {
+			long[] digits = pass < RADIX_PASSES_PER_LONG ? lows : highs;
+			int shift = (pass % RADIX_PASSES_PER_LONG) * RADIX_BITS;
+
+			Arrays.fill(starts, 0);
+			for (int i = 0; i < n; i++) {
+				starts[(int) (digits[i] >>> shift) & mask]++;
+			}
+			if (starts[(int) (digits[0] >>> shift) & mask] == n) continue;
+			int start = 0;
+			for (int digit = 0; digit <= mask; digit++) {
+				int digitCount = starts[digit];
+				starts[digit] = start;
+				start += digitCount;
+			}
+
+			for (int i = 0; i < n; i++) {
+				int to = starts[(int) (digits[i] >>> shift) & mask]++;
+				highsOut[to] = highs[i];
+				lowsOut[to] = lows[i];
+				orderOut[to] = order[i];
+			}
+			long[] swapLongs = highs;
+			highs = highsOut;
+			highsOut = swapLongs;
+			swapLongs = lows;
+			lows = lowsOut;
+			lowsOut = swapLongs;
+			int[] swapInts = order;
+			order = orderOut;
+			orderOut = swapInts;
+		}
+		return order;
+	}
+
+
+	/**
+	 * Gets the number of entries in the tree
+	 *
+	 * @return int
+	 */
+	public int size() {
+		return size;
+	}
+
+
+	/**
+	 * Gets the ordinal stored under an ID
+	 *
+	 * @param id - food ID
+	 * @return ordinal of the first entry with that ID, or -1 if there is none
+	 */
+	public int find(String id) {
+		if (id == null) return -1;
+		return root.find(Key.of(id));
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * @see BPTreeADT#rangeSearch(java.lang.Object, java.lang.String)
+	 */
+	@Override
+	public List<Integer> rangeSearch(String id, String comparator) {
+		List<Integer> result = new ArrayList<Integer>();
+		if (id == null || comparator == null) return result;
+
+		Key key = Key.of(id);
+		switch (comparator) {
+		case "<":
+			root.collect(null, true, key, false, Integer.MAX_VALUE, result);
+			break;
+		case "<=":
+			root.collect(null, true, key, true, Integer.MAX_VALUE, result);
+			break;
+		case "==":
+			root.collect(key, true, key, true, Integer.MAX_VALUE, result);
+			break;
+		case ">=":
+			root.collect(key, true, null, true, Integer.MAX_VALUE, result);
+			break;
+		case ">":
+			root.collect(key, false, null, true, Integer.MAX_VALUE, result);
+			break;
+		default:
+			break;
+		}
+		return result;
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * @see BPTreeADT#rangeSearch(java.lang.Object, boolean, java.lang.Object, boolean)
+	 */
+	@Override
+	public List<Integer> rangeSearch(String lo, boolean loInclusive, String hi, boolean hiInclusive) {
+		return rangeSearch(lo, loInclusive, hi, hiInclusive, Integer.MAX_VALUE);
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * @see BPTreeADT#rangeSearch(java.lang.Object, boolean, java.lang.Object, boolean, int)
+	 */
+	@Override
+	public List<Integer> rangeSearch(String lo, boolean loInclusive, String hi, boolean hiInclusive, int limit) {
+		List<Integer> result = new ArrayList<Integer>();
+		if (limit <= 0) return result;
+
+		Key loKey = lo == null ? null : Key.of(lo);
+		Key hiKey = hi == null ? null : Key.of(hi);
+		if (loKey != null && hiKey != null) {
+			int cmp = compareKeys(loKey, hiKey);
+			if (cmp > 0 || (cmp == 0 && !(loInclusive && hiInclusive))) return result;
+		}
+		root.collect(loKey, loInclusive, hiKey, hiInclusive, limit, result);
+		return result;
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * @see BPTreeADT#topK(int, boolean)
+	 */
+	@Override
+	public List<Integer> topK(int k, boolean ascending) {
+		List<Integer> result = new ArrayList<Integer>();
+		if (k <= 0) return result;
+
+		if (ascending) {
+			root.collect(null, true, null, true, k, result);
+		}
+		else {
+			root.collectDescending(k, result);
+		}
+		return result;
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		Queue<List<Node>> queue = new LinkedList<List<Node>>();
+		queue.add(Arrays.asList(root));
+		StringBuilder sb = new StringBuilder();
+		while (!queue.isEmpty()) {
+			Queue<List<Node>> nextQueue = new LinkedList<List<Node>>();
+			while (!queue.isEmpty()) {
+				List<Node> nodes = queue.remove();
+				sb.append('{');
+				Iterator<Node> it = nodes.iterator();
+				while (it.hasNext()) {
+					Node node = it.next();
+					sb.append(node.toString());
+					if (it.hasNext())
+						sb.append(", ");
+					if (node instanceof InternalNode) {
+						InternalNode internal = (InternalNode) node;
+						nextQueue.add(Arrays.asList(internal.children).subList(0, internal.size + 1));
+					}
+				}
+				sb.append('}');
+				if (!queue.isEmpty())
+					sb.append(", ");
+				else {
+					sb.append('\n');
+				}
+			}
+			queue = nextQueue;
+		}
+		return sb.toString();
+	}
+
+
+	/**
+	 * Compares two keys in ID order
+	 *
+	 * @param key1
+	 * @param key2
+	 * @return negative, zero or positive as key1 is less than, equal to or greater than key2
+	 */
+	private static int compareKeys(Key key1, Key key2) {
+		if (key1.bytes == null && key2.bytes == null) {
+			if (key1.high != key2.high) return key1.high < key2.high ? -1 : 1;
+			return Long.compare(key1.low, key2.low);
+		}
+		int length = Math.min(key1.length(), key2.length());
+		for (int pos = 0; pos < length; pos++) {
+			int diff = key1.byteAt(pos) - key2.byteAt(pos);
+			if (diff != 0) return diff;
+		}
+		return key1.length() - key2.length();
+	}
+
+
+	/**
+	 * Gets a character of a hex ID stored as two longs
+	 *
+	 * @param high - first 12 digits
+	 * @param low - last 12 digits
+	 * @param pos - position of the digit, 0 to 23
+	 * @return the digit as an unsigned byte
+	 */
+	private static int hexDigit(long high, long low, int pos) {
+		long half = pos < DIGITS_PER_LONG ? high : low;
+		int shift = 4 * (DIGITS_PER_LONG - 1 - pos % DIGITS_PER_LONG);
+		return HEX_DIGITS[(int) (half >>> shift) & 0xF];
+	}
+
+
+	/**
+	 * Gets the length of the prefix two byte arrays have in common
+	 *
+	 * @param bytes1
+	 * @param bytes2
+	 * @return number of leading bytes that are equal
+	 */
+	private static int commonPrefix(byte[] bytes1, byte[] bytes2) {
+		int length = Math.min(bytes1.length, bytes2.length);
+		int pos = 0;
+		while (pos < length && bytes1[pos] == bytes2[pos]) {
+			pos++;
+		}
+		return pos;
+	}
+
+
+	/**
+	 * An ID in the form the tree stores it, built once per operation
+	 */
+	private static final class Key {
+
+		// First and last 12 hex digits, used when bytes is null
+		final long high;
+		final long low;
+
+		// UTF-8 bytes of an ID that isn't 24 lowercase hex digits, otherwise null
+		final byte[] bytes;
+
+		Key(long high, long low, byte[] bytes) {
+			this.high = high;
+			this.low = low;
+			this.bytes = bytes;
+		}
+
+		/**
+		 * Encodes an ID, as two longs if it is 24 lowercase hex digits
+		 *
+		 * @param id - food ID
+		 * @return the key
+		 */
+		static Key of(String id) {
+			if (id.length() == HEX_LENGTH) {
+				long high = 0;
+				long low = 0;
+				int pos = 0;
+				for (; pos < HEX_LENGTH; pos++) {
+					char c = id.charAt(pos);
+					int digit = c >= '0' && c <= '9' ? c - '0' : c >= 'a' && c <= 'f' ? c - 'a' + 10 : -1;
+					if (digit < 0) break;
+					if (pos < DIGITS_PER_LONG) {
+						high = (high << 4) | digit;
+					} else {
+						low = (low << 4) | digit;
+					}
+				}
+				if (pos == HEX_LENGTH) {
+					return new Key(high, low, null);
+				}
+			}
+			return new Key(0, 0, id.getBytes(StandardCharsets.UTF_8));
+		}
+
+		int length() {
+			return bytes == null ? HEX_LENGTH : bytes.length;
+		}
+
+		int byteAt(int pos) {
+			return bytes == null ? hexDigit(high, low, pos) : bytes[pos] & 0xFF;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			if (bytes != null) return new String(bytes, StandardCharsets.UTF_8);
+			byte[] digits = new byte[HEX_LENGTH];
+			for (int pos = 0; pos < HEX_LENGTH; pos++) {
+				digits[pos] = (byte) hexDigit(high, low, pos);
+			}
+			return new String(digits, StandardCharsets.US_ASCII);
+		}
+	}
+
+
+	/**
+	 * This abstract class represents any type of node in the tree
+	 * This class is a super class of the LeafNode and InternalNode types.
+	 */
+	private abstract class Node {
+
+		// First and last 12 digits of each hex key, only the first size entries are in use
+		long[] highs;
+		long[] lows;
+
+		// Bytes of each key that isn't hex after the prefix, null for hex keys.
+		// The array itself is only allocated once the node holds such a key.
+		byte[][] tails;
+
+		// Bytes shared by every key of the node that isn't hex, always empty in internal nodes
+		byte[] prefix = EMPTY;
+
+		// Number of keys currently stored in the node
+		int size;
+
+		// Epoch the node was created in, see IdBPTree#snapshot()
+		final int version;
+
+		/**
+		 * Package constructor
+		 *
+		 * @param capacity - number of key slots to allocate
+		 */
+		Node(int capacity) {
+			highs = new long[capacity];
+			lows = new long[capacity];
+			size = 0;
+			version = epoch;
+		}
+
+		/**
+		 * @param index - index of a key
+		 * @return true if the key is stored as two longs
+		 */
+		boolean isHex(int index) {
+			return tails == null || tails[index] == null;
+		}
+
+		/**
+		 * Gets a byte of a key that isn't hex
+		 *
+		 * @param index - index of the key
+		 * @param pos - position of the byte
+		 * @return the byte, unsigned
+		 */
+		int byteAt(int index, int pos) {
+			return pos < prefix.length ? prefix[pos] & 0xFF : tails[index][pos - prefix.length] & 0xFF;
+		}
+
+		/**
+		 * Compares a key with the key at the given index
+		 *
+		 * @param key - key to evaluate
+		 * @param index - index of the key in this node
+		 * @return negative, zero or positive as key is less than, equal to or greater than it
+		 */
+		int compare(Key key, int index) {
+			if (isHex(index)) {
+				if (key.bytes == null) {
+					if (key.high != highs[index]) return key.high < highs[index] ? -1 : 1;
+					return Long.compare(key.low, lows[index]);
+				}
+				int length = Math.min(key.length(), HEX_LENGTH);
+				for (int pos = 0; pos < length; pos++) {
+					int diff = key.byteAt(pos) - hexDigit(highs[index], lows[index], pos);
+					if (diff != 0) return diff;
+				}
+				return key.length() - HEX_LENGTH;
+			}
+
+			int keyLength = prefix.length + tails[index].length;
+			int length = Math.min(key.length(), keyLength);
+			for (int pos = 0; pos < length; pos++) {
+				int diff = key.byteAt(pos) - byteAt(index, pos);
+				if (diff != 0) return diff;
+			}
+			return key.length() - keyLength;
+		}
+
+		/**
+		 * Gets the key at the given index
+		 *
+		 * @param index - index of the key
+		 * @return the key
+		 */
+		Key keyAt(int index) {
+			if (isHex(index)) {
+				return new Key(highs[index], lows[index], null);
+			}
+			byte[] tail = tails[index];
+			byte[] bytes = Arrays.copyOf(prefix, prefix.length + tail.length);
+			System.arraycopy(tail, 0, bytes, prefix.length, tail.length);
+			return new Key(0, 0, bytes);
+		}
+
+		/**
+		 * Stores a key at the given index, a key that isn't hex must
+		 * start with the prefix of the node
+		 *
+		 * @param index - index the key goes to
+		 * @param key
+		 */
+		void setKey(int index, Key key) {
+			if (key.bytes == null) {
+				highs[index] = key.high;
+				lows[index] = key.low;
+				if (tails != null) {
+					tails[index] = null;
+				}
+			}
+			else {
+				if (tails == null) {
+					tails = new byte[highs.length][];
+				}
+				highs[index] = 0;
+				lows[index] = 0;
+				tails[index] = prefix.length == 0 ? key.bytes
+						: Arrays.copyOfRange(key.bytes, prefix.length, key.bytes.length);
+			}
+		}
+
+		/**
+		 * Copies keys to another node with the same prefix, or within this node
+		 *
+		 * @param from - first key to copy
+		 * @param dst - node to copy to
+		 * @param to - index of the first copied key in dst
+		 * @param count - number of keys to copy
+		 */
+		void copyKeys(int from, Node dst, int to, int count) {
+			System.arraycopy(highs, from, dst.highs, to, count);
+			System.arraycopy(lows, from, dst.lows, to, count);
+			if (tails != null) {
+				if (dst.tails == null) {
+					dst.tails = new byte[dst.highs.length][];
+				}
+				System.arraycopy(tails, from, dst.tails, to, count);
+			}
+			else if (dst.tails != null) {
+				Arrays.fill(dst.tails, to, to + count, null);
+			}
+		}
+
+		/**
+		 * Binary searches the keys of this node for the first
+		 * slot holding a key greater than or equal to the given key
+		 *
+		 * @param key - key to evaluate
+		 * @return index of the first key >= key, or size if there is none
+		 */
+		int lowerBound(Key key) {
+			int low = 0;
+			int high = size;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (compare(key, mid) > 0) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+			return low;
+		}
+
+		/**
+		 * Binary searches the keys of this node for the first
+		 * slot holding a key strictly greater than the given key
+		 *
+		 * @param key - key to evaluate
+		 * @return index of the first key > key, or size if there is none
+		 */
+		int upperBound(Key key) {
+			int low = 0;
+			int high = size;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (compare(key, mid) >= 0) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+			return low;
+		}
+
+		/**
+		 * Inserts key and ordinal in the appropriate leaf node
+		 *
+		 * @param key
+		 * @param ordinal
+		 */
+		abstract void insert(Key key, int ordinal);
+
+		/**
+		 * Gets the key that separates this node from the sibling split() creates
+		 *
+		 * @return key
+		 */
+		abstract Key splitKey();
+
+		/**
+		 * Gets the new sibling created after splitting the node
+		 *
+		 * @return Node
+		 */
+		abstract Node split();
+
+		/**
+		 *
+		 * @return boolean
+		 */
+		abstract boolean isOverflow();
+
+		/**
+		 * Removes the entry with the given key and ordinal from the subtree
+		 *
+		 * @param key
+		 * @param ordinal
+		 * @return true if an entry was removed
+		 */
+		abstract boolean remove(Key key, int ordinal);
+
+		/**
+		 * Checks if the subtree holds the entry with the given key and ordinal
+		 *
+		 * @param key
+		 * @param ordinal
+		 * @return true if the entry is in the subtree
+		 */
+		abstract boolean contains(Key key, int ordinal);
+
+		/**
+		 * Gets the ordinal of the first entry with the given key in the subtree
+		 *
+		 * @param key
+		 * @return ordinal, or -1 if there is none
+		 */
+		abstract int find(Key key);
+
+		/**
+		 * Adds the ordinals of the entries between the two bounds to result,
+		 * in key order, until result holds limit ordinals
+		 *
+		 * @param lo - lower bound, or null for none
+		 * @param loInclusive - true if keys equal to lo are included
+		 * @param hi - upper bound, or null for none
+		 * @param hiInclusive - true if keys equal to hi are included
+		 * @param limit - size result stops at
+		 * @param result - list to add to
+		 */
+		abstract void collect(Key lo, boolean loInclusive, Key hi, boolean hiInclusive, int limit, List<Integer> result);
+
+		/**
+		 * Adds the ordinals of the subtree to result from the largest
+		 * key down, until result holds limit ordinals
+		 *
+		 * @param limit - size result stops at
+		 * @param result - list to add to
+		 */
+		abstract void collectDescending(int limit, List<Integer> result);
+
+		/**
+		 * Gets a copy of this node in the current epoch, see IdBPTree#snapshot()
+		 *
+		 * @return Node
+		 */
+		abstract Node copy();
+
+		/**
+		 * Gets the first index whose key may be above the lower bound
+		 *
+		 * @param lo - lower bound, or null for none
+		 * @param loInclusive - true if keys equal to lo are included
+		 * @return index
+		 */
+		int first(Key lo, boolean loInclusive) {
+			if (lo == null) return 0;
+			return loInclusive ? lowerBound(lo) : upperBound(lo);
+		}
+
+		/**
+		 * Gets the index after the last key that may be below the upper bound
+		 *
+		 * @param hi - upper bound, or null for none
+		 * @param hiInclusive - true if keys equal to hi are included
+		 * @return index
+		 */
+		int last(Key hi, boolean hiInclusive) {
+			if (hi == null) return size;
+			return hiInclusive ? upperBound(hi) : lowerBound(hi);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			List<Key> keys = new ArrayList<Key>(size);
+			for (int i = 0; i < size; i++) {
+				keys.add(keyAt(i));
+			}
+			return keys.toString();
+		}
+
+	} // End of class Node
+
+
+	/**
+	 * This class represents an internal node of the tree.
+	 */
+	private class InternalNode extends Node {
+
+		// Array of children nodes, the first size + 1 entries are in use
+		Node[] children;
+
+		/**
+		 * Package constructor
+		 *
+		 * Room is left for one key and child past the branching factor
+		 * so an overflowing node can be split after the insert.
+		 */
+		InternalNode() {
+			super(branchingFactor);
+			children = new Node[branchingFactor + 1];
+		}
+
+		/**
+		 * (non-Javadoc)
+		 * @see IdBPTree.Node#isOverflow()
+		 */
+		boolean isOverflow() {
+			return size + 1 > branchingFactor;
+		}
+
+		/**
+		 * (non-Javadoc)
+		 * @see IdBPTree.Node#insert(IdBPTree.Key, int)
+		 */
+		void insert(Key key, int ordinal) {
+			int childIndex = upperBound(key);
+			Node child = writableChild(childIndex);
+			child.insert(key, ordinal);
+			if (child.isOverflow()) {
+				Key separator = child.splitKey();
+				Node sibling = child.split();
+				copyKeys(childIndex, this, childIndex + 1, size - childIndex);
+				System.arraycopy(children, childIndex + 1, children, childIndex + 2, size - childIndex);
+				setKey(childIndex, separator);
+				children[childIndex + 1] = sibling;
+				size++;
+			}
+		}
+
+		/**
+		 * (non-Javadoc)
+		 * @see IdBPTree.Node#splitKey()
+		 */
+		Key splitKey() {
+			return keyAt((size + 1) / 2 - 1);
+		}
+
+		/**
+		 * (non-Javadoc)
+		 * @see IdBPTree.Node#split()
+		 */
+		Node split() {
+			InternalNode sibling = new InternalNode();
+
+			int numKeys = size;
+			int numChildren = size + 1;
+
+			//the middle key moves up to the parent, see splitKey
+			int firstSiblingChild = numChildren / 2;
+
+			sibling.size = numKeys - firstSiblingChild;
+			copyKeys(firstSiblingChild, sibling, 0, sibling.size);
+			System.arraycopy(children, firstSiblingChild, sibling.children, 0, numChildren - firstSiblingChild);
+
+			size = firstSiblingChild - 1;
+			if (tails != null) {
+				Arrays.fill(tails, size, numKeys, null);
+			}
+			Arrays.fill(children, firstSiblingChild, numChildren, null);
+
+			return sibling;
+		}
+
+		/**
+		 * (non-Javadoc)
+		 * @see IdBPTree.Node#remove(IdBPTree.Key, int)
+		 */
+		boolean remove(Key key, int ordinal) {
+			//duplicates of key can run across several children, try each child that may hold key
+			int last = upperBound(key);
+			for (int i = lowerBound(key); i <= last; i++) {
+				//a shared child is only copied once it is known to hold the entry
+				if (children[i].version != epoch && !children[i].contains(key, ordinal)) {
+					continue;
+				}
+				if (writableChild(i).remove(key, ordinal)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * (non-Javadoc)
+		 * @see IdBPTree.Node#contains(IdBPTree.Key, int)
+		 */
+		boolean contains(Key key, int ordinal) {
+			int last = upperBound(key);
+			for (int i = lowerBound(key); i <= last; i++) {
+				if (children[i].contains(key, ordinal)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * (non-Javadoc)
+		 * @see IdBPTree.Node#find(IdBPTree.Key)
+		 */
+		int find(Key key) {
+			int last = upperBound(key);
+			for (int i = lowerBound(key); i <= last; i++) {
+				int ordinal = children[i].find(key);
+				if (ordinal >= 0) {
+					return ordinal;
+				}
+			}
+			return -1;
+		}
+
+		/**
+		 * (non-Javadoc)
+		 * @see IdBPTree.Node#collect(IdBPTree.Key, boolean, IdBPTree.Key, boolean, int, java.util.List)
+		 */
+		void collect(Key lo, boolean loInclusive, Key hi, boolean hiInclusive, int limit, List<Integer> result) {
+			int last = last(hi, hiInclusive);
+			for (int i = first(lo, loInclusive); i <= last && result.size() < limit; i++) {
+				children[i].collect(lo, loInclusive, hi, hiInclusive, limit, result);
+			}
+		}
+
+		/**
+		 * (non-Javadoc)
+		 * @see IdBPTree.Node#collectDescending(int, java.util.List)
+		 */
+		void collectDescending(int limit, List<Integer> result) {
+			for (int i = size; i >= 0 && result.size() < limit; i--) {
+				children[i].collectDescending(limit, result);
+			}
+		}
+
+		/**
+		 * Gets the child at the given index, first replacing it with
+		 * a copy if it may be shared with a snapshot
+		 *
+		 * @param index - index of the child
+		 * @return child that can be changed in place
+		 */
+		Node writableChild(int index) {
+			if (children[index].version != epoch) {
+				children[index] = children[index].copy();
+			}
+			return children[index];
+		}
+
+		/**
+		 * (non-Javadoc)
+		 * @see IdBPTree.Node#copy()
+		 */
+		Node copy() {
+			InternalNode copy = new InternalNode();
+			copyKeys(0, copy, 0, size);
+			System.arraycopy(children, 0, copy.children, 0, size + 1);
+			copy.size = size;
+			return copy;
+		}
+
+	} // End of class InternalNode
+
+
+	/**
+	 * This class represents a leaf node of the tree.
+	 */
+	private class LeafNode extends Node {
+
+		// Array of ordinals, parallel to the keys
+		int[] values;
+
+		/**
+		 * Package constructor
+		 *
+		 * A leaf holds at most branchingFactor - 1 entries,
+		 * the extra slot holds the entry that makes it overflow.
+		 */
+		LeafNode() {
+			super(branchingFactor);
+			values = new int[branchingFactor];
+		}
+
+		/**
+		 * (non-Javadoc)
+		 * @see IdBPTree.Node#isOverflow()
+		 */
+		boolean isOverflow() {
+			return size > branchingFactor - 1;
+		}
+
+		/**
+		 * (non-Javadoc)
+		 * @see IdBPTree.Node#insert(IdBPTree.Key, int)
+		 */
+		void insert(Key key, int ordinal) {
+			insertAt(upperBound(key), key, ordinal);
+		}
+
+		/**
+		 * Stores an entry at the given index, shortening the prefix
+		 * first if the key doesn't start with it
+		 *
+		 * @param index - index the entry goes to
+		 * @param key
+		 * @param ordinal
+		 */
+		void insertAt(int index, Key key, int ordinal) {
+			if (key.bytes != null) {
+				if (tails == null) {
+					//the first key that isn't hex becomes the prefix
+					prefix = key.bytes;
+				}
+				else if (commonPrefix(prefix, key.bytes) < prefix.length) {
+					setPrefix(commonPrefix(prefix, key.bytes));
+				}
+			}
+			copyKeys(index, this, index + 1, size - index);
+			System.arraycopy(values, index, values, index + 1, size - index);
+			setKey(index, key);
+			values[index] = ordinal;
+			size++;
+		}
+
+		/**
+		 * Shortens the prefix to its first length bytes, moving
+		 * the rest to the front of every tail
+		 *
+		 * @param length - new length of the prefix
+		 */
+		void setPrefix(int length) {
+			byte[] moved = Arrays.copyOfRange(prefix, length, prefix.length);
+			for (int i = 0; i < size; i++) {
+				if (!isHex(i)) {
+					byte[] tail = Arrays.copyOf(moved, moved.length + tails[i].length);
+					System.arraycopy(tails[i], 0, tail, moved.length, tails[i].length);
+					tails[i] = tail;
+				}
+			}
+			prefix = Arrays.copyOf(prefix, length);
+		}
+
+		/**
+		 * Makes the prefix as long as the keys that aren't hex allow. They are
+		 * sorted, so their common prefix is that of the first and last one.
+		 */
+		void compact() {
+			int first = 0;
+			while (first < size && isHex(first)) {
+				first++;
+			}
+			if (first == size) {
+				tails = null;
+				prefix = EMPTY;
+				return;
+			}
+			int last = size - 1;
+			while (isHex(last)) {
+				last--;
+			}
+			Key firstKey = keyAt(first);
+			int length = commonPrefix(firstKey.bytes, keyAt(last).bytes);
+			if (length == prefix.length) return;
+
+			for (int i = first; i <= last; i++) {
+				if (!isHex(i)) {
+					byte[] bytes = keyAt(i).bytes;
+					tails[i] = Arrays.copyOfRange(bytes, length, bytes.length);
+				}
+			}
+			prefix = Arrays.copyOf(firstKey.bytes, length);
+		}
+
+		/**
+		 * (non-Javadoc)
+		 * @see IdBPTree.Node#splitKey()
+		 */
+		Key splitKey() {
+			return keyAt(size / 2);
+		}
+
+		/**
+		 * (non-Javadoc)
+		 * @see IdBPTree.Node#split()
+		 */
+		Node split() {
+			LeafNode sibling = new LeafNode();
+
+			int middle = size / 2;
+
+			sibling.size = size - middle;
+			sibling.prefix = prefix;
+			copyKeys(middle, sibling, 0, sibling.size);
+			System.arraycopy(values, middle, sibling.values, 0, sibling.size);
+			if (tails != null) {
+				Arrays.fill(tails, middle, size, null);
+			}
+			size = middle;
+
+			//each half may share a longer prefix than the whole leaf did
+			compact();
+			sibling.compact();
+
+			return sibling;
+		}
+
+		/**
+		 * (non-Javadoc)
+		 * @see IdBPTree.Node#copy()
+		 */
+		Node copy() {
+			//tails and prefixes are never changed in place, so they are shared
+			LeafNode copy = new LeafNode();
+			copy.prefix = prefix;
+			copyKeys(0, copy, 0, size);
+			System.arraycopy(values, 0, copy.values, 0, size);
+			copy.size = size;
+			return copy;
+		}
+
+		/**
+		 * (non-Javadoc)
+		 * @see IdBPTree.Node#collect(IdBPTree.Key, boolean, IdBPTree.Key, boolean, int, java.util.List)
+		 */
+		void collect(Key lo, boolean loInclusive, Key hi, boolean hiInclusive, int limit, List<Integer> result) {
+			int last = last(hi, hiInclusive);
+			for (int i = first(lo, loInclusive); i < last && result.size() < limit; i++) {
+				result.add(values[i]);
+			}
+		}
+
+		/**
+		 * (non-Javadoc)
+		 * @see IdBPTree.Node#collectDescending(int, java.util.List)
+		 */
+		void collectDescending(int limit, List<Integer> result) {
+			for (int i = size - 1; i >= 0 && result.size() < limit; i--) {
+				result.add(values[i]);
+			}
+		}
+
+		/**
+		 * (non-Javadoc)
+		 * @see IdBPTree.Node#remove(IdBPTree.Key, int)
+		 */
+		boolean remove(Key key, int ordinal) {
+			for (int i = lowerBound(key); i < size && compare(key, i) == 0; i++) {
+				if (values[i] == ordinal) {
+					copyKeys(i + 1, this, i, size - i - 1);
+					System.arraycopy(values, i + 1, values, i, size - i - 1);
+					size--;
+					if (tails != null) {
+						tails[size] = null;
+					}
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * (non-Javadoc)
+		 * @see IdBPTree.Node#contains(IdBPTree.Key, int)
+		 */
+		boolean contains(Key key, int ordinal) {
+			for (int i = lowerBound(key); i < size && compare(key, i) == 0; i++) {
+				if (values[i] == ordinal) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * (non-Javadoc)
+		 * @see IdBPTree.Node#find(IdBPTree.Key)
+		 */
+		int find(Key key) {
+			int index = lowerBound(key);
+			if (index < size && compare(key, index) == 0) {
+				return values[index];
+			}
+			return -1;
+		}
+
+	} // End of class LeafNode
+
+}
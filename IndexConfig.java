@@ -0,0 +1,313 @@
+package application;
+
+import java.util.EnumMap;
+import java.util.Random;
+
+/**
+ * Branching factors of the indexes kept by FoodData, one for the ID
+ * index and one for each nutrient index.
+ *
+ * A config with auto tune on lets FoodData pick the branching factor of
+ * each index when a catalog is bulk loaded. Each candidate branching
+ * factor is timed on a sample of the index's own keys, because the best
+ * fanout for ID keys is not the best fanout for nutrient values, and the
+ * fastest one is kept. Catalogs smaller than AUTO_TUNE_MIN_ITEMS keep
+ * the configured values. getBranchingFactor and toString report the
+ * values that were chosen.
+ */
+public class IndexConfig {
+
+	// Branching factor FoodData used for every index before it was configurable
+	public static final int DEFAULT_BRANCHING_FACTOR = 11;
+
+	// Smallest number of keys an index is auto tuned for
+	public static final int AUTO_TUNE_MIN_ITEMS = 1000;
+
+	// Branching factors tried by auto tune
+	private static final int[] CANDIDATE_BRANCHING_FACTORS = {8, 16, 32, 64, 128, 256};
+
+	// Most keys an index is calibrated with, larger indexes are sampled
+	private static final int CALIBRATION_SAMPLE = 20000;
+
+	// Lookups and inserts timed per round of a calibration, and rounds,
+	// the first round of each candidate only warms up the JIT
+	private static final int CALIBRATION_LOOKUPS = 4000;
+	private static final int CALIBRATION_INSERTS = 500;
+	private static final int CALIBRATION_ROUNDS = 4;
+
+	// A larger branching factor is only kept if it is this much faster,
+	// so timing noise doesn't pick a fanout far from the default
+	private static final double CALIBRATION_MARGIN = 0.95;
+
+	// Collects calibration results so the JIT can't remove the work
+	private static long sink;
+
+	// Branching factor of the ID index
+	private int idBranchingFactor;
+
+	// Branching factor of each nutrient index
+	private final EnumMap<NutrientsEnum, Integer> nutrientBranchingFactors;
+
+	// True if FoodData picks the branching factors when it bulk loads
+	private boolean autoTune;
+
+	/**
+	 * Public constructor, every index uses DEFAULT_BRANCHING_FACTOR
+	 */
+	public IndexConfig() {
+		this(DEFAULT_BRANCHING_FACTOR);
+	}
+
+
+	/**
+	 * Public constructor
+	 *
+	 * @param branchingFactor - branching factor of every index
+	 */
+	public IndexConfig(int branchingFactor) {
+		nutrientBranchingFactors = new EnumMap<NutrientsEnum, Integer>(NutrientsEnum.class);
+		setBranchingFactor(branchingFactor);
+	}
+
+
+	/**
+	 * Copy constructor
+	 *
+	 * @param source - config to copy
+	 */
+	public IndexConfig(IndexConfig source) {
+		idBranchingFactor = source.idBranchingFactor;
+		nutrientBranchingFactors = new EnumMap<NutrientsEnum, Integer>(source.nutrientBranchingFactors);
+		autoTune = source.autoTune;
+	}
+
+
+	/**
+	 * Gets a config that auto tunes every index, see the class comment
+	 *
+	 * @return config with auto tune on
+	 */
+	public static IndexConfig autoTuned() {
+		IndexConfig config = new IndexConfig();
+		config.setAutoTune(true);
+		return config;
+	}
+
+
+	/**
+	 * Sets the branching factor of every index
+	 *
+	 * @param branchingFactor - branching factor, at least 3
+	 */
+	public void setBranchingFactor(int branchingFactor) {
+		setIdBranchingFactor(branchingFactor);
+		for (NutrientsEnum nutrient : NutrientsEnum.values()) {
+			setBranchingFactor(nutrient, branchingFactor);
+		}
+	}
+
+
+	/**
+	 * Sets the branching factor of the ID index
+	 *
+	 * @param branchingFactor - branching factor, at least 3
+	 */
+	public void setIdBranchingFactor(int branchingFactor) {
+		checkBranchingFactor(branchingFactor);
+		idBranchingFactor = branchingFactor;
+	}
+
+
+	/**
+	 * Sets the branching factor of one nutrient index
+	 *
+	 * @param nutrient - nutrient whose index is configured
+	 * @param branchingFactor - branching factor, at least 3
+	 */
+	public void setBranchingFactor(NutrientsEnum nutrient, int branchingFactor) {
+		checkBranchingFactor(branchingFactor);
+		nutrientBranchingFactors.put(nutrient, branchingFactor);
+	}
+
+
+	/**
+	 * Gets the branching factor of the ID index
+	 *
+	 * @return branching factor
+	 */
+	public int getIdBranchingFactor() {
+		return idBranchingFactor;
+	}
+
+
+	/**
+	 * Gets the branching factor of one nutrient index
+	 *
+	 * @param nutrient - nutrient whose index is looked up
+	 * @return branching factor
+	 */
+	public int getBranchingFactor(NutrientsEnum nutrient) {
+		return nutrientBranchingFactors.get(nutrient);
+	}
+
+
+	/**
+	 * Turns auto tune on or off
+	 *
+	 * @param autoTune - true to let FoodData pick the branching factors
+	 */
+	public void setAutoTune(boolean autoTune) {
+		this.autoTune = autoTune;
+	}
+
+
+	/**
+	 * Tells if auto tune is on
+	 *
+	 * @return true if FoodData picks the branching factors
+	 */
+	public boolean isAutoTune() {
+		return autoTune;
+	}
+
+
+	/**
+	 * helper function to reject branching factors the trees don't accept
+	 */
+	private static void checkBranchingFactor(int branchingFactor) {
+		if (branchingFactor <= 2) {
+			throw new IllegalArgumentException(
+					"Illegal branching factor: " + branchingFactor);
+		}
+	}
+
+
+	/**
+	 * Times every candidate branching factor on an ID index built from
+	 * a sample of the IDs and keeps the fastest as the ID branching factor
+	 *
+	 * @param ids - IDs of the catalog, in any order
+	 * @param fillFactor - fill factor the index will be bulk loaded with
+	 */
+	void tuneIdIndex(String[] ids, double fillFactor) {
+		if (ids.length < AUTO_TUNE_MIN_ITEMS) return;
+
+		int step = Math.max(1, ids.length / CALIBRATION_SAMPLE);
+		int count = (ids.length + step - 1) / step;
+		String[] sample = new String[count];
+		int[] ordinals = new int[count];
+		for (int i = 0; i < count; i++) {
+			sample[i] = ids[i * step];
+			ordinals[i] = i;
+		}
+
+		// probes and new IDs are picked before timing, a new ID differs
+		// from an existing one in its last character
+		Random rnd = new Random(count);
+		String[] probes = new String[CALIBRATION_LOOKUPS];
+		for (int i = 0; i < probes.length; i++) {
+			probes[i] = sample[rnd.nextInt(count)];
+		}
+		String[] inserts = new String[CALIBRATION_INSERTS];
+		for (int i = 0; i < inserts.length; i++) {
+			String id = sample[rnd.nextInt(count)];
+			inserts[i] = id.substring(0, id.length() - 1) + Character.forDigit(rnd.nextInt(16), 16);
+		}
+
+		long bestNanos = Long.MAX_VALUE;
+		for (int branchingFactor : CANDIDATE_BRANCHING_FACTORS) {
+			long nanos = Long.MAX_VALUE;
+			for (int round = 0; round < CALIBRATION_ROUNDS; round++) {
+				IdBPTree tree = new IdBPTree(branchingFactor);
+				tree.bulkLoad(sample, ordinals, fillFactor);
+				long start = System.nanoTime();
+				for (String probe : probes) {
+					sink += tree.find(probe);
+				}
+				for (int i = 0; i < inserts.length; i++) {
+					tree.insert(inserts[i], count + i);
+				}
+				if (round > 0) nanos = Math.min(nanos, System.nanoTime() - start);
+			}
+			if (nanos < bestNanos * CALIBRATION_MARGIN) {
+				bestNanos = nanos;
+				idBranchingFactor = branchingFactor;
+			}
+		}
+	}
+
+
+	/**
+	 * Times every candidate branching factor on a nutrient index built
+	 * from a sample of its column and keeps the fastest as the branching
+	 * factor of that index
+	 *
+	 * @param nutrient - nutrient whose index is tuned
+	 * @param sortedKeys - the nutrient's values in ascending order
+	 * @param fillFactor - fill factor the index will be bulk loaded with
+	 */
+	void tuneNutrientIndex(NutrientsEnum nutrient, double[] sortedKeys, double fillFactor) {
+		if (sortedKeys.length < AUTO_TUNE_MIN_ITEMS) return;
+
+		// every step-th key keeps the sample sorted
+		int step = Math.max(1, sortedKeys.length / CALIBRATION_SAMPLE);
+		int count = (sortedKeys.length + step - 1) / step;
+		double[] sample = new double[count];
+		int[] ordinals = new int[count];
+		for (int i = 0; i < count; i++) {
+			sample[i] = sortedKeys[i * step];
+			ordinals[i] = i;
+		}
+
+		// probes and new keys are picked before timing
+		double lo = sample[0];
+		double hi = sample[count - 1];
+		Random rnd = new Random(count);
+		double[] probes = new double[CALIBRATION_LOOKUPS];
+		for (int i = 0; i < probes.length; i++) {
+			probes[i] = sample[rnd.nextInt(count)];
+		}
+		double[] inserts = new double[CALIBRATION_INSERTS];
+		for (int i = 0; i < inserts.length; i++) {
+			inserts[i] = lo + rnd.nextDouble() * (hi - lo);
+		}
+
+		long bestNanos = Long.MAX_VALUE;
+		for (int branchingFactor : CANDIDATE_BRANCHING_FACTORS) {
+			long nanos = Long.MAX_VALUE;
+			for (int round = 0; round < CALIBRATION_ROUNDS; round++) {
+				DoubleBPTree tree = new DoubleBPTree(branchingFactor);
+				tree.bulkLoad(sample, ordinals, fillFactor);
+				long start = System.nanoTime();
+				for (double probe : probes) {
+					// a descent and a short run of the leaves, as the first page of a filter
+					sink += tree.rank(probe);
+					sink += tree.rangeSearchOrdinals(probe, true, hi, true, 16).length;
+				}
+				for (int i = 0; i < inserts.length; i++) {
+					tree.insert(inserts[i], count + i);
+				}
+				if (round > 0) nanos = Math.min(nanos, System.nanoTime() - start);
+			}
+			if (nanos < bestNanos * CALIBRATION_MARGIN) {
+				bestNanos = nanos;
+				nutrientBranchingFactors.put(nutrient, branchingFactor);
+			}
+		}
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("id=").append(idBranchingFactor);
+		for (NutrientsEnum nutrient : NutrientsEnum.values()) {
+			sb.append(", ").append(nutrient).append('=').append(nutrientBranchingFactors.get(nutrient));
+		}
+		if (autoTune) sb.append(" (auto tune)");
+		return sb.toString();
+	}
+}
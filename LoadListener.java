@@ -0,0 +1,29 @@
+package application;
+
+/**
+ * Follows a load started with FoodData#loadFoodItems(Path, LoadListener)
+ * or FoodData#loadFoodItems(InputStream, LoadListener), and can cancel it.
+ *
+ * Both methods are called on the thread that started the load.
+ */
+public interface LoadListener {
+
+	/**
+	 * Reports how far the load has got. It is called as the input is
+	 * read, and once more when all of it has been read.
+	 *
+	 * @param bytesRead - bytes of the input read so far
+	 * @param totalBytes - size of the input, or -1 if it isn't known
+	 * @param itemsLoaded - food items read so far
+	 * @param rowsRejected - lines skipped so far because they weren't food items
+	 */
+	void progress(long bytesRead, long totalBytes, int itemsLoaded, int rowsRejected);
+
+	/**
+	 * Tells if the load should stop. It is checked after every call to
+	 * progress. A cancelled load leaves the FoodData as it was.
+	 *
+	 * @return true to cancel the load
+	 */
+	boolean isCancelled();
+}
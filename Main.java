@@ -1,6 +1,7 @@
 package application;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.stream.Collectors;
@@ -10,13 +11,16 @@ import javafx.collections.ObservableList;
 import javafx.beans.property.ReadOnlyStringWrapper;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
+import javafx.geometry.Side;
 import javafx.stage.Stage;
 import javafx.scene.Scene;
 import javafx.scene.control.Alert;
 import javafx.scene.control.Button;
 import javafx.scene.control.ButtonType;
+import javafx.scene.control.ContextMenu;
 import javafx.scene.control.Label;
 import javafx.scene.control.ListView;
+import javafx.scene.control.MenuItem;
 import javafx.scene.control.SelectionMode;
 import javafx.scene.control.TableColumn;
 import javafx.scene.control.TableView;
@@ -39,6 +43,9 @@ import javafx.scene.Parent;
 
 public class Main extends Application {
   
+  // most type-ahead suggestions shown under the name filter
+  private static final int NAME_SUGGESTION_LIMIT = 10;
+  
   private FoodData food;
   private String oldNameFilter;
   private List<FoodItem> mealList;
@@ -52,8 +59,7 @@ public class Main extends Application {
 
   @Override
   public void start(Stage primaryStage) {
-    food = new FoodData();
-    food.loadFoodItems("foodItems.csv");
+    food = openFoodData("foodItems.csv");
     mealList = new ArrayList<FoodItem>();
     mealTable = new TableView<FoodItem>();
     foodTable = new TableView<FoodItem>();
@@ -84,6 +90,78 @@ public class Main extends Application {
     }
   }//start
 
+  @Override
+  public void stop() {
+    closeJournal();
+  }
+
+  /**
+   * opens the food data from the snapshot file saved next to the csv file,
+   * or parses the csv file and saves the snapshot when the snapshot is
+   * missing or older than the csv file. Foods added in earlier sessions are
+   * then replayed from the journal next to the csv file, which keeps the
+   * foods added in this session.
+   * Compacting the journal leaves the snapshot as the only file holding
+   * the foods added through it, so a snapshot older than the csv file hands
+   * them over to the reparsed foods before it is replaced, and a snapshot
+   * that can't be read is never replaced.
+   * @param csvPath - path of the food csv file
+   * @return - FoodData with the foods of the csv file
+   */
+  private static FoodData openFoodData(String csvPath) {
+    File csvFile = new File(csvPath);
+    File snapshotFile = new File(csvPath + ".snapshot");
+    FoodData snapshot = null;
+    boolean snapshotWritable = !snapshotFile.exists();
+    if (snapshotFile.exists()) {
+      try {
+        snapshot = FoodData.openSnapshot(snapshotFile.toPath());
+        snapshotWritable = true;
+      } catch (IOException e) {
+        // it may hold foods no other file has, so it is left as it is
+      }
+    }
+
+    FoodData foodData = snapshot;
+    if (snapshot == null || snapshotFile.lastModified() < csvFile.lastModified()) {
+      foodData = new FoodData();
+      foodData.loadFoodItems(csvPath);
+      if (snapshot != null) {
+        foodData.addJournaledFoods(snapshot);
+      }
+      if (snapshotWritable) {
+        try {
+          foodData.saveSnapshot(snapshotFile.toPath());
+        } catch (IOException e) {
+          // the next launch parses the csv file again
+        }
+      }
+    }
+
+    try {
+      int foodCount = foodData.getFoodItemCount();
+      foodData.openJournal(new File(csvPath + ".journal").toPath());
+      if (snapshotWritable && foodData.getFoodItemCount() > foodCount) {
+        // fold the replayed foods into the snapshot in the background
+        foodData.compactJournal(snapshotFile.toPath());
+      }
+    } catch (IOException e) {
+      // foods added in this session are only kept by saving them
+    }
+    return foodData;
+  }
+
+  /**
+   * closes the journal of the current food data
+   */
+  private void closeJournal() {
+    try {
+      food.closeJournal();
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
   /**
    * creates Node for left pane
    * @return - Node of left pane
@@ -131,11 +209,13 @@ public class Main extends Application {
         obsMealList.removeAll(obsMealList);
         mealList.clear();
         mealList = new ArrayList<FoodItem>();
+        closeJournal();
         food = new FoodData(); 
         food.loadFoodItems(selectedFile.getAbsolutePath());
         foodList = food.getAllFoodItems();
         obsFoodList = FXCollections.observableArrayList(foodList);
         foodTable.setItems(obsFoodList);
+        availableFoodsLabel.setText("All Available Foods (" + food.getFoodItemCount() + ")");
       }
     });
 
@@ -245,6 +325,7 @@ public class Main extends Application {
       obsFoodList = FXCollections.observableArrayList(foodList);
       foodTable.setItems(obsFoodList);
       foodTable.refresh();
+      availableFoodsLabel.setText("All Available Foods (" + food.getFoodItemCount() + ")");
       if (success) {
         idField.clear();
         nameField.clear();
@@ -278,7 +359,7 @@ public class Main extends Application {
     obsFoodList = FXCollections.observableArrayList(foodList);
     foodTable.setItems(obsFoodList);
   
-    String availableFoodsString = "All Available Foods (" + obsFoodList.size() + ")";
+    String availableFoodsString = "All Available Foods (" + food.getFoodItemCount() + ")";
 
     availableFoodsLabel = new Label(availableFoodsString);
     availableFoodsLabel.setFont(Font.font(availableFoodsLabel.getFont().toString(),
@@ -297,23 +378,23 @@ public class Main extends Application {
 
     TableColumn<FoodItem,String> caloriesColumn = new TableColumn<FoodItem,String> ("Calories");
     caloriesColumn.setCellValueFactory(calData -> new ReadOnlyStringWrapper(
-        (new Double(calData.getValue().getNutrientValue(NutrientsEnum.CALORIES.toString()))).toString()));
+        Double.toString(calData.getValue().getNutrientValue(NutrientsEnum.CALORIES))));
 
     TableColumn<FoodItem,String> fatColumn = new TableColumn<FoodItem,String> ("Fat");
     fatColumn.setCellValueFactory(fatData -> new ReadOnlyStringWrapper(
-        (new Double(fatData.getValue().getNutrientValue(NutrientsEnum.FAT.toString()))).toString()));
+        Double.toString(fatData.getValue().getNutrientValue(NutrientsEnum.FAT))));
 
     TableColumn<FoodItem,String> carbohydratesColumn = new TableColumn<FoodItem,String> ("Carbohydrates");
     carbohydratesColumn.setCellValueFactory(carbData -> new ReadOnlyStringWrapper(
-        (new Double(carbData.getValue().getNutrientValue(NutrientsEnum.CARBOHYDRATE.toString()))).toString()));
+        Double.toString(carbData.getValue().getNutrientValue(NutrientsEnum.CARBOHYDRATE))));
 
     TableColumn<FoodItem,String> fiberColumn = new TableColumn<FoodItem,String> ("Fiber");
     fiberColumn.setCellValueFactory(fiberData -> new ReadOnlyStringWrapper(
-        (new Double(fiberData.getValue().getNutrientValue(NutrientsEnum.FIBER.toString()))).toString()));
+        Double.toString(fiberData.getValue().getNutrientValue(NutrientsEnum.FIBER))));
     
     TableColumn<FoodItem,String> proteinColumn = new TableColumn<FoodItem,String> ("Protein");
     proteinColumn.setCellValueFactory(proData -> new ReadOnlyStringWrapper(
-        (new Double(proData.getValue().getNutrientValue(NutrientsEnum.PROTEIN.toString()))).toString()));
+        Double.toString(proData.getValue().getNutrientValue(NutrientsEnum.PROTEIN))));
 
     foodTable.getColumns().setAll(nameColumn, caloriesColumn, fatColumn, 
         carbohydratesColumn, fiberColumn, proteinColumn);
@@ -407,23 +488,23 @@ public class Main extends Application {
 
     TableColumn<FoodItem,String> mealCaloriesColumn = new TableColumn<FoodItem,String> ("Calories");
     mealCaloriesColumn.setCellValueFactory(calData -> new ReadOnlyStringWrapper(
-        (new Double(calData.getValue().getNutrientValue(NutrientsEnum.CALORIES.toString()))).toString()));
+        Double.toString(calData.getValue().getNutrientValue(NutrientsEnum.CALORIES))));
 
     TableColumn<FoodItem,String> mealFatColumn = new TableColumn<FoodItem,String> ("Fat");
     mealFatColumn.setCellValueFactory(fatData -> new ReadOnlyStringWrapper(
-        (new Double(fatData.getValue().getNutrientValue(NutrientsEnum.FAT.toString()))).toString()));
+        Double.toString(fatData.getValue().getNutrientValue(NutrientsEnum.FAT))));
 
     TableColumn<FoodItem,String> mealCarbohydratesColumn = new TableColumn<FoodItem,String> ("Carbohydrates");
     mealCarbohydratesColumn.setCellValueFactory(carbData -> new ReadOnlyStringWrapper(
-        (new Double(carbData.getValue().getNutrientValue(NutrientsEnum.CARBOHYDRATE.toString()))).toString()));
+        Double.toString(carbData.getValue().getNutrientValue(NutrientsEnum.CARBOHYDRATE))));
 
     TableColumn<FoodItem,String> mealFiberColumn = new TableColumn<FoodItem,String> ("Fiber");
     mealFiberColumn.setCellValueFactory(fiberData -> new ReadOnlyStringWrapper(
-        (new Double(fiberData.getValue().getNutrientValue(NutrientsEnum.FIBER.toString()))).toString()));
+        Double.toString(fiberData.getValue().getNutrientValue(NutrientsEnum.FIBER))));
     
     TableColumn<FoodItem,String> mealProteinColumn = new TableColumn<FoodItem,String> ("Protein");
     mealProteinColumn.setCellValueFactory(proData -> new ReadOnlyStringWrapper(
-        (new Double(proData.getValue().getNutrientValue(NutrientsEnum.PROTEIN.toString()))).toString()));
+        Double.toString(proData.getValue().getNutrientValue(NutrientsEnum.PROTEIN))));
 
     mealTable.getColumns().addAll(mealNameColumn, mealCaloriesColumn, mealFatColumn,
         mealCarbohydratesColumn, mealFiberColumn, mealProteinColumn);
@@ -473,6 +554,28 @@ public class Main extends Application {
     nameFilterInputBox.setPromptText(nameFilterInputBoxText);
     Button addNameFilterButton = new Button("Add Name Filter");
 
+    // type-ahead suggestions for the name filter, picking one fills in the box
+    ContextMenu nameSuggestions = new ContextMenu();
+    nameFilterInputBox.textProperty().addListener((observable, oldText, newText) -> {
+      nameSuggestions.getItems().clear();
+      if (newText != null && !newText.trim().equals("")) {
+        for (String suggestion : food.suggestNames(newText.trim(), NAME_SUGGESTION_LIMIT)) {
+          MenuItem suggestionItem = new MenuItem(suggestion);
+          suggestionItem.setOnAction(e -> {
+            nameFilterInputBox.setText(suggestion);
+            nameSuggestions.hide();
+          });
+          nameSuggestions.getItems().add(suggestionItem);
+        }
+      }
+
+      if (nameSuggestions.getItems().isEmpty()) {
+        nameSuggestions.hide();
+      } else if (!nameSuggestions.isShowing()) {
+        nameSuggestions.show(nameFilterInputBox, Side.BOTTOM, 0, 0);
+      }
+    });
+
     // Nutrient filter
     Label nutrientFilterLabel = new Label(nutrientFilterLabelText);
     nutrientFilterLabel.setPrefWidth(100);
@@ -610,7 +713,7 @@ public class Main extends Application {
 
     //check that comparator is valid
     String comparator = FilterPcs[1];
-    String [] comparators = {"==","<=",">="};
+    String [] comparators = {"==","<=",">=","<",">"};
     boolean isValidComparator = false;
     for(String currentComp : comparators) {
       if(currentComp.equals(comparator)) {
@@ -668,12 +771,18 @@ public class Main extends Application {
     if (doubleCalories!=null && doubleFat!=null && doubleCarbs!=null 
         && doubleProtein!=null && doubleFiber!=null) {
       FoodItem foodItemObj = new FoodItem(ID, name);
-      foodItemObj.addNutrient("calories",doubleCalories);
-      foodItemObj.addNutrient("fat",doubleFat);
-      foodItemObj.addNutrient("carbohydrate",doubleCarbs);
-      foodItemObj.addNutrient("protein",doubleProtein);
-      foodItemObj.addNutrient("fiber",doubleFiber);
+      foodItemObj.addNutrient(NutrientsEnum.CALORIES,doubleCalories);
+      foodItemObj.addNutrient(NutrientsEnum.FAT,doubleFat);
+      foodItemObj.addNutrient(NutrientsEnum.CARBOHYDRATE,doubleCarbs);
+      foodItemObj.addNutrient(NutrientsEnum.PROTEIN,doubleProtein);
+      foodItemObj.addNutrient(NutrientsEnum.FIBER,doubleFiber);
+      int foodCount = food.getFoodItemCount();
       food.addFoodItem(foodItemObj);
+      if (food.getFoodItemCount() == foodCount) {
+        Alert duplicate = new Alert(AlertType.WARNING, "A food with this ID already exists.");
+        duplicate.showAndWait().filter(response -> response == ButtonType.OK);
+        return false;
+      }
       return true;
 
     }
@@ -701,14 +810,13 @@ public class Main extends Application {
     // total values for each food in meal, and add to grid pane
     int row = 0;
     for (NutrientsEnum nutrient : NutrientsEnum.values()) { 
-      Double nutrientTotal = new Double(0);
+      double nutrientTotal = 0;
       for(FoodItem foodItemObj : meal) {
-        nutrientTotal = nutrientTotal + foodItemObj.getNutrientValue(
-            nutrient.toString());
+        nutrientTotal += foodItemObj.getNutrientValue(nutrient);
       }
 
       Label nutrientLabel = new Label(nutrient.toString());
-      Label nutrientVal = new Label(nutrientTotal.toString());
+      Label nutrientVal = new Label(Double.toString(nutrientTotal));
       analyzeMealPane.add(nutrientLabel, 0, row);
       analyzeMealPane.add(nutrientVal, 1, row);
       row++;
@@ -0,0 +1,587 @@
+package application;
+
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+/**
+ * Prefix index over lower case food names for type-ahead suggestions
+ * and fuzzy name search.
+ * Every name is indexed whole and from the start of each of its words to
+ * the end of the _-separated part holding the word. A word starts a part,
+ * or starts where a lower case letter is followed by an upper case one or
+ * where letters and digits meet, so "Brand_ProductName2Go" is found by
+ * the prefixes "bra", "prod", "name", "2" and "go". That makes a key for
+ * each word of a name, so typos in any word are found by completeFuzzy.
+ *
+ * The trie is path compressed: a chain of nodes with one child each is
+ * a single edge labelled with all of their characters, and removals merge
+ * a node left with one child and no items into that child. Every node
+ * counts the keys below it and empty branches are cut off, so listing the
+ * completions of a prefix walks the prefix and then visits only nodes
+ * that lead to a completion. The items of a key are kept in name order,
+ * so items sharing a name are listed once by skipping over their run.
+ *
+ * Labels copy no characters: a label is a range of a stored name, read
+ * in lower case, taken from a name whose key runs through the node.
+ * Strings are immutable, so a label stays valid after its item is
+ * renamed or removed, and a name costs its nodes but no new strings.
+ *
+ * Nodes are copied on write per epoch, as in FoodStore. A change copies
+ * the path it touches, and a snapshot shares the root.
+ */
+class NameTrie {
+
+	private static final Node[] NO_CHILDREN = new Node[0];
+	private static final int[] NO_ORDINALS = new int[0];
+
+	// Root of the trie, its label is empty
+	private Node root = new Node("", 0, 0, 0);
+
+	// Current epoch, advanced by every snapshot
+	private int epoch;
+
+	// Store holding the names of the indexed items
+	private final FoodStore items;
+
+	/**
+	 * Package-private constructor, makes an empty trie
+	 *
+	 * @param items - store the names of the indexed items are read from
+	 */
+	NameTrie(FoodStore items) {
+		this.items = items;
+	}
+
+
+	/**
+	 * Snapshot constructor
+	 *
+	 * @param source - trie whose current root is shared
+	 * @param items - snapshot of the store, taken with this one
+	 */
+	private NameTrie(NameTrie source, FoodStore items) {
+		root = source.root;
+		epoch = -1;
+		this.items = items;
+	}
+
+
+	/**
+	 * Adds the keys of a name. The store must hold the name for the
+	 * ordinal from now until it is removed.
+	 *
+	 * @param ordinal - ordinal of the item
+	 * @param name - name of the item
+	 */
+	void add(int ordinal, String name) {
+		for (Key key : keys(name)) {
+			root = insert(root, key, 0, ordinal, name);
+		}
+	}
+
+
+	/**
+	 * Removes the keys of a name added with add, while the store still
+	 * holds that name for the ordinal
+	 *
+	 * @param ordinal - ordinal of the item
+	 * @param name - the name it was added with
+	 */
+	void remove(int ordinal, String name) {
+		for (Key key : keys(name)) {
+			if (contains(key, ordinal, name)) root = delete(root, key, 0, ordinal, name);
+		}
+	}
+
+
+	/**
+	 * Visits an ordinal for each distinct name among the items of the keys
+	 * starting with a prefix, in the order of their keys. Items sharing
+	 * a key and a name are skipped over as one, so the visits cost no
+	 * more than the names found, and a name is visited again only for
+	 * another of its keys that starts with the prefix.
+	 *
+	 * @param prefix - lower case prefix
+	 * @param visitor - gets each ordinal, returns false to stop
+	 */
+	void complete(String prefix, IntPredicate visitor) {
+		Node node = root;
+		int depth = 0;
+		while (depth < prefix.length()) {
+			int i = node.findChild(prefix.charAt(depth));
+			if (i < 0) return;
+
+			// the prefix may end inside the label of the edge
+			Node child = node.children[i];
+			int length = Math.min(child.length, prefix.length() - depth);
+			for (int k = 1; k < length; k++) {
+				if (child.charAt(k) != prefix.charAt(depth + k)) return;
+			}
+			depth += length;
+			node = child;
+		}
+		visitNames(node, visitor);
+	}
+
+
+	/**
+	 * Visits the ordinals of the keys that start with a string within
+	 * maxEdits insertions, deletions or substitutions of a query, in the
+	 * order of their keys. An item is visited once for each such key.
+	 *
+	 * The walk keeps a row of Levenshtein distances from the query's
+	 * prefixes to the path so far, extended by one row per character.
+	 * Once the last distance of a row is within maxEdits every key below
+	 * matches, and once every distance is above it none does, so only the
+	 * branches near the query are walked.
+	 *
+	 * @param query - lower case query
+	 * @param maxEdits - most edits allowed
+	 * @param visitor - gets each ordinal, returns false to stop
+	 */
+	void completeFuzzy(String query, int maxEdits, IntPredicate visitor) {
+		int[] row = new int[query.length() + 1];
+		for (int j = 0; j < row.length; j++) {
+			row[j] = j;
+		}
+		if (row[query.length()] <= maxEdits) {
+			visit(root, visitor);
+			return;
+		}
+		for (int i = 0; i < root.childCount; i++) {
+			if (!walkFuzzy(root.children[i], query, maxEdits, row, visitor)) return;
+		}
+	}
+
+
+	/**
+	 * Gets a trie sharing the current nodes. It must not be changed, and
+	 * changes made to this trie afterwards don't show up in it.
+	 *
+	 * @param itemsSnapshot - snapshot of the store, taken at the same time
+	 * @return the snapshot
+	 */
+	NameTrie snapshot(FoodStore itemsSnapshot) {
+		NameTrie snapshot = new NameTrie(this, itemsSnapshot);
+		epoch++;
+		return snapshot;
+	}
+
+
+	/**
+	 * helper function to get the distinct keys of a name, the whole name
+	 * and the rest of each _-separated part from each word start in it
+	 */
+	private static Key[] keys(String name) {
+		Key[] keys = new Key[] {new Key(name, 0, name.length())};
+		int count = 1;
+		int partStart = 0;
+		for (int end = 0; end <= name.length(); end++) {
+			if (end < name.length() && name.charAt(end) != '_') continue;
+
+			for (int start = partStart; start < end; start++) {
+				if (start > partStart && !isWordStart(name, start)) continue;
+				Key key = new Key(name, start, end);
+				boolean seen = false;
+				for (int i = 0; i < count && !seen; i++) {
+					seen = keys[i].sameAs(key);
+				}
+				if (!seen) {
+					if (count == keys.length) keys = Arrays.copyOf(keys, count * 2);
+					keys[count++] = key;
+				}
+			}
+			partStart = end + 1;
+		}
+		return count == keys.length ? keys : Arrays.copyOf(keys, count);
+	}
+
+
+	/**
+	 * helper function to tell if a word of a name starts at an index
+	 * inside a part, at a lower to upper case change or where letters
+	 * and digits meet
+	 */
+	private static boolean isWordStart(String name, int index) {
+		char previous = name.charAt(index - 1);
+		char c = name.charAt(index);
+		if (Character.isLowerCase(previous) && Character.isUpperCase(c)) return true;
+		return Character.isLetter(previous) && Character.isDigit(c)
+				|| Character.isDigit(previous) && Character.isLetter(c);
+	}
+
+
+	/**
+	 * Adds an ordinal under a key below a node
+	 *
+	 * @param node - node whose label ends at depth
+	 * @param key - the key
+	 * @param depth - characters of the key matched by the path to the node
+	 * @param ordinal - ordinal to add
+	 * @param name - name of the item
+	 * @return the node, or the copy of it that replaces it
+	 */
+	private Node insert(Node node, Key key, int depth, int ordinal, String name) {
+		node = writable(node);
+		node.count++;
+		if (depth == key.length()) {
+			node.insertOrdinal(-findOrdinal(node, ordinal, name) - 1, ordinal);
+			return node;
+		}
+
+		int i = node.findChild(key.charAt(depth));
+		if (i < 0) {
+			Node leaf = new Node(key.name, key.start + depth, key.length() - depth, epoch);
+			leaf.insertOrdinal(0, ordinal);
+			leaf.count = 1;
+			node.insertChild(-i - 1, leaf);
+			return node;
+		}
+
+		Node child = node.children[i];
+		int common = 0;
+		while (common < child.length && depth + common < key.length()
+				&& child.charAt(common) == key.charAt(depth + common)) {
+			common++;
+		}
+		if (common < child.length) {
+			// the key leaves the edge part way, split the edge where it does
+			Node split = new Node(child.source, child.start, common, epoch);
+			split.insertChild(0, child.copy(child.start + common, child.length - common, epoch));
+			split.count = child.count;
+			child = split;
+		}
+		node.children[i] = insert(child, key, depth + common, ordinal, name);
+		return node;
+	}
+
+
+	/**
+	 * Removes an ordinal from a key below a node, the key must hold it.
+	 * A child left without keys is cut off, and one left with no items
+	 * and a single child is merged into that child, so the trie stays
+	 * path compressed.
+	 *
+	 * @return the node, or the copy of it that replaces it
+	 */
+	private Node delete(Node node, Key key, int depth, int ordinal, String name) {
+		node = writable(node);
+		node.count--;
+		if (depth == key.length()) {
+			node.removeOrdinalAt(findOrdinal(node, ordinal, name));
+			return node;
+		}
+
+		int i = node.findChild(key.charAt(depth));
+		Node child = delete(node.children[i], key, depth + node.children[i].length, ordinal, name);
+		if (child.count == 0) {
+			node.removeChild(i);
+		} else if (child.ordinalCount == 0 && child.childCount == 1) {
+			// the name the label of the only child is read from runs through
+			// this child as well, so it holds both labels back to back
+			Node only = child.children[0];
+			node.children[i] = only.copy(only.start - child.length, child.length + only.length, epoch);
+		} else {
+			node.children[i] = child;
+		}
+		return node;
+	}
+
+
+	/**
+	 * helper function to find an ordinal among those of a node, which are
+	 * kept in order of their names and then of the ordinals
+	 *
+	 * @return index of the ordinal, or -(insertion point) - 1 if it isn't there
+	 */
+	private int findOrdinal(Node node, int ordinal, String name) {
+		int lo = 0;
+		int hi = node.ordinalCount - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int other = node.ordinalAt(mid);
+			int cmp = other == ordinal ? 0 : items.name(other).compareTo(name);
+			if (cmp == 0) cmp = Integer.compare(other, ordinal);
+			if (cmp < 0) {
+				lo = mid + 1;
+			} else if (cmp > 0) {
+				hi = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -lo - 1;
+	}
+
+
+	/**
+	 * helper function to tell if a key holds an ordinal
+	 */
+	private boolean contains(Key key, int ordinal, String name) {
+		Node node = root;
+		int depth = 0;
+		while (depth < key.length()) {
+			int i = node.findChild(key.charAt(depth));
+			if (i < 0) return false;
+			node = node.children[i];
+			if (depth + node.length > key.length()) return false;
+			for (int k = 1; k < node.length; k++) {
+				if (node.charAt(k) != key.charAt(depth + k)) return false;
+			}
+			depth += node.length;
+		}
+		return findOrdinal(node, ordinal, name) >= 0;
+	}
+
+
+	/**
+	 * helper function to visit the ordinals below a node in key order
+	 *
+	 * @return false if the visitor stopped
+	 */
+	private static boolean visit(Node node, IntPredicate visitor) {
+		for (int i = 0; i < node.ordinalCount; i++) {
+			if (!visitor.test(node.ordinalAt(i))) return false;
+		}
+		for (int i = 0; i < node.childCount; i++) {
+			if (!visit(node.children[i], visitor)) return false;
+		}
+		return true;
+	}
+
+
+	/**
+	 * helper function to visit the ordinals below a node in key order,
+	 * only the first of each run of items sharing a name at a key
+	 *
+	 * @return false if the visitor stopped
+	 */
+	private boolean visitNames(Node node, IntPredicate visitor) {
+		for (int i = 0; i < node.ordinalCount; i = nextName(node, i)) {
+			if (!visitor.test(node.ordinalAt(i))) return false;
+		}
+		for (int i = 0; i < node.childCount; i++) {
+			if (!visitNames(node.children[i], visitor)) return false;
+		}
+		return true;
+	}
+
+
+	/**
+	 * helper function to get the index of the first ordinal of a node with
+	 * another name than the one at an index, galloping over the run of
+	 * that name so a long run costs a few name comparisons
+	 */
+	private int nextName(Node node, int from) {
+		String name = items.name(node.ordinalAt(from));
+
+		// the name at lo is the same, the first other name is at hi or before it
+		int lo = from;
+		int hi = from + 1;
+		int step = 1;
+		while (hi < node.ordinalCount && items.name(node.ordinalAt(hi)).equals(name)) {
+			lo = hi;
+			step <<= 1;
+			hi = Math.min(from + step, node.ordinalCount);
+		}
+		while (lo + 1 < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (items.name(node.ordinalAt(mid)).equals(name)) {
+				lo = mid;
+			} else {
+				hi = mid;
+			}
+		}
+		return hi;
+	}
+
+
+	/**
+	 * Walks the label of a node and the nodes below it for completeFuzzy
+	 *
+	 * @param node - node to walk
+	 * @param query - lower case query
+	 * @param maxEdits - most edits allowed
+	 * @param row - distances from each prefix of the query to the path down to the parent
+	 * @param visitor - gets each ordinal, returns false to stop
+	 * @return false if the visitor stopped
+	 */
+	private static boolean walkFuzzy(Node node, String query, int maxEdits, int[] row, IntPredicate visitor) {
+		int n = query.length();
+		for (int k = 0; k < node.length; k++) {
+			char c = node.charAt(k);
+			int[] next = new int[n + 1];
+			next[0] = row[0] + 1;
+			int min = next[0];
+			for (int j = 1; j <= n; j++) {
+				int substitute = row[j - 1] + (query.charAt(j - 1) == c ? 0 : 1);
+				next[j] = Math.min(substitute, Math.min(row[j], next[j - 1]) + 1);
+				min = Math.min(min, next[j]);
+			}
+			if (next[n] <= maxEdits) return visit(node, visitor);
+			if (min > maxEdits) return true;
+			row = next;
+		}
+		for (int i = 0; i < node.childCount; i++) {
+			if (!walkFuzzy(node.children[i], query, maxEdits, row, visitor)) return false;
+		}
+		return true;
+	}
+
+
+	/**
+	 * helper function to get a node that can be changed, copying it
+	 * first if it is shared with a snapshot
+	 */
+	private Node writable(Node node) {
+		return node.epoch == epoch ? node : node.copy(node.start, node.length, epoch);
+	}
+
+
+	/**
+	 * Key of a name, its characters from start to end in lower case
+	 */
+	private static class Key {
+		final String name;
+		final int start;
+		final int end;
+
+		Key(String name, int start, int end) {
+			this.name = name;
+			this.start = start;
+			this.end = end;
+		}
+
+		int length() {
+			return end - start;
+		}
+
+		char charAt(int i) {
+			return Character.toLowerCase(name.charAt(start + i));
+		}
+
+		boolean sameAs(Key other) {
+			if (length() != other.length()) return false;
+			for (int i = 0; i < length(); i++) {
+				if (charAt(i) != other.charAt(i)) return false;
+			}
+			return true;
+		}
+	} // End of class Key
+
+
+	/**
+	 * Node of the trie, reached by the edge labelled with the characters
+	 * of source from start on, in lower case
+	 */
+	private static class Node {
+		// stored name the label is read from, and where the label lies in it
+		final String source;
+		final int start;
+		final int length;
+
+		// children sorted by the first character of their labels
+		Node[] children = NO_CHILDREN;
+		int childCount;
+
+		// items whose key ends at this node in order of name and ordinal, most
+		// keys belong to one item, so the first is kept in a field and the others in an array
+		int firstOrdinal;
+		int[] moreOrdinals = NO_ORDINALS;
+		int ordinalCount;
+
+		// keys ending at this node or below it
+		int count;
+
+		// epoch the node was created or copied in
+		final int epoch;
+
+		Node(String source, int start, int length, int epoch) {
+			this.source = source;
+			this.start = start;
+			this.length = length;
+			this.epoch = epoch;
+		}
+
+		char charAt(int k) {
+			return Character.toLowerCase(source.charAt(start + k));
+		}
+
+		Node copy(int start, int length, int epoch) {
+			Node copy = new Node(source, start, length, epoch);
+			copy.children = Arrays.copyOf(children, childCount);
+			copy.childCount = childCount;
+			copy.firstOrdinal = firstOrdinal;
+			copy.moreOrdinals = ordinalCount > 1 ? Arrays.copyOf(moreOrdinals, ordinalCount - 1) : NO_ORDINALS;
+			copy.ordinalCount = ordinalCount;
+			copy.count = count;
+			return copy;
+		}
+
+		/**
+		 * Finds the child whose label starts with a character
+		 * @return index of the child, or -(insertion point) - 1 if there is none
+		 */
+		int findChild(char c) {
+			int lo = 0;
+			int hi = childCount - 1;
+			while (lo <= hi) {
+				int mid = (lo + hi) >>> 1;
+				char first = children[mid].charAt(0);
+				if (first < c) {
+					lo = mid + 1;
+				} else if (first > c) {
+					hi = mid - 1;
+				} else {
+					return mid;
+				}
+			}
+			return -lo - 1;
+		}
+
+		void insertChild(int at, Node child) {
+			if (childCount == children.length) children = Arrays.copyOf(children, Math.max(2, childCount * 2));
+			System.arraycopy(children, at, children, at + 1, childCount - at);
+			children[at] = child;
+			childCount++;
+		}
+
+		void removeChild(int at) {
+			System.arraycopy(children, at + 1, children, at, childCount - at - 1);
+			children[--childCount] = null;
+		}
+
+		int ordinalAt(int i) {
+			return i == 0 ? firstOrdinal : moreOrdinals[i - 1];
+		}
+
+		void insertOrdinal(int i, int ordinal) {
+			if (ordinalCount == 0) {
+				firstOrdinal = ordinal;
+				ordinalCount++;
+				return;
+			}
+			if (ordinalCount - 1 == moreOrdinals.length) moreOrdinals = Arrays.copyOf(moreOrdinals, Math.max(2, ordinalCount * 2));
+
+			// the array holds ordinals 1 to ordinalCount - 1, open a gap in it
+			int at = Math.max(i, 1) - 1;
+			System.arraycopy(moreOrdinals, at, moreOrdinals, at + 1, ordinalCount - 1 - at);
+			if (i == 0) {
+				moreOrdinals[0] = firstOrdinal;
+				firstOrdinal = ordinal;
+			} else {
+				moreOrdinals[at] = ordinal;
+			}
+			ordinalCount++;
+		}
+
+		void removeOrdinalAt(int i) {
+			if (i == 0 && ordinalCount > 1) firstOrdinal = moreOrdinals[0];
+
+			// the array holds ordinals 1 to ordinalCount - 1, close the gap left in it
+			int at = Math.max(i, 1) - 1;
+			if (at < ordinalCount - 2) System.arraycopy(moreOrdinals, at + 1, moreOrdinals, at, ordinalCount - 2 - at);
+			ordinalCount--;
+		}
+	} // End of class Node
+}
@@ -1,5 +1,8 @@
 package application;
 
+import java.util.HashMap;
+import java.util.Map;
+
 public enum NutrientsEnum {
 	CALORIES,
 	FAT,
@@ -7,8 +10,28 @@ public enum NutrientsEnum {
 	FIBER,
 	PROTEIN;
 	
+	// Nutrients by the name toString gives them
+	private static final Map<String, NutrientsEnum> BY_NAME = new HashMap<String, NutrientsEnum>();
+	static {
+		for (NutrientsEnum nutrient : values()) {
+			BY_NAME.put(nutrient.toString(), nutrient);
+		}
+	}
+	
+	// Lower case name, made once instead of on every toString
+	private final String lowerName = name().toLowerCase();
+	
+	/**
+	 * Looks up a nutrient by the name toString gives it
+	 * @param name - lower case name of the nutrient
+	 * @return the nutrient, or null if no nutrient has that name
+	 */
+	public static NutrientsEnum fromString(String name) {
+		return name == null ? null : BY_NAME.get(name);
+	}
+	
 	@Override
 	public String toString() {
-		return super.toString().toLowerCase();
+		return lowerName;
 	}
 }
@@ -0,0 +1,1062 @@
+package application;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * B+ tree of double keys and int values stored in a page file.
+ *
+ * The tree is laid out in fixed-size pages that are read and written
+ * through a FileChannel. Only the pages held by a small buffer pool
+ * are in memory, so an index larger than the heap can be searched and
+ * an existing file is opened by reading its header page alone.
+ *
+ * Page 0 is the header:
+ *     int magic, int format version, int page size,
+ *     int root page, int page count, int entry count
+ *
+ * Every other page is a node:
+ *     byte type (0 leaf, 1 internal), 3 bytes padding,
+ *     int size, int next leaf page (0 for none), int unused,
+ *     then the entries starting at byte 16
+ *
+ * A leaf entry is a double key and an int value. An internal node
+ * stores its first child page and then size pairs of a double key and
+ * the page of the child to the right of that key. Integers are
+ * big-endian, as written by ByteBuffer.
+ *
+ * The buffer pool evicts the least recently used page that is not in
+ * use, writing it back first if it was changed. flush() writes every
+ * changed page and the header, close() flushes and closes the file.
+ *
+ * Like ConcurrentBPTree, removes are lazy: an underfull leaf is not
+ * merged with its siblings, so pages are never freed. Rebuild the file
+ * with bulkLoad to repack it.
+ *
+ * The tree is not thread-safe.
+ */
+public class PagedBPTree implements BPTreeADT<Double, Integer>, Closeable {
+
+	// Identifies a page file written by this class, "BPTR"
+	private static final int MAGIC = 0x42505452;
+
+	// Version of the on-disk format
+	private static final int FORMAT_VERSION = 1;
+
+	// Default number of bytes in a page
+	public static final int DEFAULT_PAGE_SIZE = 4096;
+
+	// Smallest buffer pool that can hold a full root-to-leaf path while splitting
+	private static final int MIN_POOL_PAGES = 16;
+
+	// Byte offset of the first entry in a node page
+	private static final int HEADER_BYTES = 16;
+
+	// Bytes taken by a key and the value or child page next to it
+	private static final int ENTRY_BYTES = 12;
+
+	private static final byte LEAF = 0;
+	private static final byte INTERNAL = 1;
+
+	// File holding the pages
+	private final FileChannel channel;
+
+	// Pages kept in memory
+	private final BufferPool pool;
+
+	// Number of bytes in a page
+	private final int pageSize;
+
+	// Most entries a leaf can hold
+	private final int leafCapacity;
+
+	// Most keys an internal node can hold
+	private final int internalCapacity;
+
+	// Page of the root node
+	private int rootPage;
+
+	// Number of pages in the file, including the header
+	private int pageCount;
+
+	// Number of entries in the tree
+	private int entryCount;
+
+	// True if the header has changed since it was last written
+	private boolean headerDirty;
+
+	/**
+	 * Public constructor, opens the page file or creates it
+	 * with the default page size if it doesn't exist
+	 *
+	 * @param filePath - path of the page file
+	 * @param poolPages - number of pages the buffer pool holds
+	 * @throws IOException if the file can't be read or isn't a page file
+	 */
+	public PagedBPTree(String filePath, int poolPages) throws IOException {
+		this(filePath, poolPages, DEFAULT_PAGE_SIZE);
+	}
+
+	/**
+	 * Public constructor, opens the page file or creates it
+	 * with the given page size if it doesn't exist
+	 *
+	 * @param filePath - path of the page file
+	 * @param poolPages - number of pages the buffer pool holds
+	 * @param pageSize - bytes in a page of a new file, an existing file keeps its own
+	 * @throws IOException if the file can't be read or isn't a page file
+	 */
+	public PagedBPTree(String filePath, int poolPages, int pageSize) throws IOException {
+		if (poolPages < MIN_POOL_PAGES) {
+			throw new IllegalArgumentException("Illegal pool size: " + poolPages);
+		}
+		if (pageSize < HEADER_BYTES + 4 + 3 * ENTRY_BYTES) {
+			throw new IllegalArgumentException("Illegal page size: " + pageSize);
+		}
+
+		channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			if (channel.size() == 0) {
+				this.pageSize = pageSize;
+			}
+			else {
+				ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES + 8);
+				readFully(header, 0);
+				if (header.getInt(0) != MAGIC || header.getInt(4) != FORMAT_VERSION) {
+					throw new IOException("Not a page file: " + filePath);
+				}
+				this.pageSize = header.getInt(8);
+				rootPage = header.getInt(12);
+				pageCount = header.getInt(16);
+				entryCount = header.getInt(20);
+			}
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+
+		leafCapacity = (this.pageSize - HEADER_BYTES) / ENTRY_BYTES;
+		internalCapacity = (this.pageSize - HEADER_BYTES - 4) / ENTRY_BYTES;
+		pool = new BufferPool(poolPages);
+
+		if (pageCount == 0) {
+			pageCount = 1;
+			Page root = allocate(LEAF);
+			rootPage = root.id;
+			pool.release(root);
+			flush();
+		}
+	}
+
+
+	/**
+	 * Gets the number of entries in the tree
+	 *
+	 * @return int
+	 */
+	public int size() {
+		return entryCount;
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * @see BPTreeADT#insert(java.lang.Object, java.lang.Object)
+	 */
+	@Override
+	public void insert(Double key, Integer value) {
+		if (key == null || value == null || key.isNaN()) return;
+		insert(key.doubleValue(), value.intValue());
+	}
+
+
+	/**
+	 * Inserts a key and value, splitting the nodes that overflow
+	 *
+	 * @param key - must not be NaN
+	 * @param value
+	 */
+	public void insert(double key, int value) {
+		if (Double.isNaN(key)) return;
+
+		Split split = insert(rootPage, key, value);
+		if (split != null) {
+			Page root = allocate(INTERNAL);
+			root.setChild(0, rootPage);
+			root.setKey(0, split.key);
+			root.setChild(1, split.page);
+			root.setSize(1);
+			rootPage = root.id;
+			pool.release(root);
+		}
+		entryCount++;
+		headerDirty = true;
+	}
+
+
+	/**
+	 * Inserts a key and value in the subtree rooted at the given page
+	 *
+	 * @param pageId - root of the subtree
+	 * @param key
+	 * @param value
+	 * @return the key and page of the new right sibling if the node split, else null
+	 */
+	private Split insert(int pageId, double key, int value) {
+		Page page = pool.fetch(pageId);
+		try {
+			if (page.isLeaf()) {
+				return insertIntoLeaf(page, key, value);
+			}
+
+			int childIndex = page.upperBound(key);
+			Split childSplit = insert(page.child(childIndex), key, value);
+			if (childSplit == null) return null;
+
+			if (page.size() < internalCapacity) {
+				page.insertInternal(childIndex, childSplit.key, childSplit.page);
+				return null;
+			}
+
+			//split around the middle key, which moves up to the parent
+			Page sibling = allocate(INTERNAL);
+			try {
+				int middle = page.size() / 2;
+				Split split = new Split(page.key(middle), sibling.id);
+				sibling.setChild(0, page.child(middle + 1));
+				int moved = page.size() - middle - 1;
+				sibling.copyEntries(0, page, middle + 1, moved);
+				sibling.setSize(moved);
+				page.setSize(middle);
+
+				if (childIndex <= middle) {
+					page.insertInternal(childIndex, childSplit.key, childSplit.page);
+				}
+				else {
+					sibling.insertInternal(childIndex - middle - 1, childSplit.key, childSplit.page);
+				}
+				return split;
+			} finally {
+				pool.release(sibling);
+			}
+		} finally {
+			pool.release(page);
+		}
+	}
+
+
+	/**
+	 * Inserts a key and value in a leaf, splitting it if it is full
+	 *
+	 * @param leaf
+	 * @param key
+	 * @param value
+	 * @return the key and page of the new right sibling if the leaf split, else null
+	 */
+	private Split insertIntoLeaf(Page leaf, double key, int value) {
+		if (leaf.size() < leafCapacity) {
+			leaf.insertLeaf(leaf.upperBound(key), key, value);
+			return null;
+		}
+
+		Page sibling = allocate(LEAF);
+		try {
+			int middle = leaf.size() / 2;
+			int moved = leaf.size() - middle;
+			sibling.copyEntries(0, leaf, middle, moved);
+			sibling.setSize(moved);
+			leaf.setSize(middle);
+			sibling.setNext(leaf.next());
+			leaf.setNext(sibling.id);
+
+			if (key < sibling.key(0)) {
+				leaf.insertLeaf(leaf.upperBound(key), key, value);
+			}
+			else {
+				sibling.insertLeaf(sibling.upperBound(key), key, value);
+			}
+			return new Split(sibling.key(0), sibling.id);
+		} finally {
+			pool.release(sibling);
+		}
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * @see BPTreeADT#remove(java.lang.Object, java.lang.Object)
+	 */
+	@Override
+	public boolean remove(Double key, Integer value) {
+		if (key == null || value == null || key.isNaN()) return false;
+		return remove(key.doubleValue(), value.intValue());
+	}
+
+
+	/**
+	 * Removes one entry with the given key and value. The leaf is
+	 * left as it is when it becomes underfull, see the class comment.
+	 *
+	 * @param key
+	 * @param value
+	 * @return true if an entry was removed
+	 */
+	public boolean remove(double key, int value) {
+		if (Double.isNaN(key)) return false;
+
+		//duplicates of key can run across several leaves
+		Page leaf = seek(key, true);
+		int index = leaf.lowerBound(key);
+		while (true) {
+			for (; index < leaf.size(); index++) {
+				if (leaf.key(index) > key) {
+					pool.release(leaf);
+					return false;
+				}
+				if (leaf.value(index) == value) {
+					leaf.removeLeaf(index);
+					pool.release(leaf);
+					entryCount--;
+					headerDirty = true;
+					return true;
+				}
+			}
+			int next = leaf.next();
+			pool.release(leaf);
+			if (next == 0) return false;
+			leaf = pool.fetch(next);
+			index = 0;
+		}
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * @see BPTreeADT#update(java.lang.Object, java.lang.Object, java.lang.Object)
+	 */
+	@Override
+	public boolean update(Double oldKey, Double newKey, Integer value) {
+		if (newKey == null || newKey.isNaN()) return false;
+
+		if (!remove(oldKey, value)) return false;
+		insert(newKey, value);
+		return true;
+	}
+
+
+	/**
+	 * Replaces the contents of the tree with the given keys and values,
+	 * packing leaves and then internal levels bottom-up in one pass.
+	 * The pages of the old tree are reused from the start of the file.
+	 * See BPTree#bulkLoad.
+	 *
+	 * @param sortedKeys keys in ascending order, keys may repeat
+	 * @param values value of each key, parallel to sortedKeys
+	 * @param fillFactor fraction of each node to fill, in (0, 1]
+	 * @throws IllegalArgumentException if the keys are not sorted, the
+	 *         arrays differ in length, or the fill factor is out of range
+	 */
+	public void bulkLoad(double[] sortedKeys, int[] values, double fillFactor) {
+		if (sortedKeys == null || values == null || sortedKeys.length != values.length) {
+			throw new IllegalArgumentException("Keys and values must be parallel arrays");
+		}
+		if (!(fillFactor > 0 && fillFactor <= 1)) {
+			throw new IllegalArgumentException("Illegal fill factor: " + fillFactor);
+		}
+		for (int i = 0; i < sortedKeys.length; i++) {
+			if (Double.isNaN(sortedKeys[i]) || (i > 0 && sortedKeys[i - 1] > sortedKeys[i])) {
+				throw new IllegalArgumentException("Keys are not sorted at index: " + i);
+			}
+		}
+
+		pool.clear();
+		try {
+			channel.truncate(pageSize);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		pageCount = 1;
+		entryCount = sortedKeys.length;
+		headerDirty = true;
+
+		int count = sortedKeys.length;
+		int leafFill = Math.max(1, (int) (leafCapacity * fillFactor));
+		int numLeaves = Math.max(1, (count + leafFill - 1) / leafFill);
+
+		//the leaves take consecutive pages, so each one knows the page of the next
+		int[] level = new int[numLeaves];
+		double[] firstKeys = new double[numLeaves];
+		int entryIx = 0;
+		for (int leafIx = 0; leafIx < numLeaves; leafIx++) {
+			Page leaf = allocate(LEAF);
+			int leafSize = count / numLeaves + (leafIx < count % numLeaves ? 1 : 0);
+			for (int i = 0; i < leafSize; i++) {
+				leaf.setKey(i, sortedKeys[entryIx + i]);
+				leaf.setValue(i, values[entryIx + i]);
+			}
+			leaf.setSize(leafSize);
+			leaf.setNext(leafIx + 1 < numLeaves ? leaf.id + 1 : 0);
+			level[leafIx] = leaf.id;
+			firstKeys[leafIx] = leafSize > 0 ? sortedKeys[entryIx] : 0;
+			entryIx += leafSize;
+			pool.release(leaf);
+		}
+
+		int fanout = Math.min(internalCapacity + 1, Math.max(3, (int) ((internalCapacity + 1) * fillFactor)));
+		while (level.length > 1) {
+			int numChildren = level.length;
+			int numParents = (numChildren + fanout - 1) / fanout;
+			int[] parents = new int[numParents];
+			double[] parentFirstKeys = new double[numParents];
+			int childIx = 0;
+			for (int parentIx = 0; parentIx < numParents; parentIx++) {
+				Page parent = allocate(INTERNAL);
+				int childCount = numChildren / numParents + (parentIx < numChildren % numParents ? 1 : 0);
+				parent.setChild(0, level[childIx]);
+				for (int i = 1; i < childCount; i++) {
+					parent.setKey(i - 1, firstKeys[childIx + i]);
+					parent.setChild(i, level[childIx + i]);
+				}
+				parent.setSize(childCount - 1);
+				parents[parentIx] = parent.id;
+				parentFirstKeys[parentIx] = firstKeys[childIx];
+				childIx += childCount;
+				pool.release(parent);
+			}
+			level = parents;
+			firstKeys = parentFirstKeys;
+		}
+		rootPage = level[0];
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * @see BPTreeADT#rangeSearch(java.lang.Object, java.lang.String)
+	 */
+	@Override
+	public List<Integer> rangeSearch(Double key, String comparator) {
+		if (key == null || comparator == null) return new ArrayList<Integer>();
+
+		double k = key.doubleValue();
+		switch (comparator) {
+		case "<":
+			return rangeSearch(Double.NEGATIVE_INFINITY, true, k, false);
+		case "<=":
+			return rangeSearch(Double.NEGATIVE_INFINITY, true, k, true);
+		case "==":
+			return rangeSearch(k, true, k, true);
+		case ">=":
+			return rangeSearch(k, true, Double.POSITIVE_INFINITY, true);
+		case ">":
+			return rangeSearch(k, false, Double.POSITIVE_INFINITY, true);
+		default:
+			return new ArrayList<Integer>();
+		}
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * @see BPTreeADT#rangeSearch(java.lang.Object, boolean, java.lang.Object, boolean)
+	 */
+	@Override
+	public List<Integer> rangeSearch(Double lo, boolean loInclusive, Double hi, boolean hiInclusive) {
+		return rangeSearch(
+				lo == null ? Double.NEGATIVE_INFINITY : lo.doubleValue(), loInclusive || lo == null,
+				hi == null ? Double.POSITIVE_INFINITY : hi.doubleValue(), hiInclusive || hi == null);
+	}
+
+
+	/**
+	 * Gets the values whose keys fall between the two bounds, holding
+	 * one page of the leaf chain at a time. Use the infinities for an open side.
+	 *
+	 * @param lo lower bound of the keys
+	 * @param loInclusive true if keys equal to lo are included
+	 * @param hi upper bound of the keys
+	 * @param hiInclusive true if keys equal to hi are included
+	 * @return values in key order; if nothing found, an empty list
+	 */
+	public List<Integer> rangeSearch(double lo, boolean loInclusive, double hi, boolean hiInclusive) {
+		return rangeSearch(lo, loInclusive, hi, hiInclusive, Integer.MAX_VALUE);
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * @see BPTreeADT#rangeSearch(java.lang.Object, boolean, java.lang.Object, boolean, int)
+	 */
+	@Override
+	public List<Integer> rangeSearch(Double lo, boolean loInclusive, Double hi, boolean hiInclusive, int limit) {
+		return rangeSearch(
+				lo == null ? Double.NEGATIVE_INFINITY : lo.doubleValue(), loInclusive || lo == null,
+				hi == null ? Double.POSITIVE_INFINITY : hi.doubleValue(), hiInclusive || hi == null, limit);
+	}
+
+
+	/**
+	 * Gets at most limit values whose keys fall between the two bounds,
+	 * stopping the leaf scan once it has them
+	 *
+	 * @param lo lower bound of the keys
+	 * @param loInclusive true if keys equal to lo are included
+	 * @param hi upper bound of the keys
+	 * @param hiInclusive true if keys equal to hi are included
+	 * @param limit most values to return
+	 * @return values in key order; if nothing found, an empty list
+	 */
+	public List<Integer> rangeSearch(double lo, boolean loInclusive, double hi, boolean hiInclusive, int limit) {
+		List<Integer> result = new ArrayList<Integer>();
+		if (!(lo < hi || (lo == hi && loInclusive && hiInclusive)) || limit <= 0) return result;
+
+		Page leaf = seek(lo, loInclusive);
+		int index = loInclusive ? leaf.lowerBound(lo) : leaf.upperBound(lo);
+		while (true) {
+			for (; index < leaf.size(); index++) {
+				double key = leaf.key(index);
+				if (hiInclusive ? key > hi : key >= hi) {
+					pool.release(leaf);
+					return result;
+				}
+				result.add(leaf.value(index));
+				if (result.size() == limit) {
+					pool.release(leaf);
+					return result;
+				}
+			}
+			int next = leaf.next();
+			pool.release(leaf);
+			if (next == 0) return result;
+			leaf = pool.fetch(next);
+			index = 0;
+		}
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * @see BPTreeADT#topK(int, boolean)
+	 */
+	@Override
+	public List<Integer> topK(int k, boolean ascending) {
+		if (ascending) {
+			return rangeSearch(Double.NEGATIVE_INFINITY, true, Double.POSITIVE_INFINITY, true, k);
+		}
+
+		// the on-disk leaves only link to the right, so the largest keys are reached from the root
+		List<Integer> result = new ArrayList<Integer>();
+		if (k > 0) {
+			collectDescending(rootPage, k, result);
+		}
+		return result;
+	}
+
+
+	/**
+	 * Adds the values of a subtree to result from the largest key down,
+	 * until result holds k values
+	 *
+	 * @param pageId - root of the subtree
+	 * @param k - size result stops at
+	 * @param result - list to add to
+	 */
+	private void collectDescending(int pageId, int k, List<Integer> result) {
+		Page page = pool.fetch(pageId);
+		try {
+			if (page.isLeaf()) {
+				for (int i = page.size() - 1; i >= 0 && result.size() < k; i--) {
+					result.add(page.value(i));
+				}
+				return;
+			}
+			for (int i = page.size(); i >= 0 && result.size() < k; i--) {
+				collectDescending(page.child(i), k, result);
+			}
+		} finally {
+			pool.release(page);
+		}
+	}
+
+
+	/**
+	 * Gets the leaf where a range search starting at the given key begins.
+	 * The caller must release the page.
+	 *
+	 * @param key - lower bound of the search
+	 * @param inclusive - true to seek the first key >= key, false for the first key > key
+	 * @return leaf holding that key, or the leaf before it
+	 */
+	private Page seek(double key, boolean inclusive) {
+		Page page = pool.fetch(rootPage);
+		while (!page.isLeaf()) {
+			int index = inclusive ? page.lowerBound(key) : page.upperBound(key);
+			int child = page.child(index);
+			pool.release(page);
+			page = pool.fetch(child);
+		}
+		return page;
+	}
+
+
+	/**
+	 * Writes every changed page and the header to the file
+	 *
+	 * @throws UncheckedIOException if a write fails
+	 */
+	public void flush() {
+		pool.flush();
+		ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES + 8);
+		header.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(pageSize)
+				.putInt(rootPage).putInt(pageCount).putInt(entryCount);
+		header.flip();
+		writeFully(header, 0);
+		headerDirty = false;
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public void close() throws IOException {
+		if (!channel.isOpen()) return;
+		try {
+			if (headerDirty || pool.hasDirtyPages()) {
+				flush();
+			}
+			channel.force(true);
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		} finally {
+			channel.close();
+		}
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "PagedBPTree [entries=" + entryCount + ", pages=" + pageCount
+				+ ", pageSize=" + pageSize + ", root=" + rootPage + "]";
+	}
+
+
+	/**
+	 * Adds a new empty node page to the end of the file.
+	 * The caller must release the page.
+	 *
+	 * @param type - LEAF or INTERNAL
+	 * @return the new page
+	 */
+	private Page allocate(byte type) {
+		Page page = pool.create(pageCount++);
+		page.buffer.put(0, type);
+		headerDirty = true;
+		return page;
+	}
+
+
+	/**
+	 * Reads bytes from the file until the buffer is full or the file ends
+	 *
+	 * @param buffer - buffer to fill
+	 * @param position - file offset to read from
+	 */
+	private void readFully(ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) break;
+		}
+	}
+
+
+	/**
+	 * Writes all the remaining bytes of the buffer to the file
+	 *
+	 * @param buffer - buffer to write
+	 * @param position - file offset to write to
+	 */
+	private void writeFully(ByteBuffer buffer, long position) {
+		try {
+			while (buffer.hasRemaining()) {
+				channel.write(buffer, position + buffer.position());
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+
+	/**
+	 * The key and page a split passes up to the parent
+	 */
+	private static class Split {
+
+		// First key of the new right sibling
+		final double key;
+
+		// Page of the new right sibling
+		final int page;
+
+		Split(double key, int page) {
+			this.key = key;
+			this.page = page;
+		}
+	}
+
+
+	/**
+	 * This class represents a node page held in the buffer pool.
+	 * Its accessors read and write the on-disk format in place.
+	 */
+	private class Page {
+
+		// Page number in the file
+		final int id;
+
+		// Contents of the page
+		final ByteBuffer buffer;
+
+		// Number of callers using the page, a pinned page is never evicted
+		int pins;
+
+		// True if the page has changed since it was read or written
+		boolean dirty;
+
+		/**
+		 * Package constructor
+		 *
+		 * @param id - page number in the file
+		 */
+		Page(int id) {
+			this.id = id;
+			this.buffer = ByteBuffer.allocate(pageSize);
+		}
+
+		boolean isLeaf() {
+			return buffer.get(0) == LEAF;
+		}
+
+		int size() {
+			return buffer.getInt(4);
+		}
+
+		void setSize(int size) {
+			buffer.putInt(4, size);
+			dirty = true;
+		}
+
+		int next() {
+			return buffer.getInt(8);
+		}
+
+		void setNext(int next) {
+			buffer.putInt(8, next);
+			dirty = true;
+		}
+
+		/**
+		 * Gets the byte offset of an entry, internal nodes have
+		 * their first child page in front of the entries
+		 *
+		 * @param index - index of the entry
+		 * @return offset of the key of the entry
+		 */
+		int offset(int index) {
+			return HEADER_BYTES + (isLeaf() ? 0 : 4) + index * ENTRY_BYTES;
+		}
+
+		double key(int index) {
+			return buffer.getDouble(offset(index));
+		}
+
+		void setKey(int index, double key) {
+			buffer.putDouble(offset(index), key);
+			dirty = true;
+		}
+
+		int value(int index) {
+			return buffer.getInt(offset(index) + 8);
+		}
+
+		void setValue(int index, int value) {
+			buffer.putInt(offset(index) + 8, value);
+			dirty = true;
+		}
+
+		/**
+		 * Gets the page of a child, child i holds the keys
+		 * between key(i - 1) and key(i)
+		 *
+		 * @param index - index of the child, 0 to size()
+		 * @return page number of the child
+		 */
+		int child(int index) {
+			return index == 0 ? buffer.getInt(HEADER_BYTES) : buffer.getInt(offset(index - 1) + 8);
+		}
+
+		void setChild(int index, int child) {
+			if (index == 0) {
+				buffer.putInt(HEADER_BYTES, child);
+			}
+			else {
+				buffer.putInt(offset(index - 1) + 8, child);
+			}
+			dirty = true;
+		}
+
+		/**
+		 * Binary searches the keys for the first one greater than or equal to key
+		 *
+		 * @param key - key to evaluate
+		 * @return index of the first key >= key, or size() if there is none
+		 */
+		int lowerBound(double key) {
+			int low = 0;
+			int high = size();
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (key(mid) < key) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+			return low;
+		}
+
+		/**
+		 * Binary searches the keys for the first one strictly greater than key
+		 *
+		 * @param key - key to evaluate
+		 * @return index of the first key > key, or size() if there is none
+		 */
+		int upperBound(double key) {
+			int low = 0;
+			int high = size();
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (key(mid) <= key) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+			return low;
+		}
+
+		/**
+		 * Copies entries from another page of the same type
+		 *
+		 * @param index - first entry to write in this page
+		 * @param src - page to copy from
+		 * @param srcIndex - first entry to copy
+		 * @param count - number of entries to copy
+		 */
+		void copyEntries(int index, Page src, int srcIndex, int count) {
+			System.arraycopy(src.buffer.array(), src.offset(srcIndex),
+					buffer.array(), offset(index), count * ENTRY_BYTES);
+			dirty = true;
+		}
+
+		/**
+		 * Inserts an entry in a leaf, shifting the entries after it
+		 *
+		 * @param index - index the entry goes to
+		 * @param key
+		 * @param value
+		 */
+		void insertLeaf(int index, double key, int value) {
+			int size = size();
+			copyEntries(index + 1, this, index, size - index);
+			setKey(index, key);
+			setValue(index, value);
+			setSize(size + 1);
+		}
+
+		/**
+		 * Removes an entry from a leaf, shifting the entries after it
+		 *
+		 * @param index - index of the entry
+		 */
+		void removeLeaf(int index) {
+			int size = size();
+			copyEntries(index, this, index + 1, size - index - 1);
+			setSize(size - 1);
+		}
+
+		/**
+		 * Adds the key and page of a split child to an internal node
+		 *
+		 * @param childIndex - index of the child that split
+		 * @param key - first key of the new child
+		 * @param child - page of the new child
+		 */
+		void insertInternal(int childIndex, double key, int child) {
+			int size = size();
+			copyEntries(childIndex + 1, this, childIndex, size - childIndex);
+			setKey(childIndex, key);
+			setChild(childIndex + 1, child);
+			setSize(size + 1);
+		}
+
+	} // End of class Page
+
+
+	/**
+	 * This class keeps recently used pages in memory and evicts the
+	 * least recently used unpinned page when it is full.
+	 */
+	private class BufferPool {
+
+		// Pages in memory by page number, in order of use with the most recent last
+		private final LinkedHashMap<Integer, Page> pages;
+
+		// Most pages held at once
+		private final int capacity;
+
+		/**
+		 * Package constructor
+		 *
+		 * @param capacity - most pages held at once
+		 */
+		BufferPool(int capacity) {
+			this.capacity = capacity;
+			this.pages = new LinkedHashMap<Integer, Page>(capacity * 2, 0.75f, true);
+		}
+
+		/**
+		 * Gets a page, reading it from the file if it isn't in the pool,
+		 * and pins it until release is called
+		 *
+		 * @param id - page number
+		 * @return the page
+		 */
+		Page fetch(int id) {
+			Page page = pages.get(id);
+			if (page == null) {
+				page = add(id);
+				try {
+					readFully(page.buffer, (long) id * pageSize);
+				} catch (IOException e) {
+					pages.remove(id);
+					throw new UncheckedIOException(e);
+				}
+				page.buffer.clear();
+			}
+			page.pins++;
+			return page;
+		}
+
+		/**
+		 * Adds a zeroed page that isn't in the file yet and pins it
+		 *
+		 * @param id - page number
+		 * @return the page
+		 */
+		Page create(int id) {
+			Page page = add(id);
+			page.dirty = true;
+			page.pins++;
+			return page;
+		}
+
+		/**
+		 * Unpins a page, it can be evicted once nobody holds it
+		 *
+		 * @param page
+		 */
+		void release(Page page) {
+			page.pins--;
+		}
+
+		/**
+		 * Makes room for a page and puts it in the pool
+		 *
+		 * @param id - page number
+		 * @return the new, unpinned page
+		 */
+		private Page add(int id) {
+			if (pages.size() >= capacity) {
+				evict();
+			}
+			Page page = new Page(id);
+			pages.put(id, page);
+			return page;
+		}
+
+		/**
+		 * Drops the least recently used unpinned page, writing it first if it changed
+		 */
+		private void evict() {
+			Iterator<Page> it = pages.values().iterator();
+			while (it.hasNext()) {
+				Page page = it.next();
+				if (page.pins == 0) {
+					if (page.dirty) {
+						write(page);
+					}
+					it.remove();
+					return;
+				}
+			}
+			throw new IllegalStateException("Every page in the buffer pool is in use");
+		}
+
+		/**
+		 * Writes a page to its place in the file
+		 *
+		 * @param page
+		 */
+		private void write(Page page) {
+			page.buffer.clear();
+			writeFully(page.buffer, (long) page.id * pageSize);
+			page.buffer.clear();
+			page.dirty = false;
+		}
+
+		/**
+		 * Writes every changed page to the file
+		 */
+		void flush() {
+			for (Page page : pages.values()) {
+				if (page.dirty) {
+					write(page);
+				}
+			}
+		}
+
+		/**
+		 * @return true if a page has changed since it was last written
+		 */
+		boolean hasDirtyPages() {
+			for (Page page : pages.values()) {
+				if (page.dirty) return true;
+			}
+			return false;
+		}
+
+		/**
+		 * Drops every page without writing it
+		 */
+		void clear() {
+			pages.clear();
+		}
+
+	} // End of class BufferPool
+
+}
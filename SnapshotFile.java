@@ -0,0 +1,481 @@
+package application;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Contents of a FoodData snapshot file, see FoodData#saveSnapshot(Path).
+ *
+ * The file is little-endian and laid out by column:
+ *
+ * header   magic "FDSN", format version, item count, nutrient count,
+ *          branching factor of the ID index and of each nutrient index
+ * ids      offset of each ID in the ID bytes, then the UTF-8 ID bytes
+ * names    the same for the names
+ * each nutrient, in NutrientsEnum order
+ *          bitmap of the items that have the nutrient, then the value
+ *          of every item, 0 for the items that don't
+ * journaled
+ *          bitmap of the items that were added through a journal
+ *          rather than loaded from the csv file, absent in version 1
+ * indexes  ordinals in ID order, then for each nutrient the number of
+ *          items with it and their ordinals in value order
+ * trailer  CRC32 of everything before it
+ *
+ * Items are numbered 0 to item count - 1 in the order they were added.
+ * The indexes are stored as the order of their leaves, so they are
+ * rebuilt with a bulk load and no sorting.
+ *
+ * The file is read and written sequentially through one buffer, and
+ * columns of numbers are copied in bulk.
+ *
+ * Files of version 1 are still read. They don't tell which items came
+ * from a journal, so every item of one is taken to have.
+ */
+class SnapshotFile {
+
+	// First bytes of every snapshot file, "FDSN"
+	static final int MAGIC = 0x4E534446;
+
+	// Version of the layout written, a file of a later version is rejected
+	static final int FORMAT_VERSION = 2;
+
+	// First version with the journaled bitmap
+	private static final int JOURNALED_VERSION = 2;
+
+	// Size of the buffer the file is read and written through
+	private static final int BUFFER_BYTES = 1 << 20;
+
+	// Size of the trailer
+	private static final int TRAILER_BYTES = 8;
+
+	// Columns, see the class comment
+	String[] ids;
+	String[] names;
+	long[][] nutrientPresent;
+	double[][] nutrientValues;
+	long[] journaled;
+	int[] idOrder;
+	int[][] nutrientOrders;
+
+	// Branching factors the indexes had when the snapshot was saved
+	int idBranchingFactor;
+	int[] nutrientBranchingFactors;
+
+	/**
+	 * Writes the snapshot to a file, replacing the file if it exists
+	 *
+	 * @param path - file to write
+	 * @throws IOException if the file can't be written
+	 */
+	void write(Path path) throws IOException {
+		int itemCount = ids.length;
+		int nutrientCount = nutrientValues.length;
+		try (Output out = new Output(FileChannel.open(path, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))) {
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			out.writeInt(itemCount);
+			out.writeInt(nutrientCount);
+			out.writeInt(idBranchingFactor);
+			out.writeInts(nutrientBranchingFactors, nutrientCount);
+
+			writeStrings(out, ids);
+			writeStrings(out, names);
+			for (int nutrient = 0; nutrient < nutrientCount; nutrient++) {
+				out.writeLongs(nutrientPresent[nutrient], bitmapWords(itemCount));
+				out.writeDoubles(nutrientValues[nutrient], itemCount);
+			}
+			out.writeLongs(journaled, bitmapWords(itemCount));
+
+			out.writeInts(idOrder, itemCount);
+			for (int nutrient = 0; nutrient < nutrientCount; nutrient++) {
+				out.writeInt(nutrientOrders[nutrient].length);
+				out.writeInts(nutrientOrders[nutrient], nutrientOrders[nutrient].length);
+			}
+			out.finish();
+		}
+	}
+
+
+	/**
+	 * Reads a snapshot file
+	 *
+	 * @param path - file to read
+	 * @return contents of the file
+	 * @throws IOException if the file can't be read, is not a snapshot,
+	 *         has another format version, or fails its checksum
+	 */
+	static SnapshotFile read(Path path) throws IOException {
+		SnapshotFile snapshot = new SnapshotFile();
+		try (Input in = new Input(FileChannel.open(path, StandardOpenOption.READ))) {
+			if (in.readInt() != MAGIC) {
+				throw new IOException("Not a food data snapshot: " + path);
+			}
+			int version = in.readInt();
+			if (version < 1 || version > FORMAT_VERSION) {
+				throw new IOException("Unsupported snapshot version: " + version);
+			}
+			int itemCount = in.readCount(1);
+			int nutrientCount = in.readInt();
+			if (nutrientCount != NutrientsEnum.values().length) {
+				throw new IOException("Snapshot has " + nutrientCount + " nutrients");
+			}
+			snapshot.idBranchingFactor = in.readInt();
+			snapshot.nutrientBranchingFactors = in.readInts(nutrientCount);
+
+			snapshot.ids = readStrings(in, itemCount);
+			snapshot.names = readStrings(in, itemCount);
+			snapshot.nutrientPresent = new long[nutrientCount][];
+			snapshot.nutrientValues = new double[nutrientCount][];
+			for (int nutrient = 0; nutrient < nutrientCount; nutrient++) {
+				snapshot.nutrientPresent[nutrient] = in.readLongs(bitmapWords(itemCount));
+				snapshot.nutrientValues[nutrient] = in.readDoubles(itemCount);
+			}
+			if (version >= JOURNALED_VERSION) {
+				snapshot.journaled = in.readLongs(bitmapWords(itemCount));
+			} else {
+				// a version 1 file may hold foods compacted out of a journal, and can't tell which
+				snapshot.journaled = new long[bitmapWords(itemCount)];
+				Arrays.fill(snapshot.journaled, -1L);
+			}
+
+			snapshot.idOrder = readOrdinals(in, itemCount, itemCount);
+			snapshot.nutrientOrders = new int[nutrientCount][];
+			for (int nutrient = 0; nutrient < nutrientCount; nutrient++) {
+				snapshot.nutrientOrders[nutrient] = readOrdinals(in, in.readCount(4), itemCount);
+			}
+			in.finish();
+		}
+		return snapshot;
+	}
+
+
+	/**
+	 * Tells if an item has a value for a nutrient
+	 *
+	 * @param nutrient - ordinal of the nutrient in NutrientsEnum
+	 * @param ordinal - item
+	 * @return true if the item has the nutrient
+	 */
+	boolean isPresent(int nutrient, int ordinal) {
+		return (nutrientPresent[nutrient][ordinal >>> 6] & (1L << ordinal)) != 0;
+	}
+
+
+	/**
+	 * Tells if an item was added through a journal
+	 *
+	 * @param ordinal - item
+	 * @return true if the item came from a journal
+	 */
+	boolean isJournaled(int ordinal) {
+		return (journaled[ordinal >>> 6] & (1L << ordinal)) != 0;
+	}
+
+
+	/**
+	 * Gets the number of longs in a bitmap of the items
+	 */
+	static int bitmapWords(int itemCount) {
+		return (itemCount + 63) >>> 6;
+	}
+
+
+	/**
+	 * helper function to write a column of strings as offsets and UTF-8 bytes
+	 */
+	private static void writeStrings(Output out, String[] strings) throws IOException {
+		byte[][] encoded = new byte[strings.length][];
+		int[] offsets = new int[strings.length + 1];
+		for (int i = 0; i < strings.length; i++) {
+			encoded[i] = strings[i].getBytes(StandardCharsets.UTF_8);
+			if (offsets[i] + (long) encoded[i].length > Integer.MAX_VALUE) {
+				throw new IOException("Strings too long for a snapshot");
+			}
+			offsets[i + 1] = offsets[i] + encoded[i].length;
+		}
+		out.writeInts(offsets, offsets.length);
+		for (byte[] bytes : encoded) {
+			out.writeBytes(bytes);
+		}
+	}
+
+
+	/**
+	 * helper function to read a column of strings written by writeStrings
+	 */
+	private static String[] readStrings(Input in, int count) throws IOException {
+		int[] offsets = in.readInts(count + 1);
+		for (int i = 0; i < count; i++) {
+			if (offsets[i] < 0 || offsets[i] > offsets[i + 1]) {
+				throw new IOException("Corrupt snapshot: bad string offsets");
+			}
+		}
+		byte[] bytes = in.readBytes(offsets[count]);
+		String[] strings = new String[count];
+		for (int i = 0; i < count; i++) {
+			strings[i] = new String(bytes, offsets[i], offsets[i + 1] - offsets[i], StandardCharsets.UTF_8);
+		}
+		return strings;
+	}
+
+
+	/**
+	 * helper function to read ordinals of an index and check that they are items
+	 */
+	private static int[] readOrdinals(Input in, int count, int itemCount) throws IOException {
+		int[] ordinals = in.readInts(count);
+		for (int ordinal : ordinals) {
+			if (ordinal < 0 || ordinal >= itemCount) {
+				throw new IOException("Corrupt snapshot: ordinal " + ordinal);
+			}
+		}
+		return ordinals;
+	}
+
+
+	/**
+	 * Writes a file through a buffer, keeping a checksum of what was written
+	 */
+	private static class Output implements Closeable {
+		final FileChannel channel;
+		final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		final CRC32 crc = new CRC32();
+
+		Output(FileChannel channel) {
+			this.channel = channel;
+		}
+
+		void writeInt(int value) throws IOException {
+			ensure(4);
+			buffer.putInt(value);
+		}
+
+		void writeInts(int[] values, int count) throws IOException {
+			for (int i = 0; i < count; ) {
+				ensure(4);
+				int n = Math.min(count - i, buffer.remaining() / 4);
+				buffer.asIntBuffer().put(values, i, n);
+				buffer.position(buffer.position() + n * 4);
+				i += n;
+			}
+		}
+
+		void writeLongs(long[] values, int count) throws IOException {
+			for (int i = 0; i < count; ) {
+				ensure(8);
+				int n = Math.min(count - i, buffer.remaining() / 8);
+				buffer.asLongBuffer().put(values, i, n);
+				buffer.position(buffer.position() + n * 8);
+				i += n;
+			}
+		}
+
+		void writeDoubles(double[] values, int count) throws IOException {
+			for (int i = 0; i < count; ) {
+				ensure(8);
+				int n = Math.min(count - i, buffer.remaining() / 8);
+				buffer.asDoubleBuffer().put(values, i, n);
+				buffer.position(buffer.position() + n * 8);
+				i += n;
+			}
+		}
+
+		void writeBytes(byte[] bytes) throws IOException {
+			for (int i = 0; i < bytes.length; ) {
+				ensure(1);
+				int n = Math.min(bytes.length - i, buffer.remaining());
+				buffer.put(bytes, i, n);
+				i += n;
+			}
+		}
+
+		/**
+		 * Makes room for the given number of bytes, writing the buffer out if needed
+		 */
+		void ensure(int bytes) throws IOException {
+			if (buffer.remaining() < bytes) flush();
+		}
+
+		void flush() throws IOException {
+			buffer.flip();
+			crc.update(buffer.duplicate());
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			buffer.clear();
+		}
+
+		/**
+		 * Writes the trailer and forces the file to the disk
+		 */
+		void finish() throws IOException {
+			flush();
+			buffer.putLong(crc.getValue());
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			buffer.clear();
+			channel.force(true);
+		}
+
+		@Override
+		public void close() throws IOException {
+			channel.close();
+		}
+	} // End of class Output
+
+
+	/**
+	 * Reads a file through a buffer, keeping a checksum of what was read
+	 */
+	private static class Input implements Closeable {
+		final FileChannel channel;
+		final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		final CRC32 crc = new CRC32();
+
+		// Bytes before the trailer that have not been read into the buffer yet
+		long unread;
+
+		Input(FileChannel channel) throws IOException {
+			this.channel = channel;
+			unread = channel.size() - TRAILER_BYTES;
+			if (unread < 0) throw new IOException("Not a food data snapshot: file too short");
+			buffer.limit(0);
+		}
+
+		int readInt() throws IOException {
+			fill(4);
+			return buffer.getInt();
+		}
+
+		/**
+		 * Reads a count of items and checks that the rest of the file can
+		 * hold at least the given number of bytes for each of them
+		 */
+		int readCount(int bytesEach) throws IOException {
+			int count = readInt();
+			if (count < 0 || (long) count * bytesEach > unread + buffer.remaining()) {
+				throw new IOException("Corrupt snapshot: count " + count);
+			}
+			return count;
+		}
+
+		int[] readInts(int count) throws IOException {
+			checkRemaining(count * 4L);
+			int[] values = new int[count];
+			for (int i = 0; i < count; ) {
+				fill(4);
+				int n = Math.min(count - i, buffer.remaining() / 4);
+				buffer.asIntBuffer().get(values, i, n);
+				buffer.position(buffer.position() + n * 4);
+				i += n;
+			}
+			return values;
+		}
+
+		long[] readLongs(int count) throws IOException {
+			checkRemaining(count * 8L);
+			long[] values = new long[count];
+			for (int i = 0; i < count; ) {
+				fill(8);
+				int n = Math.min(count - i, buffer.remaining() / 8);
+				buffer.asLongBuffer().get(values, i, n);
+				buffer.position(buffer.position() + n * 8);
+				i += n;
+			}
+			return values;
+		}
+
+		double[] readDoubles(int count) throws IOException {
+			checkRemaining(count * 8L);
+			double[] values = new double[count];
+			for (int i = 0; i < count; ) {
+				fill(8);
+				int n = Math.min(count - i, buffer.remaining() / 8);
+				buffer.asDoubleBuffer().get(values, i, n);
+				buffer.position(buffer.position() + n * 8);
+				i += n;
+			}
+			return values;
+		}
+
+		byte[] readBytes(int count) throws IOException {
+			checkRemaining(count);
+			byte[] bytes = new byte[count];
+			for (int i = 0; i < count; ) {
+				fill(1);
+				int n = Math.min(count - i, buffer.remaining());
+				buffer.get(bytes, i, n);
+				i += n;
+			}
+			return bytes;
+		}
+
+		/**
+		 * helper function to reject a column longer than the rest of the file
+		 */
+		void checkRemaining(long bytes) throws IOException {
+			if (bytes > unread + buffer.remaining()) {
+				throw new IOException("Corrupt snapshot: file too short");
+			}
+		}
+
+		/**
+		 * Makes sure the buffer holds at least the given number of bytes,
+		 * reading more of the file if needed
+		 */
+		void fill(int bytes) throws IOException {
+			if (buffer.remaining() >= bytes) return;
+			buffer.compact();
+			while (buffer.position() < bytes || (buffer.hasRemaining() && unread > 0)) {
+				if (unread == 0) throw new IOException("Corrupt snapshot: file too short");
+				int start = buffer.position();
+				int limit = buffer.limit();
+				buffer.limit((int) Math.min(limit, start + unread));
+				int read = channel.read(buffer);
+				buffer.limit(limit);
+				if (read < 0) throw new IOException("Corrupt snapshot: file too short");
+
+				ByteBuffer readBytes = buffer.duplicate();
+				readBytes.position(start).limit(start + read);
+				crc.update(readBytes);
+				unread -= read;
+			}
+			buffer.flip();
+		}
+
+		/**
+		 * Checks that the whole file was read and matches its checksum
+		 */
+		void finish() throws IOException {
+			if (unread != 0 || buffer.hasRemaining()) {
+				throw new IOException("Corrupt snapshot: unexpected data at the end");
+			}
+			ByteBuffer trailer = ByteBuffer.allocate(TRAILER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+			while (trailer.hasRemaining()) {
+				if (channel.read(trailer, channel.size() - TRAILER_BYTES + trailer.position()) < 0) {
+					throw new IOException("Corrupt snapshot: file too short");
+				}
+			}
+			if (trailer.getLong(0) != crc.getValue()) {
+				throw new IOException("Snapshot checksum mismatch");
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			channel.close();
+		}
+	} // End of class Input
+}
@@ -0,0 +1,423 @@
+package application;
+
+import java.util.Arrays;
+
+/**
+ * Inverted index from the trigrams of lower case food names to the
+ * ordinals of the items whose name contains them. A substring of three
+ * or more characters can only be in names that hold every trigram of
+ * the substring, so intersecting the posting lists of those trigrams
+ * narrows a search to a few candidates that are then checked one by one.
+ *
+ * Candidates hold every trigram of the query but need not contain the
+ * query itself, so they must still be checked against the names.
+ *
+ * Like FoodStore, the index is copy-on-write: a snapshot shares the
+ * table and the posting blocks, and the first change to a shared piece
+ * after the snapshot copies that piece only. Removing the postings of a
+ * removed item, or of the old name of an updated one, therefore leaves
+ * them in every snapshot that can still see that name.
+ */
+class TrigramIndex {
+
+	// Ordinals per posting block, a full block is split in two when an ordinal is inserted into it
+	private static final int BLOCK_SIZE = 128;
+
+	// Capacity of a new block, blocks grow to BLOCK_SIZE as they fill so rare trigrams stay small
+	private static final int INITIAL_BLOCK_CAPACITY = 4;
+
+	// Candidate count below which verifying is cheaper than intersecting further
+	private static final int VERIFY_THRESHOLD = 16;
+
+	// Open addressing table from trigram keys to posting lists, null values are free slots
+	private long[] keys = new long[64];
+	private Postings[] postings = new Postings[64];
+	private int trigramCount;
+
+	// Current epoch, advanced by every snapshot, and the epoch the table was created or copied in
+	private int epoch;
+	private int tableEpoch;
+
+	/**
+	 * Package-private constructor, makes an empty index
+	 */
+	TrigramIndex() {
+	}
+
+
+	/**
+	 * Snapshot constructor
+	 *
+	 * @param source - index whose current table is shared
+	 */
+	private TrigramIndex(TrigramIndex source) {
+		keys = source.keys;
+		postings = source.postings;
+		trigramCount = source.trigramCount;
+		epoch = tableEpoch = -1;
+	}
+
+
+	/**
+	 * Adds the trigrams of a name. Adding the ordinals of a batch in
+	 * ascending order only appends to the posting lists.
+	 *
+	 * @param ordinal - ordinal of the item
+	 * @param name - name of the item
+	 */
+	void add(int ordinal, String name) {
+		String lowerName = name.toLowerCase();
+		for (int i = 0; i + 3 <= lowerName.length(); i++) {
+			writablePostings(trigram(lowerName, i)).insert(ordinal, epoch);
+		}
+	}
+
+
+	/**
+	 * Removes the trigrams of a name added with add. A trigram no name
+	 * holds any more is dropped from the table.
+	 *
+	 * @param ordinal - ordinal of the item
+	 * @param name - the name it was added with
+	 */
+	void remove(int ordinal, String name) {
+		String lowerName = name.toLowerCase();
+		for (int i = 0; i + 3 <= lowerName.length(); i++) {
+			long key = trigram(lowerName, i);
+			Postings list = find(key);
+			if (list == null || !list.contains(ordinal)) continue;
+
+			Postings writable = writablePostings(key);
+			writable.remove(ordinal, epoch);
+			if (writable.size == 0) delete(key);
+		}
+	}
+
+
+	/**
+	 * Finds the items whose name may contain a lower case substring
+	 *
+	 * @param query - lower case substring
+	 * @param itemCount - number of ordinals in the store searched, larger ordinals are dropped
+	 * @return ordinals in ascending order, a superset of the matches, or
+	 *         null if the query is too short to have a trigram
+	 */
+	int[] candidates(String query, int itemCount) {
+		if (query.length() < 3) return null;
+
+		// posting lists of the distinct trigrams of the query, shortest first
+		Postings[] lists = new Postings[query.length() - 2];
+		int listCount = 0;
+		for (int i = 0; i + 3 <= query.length(); i++) {
+			Postings list = find(trigram(query, i));
+			if (list == null) return new int[0];
+
+			boolean seen = false;
+			for (int j = 0; j < listCount && !seen; j++) {
+				seen = lists[j] == list;
+			}
+			if (!seen) lists[listCount++] = list;
+		}
+		Arrays.sort(lists, 0, listCount, (list1, list2) -> Integer.compare(list1.size, list2.size));
+
+		// the shortest list is the first set of candidates, the others only remove from it
+		int[] candidates = lists[0].toArray(itemCount);
+		int count = candidates.length;
+		for (int list = 1; list < listCount && count > VERIFY_THRESHOLD; list++) {
+			int kept = 0;
+			for (int i = 0; i < count; i++) {
+				if (lists[list].contains(candidates[i])) candidates[kept++] = candidates[i];
+			}
+			count = kept;
+		}
+		return count == candidates.length ? candidates : Arrays.copyOf(candidates, count);
+	}
+
+
+	/**
+	 * Gets an index sharing the current postings. It must not be changed,
+	 * and changes made to this index afterwards don't show up in it.
+	 *
+	 * @return the snapshot
+	 */
+	TrigramIndex snapshot() {
+		TrigramIndex snapshot = new TrigramIndex(this);
+		epoch++;
+		return snapshot;
+	}
+
+
+	/**
+	 * helper function to pack three characters of a string into a key
+	 */
+	private static long trigram(String s, int start) {
+		return ((long) s.charAt(start) << 32) | ((long) s.charAt(start + 1) << 16) | s.charAt(start + 2);
+	}
+
+
+	/**
+	 * helper function to find the slot of a key in the table
+	 *
+	 * @return slot holding the key, or the free slot where it would go
+	 */
+	private int slot(long key) {
+		int mask = keys.length - 1;
+		int slot = Long.hashCode(key * 0x9E3779B97F4A7C15L) & mask;
+		while (postings[slot] != null && keys[slot] != key) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+
+	/**
+	 * helper function to look up the postings of a trigram
+	 *
+	 * @return the postings, or null if no name has the trigram
+	 */
+	private Postings find(long key) {
+		return postings[slot(key)];
+	}
+
+
+	/**
+	 * Gets the postings of a trigram that can be changed, copying the
+	 * table and the postings first if they are shared with a snapshot,
+	 * and adding them if no name had the trigram yet
+	 *
+	 * @param key - the trigram
+	 * @return the postings
+	 */
+	private Postings writablePostings(long key) {
+		if (tableEpoch != epoch) {
+			keys = keys.clone();
+			postings = postings.clone();
+			tableEpoch = epoch;
+		}
+
+		int slot = slot(key);
+		if (postings[slot] == null) {
+			if ((trigramCount + 1) * 2 > keys.length) {
+				grow();
+				slot = slot(key);
+			}
+			keys[slot] = key;
+			postings[slot] = new Postings(epoch);
+			trigramCount++;
+		} else if (postings[slot].epoch != epoch) {
+			postings[slot] = postings[slot].copy(epoch);
+		}
+		return postings[slot];
+	}
+
+
+	/**
+	 * Removes a trigram from the table, which must be from the current
+	 * epoch. The entries after it in its probe run are moved back so
+	 * that every key can still be reached from its home slot.
+	 *
+	 * @param key - the trigram
+	 */
+	private void delete(long key) {
+		int mask = keys.length - 1;
+		int gap = slot(key);
+		int slot = gap;
+		while (true) {
+			slot = (slot + 1) & mask;
+			if (postings[slot] == null) break;
+
+			// an entry may fill the gap if its home slot is not between the gap and it
+			int home = Long.hashCode(keys[slot] * 0x9E3779B97F4A7C15L) & mask;
+			if (((slot - home) & mask) >= ((slot - gap) & mask)) {
+				keys[gap] = keys[slot];
+				postings[gap] = postings[slot];
+				gap = slot;
+			}
+		}
+		postings[gap] = null;
+		trigramCount--;
+	}
+
+
+	/**
+	 * helper function to double the table
+	 */
+	private void grow() {
+		long[] oldKeys = keys;
+		Postings[] oldPostings = postings;
+		keys = new long[oldKeys.length * 2];
+		postings = new Postings[oldPostings.length * 2];
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldPostings[i] == null) continue;
+			int slot = slot(oldKeys[i]);
+			keys[slot] = oldKeys[i];
+			postings[slot] = oldPostings[i];
+		}
+	}
+
+
+	/**
+	 * Ordinals of the items with one trigram, in ascending order, kept in
+	 * blocks of at most BLOCK_SIZE ordinals. A copy shares the blocks,
+	 * and a shared block is copied before it is changed.
+	 */
+	private static class Postings {
+		int[][] blocks = new int[1][];
+		int[] blockSizes = new int[1];
+
+		// epoch each block was created or copied in
+		int[] blockEpochs = new int[1];
+		int blockCount;
+
+		// number of ordinals
+		int size;
+
+		// epoch the block table was created or copied in
+		final int epoch;
+
+		Postings(int epoch) {
+			this.epoch = epoch;
+		}
+
+		Postings copy(int epoch) {
+			Postings copy = new Postings(epoch);
+			copy.blocks = blocks.clone();
+			copy.blockSizes = blockSizes.clone();
+			copy.blockEpochs = blockEpochs.clone();
+			copy.blockCount = blockCount;
+			copy.size = size;
+			return copy;
+		}
+
+		/**
+		 * Adds an ordinal unless it is already there
+		 * @param ordinal - ordinal to add
+		 * @param epoch - current epoch of the index
+		 */
+		void insert(int ordinal, int epoch) {
+			int block = findBlock(ordinal);
+			if (block < 0) {
+				// appending, the common case, starts a block only when the last one is full
+				if (blockCount == 0 || blockSizes[blockCount - 1] == BLOCK_SIZE) {
+					addBlock(blockCount, new int[INITIAL_BLOCK_CAPACITY], 0, epoch);
+				}
+				block = blockCount - 1;
+			}
+
+			int pos = Arrays.binarySearch(blocks[block], 0, blockSizes[block], ordinal);
+			if (pos >= 0) return;
+			pos = -pos - 1;
+
+			if (blockSizes[block] == BLOCK_SIZE) {
+				// split the block, the ordinal goes into the half that covers it
+				int half = BLOCK_SIZE / 2;
+				int[] upper = new int[BLOCK_SIZE];
+				System.arraycopy(blocks[block], half, upper, 0, BLOCK_SIZE - half);
+				int[] lower = Arrays.copyOf(blocks[block], BLOCK_SIZE);
+				blocks[block] = lower;
+				blockSizes[block] = half;
+				blockEpochs[block] = epoch;
+				addBlock(block + 1, upper, BLOCK_SIZE - half, epoch);
+				if (pos > half) {
+					block++;
+					pos -= half;
+				}
+			}
+
+			int[] values = writableBlock(block, epoch, blockSizes[block] + 1);
+			System.arraycopy(values, pos, values, pos + 1, blockSizes[block] - pos);
+			values[pos] = ordinal;
+			blockSizes[block]++;
+			size++;
+		}
+
+		/**
+		 * Removes an ordinal the postings hold, an emptied block is dropped
+		 * @param ordinal - ordinal to remove
+		 * @param epoch - current epoch of the index
+		 */
+		void remove(int ordinal, int epoch) {
+			int block = findBlock(ordinal);
+			int pos = Arrays.binarySearch(blocks[block], 0, blockSizes[block], ordinal);
+			if (blockSizes[block] == 1) {
+				blockCount--;
+				System.arraycopy(blocks, block + 1, blocks, block, blockCount - block);
+				System.arraycopy(blockSizes, block + 1, blockSizes, block, blockCount - block);
+				System.arraycopy(blockEpochs, block + 1, blockEpochs, block, blockCount - block);
+				blocks[blockCount] = null;
+			} else {
+				int[] values = writableBlock(block, epoch, 0);
+				System.arraycopy(values, pos + 1, values, pos, blockSizes[block] - pos - 1);
+				blockSizes[block]--;
+			}
+			size--;
+		}
+
+		/**
+		 * Tells if an ordinal is in the postings
+		 */
+		boolean contains(int ordinal) {
+			int block = findBlock(ordinal);
+			return block >= 0 && Arrays.binarySearch(blocks[block], 0, blockSizes[block], ordinal) >= 0;
+		}
+
+		/**
+		 * Copies the ordinals below a limit into an array
+		 */
+		int[] toArray(int limit) {
+			int[] ordinals = new int[size];
+			int count = 0;
+			for (int block = 0; block < blockCount; block++) {
+				for (int i = 0; i < blockSizes[block] && blocks[block][i] < limit; i++) {
+					ordinals[count++] = blocks[block][i];
+				}
+			}
+			return count == size ? ordinals : Arrays.copyOf(ordinals, count);
+		}
+
+		/**
+		 * Finds the block an ordinal belongs in
+		 * @return index of the block, or -1 if the ordinal is larger than every ordinal here
+		 */
+		private int findBlock(int ordinal) {
+			if (blockCount == 0 || ordinal > blocks[blockCount - 1][blockSizes[blockCount - 1] - 1]) return -1;
+
+			// last block whose first ordinal is not larger than the ordinal
+			int lo = 0;
+			int hi = blockCount - 1;
+			while (lo < hi) {
+				int mid = (lo + hi + 1) >>> 1;
+				if (blocks[mid][0] <= ordinal) {
+					lo = mid;
+				} else {
+					hi = mid - 1;
+				}
+			}
+			return lo;
+		}
+
+		private void addBlock(int at, int[] values, int size, int epoch) {
+			if (blockCount == blocks.length) {
+				blocks = Arrays.copyOf(blocks, blockCount * 2);
+				blockSizes = Arrays.copyOf(blockSizes, blockCount * 2);
+				blockEpochs = Arrays.copyOf(blockEpochs, blockCount * 2);
+			}
+			System.arraycopy(blocks, at, blocks, at + 1, blockCount - at);
+			System.arraycopy(blockSizes, at, blockSizes, at + 1, blockCount - at);
+			System.arraycopy(blockEpochs, at, blockEpochs, at + 1, blockCount - at);
+			blocks[at] = values;
+			blockSizes[at] = size;
+			blockEpochs[at] = epoch;
+			blockCount++;
+		}
+
+		private int[] writableBlock(int block, int epoch, int capacity) {
+			if (blockEpochs[block] != epoch || blocks[block].length < capacity) {
+				int length = blocks[block].length < capacity ? Math.min(BLOCK_SIZE, blocks[block].length * 2) : blocks[block].length;
+				blocks[block] = Arrays.copyOf(blocks[block], length);
+				blockEpochs[block] = epoch;
+			}
+			return blocks[block];
+		}
+	} // End of class Postings
+}